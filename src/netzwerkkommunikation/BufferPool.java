@@ -0,0 +1,229 @@
+package netzwerkkommunikation;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Pool wiederverwendbarer Puffer für den Empfang. Die Puffer werden in
+ * Größenklassen (Zweierpotenzen ab {@value #KLEINSTE} Bytes) verwaltet; größere
+ * Anforderungen werden ohne Pool erfüllt. Die freien Puffer liegen in
+ * Streifen, die nach dem Thread gewählt werden, sodass sich Threads nur selten
+ * um dieselbe Sperre streiten; ein Puffer darf in einem anderen Thread
+ * zurückgegeben werden, als er ausgeliehen wurde.
+ *
+ * Mit eingeschalteter Leckprüfung merkt sich der Pool zu jedem ausgeliehenen
+ * Puffer die Stelle der Ausleihe. {@link #meldeLecks()} gibt alle noch nicht
+ * zurückgegebenen Puffer mit dieser Stelle aus, doppelte Rückgaben dieser
+ * Puffer werden sofort gemeldet.
+ *
+ * @author Jochen Schmitt
+ */
+public final class BufferPool {
+
+    /**
+     * Größe der kleinsten Größenklasse in Bytes
+     */
+    public static final int KLEINSTE = 1024;
+
+    private final int groesste;
+    // Anzahl eine Zweierpotenz
+    private final Streifen[] streifen;
+    private volatile boolean leckpruefung = false;
+    // nur bei Leckprüfung: ausgeliehene Puffer mit der Stelle der Ausleihe
+    // und zurückgegebene, die noch in einem Streifen liegen; durch ausleihen
+    // gesperrt
+    private final Map<ByteBuffer, Throwable> ausleihen = new IdentityHashMap<ByteBuffer, Throwable>();
+    private final Map<ByteBuffer, Boolean> zurueckgegeben = new IdentityHashMap<ByteBuffer, Boolean>();
+
+    /**
+     * @param groesste größte vom Pool verwaltete Puffergröße in Bytes, wird
+     * auf eine Zweierpotenz aufgerundet
+     * @param maxFrei höchstens aufbewahrte freie Puffer je Größenklasse, auf
+     * die Streifen verteilt
+     */
+    public BufferPool(int groesste, int maxFrei) {
+        int klassen = klasse(Math.max(groesste, KLEINSTE)) + 1;
+        this.groesste = KLEINSTE << (klassen - 1);
+        int anzahl = 1;
+        while (anzahl < 2 * Runtime.getRuntime().availableProcessors()) {
+            anzahl <<= 1;
+        }
+        streifen = new Streifen[anzahl];
+        for (int i = 0; i < anzahl; i++) {
+            streifen[i] = new Streifen(klassen, (maxFrei + anzahl - 1) / anzahl);
+        }
+    }
+
+    /**
+     * Leiht einen Puffer aus, der mindestens die gewünschte Größe hat
+     *
+     * @param groesse benötigte Anzahl Bytes
+     * @return leerer Puffer mit position 0 und limit groesse
+     */
+    public ByteBuffer ausleihen(int groesse) {
+        if (groesse > groesste) {
+            return ByteBuffer.allocate(groesse);
+        }
+        int klasse = klasse(groesse);
+        ByteBuffer puffer = streifen().nehmen(klasse);
+        if (puffer == null) {
+            puffer = ByteBuffer.allocate(KLEINSTE << klasse);
+        }
+        if (leckpruefung) {
+            Throwable stelle = new Throwable("Puffer ausgeliehen");
+            synchronized (ausleihen) {
+                zurueckgegeben.remove(puffer);
+                ausleihen.put(puffer, stelle);
+            }
+        }
+        puffer.clear();
+        puffer.limit(groesse);
+        return puffer;
+    }
+
+    /**
+     * Gibt einen ausgeliehenen Puffer zurück; er darf danach nicht mehr
+     * benutzt werden. Puffer, die nicht aus dem Pool stammen, werden
+     * ignoriert; mit Leckprüfung wird die doppelte Rückgabe eines Puffers
+     * gemeldet, der während der Prüfung ausgeliehen wurde.
+     *
+     * @param puffer zurückzugebender Puffer
+     */
+    public void zurueckgeben(ByteBuffer puffer) {
+        int kapazitaet = puffer.capacity();
+        if (kapazitaet > groesste || kapazitaet < KLEINSTE || Integer.bitCount(kapazitaet) != 1) {
+            return;
+        }
+        if (leckpruefung) {
+            synchronized (ausleihen) {
+                if (zurueckgegeben.containsKey(puffer)) {
+                    new Throwable("Puffer doppelt zurückgegeben").printStackTrace(System.out);
+                    return;
+                }
+                // vor dem Einschalten ausgeliehene Puffer sind nicht erfasst
+                if (ausleihen.remove(puffer) != null) {
+                    zurueckgegeben.put(puffer, Boolean.TRUE);
+                }
+            }
+        }
+        if (!streifen().ablegen(klasse(kapazitaet), puffer) && leckpruefung) {
+            synchronized (ausleihen) {
+                zurueckgegeben.remove(puffer);
+            }
+        }
+    }
+
+    /**
+     * @return Anzahl der ausgeliehenen, noch nicht zurückgegebenen Puffer
+     */
+    public int verliehen() {
+        int summe = 0;
+        for (Streifen s : streifen) {
+            summe += s.verliehen();
+        }
+        return summe;
+    }
+
+    /**
+     * Schaltet die Leckprüfung ein oder aus; sie kostet je Ausleihe einen
+     * Stacktrace und ist daher für die Fehlersuche gedacht. Erfasst werden nur
+     * Puffer, die nach dem Einschalten ausgeliehen werden.
+     *
+     * @param aktiv true zum Einschalten
+     */
+    public void setzeLeckpruefung(boolean aktiv) {
+        synchronized (ausleihen) {
+            leckpruefung = aktiv;
+            if (!aktiv) {
+                ausleihen.clear();
+                zurueckgegeben.clear();
+            }
+        }
+    }
+
+    /**
+     * @return true, wenn die Leckprüfung eingeschaltet ist
+     */
+    public boolean istLeckpruefung() {
+        return leckpruefung;
+    }
+
+    /**
+     * Gibt für jeden noch ausgeliehenen Puffer die Stelle der Ausleihe aus
+     *
+     * @return Anzahl der gemeldeten Puffer, 0 ohne Leckprüfung
+     */
+    public int meldeLecks() {
+        synchronized (ausleihen) {
+            for (Throwable stelle : ausleihen.values()) {
+                stelle.printStackTrace(System.out);
+            }
+            return ausleihen.size();
+        }
+    }
+
+    /**
+     * @return Streifen des aufrufenden Threads
+     */
+    private Streifen streifen() {
+        return streifen[(int) Thread.currentThread().getId() & (streifen.length - 1)];
+    }
+
+    /**
+     * @return Index der kleinsten Größenklasse, die groesse Bytes aufnimmt
+     */
+    private static int klasse(int groesse) {
+        if (groesse <= KLEINSTE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(groesse - 1) - 10;
+    }
+
+    /**
+     * Freie Puffer eines Streifens, je Größenklasse ein Stapel
+     */
+    private static final class Streifen {
+
+        private final ByteBuffer[][] frei;
+        private final int[] anzahlFrei;
+        // Ausleihen minus Rückgaben in diesem Streifen, über alle Streifen
+        // die Anzahl der verliehenen Puffer
+        private int verliehen = 0;
+
+        Streifen(int klassen, int maxFrei) {
+            frei = new ByteBuffer[klassen][maxFrei];
+            anzahlFrei = new int[klassen];
+        }
+
+        /**
+         * @return freier Puffer der Größenklasse oder null
+         */
+        synchronized ByteBuffer nehmen(int klasse) {
+            verliehen++;
+            if (anzahlFrei[klasse] == 0) {
+                return null;
+            }
+            ByteBuffer puffer = frei[klasse][--anzahlFrei[klasse]];
+            frei[klasse][anzahlFrei[klasse]] = null;
+            return puffer;
+        }
+
+        /**
+         * @return false, wenn der Stapel voll ist und der Puffer verworfen
+         * wird
+         */
+        synchronized boolean ablegen(int klasse, ByteBuffer puffer) {
+            verliehen--;
+            if (anzahlFrei[klasse] == frei[klasse].length) {
+                return false;
+            }
+            frei[klasse][anzahlFrei[klasse]++] = puffer;
+            return true;
+        }
+
+        synchronized int verliehen() {
+            return verliehen;
+        }
+    }
+}
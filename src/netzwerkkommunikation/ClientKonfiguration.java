@@ -0,0 +1,130 @@
+package netzwerkkommunikation;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Netzwerkeinstellungen eines {@link NetworkClient}: lokale Adresse,
+ * Zeitlimit für den Verbindungsaufbau, Socketoptionen und die Größe des
+ * Lesepuffers. Die Methoden setzen jeweils einen Wert und liefern die
+ * Konfiguration zurück, sodass sich Aufrufe verketten lassen; ein Wert von 0
+ * bedeutet die Vorgabe des Betriebssystems.
+ *
+ * Die Suche nach Servern ist für alle Clients einer JVM gemeinsam und wird
+ * über {@link Discovery} eingestellt.
+ *
+ * @author Jochen Schmitt
+ */
+public final class ClientKonfiguration {
+
+    private InetAddress lokaleAdresse;
+    private int verbindungsZeitlimit = 0;
+    private int empfangspuffer = 0;
+    private int sendepuffer = 0;
+    private boolean tcpNoDelay = false;
+    private int lesepuffer = 8192;
+
+    /**
+     * @return unabhängige Kopie dieser Konfiguration
+     */
+    public ClientKonfiguration kopie() {
+        ClientKonfiguration kopie = new ClientKonfiguration();
+        kopie.lokaleAdresse = lokaleAdresse;
+        kopie.verbindungsZeitlimit = verbindungsZeitlimit;
+        kopie.empfangspuffer = empfangspuffer;
+        kopie.sendepuffer = sendepuffer;
+        kopie.tcpNoDelay = tcpNoDelay;
+        kopie.lesepuffer = lesepuffer;
+        return kopie;
+    }
+
+    /**
+     * @param adresse lokale Schnittstelle für die Verbindung zum Server, null
+     * für die Wahl des Betriebssystems (Standard)
+     * @return diese Konfiguration
+     */
+    public ClientKonfiguration setzeLokaleAdresse(InetAddress adresse) {
+        this.lokaleAdresse = adresse;
+        return this;
+    }
+
+    /**
+     * @param millis so lange wird höchstens auf den Aufbau einer Verbindung
+     * gewartet, danach gilt die Adresse als nicht erreichbar; 0 ohne eigenes
+     * Zeitlimit (Standard)
+     * @return diese Konfiguration
+     */
+    public ClientKonfiguration setzeVerbindungsZeitlimit(int millis) {
+        this.verbindungsZeitlimit = Math.max(0, millis);
+        return this;
+    }
+
+    /**
+     * Legt die Socketpuffer fest (SO_RCVBUF, SO_SNDBUF); sie werden vor dem
+     * Verbindungsaufbau gesetzt
+     *
+     * @param empfangspuffer Empfangspuffer in Bytes, 0 für die Vorgabe
+     * @param sendepuffer Sendepuffer in Bytes, 0 für die Vorgabe
+     * @return diese Konfiguration
+     */
+    public ClientKonfiguration setzeSocketpuffer(int empfangspuffer, int sendepuffer) {
+        this.empfangspuffer = empfangspuffer;
+        this.sendepuffer = sendepuffer;
+        return this;
+    }
+
+    /**
+     * @param tcpNoDelay true, um den Nagle-Algorithmus abzuschalten
+     * (Standard false)
+     * @return diese Konfiguration
+     */
+    public ClientKonfiguration setzeTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    /**
+     * @param groesse Lesepuffer für den Empfang vom Server in Bytes
+     * (Standard 8 KB)
+     * @return diese Konfiguration
+     */
+    public ClientKonfiguration setzeLesepuffer(int groesse) {
+        this.lesepuffer = Math.max(256, groesse);
+        return this;
+    }
+
+    int lesepuffer() {
+        return lesepuffer;
+    }
+
+    /**
+     * Baut mit den eingestellten Optionen eine Verbindung auf
+     *
+     * @param ziel Adresse und Port des Servers
+     * @return verbundener Socket
+     */
+    Socket verbinden(InetSocketAddress ziel) throws IOException {
+        Socket socket = new Socket();
+        try {
+            if (empfangspuffer > 0) {
+                socket.setReceiveBufferSize(empfangspuffer);
+            }
+            if (sendepuffer > 0) {
+                socket.setSendBufferSize(sendepuffer);
+            }
+            if (tcpNoDelay) {
+                socket.setTcpNoDelay(true);
+            }
+            if (lokaleAdresse != null) {
+                socket.bind(new InetSocketAddress(lokaleAdresse, 0));
+            }
+            socket.connect(ziel, verbindungsZeitlimit);
+            return socket;
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package netzwerkkommunikation;
+
+/**
+ * Momentaufnahme der Kennzahlen einer Verbindung des {@link MultiServer}
+ *
+ * @author Jochen Schmitt
+ */
+public final class ClientMetrik {
+
+    private final long id;
+    private final String name;
+    private final long nachrichtenEin;
+    private final long nachrichtenAus;
+    private final long bytesEin;
+    private final long bytesAus;
+    private final int warteschlange;
+
+    ClientMetrik(long id, String name, long nachrichtenEin, long nachrichtenAus,
+            long bytesEin, long bytesAus, int warteschlange) {
+        this.id = id;
+        this.name = name;
+        this.nachrichtenEin = nachrichtenEin;
+        this.nachrichtenAus = nachrichtenAus;
+        this.bytesEin = bytesEin;
+        this.bytesAus = bytesAus;
+        this.warteschlange = warteschlange;
+    }
+
+    /**
+     * @return feste Id der Verbindung
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return Name des Clients
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long getNachrichtenEin() {
+        return nachrichtenEin;
+    }
+
+    public long getNachrichtenAus() {
+        return nachrichtenAus;
+    }
+
+    public long getBytesEin() {
+        return bytesEin;
+    }
+
+    public long getBytesAus() {
+        return bytesAus;
+    }
+
+    /**
+     * @return wartende Nachrichten der Ausgangswarteschlange
+     */
+    public int getWarteschlange() {
+        return warteschlange;
+    }
+}
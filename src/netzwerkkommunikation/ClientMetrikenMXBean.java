@@ -0,0 +1,68 @@
+package netzwerkkommunikation;
+
+/**
+ * Kennzahlen eines {@link NetworkClient} über alle seine Verbindungen, über
+ * JMX abrufbar oder über eine eigene {@link MetrikRegistry} weiterzugeben. Die
+ * Dauer der Listeneraufrufe wird für jede
+ * {@value LatenzHistogramm#STICHPROBE}. Nachricht gemessen.
+ *
+ * @author Jochen Schmitt
+ */
+public interface ClientMetrikenMXBean {
+
+    /**
+     * @return true, solange eine Verbindung zum Server besteht
+     */
+    boolean isVerbunden();
+
+    /**
+     * @return Anzahl der vom Server empfangenen Zeilen und Frames
+     */
+    long getNachrichtenEin();
+
+    /**
+     * @return Anzahl der an den Server gesendeten Nachrichten
+     */
+    long getNachrichtenAus();
+
+    /**
+     * @return Anzahl der vom Server empfangenen Bytes
+     */
+    long getBytesEin();
+
+    /**
+     * @return Anzahl der an den Server gesendeten Bytes vor der Pufferung
+     */
+    long getBytesAus();
+
+    /**
+     * @return Anzahl der Nachrichten, die nicht gesendet werden konnten
+     */
+    long getSendefehler();
+
+    /**
+     * @return Anzahl der wiederhergestellten Verbindungen
+     */
+    long getWiederverbindungen();
+
+    /**
+     * @return Anzahl der unbestätigten Nachrichten, die wegen eines vollen
+     * Wiederholungspuffers nicht mehr wiederholt werden können
+     */
+    long getNichtWiederholbar();
+
+    /**
+     * @return Anzahl der gemessenen Aufrufe des Listeners
+     */
+    long getDispatchAnzahl();
+
+    /**
+     * @return mittlere Dauer eines Listeneraufrufs in µs
+     */
+    double getDispatchMittelMikros();
+
+    /**
+     * @return 99. Perzentil der Dauer eines Listeneraufrufs in µs
+     */
+    double getDispatchP99Mikros();
+}
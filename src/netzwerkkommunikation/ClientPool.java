@@ -0,0 +1,192 @@
+package netzwerkkommunikation;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Mehrere Verbindungen unter demselben Clientnamen zum selben MultiServer.
+ * Nachrichten werden nach einem Schlüssel auf die Verbindungen verteilt:
+ * Nachrichten mit gleichem Schlüssel gehen immer über dieselbe Verbindung und
+ * kommen daher in der gesendeten Reihenfolge an, zwischen verschiedenen
+ * Schlüsseln gibt es keine Reihenfolge. Ohne Schlüssel dient der sendende
+ * Thread als Schlüssel. Jede Verbindung nutzt eine eigene Sendewarteschlange
+ * (siehe {@link NetworkClient#setzeSendewarteschlange(int)}).
+ *
+ * Der Server führt alle Verbindungen unter dem gemeinsamen Namen; Nachrichten
+ * an diesen Namen sowie Themen erhält die erste Verbindung.
+ *
+ * @author Jochen Schmitt
+ */
+public class ClientPool {
+
+    private final NetworkClient[] verbindungen;
+
+    /**
+     * Konstruktor zum Erstellen des Pools; die Verbindungen müssen mit der
+     * Methode verbindeMitServer() aufgebaut werden
+     *
+     * @param clientName frei gewählter Name des Clients
+     * @param serverName Name des zu verbindenden Servers
+     * @param anzahl Anzahl der Verbindungen
+     * @param kapazitaet Kapazität der Sendewarteschlange je Verbindung
+     */
+    public ClientPool(String clientName, String serverName, int anzahl, int kapazitaet) {
+        if (anzahl < 1) {
+            throw new IllegalArgumentException("mindestens eine Verbindung: " + anzahl);
+        }
+        verbindungen = new NetworkClient[anzahl];
+        for (int i = 0; i < anzahl; i++) {
+            verbindungen[i] = new NetworkClient(clientName, serverName);
+            verbindungen[i].setzeSendewarteschlange(kapazitaet);
+        }
+    }
+
+    /**
+     * Legt den Listener für die Nachrichten des Servers auf allen Verbindungen
+     * fest
+     */
+    public void setzeListener(NetworkClient.ClientListener clientListener) {
+        for (NetworkClient verbindung : verbindungen) {
+            verbindung.setzeListener(clientListener);
+        }
+    }
+
+    /**
+     * Legt fest, ob beim nächsten Verbindungsaufbau der Binärmodus
+     * ausgehandelt wird
+     */
+    public void setzeBinaermodus(boolean binaer) {
+        for (NetworkClient verbindung : verbindungen) {
+            verbindung.setzeBinaermodus(binaer);
+        }
+    }
+
+    /**
+     * Legt die Bündelung ausgehender Nachrichten aller Verbindungen fest
+     * (siehe {@link NetworkClient#setzeSchreibbuendelung(long, int)})
+     */
+    public void setzeSchreibbuendelung(long fensterMikros, int budget) {
+        for (NetworkClient verbindung : verbindungen) {
+            verbindung.setzeSchreibbuendelung(fensterMikros, budget);
+        }
+    }
+
+    /**
+     * Baut alle Verbindungen auf; der Server wird nur einmal gesucht
+     *
+     * @return true, wenn alle Verbindungen aufgebaut wurden
+     */
+    public boolean verbindeMitServer() {
+        boolean alle = true;
+        for (NetworkClient verbindung : verbindungen) {
+            alle &= verbindung.verbindeMitServer();
+        }
+        return alle;
+    }
+
+    /**
+     * Sendet eine Nachricht über die Verbindung des sendenden Threads
+     *
+     * @return true beim erfolgreichen Einreihen der Nachricht
+     */
+    public boolean sendeNachricht(String message) {
+        return waehle(Thread.currentThread().getId()).sendeNachricht(message);
+    }
+
+    /**
+     * Sendet eine Nachricht über die Verbindung des Schlüssels
+     *
+     * @param schluessel Nachrichten mit gleichem Schlüssel bleiben in ihrer
+     * Reihenfolge
+     * @param message zu verschickende Nachricht
+     * @return true beim erfolgreichen Einreihen der Nachricht
+     */
+    public boolean sendeNachricht(long schluessel, String message) {
+        return waehle(schluessel).sendeNachricht(message);
+    }
+
+    /**
+     * Schickt eine Anfrage über die Verbindung des sendenden Threads (siehe
+     * {@link NetworkClient#anfrage(String)})
+     *
+     * @return Future mit dem Text der Antwort
+     */
+    public CompletableFuture<String> anfrage(String text) {
+        return waehle(Thread.currentThread().getId()).anfrage(text);
+    }
+
+    /**
+     * Sendet eine Binärnachricht über die Verbindung des Schlüssels, nur im
+     * Binärmodus möglich
+     *
+     * @param schluessel Nachrichten mit gleichem Schlüssel bleiben in ihrer
+     * Reihenfolge
+     * @param daten zu verschickende Bytes zwischen position und limit
+     * @return true beim erfolgreichen Einreihen der Nachricht
+     */
+    public boolean sendeDaten(long schluessel, ByteBuffer daten) {
+        return waehle(schluessel).sendeDaten(daten);
+    }
+
+    /**
+     * Abonniert ein Thema über die erste Verbindung, damit jede Nachricht nur
+     * einmal ankommt
+     */
+    public boolean abonniere(String thema) {
+        return verbindungen[0].abonniere(thema);
+    }
+
+    /**
+     * Kündigt das Abonnement eines Themas
+     */
+    public boolean kuendige(String thema) {
+        return verbindungen[0].kuendige(thema);
+    }
+
+    /**
+     * Wartet, bis alle Verbindungen ihre eingereihten Nachrichten geschrieben
+     * haben
+     *
+     * @return true beim erfolgreichen Versand auf allen Verbindungen
+     */
+    public boolean leereAusgang() {
+        boolean alle = true;
+        for (NetworkClient verbindung : verbindungen) {
+            alle &= verbindung.leereAusgang();
+        }
+        return alle;
+    }
+
+    /**
+     * Trennt alle Verbindungen, nachdem die eingereihten Nachrichten
+     * geschrieben sind
+     */
+    public void trenneServer() {
+        for (NetworkClient verbindung : verbindungen) {
+            verbindung.trenneServer();
+        }
+    }
+
+    /**
+     * @return Anzahl der Verbindungen
+     */
+    public int gibAnzahl() {
+        return verbindungen.length;
+    }
+
+    /**
+     * @param index Nummer der Verbindung
+     * @return Verbindung, z.B. für ihre Kennzahlen
+     */
+    public NetworkClient gibVerbindung(int index) {
+        return verbindungen[index];
+    }
+
+    private NetworkClient waehle(long schluessel) {
+        if (verbindungen.length == 1) {
+            return verbindungen[0];
+        }
+        long h = schluessel * 0x9E3779B97F4A7C15L;
+        return verbindungen[(int) ((h >>> 32) % verbindungen.length)];
+    }
+}
@@ -0,0 +1,122 @@
+package netzwerkkommunikation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Verzeichnis der verbundenen Clients eines MultiServers. Die Suche nach einem
+ * Namen (ohne Beachtung der Groß- und Kleinschreibung) kommt ohne Sperren aus
+ * und ist unabhängig von der Anzahl der Clients. Mehrere Verbindungen mit
+ * gleichem Namen sind erlaubt, gefunden wird die zuerst registrierte.
+ * Zusätzlich ist jede Verbindung über ihre unveränderliche Client-Id auffindbar.
+ * In den Namensindex kommt eine Verbindung erst mit ihrem ersten Namen;
+ * unbenannte Verbindungen teilen sich so keinen Eintrag, und die Aufnahme
+ * neuer Verbindungen kostet unabhängig von ihrer Zahl gleich viel.
+ *
+ * @author Jochen Schmitt
+ */
+final class ClientRegistry {
+
+    private final ConcurrentHashMap<Long, Connection> nachId = new ConcurrentHashMap<Long, Connection>();
+    // Name -> Verbindungen mit diesem Namen; die Arrays werden nie verändert,
+    // sondern per Compare-and-Set ersetzt
+    private final ConcurrentHashMap<String, Connection[]> nachName = new ConcurrentHashMap<String, Connection[]>();
+
+    /**
+     * Nimmt eine neue, noch unbenannte Verbindung auf; unter einem Namen
+     * auffindbar wird sie erst mit {@link #umbenennen(Connection, String)}
+     */
+    void hinzufuegen(Connection connection) {
+        nachId.put(connection.getClientId(), connection);
+    }
+
+    /**
+     * Entfernt eine Verbindung
+     *
+     * @return true, wenn die Verbindung registriert war
+     */
+    boolean entfernen(Connection connection) {
+        synchronized (connection) {
+            if (!nachId.remove(connection.getClientId(), connection)) {
+                return false;
+            }
+            // unbenannte Verbindungen stehen nicht im Namensindex
+            CowArrays.austragen(nachName, schluessel(connection.getClientName()), connection);
+            return true;
+        }
+    }
+
+    /**
+     * Ändert den Namen einer Verbindung und ordnet sie im Namensindex neu
+     * ein, beim ersten Namen erstmals
+     */
+    void umbenennen(Connection connection, String neuerName) {
+        synchronized (connection) {
+            String alterSchluessel = schluessel(connection.getClientName());
+            connection.setClientName(neuerName);
+            if (nachId.get(connection.getClientId()) == connection) {
+                CowArrays.austragen(nachName, alterSchluessel, connection);
+                CowArrays.eintragen(nachName, schluessel(neuerName), connection);
+            }
+        }
+    }
+
+    /**
+     * Sucht die Verbindung zu einem Client
+     *
+     * @param clientName Name des Clients
+     * @return Verbindung oder null, wenn kein Client dieses Namens verbunden
+     * ist
+     */
+    Connection suche(String clientName) {
+        Connection[] treffer = nachName.get(schluessel(clientName));
+        return treffer == null ? null : treffer[0];
+    }
+
+    /**
+     * Sucht die Verbindung zu einer Client-Id
+     *
+     * @return Verbindung oder null, wenn die Verbindung nicht mehr besteht
+     */
+    Connection suche(long clientId) {
+        return nachId.get(clientId);
+    }
+
+    /**
+     * @return Sicht auf alle Verbindungen, beim Durchlaufen schwach konsistent
+     */
+    Collection<Connection> alle() {
+        return Collections.unmodifiableCollection(nachId.values());
+    }
+
+    int anzahl() {
+        return nachId.size();
+    }
+
+    /**
+     * Entfernt alle Verbindungen
+     *
+     * @return die entfernten Verbindungen
+     */
+    List<Connection> leeren() {
+        List<Connection> entfernt = new ArrayList<Connection>();
+        for (Connection connection : nachId.values()) {
+            if (entfernen(connection)) {
+                entfernt.add(connection);
+            }
+        }
+        return entfernt;
+    }
+
+    /**
+     * Schlüssel für den Namensindex; entspricht dem Vergleich mit
+     * equalsIgnoreCase unabhängig von der eingestellten Sprache
+     */
+    static String schluessel(String clientName) {
+        return clientName.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+}
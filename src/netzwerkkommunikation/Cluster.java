@@ -0,0 +1,365 @@
+package netzwerkkommunikation;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Verbindet mehrere MultiServer gleichen Namens zu einem Cluster. Jeder
+ * Knoten hält zu jedem anderen Knoten eine ausgehende Verbindung über dessen
+ * TCP-Port, auf der er nur sendet; empfangen wird über die eingehenden
+ * Verbindungen der anderen Knoten, die der Server wie Clients annimmt und an
+ * ihrem ersten Frame erkennt (siehe {@link Protocol#NODE}).
+ *
+ * Jeder Knoten meldet den anderen die Namen seiner Clients. Daraus entsteht
+ * auf jedem Knoten ein Verzeichnis, bei welchem Knoten ein Client verbunden
+ * ist: Eine Nachricht an einen Client eines anderen Knotens geht als ein
+ * Frame an genau diesen Knoten, ein Broadcast als ein Frame je Knoten, den
+ * jeder Knoten an seine eigenen Clients verteilt. Empfangene Nachrichten
+ * werden nicht erneut weitergeleitet.
+ *
+ * Die ausgehenden Verbindungen verwenden die {@link OutboundQueue} der
+ * Clients; ein Broadcast wird für alle Knoten nur einmal kodiert. Bricht eine
+ * Verbindung ab, baut ein eigener Thread sie mit wachsenden Abständen neu auf
+ * und überträgt zuerst alle Namen der eigenen Clients; bis dahin an diesen
+ * Knoten gerichtete Nachrichten werden abgelehnt.
+ *
+ * @author Jochen Schmitt
+ */
+final class Cluster {
+
+    /**
+     * höchstens so viele Nachrichten warten je Knoten auf den Versand
+     */
+    private static final int KAPAZITAET = 100000;
+    /**
+     * Bytebudget je Schreibvorgang
+     */
+    private static final int BUDGET = 64 * 1024;
+    /**
+     * erste und längste Wartezeit in ms zwischen zwei Verbindungsversuchen
+     */
+    private static final int VERBINDEN_AB = 100;
+    private static final int VERBINDEN_BIS = 5000;
+
+    private final String knotenName;
+    // ausgehende Verbindungen nach Knotenname
+    private final Map<String, Verbindung> ausgehend = new ConcurrentHashMap<String, Verbindung>();
+    // eingehende Verbindungen der anderen Knoten nach Knotenname
+    private final ConcurrentHashMap<String, Connection> eingehend = new ConcurrentHashMap<String, Connection>();
+    // Knoten der Clients anderer Knoten, nach Schlüssel des Clientnamens
+    private final ConcurrentHashMap<String, String> verzeichnis = new ConcurrentHashMap<String, String>();
+    // Namen der eigenen Clients, nach Schlüssel des Clientnamens
+    private final ConcurrentHashMap<String, String> lokal = new ConcurrentHashMap<String, String>();
+    private final LongAdder weitergeleitet = new LongAdder();
+
+    /**
+     * Startet die Verbindungen zu den anderen Knoten
+     *
+     * @param knotenName Name dieses Knotens
+     * @param knoten alle Knoten des Clusters mit ihrer TCP-Adresse, dieser
+     * Knoten darf enthalten sein
+     */
+    Cluster(String knotenName, Map<String, InetSocketAddress> knoten) {
+        this.knotenName = knotenName;
+        for (Map.Entry<String, InetSocketAddress> eintrag : knoten.entrySet()) {
+            if (!eintrag.getKey().equals(knotenName)) {
+                Verbindung verbindung = new Verbindung(eintrag.getKey(), eintrag.getValue());
+                ausgehend.put(eintrag.getKey(), verbindung);
+                verbindung.start();
+            }
+        }
+    }
+
+    /**
+     * Beendet alle Verbindungen zu anderen Knoten
+     */
+    void beenden() {
+        for (Verbindung verbindung : ausgehend.values()) {
+            verbindung.beenden();
+        }
+        for (Connection verbindung : eingehend.values()) {
+            verbindung.beenden();
+        }
+        eingehend.clear();
+        verzeichnis.clear();
+    }
+
+    /**
+     * Meldet einen eigenen Client bei allen anderen Knoten an
+     */
+    void angemeldet(String clientName) {
+        lokal.put(ClientRegistry.schluessel(clientName), clientName);
+        EncodedMessage nachricht = EncodedMessage.knoten(Protocol.JOIN, clientName);
+        for (Verbindung verbindung : ausgehend.values()) {
+            verbindung.melden(nachricht);
+        }
+    }
+
+    /**
+     * Meldet einen eigenen Client bei allen anderen Knoten ab
+     */
+    void abgemeldet(String clientName) {
+        lokal.remove(ClientRegistry.schluessel(clientName));
+        EncodedMessage nachricht = EncodedMessage.knoten(Protocol.LEAVE, clientName);
+        for (Verbindung verbindung : ausgehend.values()) {
+            verbindung.melden(nachricht);
+        }
+    }
+
+    /**
+     * Leitet eine Nachricht an den Knoten weiter, bei dem der Client
+     * verbunden ist
+     *
+     * @return true, wenn der Client bei einem anderen Knoten verbunden ist und
+     * die Nachricht angenommen wurde
+     */
+    boolean weiterleiten(String clientName, String message) {
+        String knoten = verzeichnis.get(ClientRegistry.schluessel(clientName));
+        Verbindung verbindung = knoten == null ? null : ausgehend.get(knoten);
+        if (verbindung == null) {
+            return false;
+        }
+        return verbindung.senden(EncodedMessage.knoten(Protocol.ROUTE, clientName + '\n' + message));
+    }
+
+    /**
+     * Leitet einen Broadcast einmal an jeden anderen Knoten weiter
+     */
+    void anAlle(String message) {
+        EncodedMessage nachricht = EncodedMessage.knoten(Protocol.BROADCAST, message);
+        for (Verbindung verbindung : ausgehend.values()) {
+            verbindung.senden(nachricht);
+        }
+    }
+
+    /**
+     * Übernimmt die eingehende Verbindung eines anderen Knotens; eine ältere
+     * Verbindung dieses Knotens wird beendet und seine bisherigen Clients
+     * vergessen, er überträgt sie neu
+     */
+    void knotenVerbunden(String knoten, Connection verbindung) {
+        Connection alt = eingehend.put(knoten, verbindung);
+        vergessen(knoten);
+        if (alt != null && alt != verbindung) {
+            alt.beenden();
+        }
+    }
+
+    /**
+     * Vergisst die Clients eines Knotens, dessen eingehende Verbindung beendet
+     * ist; auch mehrfach aufrufbar
+     */
+    void knotenGetrennt(String knoten, Connection verbindung) {
+        if (eingehend.remove(knoten, verbindung)) {
+            vergessen(knoten);
+        }
+    }
+
+    /**
+     * Trägt die Clients eines anderen Knotens ins Verzeichnis ein
+     *
+     * @param namen Clientnamen, getrennt durch Zeilenumbrüche
+     */
+    void eintragen(String knoten, String namen) {
+        int beginn = 0;
+        while (beginn < namen.length()) {
+            int ende = namen.indexOf('\n', beginn);
+            if (ende < 0) {
+                ende = namen.length();
+            }
+            if (ende > beginn) {
+                verzeichnis.put(ClientRegistry.schluessel(namen.substring(beginn, ende)), knoten);
+            }
+            beginn = ende + 1;
+        }
+    }
+
+    /**
+     * Trägt einen Client eines anderen Knotens aus dem Verzeichnis aus
+     */
+    void austragen(String knoten, String clientName) {
+        verzeichnis.remove(ClientRegistry.schluessel(clientName), knoten);
+    }
+
+    private void vergessen(String knoten) {
+        Iterator<String> knotenDerClients = verzeichnis.values().iterator();
+        while (knotenDerClients.hasNext()) {
+            if (knotenDerClients.next().equals(knoten)) {
+                knotenDerClients.remove();
+            }
+        }
+    }
+
+    /**
+     * @return Anzahl der bestehenden ausgehenden Verbindungen
+     */
+    int verbundeneKnoten() {
+        int anzahl = 0;
+        for (Verbindung verbindung : ausgehend.values()) {
+            if (verbindung.ausgang != null) {
+                anzahl++;
+            }
+        }
+        return anzahl;
+    }
+
+    /**
+     * @return Anzahl der an andere Knoten weitergeleiteten Nachrichten
+     */
+    long weitergeleitet() {
+        return weitergeleitet.sum();
+    }
+
+    /**
+     * Ausgehende Verbindung zu einem anderen Knoten. Der Thread baut die
+     * Verbindung auf und schreibt danach die Warteschlange; ist sie leer,
+     * ruht er, bis ein Sender ihn weckt.
+     */
+    private final class Verbindung extends Thread {
+
+        private final InetSocketAddress adresse;
+        // Warteschlange der bestehenden Verbindung, null ohne Verbindung
+        private volatile OutboundQueue ausgang;
+        private volatile SocketChannel kanal;
+        private volatile boolean aktiv = true;
+
+        private Verbindung(String knoten, InetSocketAddress adresse) {
+            super("Cluster-" + knoten);
+            this.adresse = adresse;
+            setDaemon(true);
+        }
+
+        /**
+         * Stellt eine Nachricht in die Warteschlange und weckt bei Bedarf den
+         * Thread
+         *
+         * @return false ohne Verbindung oder bei voller Warteschlange
+         */
+        boolean senden(EncodedMessage nachricht) {
+            OutboundQueue warteschlange = ausgang;
+            if (warteschlange == null
+                    || warteschlange.anhaengen(nachricht) != OutboundQueue.Ergebnis.ANGENOMMEN) {
+                return false;
+            }
+            weitergeleitet.increment();
+            if (warteschlange.planen()) {
+                LockSupport.unpark(this);
+            }
+            return true;
+        }
+
+        /**
+         * Sendet eine An- oder Abmeldung; gesperrt gegen die Übertragung
+         * aller Namen beim Verbindungsaufbau, damit keine Meldung verloren
+         * geht
+         */
+        synchronized void melden(EncodedMessage nachricht) {
+            senden(nachricht);
+        }
+
+        void beenden() {
+            aktiv = false;
+            LockSupport.unpark(this);
+            SocketChannel k = kanal;
+            if (k != null) {
+                try {
+                    // beendet auch einen blockierten Schreibvorgang; den
+                    // Kanal schließt der Thread
+                    k.shutdownOutput();
+                } catch (IOException ex) {
+                    // bereits geschlossen
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            long warten = VERBINDEN_AB;
+            while (aktiv) {
+                SocketChannel k = null;
+                try {
+                    k = SocketChannel.open();
+                    kanal = k;
+                    k.socket().setTcpNoDelay(true);
+                    k.socket().connect(adresse, VERBINDEN_BIS);
+                    OutboundQueue warteschlange = new OutboundQueue(KAPAZITAET, MultiServer.OverflowPolicy.DROP_NEWEST);
+                    warteschlange.planen();
+                    synchronized (this) {
+                        // Binärmodus ohne Bestätigung, Name des Knotens und
+                        // alle eigenen Clients vor allen weiteren Nachrichten
+                        warteschlange.anhaengen(EncodedMessage.BINAER_BESTAETIGUNG);
+                        warteschlange.anhaengen(EncodedMessage.knoten(Protocol.NODE, knotenName));
+                        StringBuilder namen = new StringBuilder();
+                        for (String name : lokal.values()) {
+                            namen.append(name).append('\n');
+                        }
+                        warteschlange.anhaengen(EncodedMessage.knoten(Protocol.JOIN, namen.toString()));
+                        ausgang = warteschlange;
+                    }
+                    warten = VERBINDEN_AB;
+                    schreiben(k, warteschlange);
+                } catch (IOException ex) {
+                    // Knoten nicht erreichbar oder Verbindung abgebrochen
+                }
+                ausgang = null;
+                if (k != null) {
+                    schliessen(k);
+                }
+                if (aktiv) {
+                    // zufällige Streuung, damit nicht alle Knoten gleichzeitig kommen
+                    LockSupport.parkNanos(this, (warten / 2 + ThreadLocalRandom.current().nextLong(warten / 2 + 1)) * 1000000L);
+                    warten = Math.min(warten * 2, VERBINDEN_BIS);
+                }
+            }
+        }
+
+        /**
+         * Schließt den Kanal; zuvor wird die ungelesene Bestätigung des
+         * Binärmodus verworfen, sonst bricht das Schließen die Verbindung mit
+         * einem Reset ab, statt sie geordnet zu beenden
+         */
+        private void schliessen(SocketChannel k) {
+            try {
+                if (k.isConnected()) {
+                    k.configureBlocking(false);
+                    ByteBuffer rest = ByteBuffer.allocate(64);
+                    while (k.read(rest) > 0) {
+                        rest.clear();
+                    }
+                }
+            } catch (IOException ex) {
+                // Verbindung bereits abgebrochen
+            }
+            try {
+                k.close();
+            } catch (IOException ex) {
+                // bereits geschlossen
+            }
+        }
+
+        /**
+         * Schreibt die Warteschlange, bis die Verbindung beendet wird
+         */
+        private void schreiben(SocketChannel k, OutboundQueue warteschlange) throws IOException {
+            while (aktiv) {
+                while (warteschlange.sammeln(BUDGET)) {
+                    // alle gesammelten Nachrichten in einem Aufruf
+                    do {
+                        k.write(warteschlange.stapel(), warteschlange.anfang(), warteschlange.laenge());
+                    } while (!warteschlange.geschrieben());
+                }
+                if (!warteschlange.fertig()) {
+                    LockSupport.park(this);
+                }
+            }
+        }
+    }
+}
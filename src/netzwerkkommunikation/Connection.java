@@ -0,0 +1,46 @@
+package netzwerkkommunikation;
+
+/**
+ * Gemeinsame Sicht auf eine Clientverbindung des MultiServers, unabhängig von
+ * der Betriebsart des Servers
+ *
+ * @author Jochen Schmitt
+ */
+interface Connection {
+
+    /**
+     * @return eindeutige Id der Verbindung, bleibt bei Umbenennungen erhalten
+     */
+    long getClientId();
+
+    String getClientName();
+
+    /**
+     * Setzt den Namen des Clients; Umbenennungen registrierter Verbindungen
+     * laufen über {@link ClientRegistry#umbenennen}
+     */
+    void setClientName(String clientName);
+
+    boolean sendMessage(String message);
+
+    /**
+     * Stellt eine Nachricht zum Versand ein. Die kodierte Form wird mit allen
+     * anderen Empfängern derselben Nachricht geteilt und nicht verändert.
+     *
+     * @param nachricht zu sendende Nachricht
+     * @param sofort true, um ein eingestelltes Schreibfenster zu überspringen
+     * @return true, wenn die Nachricht zum Versand angenommen wurde;
+     * Binärnachrichten nehmen nur Clients im Binärmodus an
+     */
+    boolean senden(EncodedMessage nachricht, boolean sofort);
+
+    /**
+     * @return true, wenn der Client den Binärmodus ausgehandelt hat
+     */
+    boolean istBinaer();
+
+    /**
+     * Beendet die Bearbeitung der Verbindung
+     */
+    void beenden();
+}
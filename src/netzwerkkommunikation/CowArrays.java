@@ -0,0 +1,76 @@
+package netzwerkkommunikation;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pflegt Indizes, die zu jedem Schlüssel ein unveränderliches Array von
+ * Verbindungen halten. Jede Änderung ersetzt das Array per Compare-and-Set;
+ * Leser sehen so immer ein vollständiges Array und werden nie blockiert.
+ * Leere Arrays werden nicht gehalten, der Schlüssel wird entfernt.
+ *
+ * @author Jochen Schmitt
+ */
+final class CowArrays {
+
+    private CowArrays() {
+    }
+
+    /**
+     * Hängt eine Verbindung an das Array eines Schlüssels an
+     */
+    static <K> void eintragen(ConcurrentHashMap<K, Connection[]> index, K schluessel, Connection connection) {
+        while (true) {
+            Connection[] alt = index.get(schluessel);
+            if (alt == null) {
+                if (index.putIfAbsent(schluessel, new Connection[]{connection}) == null) {
+                    return;
+                }
+            } else {
+                Connection[] neu = Arrays.copyOf(alt, alt.length + 1);
+                neu[alt.length] = connection;
+                if (index.replace(schluessel, alt, neu)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Entfernt eine Verbindung aus dem Array eines Schlüssels, sofern sie
+     * darin steht
+     */
+    static <K> void austragen(ConcurrentHashMap<K, Connection[]> index, K schluessel, Connection connection) {
+        while (true) {
+            Connection[] alt = index.get(schluessel);
+            int i = alt == null ? -1 : indexVon(alt, connection);
+            if (i < 0) {
+                return;
+            }
+            if (alt.length == 1) {
+                if (index.remove(schluessel, alt)) {
+                    return;
+                }
+            } else {
+                Connection[] neu = new Connection[alt.length - 1];
+                System.arraycopy(alt, 0, neu, 0, i);
+                System.arraycopy(alt, i + 1, neu, i, neu.length - i);
+                if (index.replace(schluessel, alt, neu)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Position der Verbindung (Vergleich auf Identität) oder -1
+     */
+    static int indexVon(Connection[] verbindungen, Connection connection) {
+        for (int i = 0; i < verbindungen.length; i++) {
+            if (verbindungen[i] == connection) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
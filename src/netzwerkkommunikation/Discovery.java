@@ -0,0 +1,558 @@
+package netzwerkkommunikation;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Suche nach Servern über UDP-Broadcast, gemeinsam für alle NetworkClients
+ * einer JVM. Gefundene Adressen werden je Servername für eine
+ * einstellbare Dauer zwischengespeichert; schlägt der Verbindungsaufbau zu
+ * einer Adresse fehl, wird sie vergessen. Gleichzeitige Suchen nach demselben
+ * Namen teilen sich eine einzige Anfrage, sodass auch viele gleichzeitig neu
+ * verbindende Clients nur wenige Broadcasts auslösen.
+ *
+ * Bleibt die Antwort aus, wird die Anfrage mit jeweils verdoppelter Wartezeit
+ * wiederholt; ein zufälliger Zuschlag verteilt die Wiederholungen vieler
+ * Clients. Nach der ersten Antwort werden noch kurz weitere Antworten
+ * gleichnamiger Server gesammelt.
+ *
+ * Jede Antwort enthält neben dem Namen den TCP-Port und die Last des Servers
+ * (Clients, wartende Nachrichten und sein Gewicht). Antworten mehrere
+ * gleichnamige Server, wählt die Suche nach {@link Auswahl} aus, mit welchem
+ * sich ein Client verbindet; die übrigen folgen als Ersatz. Bis zur nächsten
+ * Anfrage zählen bereits gewählte Verbindungen zur Last, damit auch Clients
+ * einer JVM, die den Cache nutzen, sich verteilen.
+ *
+ * Server kündigen sich beim Start zusätzlich per Broadcast auf Port
+ * {@value #ANKUENDIGUNG_PORT} an. Mit {@link #empfangeAnkuendigungen(boolean)}
+ * übernimmt ein Hintergrund-Thread diese Ankündigungen in den Cache, sodass
+ * Clients neue Server ohne eigene Anfrage kennen.
+ *
+ * @author Jochen Schmitt
+ */
+public final class Discovery {
+
+    /**
+     * Verfahren zur Wahl eines Servers unter mehreren gleichnamigen
+     */
+    public enum Auswahl {
+        /**
+         * Server in der Reihenfolge der Antworten, der schnellste zuerst
+         */
+        ERSTE_ANTWORT,
+        /**
+         * Server mit der geringsten Last je Gewicht zuerst
+         */
+        GERINGSTE_LAST,
+        /**
+         * von zwei zufällig gewählten Servern der mit der geringeren Last;
+         * verteilt auch bei veralteten Lastangaben gleichmäßig
+         */
+        ZWEI_ZUFAELLIGE
+    }
+
+    /**
+     * UDP-Port, auf dem Server Suchanfragen beantworten
+     */
+    public static final int PORT = 9999;
+    /**
+     * UDP-Port, auf dem Server ihren Start ankündigen
+     */
+    public static final int ANKUENDIGUNG_PORT = 9998;
+    /**
+     * Beginn einer Ankündigung, gefolgt vom Servernamen, einem Zeilenumbruch
+     * und dem TCP-Port
+     */
+    static final String ANKUENDIGUNG = "#ANNOUNCE ";
+    /**
+     * so lange in ms werden nach der ersten Antwort weitere gesammelt
+     */
+    private static final int SAMMELZEIT = 50;
+    /**
+     * so viele wartende Nachrichten eines Servers zählen wie ein Client
+     */
+    private static final int NACHRICHTEN_JE_CLIENT = 100;
+
+    private static volatile long cacheDauer = 30000;
+    private static volatile int versuche = 4;
+    private static volatile long ersteWartezeit = 200;
+    private static volatile long maxWartezeit = 1600;
+    private static volatile Auswahl auswahl = Auswahl.ZWEI_ZUFAELLIGE;
+    private static final ConcurrentHashMap<String, Eintrag> cache = new ConcurrentHashMap<String, Eintrag>();
+    private static final ConcurrentHashMap<String, FutureTask<Server[]>> laufend
+            = new ConcurrentHashMap<String, FutureTask<Server[]>>();
+    private static Empfaenger empfaenger;
+
+    private Discovery() {
+    }
+
+    /**
+     * Legt fest, wie lange gefundene Adressen gültig bleiben
+     *
+     * @param millis Gültigkeit in ms (Standard 30 s), 0 schaltet den Cache aus
+     */
+    public static void setzeCacheDauer(long millis) {
+        cacheDauer = millis;
+        if (millis <= 0) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Legt fest, wie oft und wie lange auf Antworten gewartet wird. Die
+     * Wartezeit verdoppelt sich mit jedem Versuch bis zum Höchstwert, dazu
+     * kommt ein zufälliger Zuschlag von bis zu 50 %.
+     *
+     * @param anzahl Anzahl der Anfragen (Standard 4)
+     * @param erste Wartezeit nach der ersten Anfrage in ms (Standard 200)
+     * @param max höchste Wartezeit je Anfrage in ms (Standard 1600)
+     */
+    public static void setzeWiederholungen(int anzahl, long erste, long max) {
+        versuche = Math.max(1, anzahl);
+        ersteWartezeit = Math.max(1, erste);
+        maxWartezeit = Math.max(ersteWartezeit, max);
+    }
+
+    /**
+     * Legt fest, wie unter mehreren gleichnamigen Servern gewählt wird
+     *
+     * @param verfahren Verfahren (Standard {@link Auswahl#ZWEI_ZUFAELLIGE})
+     */
+    public static void setzeAuswahl(Auswahl verfahren) {
+        auswahl = verfahren;
+    }
+
+    /**
+     * Startet oder beendet den Empfang von Ankündigungen der Server
+     *
+     * @param empfangen true, um Ankündigungen in den Cache zu übernehmen
+     */
+    public static synchronized void empfangeAnkuendigungen(boolean empfangen) {
+        if (empfangen && empfaenger == null) {
+            empfaenger = new Empfaenger();
+            empfaenger.start();
+        } else if (!empfangen && empfaenger != null) {
+            empfaenger.interrupt();
+            empfaenger = null;
+        }
+    }
+
+    /**
+     * Vergisst alle Adressen eines Servers
+     *
+     * @param serverName Name des Servers
+     */
+    public static void vergessen(String serverName) {
+        cache.remove(serverName.toLowerCase());
+    }
+
+    /**
+     * Vergisst eine Adresse eines Servers, z.B. nach fehlgeschlagenem
+     * Verbindungsaufbau
+     */
+    static void vergessen(String serverName, InetSocketAddress adresse) {
+        String schluessel = serverName.toLowerCase();
+        while (true) {
+            Eintrag alt = cache.get(schluessel);
+            if (alt == null) {
+                return;
+            }
+            Eintrag neu = alt.ohne(adresse);
+            if (neu == null ? cache.remove(schluessel, alt) : cache.replace(schluessel, alt, neu)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Liefert die Adressen eines Servers aus dem Cache oder sucht ihn per
+     * Broadcast
+     *
+     * @param serverName Name des Servers
+     * @param neuSuchen true, um den Cache zu übergehen
+     * @return gefundene Adressen mit TCP-Port, der gewählte Server zuerst;
+     * leer, wenn kein Server antwortet
+     */
+    static InetSocketAddress[] suche(String serverName, boolean neuSuchen) {
+        final String schluessel = serverName.toLowerCase();
+        Eintrag eintrag = cache.get(schluessel);
+        if (!neuSuchen && eintrag != null && eintrag.gueltig()) {
+            return waehlen(eintrag.server);
+        }
+        // höchstens eine laufende Anfrage je Name
+        FutureTask<Server[]> anfrage = new FutureTask<Server[]>(new Callable<Server[]>() {
+            @Override
+            public Server[] call() throws IOException {
+                return anfragen(schluessel);
+            }
+        });
+        FutureTask<Server[]> vorhanden = laufend.putIfAbsent(schluessel, anfrage);
+        if (vorhanden == null) {
+            vorhanden = anfrage;
+            try {
+                anfrage.run();
+            } finally {
+                laufend.remove(schluessel, anfrage);
+            }
+        }
+        try {
+            return waehlen(vorhanden.get());
+        } catch (ExecutionException ex) {
+            return new InetSocketAddress[0];
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new InetSocketAddress[0];
+        }
+    }
+
+    /**
+     * Ordnet die gefundenen Server nach dem eingestellten Verfahren und zählt
+     * die Wahl des ersten zu seiner Last
+     */
+    private static InetSocketAddress[] waehlen(Server[] server) {
+        Server[] reihenfolge = server.clone();
+        Auswahl verfahren = auswahl;
+        if (reihenfolge.length > 1 && verfahren != Auswahl.ERSTE_ANTWORT) {
+            Arrays.sort(reihenfolge, new Comparator<Server>() {
+                @Override
+                public int compare(Server a, Server b) {
+                    return Double.compare(a.last(), b.last());
+                }
+            });
+            if (verfahren == Auswahl.ZWEI_ZUFAELLIGE) {
+                ThreadLocalRandom zufall = ThreadLocalRandom.current();
+                int a = zufall.nextInt(reihenfolge.length);
+                int b = zufall.nextInt(reihenfolge.length - 1);
+                if (b >= a) {
+                    b++;
+                }
+                // sortiert: der kleinere Index hat die geringere Last
+                int gewaehlt = Math.min(a, b);
+                Server erster = reihenfolge[gewaehlt];
+                System.arraycopy(reihenfolge, 0, reihenfolge, 1, gewaehlt);
+                reihenfolge[0] = erster;
+            }
+        }
+        InetSocketAddress[] adressen = new InetSocketAddress[reihenfolge.length];
+        for (int i = 0; i < reihenfolge.length; i++) {
+            adressen[i] = reihenfolge[i].adresse;
+        }
+        if (reihenfolge.length > 0) {
+            reihenfolge[0].gewaehlt.incrementAndGet();
+        }
+        return adressen;
+    }
+
+    /**
+     * Sendet Suchanfragen mit wachsender Wartezeit, bis ein Server antwortet
+     */
+    private static Server[] anfragen(String serverName) throws IOException {
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            socket.setBroadcast(true);
+            byte[] name = serverName.getBytes();
+            DatagramPacket anfrage = new DatagramPacket(name, name.length, InetAddress.getByName("255.255.255.255"), PORT);
+            DatagramPacket antwort = new DatagramPacket(new byte[1024], 1024);
+            long wartezeit = ersteWartezeit;
+            for (int versuch = 0; versuch < versuche; versuch++) {
+                socket.send(anfrage);
+                long zuschlag = ThreadLocalRandom.current().nextLong(wartezeit / 2 + 1);
+                List<Server> gefunden = sammeln(socket, antwort, serverName,
+                        System.currentTimeMillis() + wartezeit + zuschlag);
+                if (!gefunden.isEmpty()) {
+                    Server[] server = gefunden.toArray(new Server[gefunden.size()]);
+                    if (cacheDauer > 0) {
+                        cache.put(serverName, new Eintrag(server));
+                    }
+                    return server;
+                }
+                wartezeit = Math.min(wartezeit * 2, maxWartezeit);
+            }
+            return new Server[0];
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Empfängt Antworten bis zum Ende der Wartezeit bzw. bis kurz nach der
+     * ersten passenden Antwort
+     */
+    private static List<Server> sammeln(DatagramSocket socket, DatagramPacket antwort, String serverName, long ende)
+            throws IOException {
+        List<Server> gefunden = new ArrayList<Server>();
+        long rest;
+        while ((rest = ende - System.currentTimeMillis()) > 0) {
+            socket.setSoTimeout((int) rest);
+            antwort.setLength(antwort.getData().length);
+            try {
+                socket.receive(antwort);
+            } catch (SocketTimeoutException e) {
+                break;
+            }
+            Server server = Server.lesen(new String(antwort.getData(), 0, antwort.getLength()),
+                    serverName, antwort.getAddress());
+            if (server != null && Server.suche(gefunden, server.adresse) < 0) {
+                if (gefunden.isEmpty()) {
+                    ende = Math.min(ende, System.currentTimeMillis() + SAMMELZEIT);
+                }
+                gefunden.add(server);
+            }
+        }
+        return gefunden;
+    }
+
+    /**
+     * Schreibt die Antwort eines Servers auf eine Suchanfrage, ohne Objekte
+     * zu erzeugen
+     *
+     * @param ziel Puffer der Antwort, wird ab position beschrieben
+     * @param serverName Name des Servers
+     * @param port TCP-Port des Servers
+     * @param clients Anzahl der verbundenen Clients
+     * @param warteschlange Anzahl der wartenden Nachrichten aller Clients
+     * @param gewicht Leistungsfähigkeit des Servers im Verhältnis zu den
+     * anderen
+     */
+    static void antwort(ByteBuffer ziel, byte[] serverName, int port, int clients, long warteschlange, int gewicht) {
+        ziel.put(serverName).put((byte) '\n');
+        zahl(ziel, port);
+        ziel.put((byte) ' ');
+        zahl(ziel, clients);
+        ziel.put((byte) ' ');
+        zahl(ziel, warteschlange);
+        ziel.put((byte) ' ');
+        zahl(ziel, gewicht);
+    }
+
+    /**
+     * Schreibt eine nicht negative Zahl dezimal in ASCII
+     */
+    private static void zahl(ByteBuffer ziel, long wert) {
+        wert = Math.max(0, wert);
+        int stellen = 1;
+        for (long rest = wert / 10; rest > 0; rest /= 10) {
+            stellen++;
+        }
+        int ende = ziel.position() + stellen;
+        for (int i = ende - 1; i >= ziel.position(); i--) {
+            ziel.put(i, (byte) ('0' + wert % 10));
+            wert /= 10;
+        }
+        ziel.position(ende);
+    }
+
+    /**
+     * Nimmt eine Ankündigung in den Cache auf
+     */
+    private static void angekuendigt(String ankuendigung, InetAddress absender) {
+        if (cacheDauer <= 0) {
+            return;
+        }
+        int trenner = ankuendigung.indexOf('\n');
+        String serverName = trenner < 0 ? ankuendigung : ankuendigung.substring(0, trenner);
+        Server server = Server.lesen(ankuendigung, serverName, absender);
+        String schluessel = serverName.toLowerCase();
+        while (true) {
+            Eintrag alt = cache.get(schluessel);
+            if (alt == null || !alt.gueltig()) {
+                Eintrag neu = new Eintrag(new Server[]{server});
+                if (alt == null ? cache.putIfAbsent(schluessel, neu) == null : cache.replace(schluessel, alt, neu)) {
+                    return;
+                }
+            } else if (cache.replace(schluessel, alt, alt.mit(server))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adresse und zuletzt gemeldete Last eines gefundenen Servers
+     */
+    private static final class Server {
+
+        private final InetSocketAddress adresse;
+        private final int clients;
+        private final long warteschlange;
+        private final int gewicht;
+        // seit der Antwort in dieser JVM gewählte Verbindungen
+        private final AtomicInteger gewaehlt = new AtomicInteger();
+
+        private Server(InetSocketAddress adresse, int clients, long warteschlange, int gewicht) {
+            this.adresse = adresse;
+            this.clients = clients;
+            this.warteschlange = warteschlange;
+            this.gewicht = Math.max(1, gewicht);
+        }
+
+        /**
+         * Liest eine Antwort bzw. Ankündigung; fehlen Port und Last (ältere
+         * Server), gelten Standardport und keine Last
+         *
+         * @return Server oder null, wenn der Name nicht passt
+         */
+        private static Server lesen(String antwort, String serverName, InetAddress absender) {
+            int trenner = antwort.indexOf('\n');
+            String name = trenner < 0 ? antwort : antwort.substring(0, trenner);
+            if (!name.equalsIgnoreCase(serverName)) {
+                return null;
+            }
+            int port = MultiServer.PORT;
+            int clients = 0;
+            long warteschlange = 0;
+            int gewicht = 1;
+            if (trenner >= 0) {
+                String[] felder = antwort.substring(trenner + 1).split(" ");
+                try {
+                    port = Integer.parseInt(felder[0]);
+                    if (felder.length >= 4) {
+                        clients = Integer.parseInt(felder[1]);
+                        warteschlange = Long.parseLong(felder[2]);
+                        gewicht = Integer.parseInt(felder[3]);
+                    }
+                } catch (NumberFormatException ex) {
+                    // unvollständige Angaben werden ignoriert
+                }
+            }
+            return new Server(new InetSocketAddress(absender, port), clients, warteschlange, gewicht);
+        }
+
+        /**
+         * @return Index des Servers mit der Adresse, -1, wenn keiner passt
+         */
+        private static int suche(List<Server> server, InetSocketAddress adresse) {
+            for (int i = 0; i < server.size(); i++) {
+                if (server.get(i).adresse.equals(adresse)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return Last je Gewicht
+         */
+        private double last() {
+            return (clients + gewaehlt.get() + (double) warteschlange / NACHRICHTEN_JE_CLIENT) / gewicht;
+        }
+    }
+
+    /**
+     * Unveränderliche Server eines Namens mit Ablaufzeit
+     */
+    private static final class Eintrag {
+
+        private final Server[] server;
+        private final long ablauf;
+
+        private Eintrag(Server[] server) {
+            this(server, System.currentTimeMillis() + cacheDauer);
+        }
+
+        private Eintrag(Server[] server, long ablauf) {
+            this.server = server;
+            this.ablauf = ablauf;
+        }
+
+        private boolean gueltig() {
+            return System.currentTimeMillis() < ablauf;
+        }
+
+        /**
+         * @return Eintrag mit dem Server an erster Stelle und neuer Ablaufzeit
+         */
+        private Eintrag mit(Server neuer) {
+            List<Server> neu = new ArrayList<Server>();
+            neu.add(neuer);
+            for (Server s : server) {
+                if (!s.adresse.equals(neuer.adresse)) {
+                    neu.add(s);
+                }
+            }
+            return new Eintrag(neu.toArray(new Server[neu.size()]));
+        }
+
+        /**
+         * @return Eintrag ohne die Adresse, null, wenn keine übrig bleibt
+         */
+        private Eintrag ohne(InetSocketAddress adresse) {
+            List<Server> neu = new ArrayList<Server>();
+            for (Server s : server) {
+                if (!s.adresse.equals(adresse)) {
+                    neu.add(s);
+                }
+            }
+            if (neu.isEmpty()) {
+                return null;
+            }
+            return new Eintrag(neu.toArray(new Server[neu.size()]), ablauf);
+        }
+    }
+
+    /**
+     * Empfängt Ankündigungen der Server; mehrere Prozesse eines Rechners
+     * können den Port gemeinsam nutzen
+     */
+    private static class Empfaenger extends Thread {
+
+        private volatile DatagramSocket socket;
+
+        private Empfaenger() {
+            super("Discovery-Ankuendigungen");
+            setDaemon(true);
+        }
+
+        /**
+         * Unterbricht den Empfang und schließt den Socket, damit ein
+         * wartendes receive() sofort zurückkehrt
+         */
+        @Override
+        public void interrupt() {
+            super.interrupt();
+            if (socket != null) {
+                socket.close();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                socket = new DatagramSocket(null);
+                socket.setReuseAddress(true);
+                socket.bind(new InetSocketAddress(ANKUENDIGUNG_PORT));
+                DatagramPacket paket = new DatagramPacket(new byte[1024], 1024);
+                while (!isInterrupted()) {
+                    paket.setLength(paket.getData().length);
+                    socket.receive(paket);
+                    String nachricht = new String(paket.getData(), 0, paket.getLength());
+                    if (nachricht.startsWith(ANKUENDIGUNG)) {
+                        // Servername, ggf. gefolgt vom TCP-Port
+                        angekuendigt(nachricht.substring(ANKUENDIGUNG.length()), paket.getAddress());
+                    }
+                }
+            } catch (IOException ex) {
+                if (!isInterrupted()) {
+                    System.out.println("Fehler beim Empfang von Ankündigungen: " + ex);
+                }
+            }
+            if (socket != null) {
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package netzwerkkommunikation;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stufe zwischen Empfang und Listener für die asynchronen
+ * {@link MultiServer.DispatchMode Zustellarten}: Ein gemeinsamer Pool stellt
+ * in beliebiger Reihenfolge zu, partitionierte Arbeiter ordnen jeden Schlüssel
+ * fest einem Thread zu und erhalten so die Reihenfolge je Schlüssel. Die
+ * Warteschlangen der Arbeiter sind unbegrenzt; begrenzt wird je Verbindung
+ * durch Anhalten des Lesens.
+ *
+ * @author Jochen Schmitt
+ */
+final class Dispatcher {
+
+    private final ExecutorService[] arbeiter;
+
+    /**
+     * @param mode {@link MultiServer.DispatchMode#POOL} oder
+     * {@link MultiServer.DispatchMode#PARTITIONED}
+     * @param threads Anzahl der Arbeiter-Threads
+     * @param name Präfix für die Namen der Threads
+     */
+    Dispatcher(MultiServer.DispatchMode mode, int threads, final String name) {
+        final AtomicInteger nummer = new AtomicInteger();
+        ThreadFactory fabrik = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable aufgabe) {
+                Thread thread = new Thread(aufgabe, name + "-" + nummer.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        if (mode == MultiServer.DispatchMode.PARTITIONED) {
+            arbeiter = new ExecutorService[threads];
+            for (int i = 0; i < threads; i++) {
+                arbeiter[i] = Executors.newSingleThreadExecutor(fabrik);
+            }
+        } else {
+            arbeiter = new ExecutorService[]{Executors.newFixedThreadPool(threads, fabrik)};
+        }
+    }
+
+    /**
+     * Übergibt eine Aufgabe an den Arbeiter des Schlüssels
+     *
+     * @param schluessel z.B. die Client-Id; Aufgaben mit gleichem Schlüssel
+     * laufen bei partitionierten Arbeitern in der Reihenfolge der Übergabe
+     * @param aufgabe auszuführende Aufgabe
+     * @throws java.util.concurrent.RejectedExecutionException nach
+     * {@link #beenden()}
+     */
+    void zustellen(long schluessel, Runnable aufgabe) {
+        int index = arbeiter.length == 1 ? 0 : (int) ((schluessel & Long.MAX_VALUE) % arbeiter.length);
+        arbeiter[index].execute(aufgabe);
+    }
+
+    /**
+     * Nimmt keine Aufgaben mehr an; bereits übergebene werden noch ausgeführt
+     */
+    void beenden() {
+        for (ExecutorService service : arbeiter) {
+            service.shutdown();
+        }
+    }
+
+    /**
+     * Wartet nach {@link #beenden()}, bis alle Aufgaben ausgeführt sind
+     *
+     * @param wartezeit maximale Wartezeit in ms
+     * @return true, wenn alle Arbeiter beendet sind
+     */
+    boolean warteAufEnde(long wartezeit) throws InterruptedException {
+        long ende = System.currentTimeMillis() + wartezeit;
+        for (ExecutorService service : arbeiter) {
+            if (!service.awaitTermination(Math.max(0, ende - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
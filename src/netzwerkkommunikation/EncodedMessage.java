@@ -0,0 +1,224 @@
+package netzwerkkommunikation;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Eine zu sendende Nachricht mit ihren kodierten Formen. Jede Form (Textzeile
+ * oder Frame) wird höchstens einmal erzeugt und dann von allen Empfängern über
+ * eigene schreibgeschützte Sichten geteilt, auch wenn Clients mit
+ * unterschiedlichen Protokollen verbunden sind.
+ *
+ * @author Jochen Schmitt
+ */
+final class EncodedMessage {
+
+    /**
+     * Geteilte Nachrichten ab dieser Größe in Bytes werden in einen direkten
+     * Puffer gelegt, damit beim Schreiben keine Kopie je Client entsteht
+     */
+    static final int DIREKT_AB = 16 * 1024;
+
+    /**
+     * Bestätigung des Binärmodus; wird noch als Textzeile gesendet, alle
+     * folgenden Nachrichten als Frames
+     */
+    static final EncodedMessage BINAER_BESTAETIGUNG = new EncodedMessage(Protocol.BINAER, null, false, true, null, true);
+    /**
+     * Antwort auf den Herzschlag eines Clients
+     */
+    static final EncodedMessage HERZSCHLAG_ANTWORT = steuerung(Protocol.HERZSCHLAG_ANTWORT, Protocol.PONG, "");
+
+    private final String text;
+    private final boolean geteilt;
+    private final boolean schaltetBinaer;
+    private final Kompression schaltetKompression;
+    private final boolean steuerung;
+    // Kodierungen werden bei Bedarf erzeugt; rechnen zwei Schreiber
+    // gleichzeitig, entstehen nur zwei gleiche Puffer. Die teurere
+    // Kompression läuft unter der Sperre der Nachricht nur einmal je
+    // Nachricht; komprimiertMit ist die Vorlage des gemerkten Frames und wird
+    // vor ihm gesetzt.
+    private volatile ByteBuffer zeile;
+    private volatile ByteBuffer frame;
+    private volatile ByteBuffer komprimiert;
+    private volatile Kompression komprimiertMit;
+
+    private EncodedMessage(String text, ByteBuffer frame, boolean geteilt, boolean schaltetBinaer,
+            Kompression schaltetKompression, boolean steuerung) {
+        this.text = text;
+        this.frame = frame;
+        this.geteilt = geteilt;
+        this.schaltetBinaer = schaltetBinaer;
+        this.schaltetKompression = schaltetKompression;
+        this.steuerung = steuerung;
+    }
+
+    /**
+     * @param text Textnachricht
+     * @param geteilt true, wenn die Nachricht an viele Clients geht
+     */
+    static EncodedMessage text(String text, boolean geteilt) {
+        return new EncodedMessage(text, null, geteilt, false, null, false);
+    }
+
+    /**
+     * Binärnachricht; die Bytes werden einmalig in den Frame kopiert
+     *
+     * @param daten Nutzdaten zwischen position und limit, werden nicht
+     * verändert
+     * @param geteilt true, wenn die Nachricht an viele Clients geht
+     */
+    static EncodedMessage daten(ByteBuffer daten, boolean geteilt) {
+        boolean direkt = geteilt && daten.remaining() >= DIREKT_AB;
+        return new EncodedMessage(null, Protocol.frame(Protocol.DATA, daten, direkt), geteilt, false, null, false);
+    }
+
+    /**
+     * Antwort auf eine Anfrage mit deren Kennung
+     *
+     * @param fehler true für eine Fehlerantwort
+     */
+    static EncodedMessage antwort(long kennung, String text, boolean fehler) {
+        ByteBuffer frame = Protocol.frame(fehler ? Protocol.ERROR : Protocol.RESPONSE, kennung, text);
+        return new EncodedMessage(Protocol.zeile(fehler ? Protocol.FEHLER : Protocol.ANTWORT, kennung, text),
+                frame, false, false, null, false);
+    }
+
+    /**
+     * Bestätigung der Kompression mit dem Wörterbuch; alle folgenden Frames
+     * an diesen Client dürfen komprimiert werden
+     *
+     * @param kompression Kompressionskontext der Verbindung
+     */
+    static EncodedMessage kompressionBestaetigung(Kompression kompression) {
+        ByteBuffer frame = Protocol.frame(Protocol.KOMPRESSION, ByteBuffer.wrap(kompression.woerterbuch()), false);
+        return new EncodedMessage(null, frame, false, false, kompression, true);
+    }
+
+    /**
+     * Steuerbefehl, der nicht zu den gezählten Nachrichten einer Sitzung
+     * gehört
+     *
+     * @param beginn Beginn der Zeile, z.B. {@link Protocol#QUITTUNG}
+     * @param typ Typ des entsprechenden Frames
+     * @param text Text nach dem Beginn der Zeile bzw. Nutzdaten des Frames
+     */
+    static EncodedMessage steuerung(String beginn, byte typ, String text) {
+        return new EncodedMessage(beginn + text, Protocol.frame(typ, text), false, false, null, true);
+    }
+
+    /**
+     * Nachricht an einen anderen Knoten des Clusters, nur als Frame
+     *
+     * @param typ Typ des Frames, z.B. {@link Protocol#BROADCAST}
+     * @param text Nutzdaten des Frames
+     */
+    static EncodedMessage knoten(byte typ, String text) {
+        return new EncodedMessage(null, Protocol.frame(typ, text), true, false, null, true);
+    }
+
+    /**
+     * @return true bei Steuerbefehlen, die eine Sitzung weder zählt noch
+     * wiederholt
+     */
+    boolean istSteuerung() {
+        return steuerung;
+    }
+
+    /**
+     * @return true bei Textnachrichten, die auch im Textprotokoll gesendet
+     * werden können
+     */
+    boolean istText() {
+        return text != null;
+    }
+
+    /**
+     * @return geschätzte Größe der kodierten Nachricht in Bytes, ohne sie zu
+     * kodieren
+     */
+    int groesse() {
+        return text != null ? text.length() + Protocol.KOPF : frame.remaining();
+    }
+
+    /**
+     * @return Kompressionskontext, mit dem der Empfänger nach dieser Nachricht
+     * komprimierte Frames erwartet, sonst null
+     */
+    Kompression schaltetKompression() {
+        return schaltetKompression;
+    }
+
+    /**
+     * @return true, wenn der Empfänger nach dieser Nachricht Frames erwartet
+     */
+    boolean schaltetBinaer() {
+        return schaltetBinaer;
+    }
+
+    /**
+     * @return Textzeile einschließlich Zeilenende wie bei PrintWriter.println,
+     * null bei Binärnachrichten; der Puffer darf nicht verändert werden
+     */
+    ByteBuffer zeile() {
+        if (text == null) {
+            return null;
+        }
+        ByteBuffer kodiert = zeile;
+        if (kodiert == null) {
+            kodiert = Protocol.ZEICHENSATZ.encode(text + Protocol.ZEILENENDE);
+            if (geteilt && kodiert.remaining() >= DIREKT_AB) {
+                ByteBuffer direkt = ByteBuffer.allocateDirect(kodiert.remaining());
+                direkt.put(kodiert);
+                direkt.flip();
+                kodiert = direkt;
+            }
+            zeile = kodiert;
+        }
+        return kodiert;
+    }
+
+    /**
+     * @return Frame; der Puffer darf nicht verändert werden
+     */
+    ByteBuffer frame() {
+        ByteBuffer kodiert = frame;
+        if (kodiert == null) {
+            ByteBuffer nutzdaten = Protocol.UTF8.encode(text);
+            kodiert = Protocol.frame(Protocol.TEXT, nutzdaten, geteilt && nutzdaten.remaining() >= DIREKT_AB);
+            frame = kodiert;
+        }
+        return kodiert;
+    }
+
+    /**
+     * Komprimiert den Frame einmalig im ersten Schreiber, der ihn komprimiert
+     * benötigt; alle Empfänger, deren Kompression aus derselben Vorlage
+     * stammt, teilen das Ergebnis. Verbindungen mit einer anderen Vorlage,
+     * etwa nach einem Wechsel der Komprimierung des Servers, komprimieren
+     * für sich.
+     *
+     * @param kompression Kompressionskontext des Schreibers
+     * @return komprimierter Frame oder der Frame selbst, wenn sich die
+     * Kompression nicht lohnt; der Puffer darf nicht verändert werden
+     */
+    ByteBuffer komprimiert(Kompression kompression) {
+        ByteBuffer kodiert = komprimiert;
+        if (kodiert == null) {
+            synchronized (this) {
+                kodiert = komprimiert;
+                if (kodiert == null) {
+                    ByteBuffer unkomprimiert = frame();
+                    kodiert = kompression.komprimiere(unkomprimiert, geteilt && unkomprimiert.remaining() >= DIREKT_AB);
+                    komprimiertMit = kompression.vorlage();
+                    komprimiert = kodiert;
+                }
+            }
+        }
+        if (komprimiertMit != kompression.vorlage()) {
+            // anderes Wörterbuch oder andere Schwelle
+            return kompression.komprimiere(frame(), false);
+        }
+        return kodiert;
+    }
+}
@@ -0,0 +1,97 @@
+package netzwerkkommunikation;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fertige Ausführungsstrategien für die Handler von MultiServer und
+ * NetworkClient. Jeder Handler wird als Aufgabe an einen Executor übergeben;
+ * statt der hier angebotenen Strategien kann auch ein beliebiger eigener
+ * Executor verwendet werden.
+ *
+ * @author Jochen Schmitt
+ */
+public final class ExecutionStrategy {
+
+    private ExecutionStrategy() {
+    }
+
+    /**
+     * Startet für jede Aufgabe einen eigenen Plattform-Thread (bisheriges
+     * Verhalten)
+     *
+     * @param name Präfix für die Namen der Threads
+     * @return Executor mit einem Thread je Aufgabe
+     */
+    public static Executor neueThreads(final String name) {
+        final AtomicInteger nummer = new AtomicInteger();
+        return new Executor() {
+            @Override
+            public void execute(Runnable aufgabe) {
+                new Thread(aufgabe, name + "-" + nummer.incrementAndGet()).start();
+            }
+        };
+    }
+
+    /**
+     * Führt die Aufgaben in einem wachsenden Pool von Daemon-Threads aus. Für
+     * kurze Aufgaben werden freie Threads wiederverwendet, ungenutzte Threads
+     * enden nach einer Minute.
+     *
+     * @param name Präfix für die Namen der Threads
+     * @return Executor mit wiederverwendbaren Threads
+     */
+    public static Executor threadPool(final String name) {
+        final AtomicInteger nummer = new AtomicInteger();
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable aufgabe) {
+                Thread thread = new Thread(aufgabe, name + "-" + nummer.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Prüft, ob die laufende Java-Version virtuelle Threads anbietet (ab Java
+     * 21)
+     *
+     * @return true, wenn virtuelle Threads verfügbar sind
+     */
+    public static boolean virtuelleThreadsVerfuegbar() {
+        return gibVirtualThreadMethode() != null;
+    }
+
+    /**
+     * Startet für jede Aufgabe einen eigenen virtuellen Thread. Wartende
+     * Handler belegen so keinen Plattform-Thread, wodurch auch zehntausende
+     * ruhende Clients möglich sind.
+     *
+     * @return Executor mit einem virtuellen Thread je Aufgabe
+     * @throws UnsupportedOperationException wenn die Java-Version keine
+     * virtuellen Threads kennt
+     */
+    public static Executor virtuelleThreads() {
+        Method methode = gibVirtualThreadMethode();
+        if (methode == null) {
+            throw new UnsupportedOperationException("Virtuelle Threads erfordern Java 21");
+        }
+        try {
+            return (Executor) methode.invoke(null);
+        } catch (Exception ex) {
+            throw new UnsupportedOperationException("Virtuelle Threads nicht verfügbar", ex);
+        }
+    }
+
+    private static Method gibVirtualThreadMethode() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package netzwerkkommunikation;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Zerlegt die von einer Verbindung gelesenen Bytes in Textzeilen oder, nach
+ * Umschalten in den Binärmodus, in Frames. Vollständig im Lesepuffer liegende
+ * Zeilen und Frames werden ohne Kopie übergeben, indem position und limit des
+ * Lesepuffers vorübergehend auf die Nachricht gesetzt werden. Nur über mehrere
+ * Lesevorgänge verteilte Nachrichten werden zwischengespeichert, Frames dabei
+ * in Puffern aus dem {@link BufferPool}. Im Gleichgewicht entstehen so je
+ * Nachricht keine neuen Objekte. Komprimierte Frames werden nach Vereinbarung
+ * der Kompression in einen Puffer aus dem Pool entpackt. Der Empfänger kann
+ * das Dekodieren nach einer Nachricht anhalten; die restlichen Bytes werden
+ * dann in einen Puffer aus dem Pool zurückgestellt und beim Fortsetzen
+ * dekodiert. Zeilen und Frames über der eingestellten Höchstlänge beenden
+ * das Dekodieren, bevor sie zwischengespeichert werden. Ein Decoder gehört zu genau einer Verbindung und wird nur vom
+ * lesenden Thread benutzt.
+ *
+ * @author Jochen Schmitt
+ */
+final class InboundDecoder {
+
+    /**
+     * Empfänger der dekodierten Nachrichten. Die übergebenen Puffer sind nur
+     * während des Aufrufs gültig; position und limit dürfen verändert werden.
+     */
+    interface Empfaenger {
+
+        /**
+         * @param zeile Bytes der empfangenen Zeile ohne Zeilenende
+         * @return false, um das Lesen zu beenden
+         */
+        boolean zeile(ByteBuffer zeile);
+
+        /**
+         * @param typ Typ des Frames
+         * @param nutzdaten Nutzdaten
+         * @return false, um das Lesen zu beenden
+         */
+        boolean frame(byte typ, ByteBuffer nutzdaten);
+    }
+
+    private static final int WEITER = 1;
+    private static final int MEHR_DATEN = 0;
+    private static final int ENDE = -1;
+
+    private final Empfaenger empfaenger;
+    private final BufferPool pool;
+    private boolean binaer = false;
+    private int maxLaenge = Protocol.MAX_NUTZDATEN;
+    private boolean zuLang = false;
+    // Bytes einer noch nicht vollständigen Zeile
+    private ByteBuffer zeile = ByteBuffer.allocate(256);
+    // Kopf und Nutzdaten eines noch nicht vollständigen Frames
+    private final ByteBuffer kopf = ByteBuffer.allocate(Protocol.KOPF);
+    private ByteBuffer nutzdaten;
+    private byte typ;
+    private Kompression kompression;
+    private boolean angehalten = false;
+    // beim Anhalten noch nicht dekodierte Bytes aus dem Pool, sonst null
+    private ByteBuffer rueckstand;
+    // wiederverwendete Textsicht für text()
+    private CharsetDecoder zeichenDecoder;
+    private CharBuffer zeichen = CharBuffer.allocate(256);
+
+    /**
+     * @param empfaenger Empfänger der Zeilen und Frames
+     * @param pool Pool für über mehrere Lesevorgänge verteilte Frames
+     */
+    InboundDecoder(Empfaenger empfaenger, BufferPool pool) {
+        this.empfaenger = empfaenger;
+        this.pool = pool;
+    }
+
+    /**
+     * Alle folgenden Bytes werden als Frames dekodiert; darf auch während
+     * eines Aufrufs des Empfängers aufgerufen werden
+     */
+    void binaerAb() {
+        binaer = true;
+    }
+
+    boolean istBinaer() {
+        return binaer;
+    }
+
+    /**
+     * @param bytes längste erlaubte Zeile bzw. längster erlaubter Frame
+     * (entpackt), höchstens {@link Protocol#MAX_NUTZDATEN}
+     */
+    void setzeMaxLaenge(int bytes) {
+        maxLaenge = Math.max(1, Math.min(bytes, Protocol.MAX_NUTZDATEN));
+    }
+
+    /**
+     * @return true, wenn das Dekodieren wegen einer zu langen Zeile bzw. eines
+     * zu langen Frames beendet wurde
+     */
+    boolean zuLang() {
+        return zuLang;
+    }
+
+    /**
+     * Beendet das Dekodieren wegen einer zu langen Nachricht
+     */
+    private int zuLang(long laenge) {
+        zuLang = true;
+        System.out.println("Nachricht zu lang: " + laenge + " Bytes");
+        return ENDE;
+    }
+
+    /**
+     * Erlaubt ab sofort komprimierte Frames; darf auch während eines Aufrufs
+     * des Empfängers aufgerufen werden
+     *
+     * @param kompression Kompressionskontext der Verbindung
+     */
+    void setzeKompression(Kompression kompression) {
+        this.kompression = kompression;
+    }
+
+    /**
+     * Hält das Dekodieren nach der laufenden Nachricht an, bis
+     * {@link #fortsetzen()} aufgerufen wird; vom Empfänger während eines
+     * Aufrufs zu benutzen
+     */
+    void anhalten() {
+        angehalten = true;
+    }
+
+    /**
+     * @return true, solange das Dekodieren angehalten ist; der Aufrufer soll
+     * dann nicht weiter lesen
+     */
+    boolean istAngehalten() {
+        return angehalten;
+    }
+
+    /**
+     * Hebt {@link #anhalten()} auf und dekodiert die zurückgestellten Bytes,
+     * wobei erneut angehalten werden kann
+     *
+     * @return false wie bei {@link #dekodiere(ByteBuffer)}
+     */
+    boolean fortsetzen() {
+        angehalten = false;
+        if (rueckstand == null) {
+            return true;
+        }
+        ByteBuffer puffer = rueckstand;
+        boolean weiter = dekodiere(puffer);
+        if (!weiter || !puffer.hasRemaining()) {
+            rueckstand = null;
+            pool.zurueckgeben(puffer);
+        }
+        return weiter;
+    }
+
+    /**
+     * Dekodiert alle Bytes zwischen position und limit; nach
+     * {@link #anhalten()} werden die restlichen Bytes zurückgestellt
+     *
+     * @param eingang gelesene Bytes
+     * @return false, wenn der Empfänger das Lesen beendet hat oder ein
+     * ungültiger Frame empfangen wurde
+     */
+    boolean dekodiere(ByteBuffer eingang) {
+        while (eingang.hasRemaining()) {
+            if (angehalten) {
+                if (eingang != rueckstand) {
+                    rueckstand = pool.ausleihen(eingang.remaining());
+                    rueckstand.put(eingang);
+                    rueckstand.flip();
+                }
+                return true;
+            }
+            int ergebnis = binaer ? frameLesen(eingang) : zeileLesen(eingang);
+            if (ergebnis == ENDE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gibt einen zwischengespeicherten Frame und zurückgestellte Bytes an den
+     * Pool zurück und beendet die Kompression; nach dem Ende der Verbindung
+     * vom lesenden Thread aufzurufen
+     */
+    void freigeben() {
+        if (nutzdaten != null) {
+            pool.zurueckgeben(nutzdaten);
+            nutzdaten = null;
+        }
+        if (rueckstand != null) {
+            pool.zurueckgeben(rueckstand);
+            rueckstand = null;
+        }
+        if (kompression != null) {
+            kompression.entpackenBeenden();
+            kompression.beenden();
+        }
+    }
+
+    /**
+     * Dekodiert Bytes einer Nachricht in eine wiederverwendete Textsicht
+     *
+     * @param bytes kodierter Text zwischen position und limit, wird nicht
+     * verändert
+     * @param zeichensatz Zeichensatz der Bytes
+     * @return Text, gültig bis zum nächsten Aufruf
+     */
+    CharSequence text(ByteBuffer bytes, Charset zeichensatz) {
+        if (zeichenDecoder == null || !zeichenDecoder.charset().equals(zeichensatz)) {
+            zeichenDecoder = zeichensatz.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        int benoetigt = (int) (bytes.remaining() * (double) zeichenDecoder.maxCharsPerByte()) + 1;
+        if (zeichen.capacity() < benoetigt) {
+            zeichen = CharBuffer.allocate(Math.max(benoetigt, zeichen.capacity() * 2));
+        }
+        int position = bytes.position();
+        zeichen.clear();
+        zeichenDecoder.reset();
+        zeichenDecoder.decode(bytes, zeichen, true);
+        zeichenDecoder.flush(zeichen);
+        bytes.position(position);
+        zeichen.flip();
+        return zeichen;
+    }
+
+    private int zeileLesen(ByteBuffer eingang) {
+        int beginn = eingang.position();
+        int ende = eingang.limit();
+        for (int i = beginn; i < ende; i++) {
+            if (eingang.get(i) == '\n') {
+                if (zeile.position() + i - beginn > maxLaenge + 1) {
+                    // + 1 für ein abschließendes '\r'
+                    return zuLang(zeile.position() + i - beginn);
+                }
+                boolean weiter;
+                if (zeile.position() == 0) {
+                    // Zeile liegt vollständig im Puffer: ohne Kopie übergeben
+                    eingang.limit(ohneCR(eingang, beginn, i));
+                    weiter = empfaenger.zeile(eingang);
+                    eingang.limit(ende);
+                } else {
+                    anhaengen(eingang, beginn, i);
+                    zeile.flip();
+                    zeile.limit(ohneCR(zeile, 0, zeile.limit()));
+                    weiter = empfaenger.zeile(zeile);
+                    zeile.clear();
+                }
+                eingang.position(i + 1);
+                return weiter ? WEITER : ENDE;
+            }
+        }
+        if (zeile.position() + ende - beginn > maxLaenge + 1) {
+            return zuLang(zeile.position() + ende - beginn);
+        }
+        anhaengen(eingang, beginn, ende);
+        eingang.position(ende);
+        return MEHR_DATEN;
+    }
+
+    /**
+     * @return Ende der Zeile ohne abschließendes '\r'
+     */
+    private static int ohneCR(ByteBuffer puffer, int beginn, int ende) {
+        if (ende > beginn && puffer.get(ende - 1) == '\r') {
+            return ende - 1;
+        }
+        return ende;
+    }
+
+    private void anhaengen(ByteBuffer eingang, int beginn, int ende) {
+        int anzahl = ende - beginn;
+        if (zeile.remaining() < anzahl) {
+            ByteBuffer groesser = ByteBuffer.allocate(Math.max(zeile.capacity() * 2, zeile.position() + anzahl));
+            zeile.flip();
+            groesser.put(zeile);
+            zeile = groesser;
+        }
+        kopiere(eingang, beginn, zeile, anzahl);
+    }
+
+    /**
+     * Kopiert Bytes ab einer festen Stelle ans Ende des Ziels, ohne Objekte zu
+     * erzeugen
+     */
+    private static void kopiere(ByteBuffer quelle, int beginn, ByteBuffer ziel, int anzahl) {
+        if (quelle.hasArray() && ziel.hasArray()) {
+            System.arraycopy(quelle.array(), quelle.arrayOffset() + beginn,
+                    ziel.array(), ziel.arrayOffset() + ziel.position(), anzahl);
+            ziel.position(ziel.position() + anzahl);
+        } else {
+            for (int i = beginn; i < beginn + anzahl; i++) {
+                ziel.put(quelle.get(i));
+            }
+        }
+    }
+
+    private int frameLesen(ByteBuffer eingang) {
+        if (nutzdaten == null) {
+            int laenge;
+            if (kopf.position() == 0 && eingang.remaining() >= Protocol.KOPF) {
+                laenge = eingang.getInt();
+                typ = eingang.get();
+            } else {
+                // Kopf über mehrere Lesevorgänge verteilt
+                while (kopf.hasRemaining() && eingang.hasRemaining()) {
+                    kopf.put(eingang.get());
+                }
+                if (kopf.hasRemaining()) {
+                    return MEHR_DATEN;
+                }
+                kopf.flip();
+                laenge = kopf.getInt();
+                typ = kopf.get();
+                kopf.clear();
+            }
+            if (laenge < 0 || laenge > Protocol.MAX_NUTZDATEN) {
+                System.out.println("Ungültige Framelänge: " + laenge);
+                return ENDE;
+            }
+            if (laenge > maxLaenge) {
+                return zuLang(laenge);
+            }
+            if (eingang.remaining() >= laenge) {
+                // Frame liegt vollständig im Puffer: ohne Kopie übergeben
+                int ende = eingang.limit();
+                int naechster = eingang.position() + laenge;
+                eingang.limit(naechster);
+                boolean weiter = liefern(typ, eingang);
+                eingang.limit(ende);
+                eingang.position(naechster);
+                return weiter ? WEITER : ENDE;
+            }
+            nutzdaten = pool.ausleihen(laenge);
+        }
+        int anzahl = Math.min(nutzdaten.remaining(), eingang.remaining());
+        kopiere(eingang, eingang.position(), nutzdaten, anzahl);
+        eingang.position(eingang.position() + anzahl);
+        if (nutzdaten.hasRemaining()) {
+            return MEHR_DATEN;
+        }
+        ByteBuffer vollstaendig = nutzdaten;
+        nutzdaten = null;
+        vollstaendig.flip();
+        boolean weiter = liefern(typ, vollstaendig);
+        pool.zurueckgeben(vollstaendig);
+        return weiter ? WEITER : ENDE;
+    }
+
+    /**
+     * Übergibt einen vollständigen Frame an den Empfänger, komprimierte Frames
+     * zuvor entpackt
+     */
+    private boolean liefern(byte typ, ByteBuffer frame) {
+        if ((typ & Kompression.KOMPRIMIERT) == 0) {
+            return empfaenger.frame(typ, frame);
+        }
+        if (kompression == null || frame.remaining() < 4) {
+            System.out.println("Unerwarteter komprimierter Frame");
+            return false;
+        }
+        int laenge = frame.getInt();
+        if (laenge < 0 || laenge > Protocol.MAX_NUTZDATEN) {
+            System.out.println("Ungültige Framelänge: " + laenge);
+            return false;
+        }
+        if (laenge > maxLaenge) {
+            zuLang(laenge);
+            return false;
+        }
+        ByteBuffer entpackt = pool.ausleihen(laenge);
+        boolean weiter;
+        if (kompression.entpacke(frame, entpackt)) {
+            weiter = empfaenger.frame((byte) (typ & ~Kompression.KOMPRIMIERT), entpackt);
+        } else {
+            System.out.println("Ungültiger komprimierter Frame");
+            weiter = false;
+        }
+        pool.zurueckgeben(entpackt);
+        return weiter;
+    }
+}
@@ -0,0 +1,81 @@
+package netzwerkkommunikation;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Veröffentlicht Kennzahlen als MXBeans im Plattform-MBeanServer, z.B. für
+ * JConsole oder VisualVM, unter
+ * {@code netzwerkkommunikation:type=MultiServer,name=<Servername>} bzw.
+ * {@code type=NetworkClient}. Ist der Name bereits vergeben, wird nicht
+ * registriert; entfernt werden nur selbst registrierte Kennzahlen.
+ *
+ * @author Jochen Schmitt
+ */
+public class JmxRegistry implements MetrikRegistry {
+
+    private static final String DOMAENE = "netzwerkkommunikation";
+
+    private final MBeanServer mbeanServer;
+    // selbst registrierte Kennzahlen je Name
+    private final ConcurrentHashMap<ObjectName, Object> registriert = new ConcurrentHashMap<ObjectName, Object>();
+
+    public JmxRegistry() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * @param mbeanServer MBeanServer, in dem registriert wird
+     */
+    public JmxRegistry(MBeanServer mbeanServer) {
+        this.mbeanServer = mbeanServer;
+    }
+
+    @Override
+    public void registriere(String serverName, ServerMetrikenMXBean metriken) {
+        registriere(name("MultiServer", serverName), metriken, ServerMetrikenMXBean.class);
+    }
+
+    @Override
+    public void registriere(String clientName, ClientMetrikenMXBean metriken) {
+        registriere(name("NetworkClient", clientName), metriken, ClientMetrikenMXBean.class);
+    }
+
+    @Override
+    public void entferne(String name, Object metriken) {
+        String typ = metriken instanceof ServerMetrikenMXBean ? "MultiServer" : "NetworkClient";
+        ObjectName objektName = name(typ, name);
+        if (!registriert.remove(objektName, metriken)) {
+            return;
+        }
+        try {
+            mbeanServer.unregisterMBean(objektName);
+        } catch (JMException ex) {
+            // bereits entfernt
+        }
+    }
+
+    private <T> void registriere(ObjectName name, T metriken, Class<T> schnittstelle) {
+        if (registriert.putIfAbsent(name, metriken) != null) {
+            return;
+        }
+        try {
+            mbeanServer.registerMBean(new StandardMBean(metriken, schnittstelle, true), name);
+        } catch (JMException ex) {
+            registriert.remove(name, metriken);
+            System.out.println("Kennzahlen nicht registriert: " + name);
+        }
+    }
+
+    private static ObjectName name(String typ, String name) {
+        try {
+            return new ObjectName(DOMAENE + ":type=" + typ + ",name=" + ObjectName.quote(name));
+        } catch (JMException ex) {
+            throw new IllegalArgumentException(name, ex);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package netzwerkkommunikation;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Kompressionskontext einer Verbindung für den Binärmodus. Frames ab einer
+ * Schwelle werden einzeln mit Deflate komprimiert; jede Nachricht ist für sich
+ * dekodierbar, daher kann ein komprimierter Broadcast an alle Empfänger mit
+ * gleichem Wörterbuch gehen. Ein vorab vereinbartes Wörterbuch verbessert die
+ * Kompression kurzer, ähnlicher Nachrichten.
+ *
+ * Komprimierte Frames tragen im Typ zusätzlich {@link #KOMPRIMIERT}; die
+ * Nutzdaten bestehen aus der ursprünglichen Länge (4 Byte) und den
+ * komprimierten Bytes. Deflater und Inflater werden erst bei Bedarf angelegt
+ * und über alle Nachrichten der Verbindung wiederverwendet.
+ *
+ * @author Jochen Schmitt
+ */
+final class Kompression {
+
+    /**
+     * Kennzeichen komprimierter Frames im Typ
+     */
+    static final byte KOMPRIMIERT = 0x40;
+
+    private final int schwelle;
+    private final byte[] woerterbuch;
+    // Vorlage, von der Schwelle und Wörterbuch stammen, sonst this
+    private final Kompression vorlage;
+    // Deflater und Puffer zum Komprimieren, geschützt durch this
+    private Deflater deflater;
+    private byte[] eingabe = new byte[0];
+    private byte[] ausgabe = new byte[0];
+    private boolean beendet = false;
+    // Inflater, nur vom lesenden Thread benutzt
+    private Inflater inflater;
+    private byte[] komprimiert = new byte[0];
+
+    /**
+     * @param schwelle kleinere Nutzdaten in Bytes werden nicht komprimiert
+     * @param woerterbuch vereinbartes Wörterbuch, leer für keines
+     */
+    Kompression(int schwelle, byte[] woerterbuch) {
+        this.schwelle = schwelle;
+        this.woerterbuch = woerterbuch;
+        this.vorlage = this;
+    }
+
+    /**
+     * Legt den Kontext einer Verbindung mit Schwelle und Wörterbuch einer
+     * Vorlage an
+     *
+     * @param vorlage Vorlage des Servers
+     */
+    Kompression(Kompression vorlage) {
+        this.schwelle = vorlage.schwelle;
+        this.woerterbuch = vorlage.woerterbuch;
+        this.vorlage = vorlage.vorlage;
+    }
+
+    int schwelle() {
+        return schwelle;
+    }
+
+    byte[] woerterbuch() {
+        return woerterbuch;
+    }
+
+    /**
+     * @return Vorlage, von der Schwelle und Wörterbuch stammen; Kontexte mit
+     * gleicher Vorlage komprimieren gleich
+     */
+    Kompression vorlage() {
+        return vorlage;
+    }
+
+    /**
+     * Komprimiert die Nutzdaten eines Frames
+     *
+     * @param frame unkomprimierter Frame, wird nicht verändert
+     * @param direkt true für einen direkten Puffer
+     * @return komprimierter Frame oder der ursprüngliche Frame, wenn die
+     * Kompression nichts einspart
+     */
+    synchronized ByteBuffer komprimiere(ByteBuffer frame, boolean direkt) {
+        int laenge = frame.remaining() - Protocol.KOPF;
+        if (beendet || laenge < schwelle) {
+            return frame;
+        }
+        byte typ = frame.get(frame.position() + 4);
+        if (eingabe.length < laenge) {
+            eingabe = new byte[laenge];
+        }
+        ByteBuffer nutzdaten = frame.duplicate();
+        nutzdaten.position(frame.position() + Protocol.KOPF);
+        nutzdaten.get(eingabe, 0, laenge);
+
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        } else {
+            deflater.reset();
+        }
+        if (woerterbuch.length > 0) {
+            deflater.setDictionary(woerterbuch);
+        }
+        deflater.setInput(eingabe, 0, laenge);
+        deflater.finish();
+        int erzeugt = 0;
+        while (!deflater.finished()) {
+            if (erzeugt == ausgabe.length) {
+                ausgabe = Arrays.copyOf(ausgabe, Math.max(1024, ausgabe.length * 2));
+            }
+            erzeugt += deflater.deflate(ausgabe, erzeugt, ausgabe.length - erzeugt);
+            if (erzeugt + 4 >= laenge) {
+                // Kompression spart nichts
+                return frame;
+            }
+        }
+
+        int gesamt = Protocol.KOPF + 4 + erzeugt;
+        ByteBuffer ergebnis = direkt ? ByteBuffer.allocateDirect(gesamt) : ByteBuffer.allocate(gesamt);
+        ergebnis.putInt(4 + erzeugt);
+        ergebnis.put((byte) (typ | KOMPRIMIERT));
+        ergebnis.putInt(laenge);
+        ergebnis.put(ausgabe, 0, erzeugt);
+        ergebnis.flip();
+        return ergebnis;
+    }
+
+    /**
+     * Entpackt die Nutzdaten eines komprimierten Frames; nur vom lesenden
+     * Thread aufzurufen
+     *
+     * @param nutzdaten ursprüngliche Länge und komprimierte Bytes
+     * @param ziel Puffer für genau die ursprüngliche Länge, wird gefüllt
+     * @return false bei ungültigen Daten
+     */
+    boolean entpacke(ByteBuffer nutzdaten, ByteBuffer ziel) {
+        int laenge = nutzdaten.remaining();
+        byte[] quelle;
+        int beginn;
+        if (nutzdaten.hasArray()) {
+            quelle = nutzdaten.array();
+            beginn = nutzdaten.arrayOffset() + nutzdaten.position();
+        } else {
+            if (komprimiert.length < laenge) {
+                komprimiert = new byte[laenge];
+            }
+            nutzdaten.duplicate().get(komprimiert, 0, laenge);
+            quelle = komprimiert;
+            beginn = 0;
+        }
+        if (inflater == null) {
+            inflater = new Inflater();
+        } else {
+            inflater.reset();
+        }
+        inflater.setInput(quelle, beginn, laenge);
+        try {
+            while (ziel.hasRemaining()) {
+                int anzahl = inflater.inflate(ziel.array(), ziel.arrayOffset() + ziel.position(), ziel.remaining());
+                if (anzahl == 0) {
+                    if (inflater.needsDictionary() && woerterbuch.length > 0) {
+                        inflater.setDictionary(woerterbuch);
+                    } else {
+                        return false;
+                    }
+                }
+                ziel.position(ziel.position() + anzahl);
+            }
+        } catch (DataFormatException ex) {
+            return false;
+        } catch (IllegalArgumentException ex) {
+            // falsches Wörterbuch
+            return false;
+        }
+        ziel.flip();
+        return true;
+    }
+
+    /**
+     * Gibt den Inflater frei; vom lesenden Thread nach dem Ende der
+     * Verbindung aufzurufen
+     */
+    void entpackenBeenden() {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    /**
+     * Gibt den Deflater frei; danach wird nicht mehr komprimiert
+     */
+    synchronized void beenden() {
+        beendet = true;
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+}
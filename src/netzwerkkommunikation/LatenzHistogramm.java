@@ -0,0 +1,132 @@
+package netzwerkkommunikation;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramm von Zeitdauern mit geringem Aufwand beim Erfassen: Jede Dauer
+ * wird in ein Fach mit höchstens 12,5 % Breite einsortiert (acht Fächer je
+ * Zweierpotenz), die Zähler sind LongAdder und damit auch bei vielen
+ * erfassenden Threads kaum umkämpft. Perzentile werden als Obergrenze des
+ * betreffenden Fachs geliefert.
+ *
+ * Schon zwei Zeitstempel kosten je nach Plattform deutlich mehr als das
+ * Erfassen; auf dem Nachrichtenpfad wird daher nur eine Stichprobe gemessen
+ * (siehe {@link #stichprobe(long)}).
+ *
+ * @author Jochen Schmitt
+ */
+public final class LatenzHistogramm {
+
+    private static final int UNTERTEILUNG = 3;
+    private static final int FAECHER_JE_STUFE = 1 << UNTERTEILUNG;
+    private static final int FAECHER = (64 - UNTERTEILUNG + 1) * FAECHER_JE_STUFE;
+
+    /**
+     * jede so vielte Nachricht wird zeitlich gemessen
+     */
+    public static final int STICHPROBE = 16;
+
+    private final LongAdder[] faecher = new LongAdder[FAECHER];
+    private final LongAdder summe = new LongAdder();
+
+    public LatenzHistogramm() {
+        for (int i = 0; i < FAECHER; i++) {
+            faecher[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param zaehler fortlaufender Zähler, z.B. der empfangenen Nachrichten
+     * @return true, wenn zu diesem Zählerstand gemessen werden soll
+     */
+    static boolean stichprobe(long zaehler) {
+        return (zaehler & (STICHPROBE - 1)) == 0;
+    }
+
+    /**
+     * Erfasst eine Dauer
+     *
+     * @param nanos Dauer in ns
+     */
+    public void erfassen(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        faecher[fach(nanos)].increment();
+        summe.add(nanos);
+    }
+
+    /**
+     * @return Anzahl der erfassten Dauern
+     */
+    public long anzahl() {
+        long anzahl = 0;
+        for (LongAdder fach : faecher) {
+            anzahl += fach.sum();
+        }
+        return anzahl;
+    }
+
+    /**
+     * @return mittlere Dauer in µs, 0 ohne erfasste Dauern
+     */
+    public double mittelwertMikros() {
+        long anzahl = anzahl();
+        return anzahl == 0 ? 0 : summe.sum() / 1000.0 / anzahl;
+    }
+
+    /**
+     * @param anteil gewünschtes Perzentil zwischen 0 und 1, z.B. 0.99
+     * @return Obergrenze der Dauer in µs, die der Anteil der erfassten Dauern
+     * nicht überschreitet; 0 ohne erfasste Dauern
+     */
+    public double perzentilMikros(double anteil) {
+        long[] zaehler = new long[FAECHER];
+        long anzahl = 0;
+        for (int i = 0; i < FAECHER; i++) {
+            zaehler[i] = faecher[i].sum();
+            anzahl += zaehler[i];
+        }
+        if (anzahl == 0) {
+            return 0;
+        }
+        long ziel = (long) Math.ceil(anteil * anzahl);
+        long gezaehlt = 0;
+        for (int i = 0; i < FAECHER; i++) {
+            gezaehlt += zaehler[i];
+            if (gezaehlt >= ziel && zaehler[i] > 0) {
+                return obergrenze(i) / 1000.0;
+            }
+        }
+        return obergrenze(FAECHER - 1) / 1000.0;
+    }
+
+    /**
+     * Setzt alle Zähler zurück; gleichzeitig erfasste Dauern können verloren
+     * gehen
+     */
+    public void zuruecksetzen() {
+        for (LongAdder fach : faecher) {
+            fach.reset();
+        }
+        summe.reset();
+    }
+
+    private static int fach(long wert) {
+        if (wert < FAECHER_JE_STUFE) {
+            return (int) wert;
+        }
+        int stufe = 63 - Long.numberOfLeadingZeros(wert);
+        int unterfach = (int) (wert >>> (stufe - UNTERTEILUNG)) & (FAECHER_JE_STUFE - 1);
+        return (stufe - UNTERTEILUNG + 1) * FAECHER_JE_STUFE + unterfach;
+    }
+
+    private static long obergrenze(int fach) {
+        if (fach < FAECHER_JE_STUFE) {
+            return fach;
+        }
+        int stufe = fach / FAECHER_JE_STUFE + UNTERTEILUNG - 1;
+        int unterfach = fach % FAECHER_JE_STUFE;
+        return ((long) (FAECHER_JE_STUFE + unterfach + 1) << (stufe - UNTERTEILUNG)) - 1;
+    }
+}
@@ -0,0 +1,36 @@
+package netzwerkkommunikation;
+
+/**
+ * Nimmt die Kennzahlen von Servern und Clients entgegen, z.B. um sie über JMX
+ * zu veröffentlichen ({@link JmxRegistry}) oder regelmäßig an ein
+ * Überwachungssystem zu übertragen. Die übergebenen Objekte liefern bei jedem
+ * Abruf aktuelle Werte.
+ *
+ * @author Jochen Schmitt
+ */
+public interface MetrikRegistry {
+
+    /**
+     * Wird beim Starten eines Servers aufgerufen
+     *
+     * @param serverName Name des Servers
+     * @param metriken Kennzahlen des Servers
+     */
+    public void registriere(String serverName, ServerMetrikenMXBean metriken);
+
+    /**
+     * Wird beim Verbindungsaufbau eines Clients aufgerufen
+     *
+     * @param clientName Name des Clients
+     * @param metriken Kennzahlen des Clients
+     */
+    public void registriere(String clientName, ClientMetrikenMXBean metriken);
+
+    /**
+     * Wird beim Stoppen eines Servers bzw. Trennen eines Clients aufgerufen
+     *
+     * @param name Name des Servers bzw. Clients
+     * @param metriken zuvor registrierte Kennzahlen
+     */
+    public void entferne(String name, Object metriken);
+}
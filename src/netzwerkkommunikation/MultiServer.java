@@ -1,13 +1,33 @@
 package netzwerkkommunikation;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,30 +35,310 @@ import java.util.logging.Logger;
  * Klasse zur Bereitstellung eines Servers, der mit mehreren Clients eine
  * Verbindung halten kann. Der Server hört auf UDP-Nachrichten auf dem Port 9999
  * und übermittelt als Antwort seine IP-Adresse, die zum Aufbau eine
- * TCP-Verbindung auf dem Port 3333 genutzt werden kann. Intern werden die
- * übermittelten Namen der Clients zum Versand von Nachrichten verwaltet.
+ * TCP-Verbindung auf dem Port 3333 genutzt werden kann. Ports,
+ * Socketoptionen, Threads für die Annahme und Puffergrößen legt
+ * {@link #setzeKonfiguration(ServerKonfiguration)} fest; mit SO_REUSEPORT
+ * teilen sich mehrere Instanzen eines Rechners einen Port und einen Namen.
+ * Die Antwort enthält auch die aktuelle Last, nach der Clients unter mehreren
+ * gleichnamigen Servern wählen (siehe {@link #setzeGewicht(int)}). Beim Start
+ * kündigt er sich zusätzlich per Broadcast an (siehe {@link Discovery}).
+ * Intern werden die übermittelten Namen der Clients zum Versand von
+ * Nachrichten verwaltet.
+ *
+ * In der Betriebsart {@link Mode#NIO} werden alle Verbindungen nicht-blockierend
+ * über Selectoren von wenigen Event-Loop-Threads (einer je Prozessorkern)
+ * bedient, statt für jeden Client einen eigenen Thread zu starten. In der
+ * Betriebsart {@link Mode#THREAD_PER_CLIENT} laufen die ClientHandler als
+ * Aufgaben eines austauschbaren Executors, z.B. auf virtuellen Threads (siehe
+ * {@link ExecutionStrategy}).
+ *
+ * Jeder Client besitzt eine begrenzte Warteschlange für ausgehende
+ * Nachrichten, die von einem eigenen Schreiber geleert wird. Senden hängt
+ * Nachrichten nur an, sodass ein langsamer Client weder Broadcasts noch andere
+ * Clients aufhält. Ein Broadcast wird nur einmal in Bytes umgewandelt; alle
+ * Clients senden dieselben Bytes über eigene schreibgeschützte Sichten. Der
+ * Schreiber fasst wartende Nachrichten bis zu einem Bytebudget zu einem
+ * Schreibvorgang zusammen; optional wartet er dafür ein kurzes Schreibfenster
+ * ab (siehe {@link #setzeSchreibbuendelung(long, int)}).
+ *
+ * Neben dem Textprotokoll können Clients einen Binärmodus mit
+ * längenpräfixierten Frames aushandeln (siehe {@link Protocol}). Darin sind
+ * beliebige Texte und Binärdaten ohne Zeilensuche übertragbar; Binärdaten
+ * erhält ein {@link ServerDataListener}. Clients im Binärmodus können
+ * außerdem Kompression vereinbaren, sofern sie mit
+ * {@link #setzeKomprimierung(int, byte[])} eingeschaltet ist; große Broadcasts
+ * komprimiert der erste Schreiber eines solchen Clients einmal für alle.
+ *
+ * Ein {@link ServerBufferListener} erhält Nachrichten ohne neue Objekte als
+ * wiederverwendete Textsicht bzw. als Ausschnitt eines Empfangspuffers,
+ * zusammen mit einer festen Client-Id. Empfangspuffer stammen aus einem
+ * {@link BufferPool} mit zuschaltbarer Leckprüfung.
+ *
+ * Der Listener wird standardmäßig im lesenden Thread aufgerufen. Mit
+ * {@link #setzeDispatch(DispatchMode, int, int)} übernehmen Arbeiter-Threads
+ * die Zustellung, sodass ein langsamer Listener das Lesen nicht aufhält;
+ * partitioniert bleibt die Reihenfolge je Client erhalten. Warten zu viele
+ * Nachrichten eines Clients auf ihre Zustellung, liest der Server von diesem
+ * Client vorerst nicht weiter.
+ *
+ * Clients können Themen abonnieren (siehe {@link Protocol}); mit
+ * {@link #veroeffentliche(String, String)} erreicht eine Nachricht nur die
+ * Abonnenten eines Themas, ohne die übrigen Clients zu durchlaufen.
+ *
+ * Anfragen von {@link NetworkClient#anfrage(String)} erhält ein
+ * {@link ServerRequestListener} als {@link Anfrage}, die er sofort oder
+ * später aus einem beliebigen Thread beantworten kann.
+ *
+ * Clients mit Wiederverbindung (siehe
+ * {@link NetworkClient#setzeWiederverbindung(int, long)}) erhalten eine
+ * Sitzung. Bricht ihre Verbindung ab, ruht die Sitzung eine Weile; an den
+ * Namen gesendete Textnachrichten werden aufbewahrt, und beim Fortsetzen
+ * erhält der Client alle Nachrichten, die er noch nicht bestätigt hatte
+ * (siehe {@link #setzeSitzungen(int, long)}). Die Zählung setzt voraus, dass
+ * die Ausgangswarteschlange keine Nachrichten verwirft (Standard
+ * {@link OverflowPolicy#DISCONNECT}).
+ *
+ * Clients, von denen länger nichts ankommt, trennt der Server (siehe
+ * {@link #setzeLeerlauf(long)}); der {@link NetworkClient} hält seine
+ * Verbindung mit einem Herzschlag offen. Die Fristen aller Verbindungen
+ * verwaltet ein gemeinsames Zeitrad, sodass auch sehr viele Verbindungen
+ * weder Threads noch Timer kosten. Getrennte Clients meldet ein
+ * {@link ServerTimeoutListener}.
+ *
+ * Gegen überlastende Clients begrenzt der Server die Zahl der Verbindungen
+ * und die Länge jeder Nachricht (siehe {@link #setzeZulassung(int, int)}).
+ * Nachrichten an den Listener unterliegen Token-Buckets je Client und je
+ * Absenderadresse (siehe {@link #setzeEingangsrate(int, int, int, int)});
+ * was darüber hinausgeht, wird verworfen, bevor es den Listener erreicht.
+ * Überlast meldet ein {@link ServerUeberlastListener}.
+ *
+ * Mehrere Server gleichen Namens bilden mit
+ * {@link #setzeCluster(String, Map)} einen Cluster: Nachrichten an Clients
+ * anderer Knoten und Broadcasts werden über die Knoten weitergeleitet (siehe
+ * {@link Cluster}).
+ *
+ * Mit {@link #setzeNachrichtenlog(File, int, long)} speichert der Server
+ * Nachrichten an getrennte Clients und alle Broadcasts dauerhaft und liefert
+ * sie nach, sobald sich der Client mit seinem Namen zurückmeldet (siehe
+ * {@link Nachrichtenlog}).
+ *
+ * Kennzahlen zu Verbindungen, Nachrichten, Warteschlangen und Listeneraufrufen
+ * liefert {@link #gibMetriken()}; beim Starten werden sie bei einer
+ * {@link MetrikRegistry} angemeldet, standardmäßig über JMX.
  *
  * @author Jochen Schmitt
  */
 public class MultiServer {
 
+    /**
+     * TCP-Port, auf dem Server standardmäßig Verbindungen annehmen
+     */
+    public static final int PORT = 3333;
+
+    /**
+     * maximale Wartezeit in ms, bis sich alle Threads beim Stoppen beendet
+     * haben, und Standardfrist für das Leeren der Ausgangswarteschlangen
+     */
+    private static final int STOPP_WARTEZEIT = 2000;
+    /**
+     * angeforderter Empfangspuffer des UDP-Servers in Bytes, fängt
+     * Anfragestürme auf
+     */
+    private static final int DISCOVERY_EMPFANGSPUFFER = 1024 * 1024;
+
     private final String serverName;
     private final ServerListener serverListener;
-    private ArrayList<Thread> clientList = null;
+    private final ServerBufferListener bufferListener;
+    private final Mode mode;
+    private final ClientRegistry clientList;
+    private final TopicRegistry themen;
+    // Sitzungen nach Token und ruhende Sitzungen nach Clientname
+    private final ConcurrentHashMap<String, Session> sitzungen = new ConcurrentHashMap<String, Session>();
+    private final ConcurrentHashMap<String, Session> ruhend = new ConcurrentHashMap<String, Session>();
+    private final BufferPool pufferPool = new BufferPool(64 * 1024, 256);
+    private final AtomicLong naechsteClientId = new AtomicLong();
+    private final Metriken metriken = new Metriken();
+    private MetrikRegistry metrikRegistry = new JmxRegistry();
     private UDPServer udpServer;
-    private TCPServer tcpServer;
+    private Thread tcpServer;
+    private Executor executor;
+    // Schreiber der ClientHandler, getrennt von den blockierend lesenden
+    // Handlern, damit ein begrenzter Executor sie nicht aushungert
+    private final Executor schreibExecutor = ExecutionStrategy.threadPool("ClientHandler-Schreiber");
+    private int ausgangKapazitaet = 10000;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+    // Schreibfenster in ns und Bytebudget je Schreibvorgang
+    private volatile long schreibfenster = 0;
+    private volatile int schreibBudget = 64 * 1024;
+    // startet verzögerte Schreiber, nur mit Schreibfenster vorhanden
+    private volatile ScheduledExecutorService zeitgeber;
+    // true, solange stoppeServer() auf das Leeren der Ausgänge wartet
+    private volatile boolean abschluss = false;
+    // Schwelle und Wörterbuch der Kompression, null ohne Kompression
+    private volatile Kompression broadcastKompression;
+    // Zustellung an den Listener, null für den lesenden Thread
+    private DispatchMode dispatchMode = DispatchMode.INLINE;
+    private int dispatchThreads = Runtime.getRuntime().availableProcessors();
+    private int dispatchKapazitaet = 1000;
+    private volatile Dispatcher dispatcher;
+    private boolean ankuendigen = true;
+    private int discoveryEmpfaenger = 2;
+    private int discoveryRate = 100;
+    private int discoveryBuendel = 50;
+    private volatile int sitzungKapazitaet = 1000;
+    private volatile long sitzungDauer = 60000;
+    // Leerlaufzeit in ms, nach der ein Client getrennt wird, 0 ohne
+    private volatile long leerlaufZeit = 60000;
+    // höchstens so viele Verbindungen, 0 ohne Grenze, und längste Nachricht
+    private volatile int maxVerbindungen = 0;
+    // zugelassene und noch nicht wieder ausgetragene Verbindungen; der Platz
+    // wird bei der Annahme reserviert, damit mehrere Annahme-Threads die
+    // Höchstzahl nicht gemeinsam überschreiten
+    private final AtomicInteger belegt = new AtomicInteger();
+    private volatile int maxNachrichtenlaenge = Protocol.MAX_NUTZDATEN;
+    // Eingangsraten je Client, 0 ohne Grenze
+    private volatile int clientNachrichtenRate = 0;
+    private volatile int clientByteRate = 0;
+    // Eingangsraten je Absenderadresse, null ohne Grenze
+    private volatile Ratenbegrenzer adresseNachrichten;
+    private volatile Ratenbegrenzer adresseBytes;
+    private final Zeitrad zeitrad = Zeitrad.gemeinsam();
+    // Ports, Socketoptionen und Puffergrößen; wird nur ersetzt, nie verändert
+    private volatile ServerKonfiguration konfiguration = new ServerKonfiguration();
+    // Gewicht bei der Lastverteilung durch die Clients
+    private volatile int gewicht = 1;
+    // Name dieses Knotens und alle Knoten des Clusters, null ohne Cluster
+    private String knotenName;
+    private Map<String, InetSocketAddress> clusterKnoten;
+    private volatile Cluster cluster;
+    // Nachrichtenlog für getrennte Clients, null ohne
+    private File logVerzeichnis;
+    private int logSegmentGroesse = 64 * 1024 * 1024;
+    private long logSyncMillis = 100;
+    private long logAufbewahrung = 7L * 24 * 60 * 60 * 1000;
+    private int logMaxSegmente = 64;
+    private boolean logKompaktieren = true;
+    private volatile Nachrichtenlog nachrichtenlog;
+    // Anzahl der noch laufenden Server-, Event-Loop- und Handler-Aufgaben
+    private int aktiveAufgaben = 0;
 
     /**
-     * Konstruktor zum Erzeugen eines Multiservers
+     * Betriebsart des TCP-Servers
+     */
+    public enum Mode {
+
+        /**
+         * Für jeden Client wird ein eigener ClientHandler-Thread gestartet
+         */
+        THREAD_PER_CLIENT,
+        /**
+         * Alle Clients werden nicht-blockierend von wenigen Event-Loop-Threads
+         * bedient
+         */
+        NIO
+    }
+
+    /**
+     * Verhalten bei voller Ausgangswarteschlange eines Clients
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Die älteste wartende Nachricht wird verworfen
+         */
+        DROP_OLDEST,
+        /**
+         * Die neue Nachricht wird verworfen
+         */
+        DROP_NEWEST,
+        /**
+         * Der zu langsame Client wird getrennt
+         */
+        DISCONNECT
+    }
+
+    /**
+     * Grund einer Überlast, gemeldet an einen {@link ServerUeberlastListener}
+     */
+    public enum Ueberlast {
+
+        /**
+         * Eine Verbindung wurde abgelehnt, da die Höchstzahl erreicht ist
+         */
+        VERBINDUNGEN,
+        /**
+         * Der Client sendet mehr Nachrichten als erlaubt; sie werden verworfen
+         */
+        NACHRICHTEN,
+        /**
+         * Der Client sendet mehr Bytes als erlaubt; seine Nachrichten werden
+         * verworfen
+         */
+        BYTES,
+        /**
+         * Alle Clients der Absenderadresse zusammen senden mehr Nachrichten
+         * oder Bytes als erlaubt; ihre Nachrichten werden verworfen
+         */
+        ADRESSE,
+        /**
+         * Eine Nachricht war zu lang; der Client wurde getrennt
+         */
+        LAENGE
+    }
+
+    /**
+     * Art der Zustellung empfangener Nachrichten an den Listener
+     */
+    public enum DispatchMode {
+
+        /**
+         * Der lesende Thread ruft den Listener direkt auf; ohne Kopie der
+         * Nachricht, aber ein langsamer Listener hält das Lesen auf
+         */
+        INLINE,
+        /**
+         * Ein gemeinsamer Pool von Arbeitern ruft den Listener auf, auch
+         * Nachrichten desselben Clients können gleichzeitig und in anderer
+         * Reihenfolge zugestellt werden
+         */
+        POOL,
+        /**
+         * Jeder Client ist fest einem von mehreren Arbeitern zugeordnet; seine
+         * Nachrichten werden in der Reihenfolge des Empfangs zugestellt,
+         * verschiedene Clients parallel
+         */
+        PARTITIONED
+    }
+
+    /**
+     * Konstruktor zum Erzeugen eines Multiservers, der für jeden Client einen
+     * eigenen Thread startet
      *
      * @param serverName frei gewählter Name des Servers, unveränderbar
      * @param serverListener zu benachrichtigender Listener bei einkommenden
      * Nachrichten
      */
     public MultiServer(String serverName, ServerListener serverListener) {
+        this(serverName, serverListener, Mode.THREAD_PER_CLIENT);
+    }
+
+    /**
+     * Konstruktor zum Erzeugen eines Multiservers
+     *
+     * @param serverName frei gewählter Name des Servers, unveränderbar
+     * @param serverListener zu benachrichtigender Listener bei einkommenden
+     * Nachrichten
+     * @param mode Betriebsart des TCP-Servers
+     */
+    public MultiServer(String serverName, ServerListener serverListener, Mode mode) {
         this.serverName = serverName.toLowerCase();
         this.serverListener = serverListener;
-        clientList = new ArrayList<Thread>();
+        this.bufferListener = serverListener instanceof ServerBufferListener
+                ? (ServerBufferListener) serverListener : null;
+        this.mode = mode;
+        clientList = new ClientRegistry();
+        themen = new TopicRegistry(clientList);
+        executor = ExecutionStrategy.threadPool("ClientHandler");
 
     }
 
@@ -47,281 +347,3082 @@ public class MultiServer {
      * zum Aufbau von TCP-Verbindungen werden gestartet
      */
     public synchronized void starteServer() {
+        aufgabeGestartet();
+        aufgabeGestartet();
+        belegt.set(0);
+        if (dispatchMode != DispatchMode.INLINE) {
+            dispatcher = new Dispatcher(dispatchMode, dispatchThreads, "MultiServer-Dispatch");
+        }
+        if (clusterKnoten != null) {
+            cluster = new Cluster(knotenName, clusterKnoten);
+        }
+        if (logVerzeichnis != null) {
+            try {
+                nachrichtenlog = new Nachrichtenlog(logVerzeichnis, logSegmentGroesse, logSyncMillis,
+                        logAufbewahrung, logMaxSegmente, logKompaktieren);
+            } catch (IOException ex) {
+                System.out.println("Nachrichtenlog nicht verfügbar: " + ex);
+            }
+        }
         udpServer = new UDPServer();
-        tcpServer = new TCPServer();
+        if (mode == Mode.NIO) {
+            tcpServer = new NIOServer();
+        } else {
+            tcpServer = new TCPServer();
+        }
         //UDP-Server starten
         udpServer.start();
         // TCP-Server starten
         tcpServer.start();
+        if (metrikRegistry != null) {
+            metrikRegistry.registriere(serverName, metriken);
+        }
     }
 
-    public synchronized void stoppeServer() {
-        // UDP- und TCP-Server stoppen
-        udpServer.interrupt();
-        tcpServer.interrupt();
-        try {
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-        }
-        for (Thread clientH : clientList) {
-            clientH.interrupt();
-        }
+    /**
+     * Legt die Ports des Servers fest, z.B. für mehrere Server auf einem
+     * Rechner. Wirksam ab dem nächsten Start des Servers.
+     *
+     * @param tcpPort Port für Verbindungen der Clients (Standard
+     * {@value #PORT})
+     * @param udpPort Port für Suchanfragen (Standard {@value Discovery#PORT});
+     * Clients suchen nur auf dem Standardport
+     * @see ServerKonfiguration#setzePorts(int, int)
+     */
+    public synchronized void setzePorts(int tcpPort, int udpPort) {
+        konfiguration = konfiguration.kopie().setzePorts(tcpPort, udpPort);
+    }
 
-        // zwei Sekunden warten, damit evt. ein interrupted Server sich beenden kann
-        try {
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-        }
-        clientList.clear();
+    /**
+     * Übernimmt Ports, Socketoptionen, Threads für die Annahme und
+     * Puffergrößen. Wirksam ab dem nächsten Start des Servers.
+     *
+     * @param konfiguration Konfiguration, der Server verwendet eine Kopie
+     */
+    public synchronized void setzeKonfiguration(ServerKonfiguration konfiguration) {
+        this.konfiguration = konfiguration.kopie();
     }
 
     /**
-     * Sendet an einen Client eine Nachricht
+     * @return Kopie der aktuellen Konfiguration, z.B. als Vorlage für
+     * Änderungen
+     */
+    public synchronized ServerKonfiguration gibKonfiguration() {
+        return konfiguration.kopie();
+    }
+
+    /**
+     * Legt das Gewicht des Servers bei der Lastverteilung fest: Antworten
+     * mehrere gleichnamige Server auf eine Suche, wählen die Clients
+     * bevorzugt den mit der geringsten Last je Gewicht (siehe
+     * {@link Discovery.Auswahl}). Ein Server mit doppeltem Gewicht erhält so
+     * etwa doppelt so viele Clients.
      *
-     * @param message Nachricht
-     * @param clientName Name des Clients
-     * @return true, wenn der Client existiert, andernfalls false
+     * @param gewicht Gewicht (Standard 1), mindestens 1
      */
-    public synchronized boolean sendeNachricht(String message, String clientName) {
-        for (Thread clientH : clientList) {
-            if (((ClientHandler) clientH).getClientName().equalsIgnoreCase(clientName)) {
-                ((ClientHandler) clientH).sendMessage(message);
-                return true;
-            }
-        }
-        // Client existiert nicht
-        return false;
+    public void setzeGewicht(int gewicht) {
+        this.gewicht = Math.max(1, gewicht);
     }
 
     /**
-     * Entfernt einen Client aus der Liste
+     * Macht den Server zu einem Knoten eines Clusters. Jeder Knoten verbindet
+     * sich mit allen anderen und meldet ihnen die Namen seiner Clients.
+     * {@link #sendeNachricht(String, String)} erreicht danach auch Clients
+     * anderer Knoten, {@link #sendeAnAlle(String)} alle Clients des Clusters;
+     * Nachrichten von Clients erhält weiterhin nur der Listener ihres Knotens.
+     * Alle Knoten erhalten dieselbe Liste. Wirksam ab dem nächsten Start des
+     * Servers.
      *
-     * @param clientName
+     * @param knotenName Name dieses Knotens, im Cluster eindeutig
+     * @param knoten alle Knoten des Clusters mit der Adresse ihres TCP-Ports,
+     * einschließlich dieses Knotens; null beendet die Teilnahme
      */
-    private synchronized void removeClient(String clientName) {
-        int i = 0;
-        while (i < clientList.size()) {
-            Thread clientH = clientList.get(i);
-            clientH.interrupt();
-            if (((ClientHandler) clientH).getClientName().equalsIgnoreCase(clientName)) {
-                clientList.remove(i);
-            }
-            i++;
-        }
+    public synchronized void setzeCluster(String knotenName, Map<String, InetSocketAddress> knoten) {
+        this.knotenName = knotenName;
+        this.clusterKnoten = knoten;
+    }
 
+    /**
+     * Legt fest, auf welchem Executor die ClientHandler in der Betriebsart
+     * {@link Mode#THREAD_PER_CLIENT} ausgeführt werden. Jeder Handler belegt
+     * einen Thread, solange sein Client verbunden ist; ein Executor mit
+     * begrenzten Threads begrenzt also die Zahl der Clients. Die Schreiber
+     * laufen in einem eigenen Pool des Servers. Wirksam für alle danach
+     * angenommenen Verbindungen.
+     *
+     * @param executor Executor für die ClientHandler, z.B.
+     * {@link ExecutionStrategy#virtuelleThreads()}
+     */
+    public synchronized void setzeExecutor(Executor executor) {
+        this.executor = executor;
     }
 
     /**
-     * Methode zum Versenden von Nachrichten an alle verbundenen Clients
+     * Legt die Größe der Ausgangswarteschlange je Client und das Verhalten bei
+     * voller Warteschlange fest. Wirksam für alle danach angenommenen
+     * Verbindungen.
      *
-     * @param message zu verschickende Nachricht
+     * @param kapazitaet maximale Anzahl wartender Nachrichten je Client
+     * @param policy Verhalten bei voller Warteschlange
      */
-    public synchronized void sendeAnAlle(String message) {
-        for (Thread clientH : clientList) {
-            ((ClientHandler) clientH).sendMessage(message);
-        }
+    public synchronized void setzeAusgangspuffer(int kapazitaet, OverflowPolicy policy) {
+        this.ausgangKapazitaet = kapazitaet;
+        this.overflowPolicy = policy;
     }
 
     /**
-     * gibt eine Information über den eigenen Namen sowie die Namen der
-     * verbundenen Clients zurück
+     * Legt fest, wie ausgehende Nachrichten eines Clients gebündelt werden.
+     * Mit Schreibfenster startet der Schreiber erst nach dieser Zeit, damit
+     * weitere Nachrichten im selben Schreibvorgang mitgehen; erreichen die
+     * wartenden Nachrichten das Bytebudget oder wird mit sofort gesendet,
+     * startet er gleich. Wirksam ab der nächsten Nachricht.
      *
-     * @return Infotext
+     * @param fensterMikros Schreibfenster in µs, 0 (Standard) schreibt ohne
+     * Wartezeit alles bereits Wartende
+     * @param budget höchstens so viele Bytes werden zu einem Schreibvorgang
+     * zusammengefasst, mindestens aber eine Nachricht (Standard 64 KB)
      */
-    public synchronized String gibInfo() {
-        String info = "--------------------------------------------\n";
-        info += "Servername: " + serverName + "\nClients:\n";
-        for (Thread clientH : clientList) {
-            info += ((ClientHandler) clientH).getClientName() + "\n";
+    public synchronized void setzeSchreibbuendelung(long fensterMikros, int budget) {
+        if (fensterMikros > 0 && zeitgeber == null) {
+            ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable aufgabe) {
+                    Thread thread = new Thread(aufgabe, "MultiServer-Schreibfenster");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            timer.setRemoveOnCancelPolicy(true);
+            zeitgeber = timer;
         }
-        info += "--------------------------------------------";
-        return info;
+        this.schreibfenster = TimeUnit.MICROSECONDS.toNanos(fensterMikros);
+        this.schreibBudget = budget;
+    }
+
+    /**
+     * Legt fest, wie empfangene Nachrichten an den Listener zugestellt werden.
+     * In den asynchronen Arten wird jede Nachricht kopiert (Text als String,
+     * Binärdaten in einen Puffer des Pools) und an einen Arbeiter übergeben.
+     * Erreichen die noch nicht zugestellten Nachrichten eines Clients die
+     * Kapazität, wird das Lesen dieses Clients angehalten und bei der Hälfte
+     * fortgesetzt; Nachrichten aus einem bereits gelesenen Block werden noch
+     * übernommen. Wirksam ab dem nächsten Start des Servers.
+     *
+     * @param mode Zustellart, Standard {@link DispatchMode#INLINE}
+     * @param threads Anzahl der Arbeiter, Standard ein Arbeiter je
+     * Prozessorkern
+     * @param kapazitaet höchstens so viele Nachrichten je Client warten auf
+     * ihre Zustellung (Standard 1000)
+     */
+    public synchronized void setzeDispatch(DispatchMode mode, int threads, int kapazitaet) {
+        this.dispatchMode = mode;
+        this.dispatchThreads = Math.max(1, threads);
+        this.dispatchKapazitaet = Math.max(2, kapazitaet);
+    }
 
+    /**
+     * Legt fest, ob sich der Server beim Start per Broadcast ankündigt, damit
+     * Clients mit {@link Discovery#empfangeAnkuendigungen(boolean)} seine
+     * Adresse ohne eigene Anfrage erfahren
+     *
+     * @param ankuendigen true (Standard), um sich beim Start anzukündigen
+     */
+    public synchronized void setzeAnkuendigung(boolean ankuendigen) {
+        this.ankuendigen = ankuendigen;
     }
 
-    public class ClientHandler extends Thread {
+    /**
+     * Legt fest, wie der UDP-Server Suchanfragen beantwortet. Jeder Absender
+     * erhält höchstens die angegebene Rate an Antworten, damit eine Flut von
+     * Anfragen die übrigen Clients nicht verdrängt. Wirksam ab dem nächsten
+     * Start des Servers.
+     *
+     * @param empfaenger Anzahl der Empfänger-Threads (Standard 2)
+     * @param antwortenJeSekunde Antworten je Sekunde und Absenderadresse
+     * (Standard 100), 0 für unbegrenzt
+     * @param buendel so viele Antworten erhält ein Absender unmittelbar
+     * nacheinander (Standard 50)
+     */
+    public synchronized void setzeDiscovery(int empfaenger, int antwortenJeSekunde, int buendel) {
+        this.discoveryEmpfaenger = Math.max(1, empfaenger);
+        this.discoveryRate = antwortenJeSekunde;
+        this.discoveryBuendel = buendel;
+    }
 
-        private String clientName;
-        Socket client;
-        InputStream in;
-        OutputStream out;
-        InputStreamReader streamReader;
-        BufferedReader reader;
-        PrintWriter writer;
+    /**
+     * Legt fest, wie Sitzungen von Clients mit Wiederverbindung aufbewahrt
+     * werden
+     *
+     * @param kapazitaet höchstens so viele unbestätigte Nachrichten werden je
+     * Sitzung zur Wiederholung aufbewahrt (Standard 1000); 0 schaltet
+     * Sitzungen ab
+     * @param dauerMillis so lange kann eine unterbrochene Sitzung fortgesetzt
+     * werden (Standard 60 s)
+     */
+    public void setzeSitzungen(int kapazitaet, long dauerMillis) {
+        this.sitzungKapazitaet = kapazitaet;
+        this.sitzungDauer = dauerMillis;
+    }
 
-        private ClientHandler(String clName, Socket c) {
-            clientName = clName;
-            client = c;
+    /**
+     * Legt fest, nach welcher Zeit ohne empfangene Daten ein Client getrennt
+     * wird, z.B. nach dem Absturz seines Rechners. Der Client wird wie beim
+     * Abbruch der Verbindung entfernt, seine Sitzung ruht. Wirksam für alle
+     * danach angenommenen Verbindungen.
+     *
+     * @param millis Leerlaufzeit in ms (Standard 60 s), sollte ein
+     * Mehrfaches des Herzschlags der Clients betragen (siehe
+     * {@link NetworkClient#setzeHerzschlag(long, long)}); 0 trennt nie
+     */
+    public void setzeLeerlauf(long millis) {
+        this.leerlaufZeit = millis;
+    }
 
-            try {
+    /**
+     * Begrenzt die Verbindungen und die Länge der Nachrichten. Über der
+     * Höchstzahl wird jede neue Verbindung sofort nach der Annahme
+     * geschlossen; ein Client mit zu langer Zeile bzw. zu langem Frame wird
+     * getrennt, bevor die Nachricht zwischengespeichert wird. Wirksam für
+     * alle danach angenommenen Verbindungen.
+     *
+     * @param verbindungen höchstens so viele gleichzeitige Verbindungen, 0
+     * ohne Grenze (Standard)
+     * @param laenge längste Zeile bzw. längster Frame in Bytes (Standard und
+     * Obergrenze 64 MB)
+     */
+    public void setzeZulassung(int verbindungen, int laenge) {
+        this.maxVerbindungen = Math.max(0, verbindungen);
+        this.maxNachrichtenlaenge = Math.max(1, Math.min(laenge, Protocol.MAX_NUTZDATEN));
+    }
 
-                in = client.getInputStream();
-                streamReader = new InputStreamReader(in);
-                reader = new BufferedReader(streamReader);
-                out = client.getOutputStream();
-                writer = new PrintWriter(out);
+    /**
+     * Begrenzt die Nachrichten, die Clients an den Listener senden, je
+     * Client und je Absenderadresse mit Token-Buckets; erlaubt ist jeweils
+     * ein Bündel von der Menge einer Sekunde. Überzählige Nachrichten werden
+     * verworfen, ohne den Listener oder andere Clients aufzuhalten, Anfragen
+     * mit einem Fehler beantwortet. Steuernachrichten wie Herzschlag und
+     * Quittungen sind nicht begrenzt. Clients derselben Adresse teilen sich
+     * deren Rate; verschiedene Adressen teilen sie sich nur selten. Wirksam
+     * für alle danach angenommenen Verbindungen, die Raten je Adresse sofort.
+     *
+     * @param nachrichten Nachrichten je Sekunde und Client, 0 ohne Grenze
+     * (Standard)
+     * @param bytes Bytes je Sekunde und Client, 0 ohne Grenze (Standard)
+     * @param nachrichtenJeAdresse Nachrichten je Sekunde und Absenderadresse,
+     * 0 ohne Grenze (Standard)
+     * @param bytesJeAdresse Bytes je Sekunde und Absenderadresse, 0 ohne
+     * Grenze (Standard)
+     */
+    public void setzeEingangsrate(int nachrichten, int bytes, int nachrichtenJeAdresse, int bytesJeAdresse) {
+        this.clientNachrichtenRate = Math.max(0, nachrichten);
+        this.clientByteRate = Math.max(0, bytes);
+        this.adresseNachrichten = nachrichtenJeAdresse > 0
+                ? new Ratenbegrenzer(nachrichtenJeAdresse, nachrichtenJeAdresse, 4096) : null;
+        this.adresseBytes = bytesJeAdresse > 0
+                ? new Ratenbegrenzer(bytesJeAdresse, bytesJeAdresse, 4096) : null;
+    }
 
-            } catch (IOException ex) {
-                System.out.println("Fehler beim ClientHandler");
-                System.out.println(ex);
-            }
+    /**
+     * Erlaubt Clients im Binärmodus, Kompression zu vereinbaren. Nachrichten
+     * ab der Schwelle werden dann einzeln mit Deflate komprimiert, kleinere
+     * unverändert gesendet. Wirksam für danach vereinbarte Kompressionen.
+     *
+     * @param schwelle Mindestgröße komprimierter Nachrichten in Bytes, 0
+     * schaltet die Kompression aus
+     * @param woerterbuch Wörterbuch mit typischen Inhalten der Nachrichten,
+     * wird den Clients übermittelt; null für keines
+     */
+    public synchronized void setzeKomprimierung(int schwelle, byte[] woerterbuch) {
+        if (schwelle <= 0) {
+            broadcastKompression = null;
+        } else {
+            broadcastKompression = new Kompression(schwelle, woerterbuch == null ? new byte[0] : woerterbuch.clone());
         }
+    }
 
-        private String getClientName() {
-            return clientName;
-        }
+    /**
+     * Speichert Nachrichten an getrennte Clients und Broadcasts in einem
+     * dauerhaften Log, solange der Client fort ist. Meldet er sich mit
+     * seinem Namen zurück, erhält er sie vor allen neuen Nachrichten; auch
+     * nach einem Neustart des Servers. Gespeichert wird für Clients, die sich
+     * mit Namen angemeldet hatten; Nachrichten, die beim Trennen noch in der
+     * Ausgangswarteschlange standen, fängt nur eine Sitzung auf. Ein
+     * Broadcast, der genau während der Trennung versandt wird, kann fehlen;
+     * Broadcasts, die der Client vor seinem Namen erhält, kommen vor den
+     * nachgelieferten an. Wirksam ab dem nächsten Start des Servers.
+     *
+     * @param verzeichnis Verzeichnis des Logs, null schaltet es ab (Standard)
+     * @param segmentGroesse Größe einer Segmentdatei in Bytes (Standard
+     * 64 MB), begrenzt auch die Größe einer Nachricht
+     * @param syncMillis Abstand in ms, in dem das Log auf die Platte
+     * geschrieben wird (Standard 100)
+     */
+    public synchronized void setzeNachrichtenlog(File verzeichnis, int segmentGroesse, long syncMillis) {
+        this.logVerzeichnis = verzeichnis;
+        this.logSegmentGroesse = segmentGroesse;
+        this.logSyncMillis = syncMillis;
+    }
 
-        @Override
-        public void run() {
+    /**
+     * Legt fest, wie lange das Nachrichtenlog Nachrichten aufbewahrt.
+     * Wirksam ab dem nächsten Start des Servers.
+     *
+     * @param millis Segmente und Cursor getrennter Clients verfallen nach so
+     * vielen ms (Standard 7 Tage)
+     * @param maxSegmente höchstens so viele Segmente werden aufbewahrt, die
+     * ältesten zuerst gelöscht (Standard 64)
+     * @param kompaktieren true, um Segmente schon zu löschen, sobald kein
+     * getrennter Client sie mehr benötigt (Standard)
+     */
+    public synchronized void setzeAufbewahrung(long millis, int maxSegmente, boolean kompaktieren) {
+        this.logAufbewahrung = millis;
+        this.logMaxSegmente = maxSegmente;
+        this.logKompaktieren = kompaktieren;
+    }
 
-            // Eingabestrom vom Client
-            try {
-                // Schleife für Textempfang 
-                String message; //Nachricht vom Client
-                do {
-                    message = reader.readLine();
-                    if (message.startsWith("#STOP")) {
-                        // Client entfernen
-                        removeClient(clientName);
-                        // Thread beenden
-                        interrupt();
-                    } else if (message.startsWith("#")) {
-                        // Clientname wird übermittelt
-                        clientName = message.substring(1);
-                    } else {
-                        // Listener benachrichtigen
-                        serverListener.getMessage(clientName, message);
-                    }
-                } while (!isInterrupted());
+    /**
+     * Legt fest, bei welcher Registry die Kennzahlen beim Starten angemeldet
+     * und beim Stoppen abgemeldet werden
+     *
+     * @param registry Registry, standardmäßig {@link JmxRegistry}; null meldet
+     * nirgends an
+     */
+    public synchronized void setzeMetrikRegistry(MetrikRegistry registry) {
+        this.metrikRegistry = registry;
+    }
 
-                client.close(); //Socket schließen
-            } catch (Exception ex) {
-                System.out.println("Fehler beim Client-Handler");
+    /**
+     * @return Kennzahlen des Servers, bei jedem Abruf aktuell
+     */
+    public ServerMetrikenMXBean gibMetriken() {
+        return metriken;
+    }
+
+    /**
+     * @return Pool der Empfangspuffer, z.B. zum Einschalten der Leckprüfung
+     */
+    public BufferPool gibPufferPool() {
+        return pufferPool;
+    }
+
+    /**
+     * Stoppt den Server mit einer Frist von {@value #STOPP_WARTEZEIT} ms für
+     * das Leeren der Ausgangswarteschlangen
+     *
+     * @see #stoppeServer(long)
+     */
+    public void stoppeServer() {
+        stoppeServer(STOPP_WARTEZEIT);
+    }
 
+    /**
+     * UDP- und TCP-Server werden gestoppt und alle Clientverbindungen
+     * geschlossen. Zuerst nimmt der Server keine Verbindungen mehr an; jeder
+     * Client erhält noch seine wartenden Nachrichten und danach das Ende des
+     * Datenstroms, worauf der {@link NetworkClient} seine Verbindung schließt.
+     * Verbindungen, die bis zum Ende der Frist offen bleiben, werden
+     * geschlossen. Die Methode kehrt zurück, sobald alle Threads beendet sind,
+     * mit verbundenen NetworkClients meist nach wenigen ms. Der Port ist
+     * danach frei, sodass der Server sofort wieder gestartet werden kann. Bei
+     * eingeschalteter Leckprüfung werden danach nicht zurückgegebene
+     * Empfangspuffer gemeldet.
+     *
+     * @param abschlussMillis so lange erhalten die Clients noch ihre
+     * wartenden Nachrichten; 0 schließt alle Verbindungen sofort
+     */
+    public synchronized void stoppeServer(long abschlussMillis) {
+        if (tcpServer == null) {
+            // nicht gestartet oder bereits gestoppt
+            return;
+        }
+        // keine neuen Verbindungen und Suchanfragen mehr annehmen, das
+        // Schließen der Sockets beendet auch blockierende Aufrufe
+        udpServer.interrupt();
+        tcpServer.interrupt();
+        Cluster knoten = cluster;
+        if (knoten != null) {
+            knoten.beenden();
+            cluster = null;
+        }
+        try {
+            ausgangAbschliessen(System.currentTimeMillis() + abschlussMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Connection clientH : clientList.leeren()) {
+            belegt.decrementAndGet();
+            Nachrichtenlog log = nachrichtenlog;
+            if (log != null && ((HandlerBase) clientH).benannt) {
+                // ab hier an den Client gerichtete Nachrichten aufheben
+                log.getrennt(clientH.getClientName());
             }
+            clientH.beenden();
+        }
+        if (tcpServer instanceof NIOServer) {
+            ((NIOServer) tcpServer).loopsBeenden();
+        }
+        tcpServer = null;
+        themen.leeren();
+        sitzungen.clear();
+        ruhend.clear();
+        if (zeitgeber != null) {
+            zeitgeber.shutdownNow();
+            zeitgeber = null;
+        }
+        Nachrichtenlog log = nachrichtenlog;
+        if (log != null) {
+            log.schliessen();
+            nachrichtenlog = null;
+        }
+        if (metrikRegistry != null) {
+            metrikRegistry.entferne(serverName, metriken);
+        }
+        Dispatcher zustellung = dispatcher;
+        if (zustellung != null) {
+            // bereits übergebene Nachrichten werden noch zugestellt
+            zustellung.beenden();
+            dispatcher = null;
         }
 
-        private boolean sendMessage(String message) {
+        // warten, bis sich alle Threads beendet haben; wait gibt den Monitor
+        // frei, damit Handler noch laufende Aufrufe abschließen können
+        long ende = System.currentTimeMillis() + STOPP_WARTEZEIT;
+        long rest = STOPP_WARTEZEIT;
+        while (aktiveAufgaben > 0 && rest > 0) {
             try {
-                // Ausgabestrom zum Client   
-                writer.println(message);
-                writer.flush();
-            } catch (Exception ex) {
-                System.out.println("Fehler beim Senden an: " + clientName);
-                return false;
+                wait(rest);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
-            return true;
+            rest = ende - System.currentTimeMillis();
+        }
+        if (zustellung != null) {
+            try {
+                zustellung.warteAufEnde(Math.max(0, ende - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (pufferPool.istLeckpruefung() && pufferPool.meldeLecks() > 0) {
+            System.out.println("Nicht zurückgegebene Empfangspuffer: " + pufferPool.verliehen());
         }
     }
 
     /**
-     * Interface zum Erhalt von Nachrichten, die von Clients an den Server
-     * geschickt werden
+     * Wartet, bis alle Clients ihre wartenden Nachrichten erhalten und ihre
+     * Verbindung geschlossen haben, höchstens bis zum Ende der Frist. Jeder
+     * Client mit leerer Ausgangswarteschlange erhält das Ende des
+     * Datenstroms; sein Lesen läuft weiter, bis er die Verbindung schließt.
      *
+     * @param ende Ende der Frist in ms
      */
-    public interface ServerListener {
+    private void ausgangAbschliessen(long ende) throws InterruptedException {
+        List<HandlerBase> offen = new ArrayList<HandlerBase>();
+        for (Connection clientH : clientList.alle()) {
+            offen.add((HandlerBase) clientH);
+        }
+        abschluss = true;
+        try {
+            while (true) {
+                Iterator<HandlerBase> it = offen.iterator();
+                while (it.hasNext()) {
+                    HandlerBase connection = it.next();
+                    if (connection.ausgang.leer()) {
+                        connection.ausgabeSchliessen();
+                        it.remove();
+                    }
+                }
+                long rest = ende - System.currentTimeMillis();
+                if (clientList.anzahl() == 0 || rest <= 0) {
+                    return;
+                }
+                // gibt den Monitor frei; abschlussMelden() weckt, sobald ein
+                // Ausgang leer ist oder eine Verbindung endet
+                wait(rest);
+            }
+        } finally {
+            abschluss = false;
+        }
+    }
 
-        /**
-         * Methode wird bei Erhalt einer Nachricht aufgerufen
-         *
-         * @param clientName Name des Client-Rechners
-         * @param message Nachricht des Clients
-         */
-        public void getMessage(String clientName, String message);
+    /**
+     * Weckt beim Stoppen ausgangAbschliessen(), nachdem ein Ausgang geleert
+     * oder eine Verbindung entfernt wurde
+     */
+    private void abschlussMelden() {
+        if (abschluss) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
     }
 
-    private class TCPServer extends Thread {
+    /**
+     * Vermerkt eine neu gestartete Server-, Event-Loop- oder Handler-Aufgabe
+     */
+    private synchronized void aufgabeGestartet() {
+        aktiveAufgaben++;
+    }
 
-        @Override
-        public void run() {
+    /**
+     * Vermerkt das Ende einer Aufgabe und weckt ein wartendes stoppeServer()
+     */
+    private synchronized void aufgabeBeendet() {
+        aktiveAufgaben--;
+        notifyAll();
+    }
 
-            ServerSocket server = null;
-            try {
-                server = new ServerSocket(3333);
-                server.setSoTimeout(1000);
-                while (!interrupted()) { //Server ständig lauschen lassen
-                    Socket client;
-                    // System.out.println("TCP-Server: Warte auf einen Client...");
-                    try {
-                        client = server.accept(); //Client erhält eine Verbindung
-                        // System.out.println("Neuer Client: " + client.getInetAddress().getHostAddress());
-                        // neuen Prozess starten, der sich um den Client kümmert
-                        Thread clientHandler = new ClientHandler("ClientName", client);
-                        clientHandler.start();
+    /**
+     * Sendet an einen Client eine Nachricht
+     *
+     * @param message Nachricht
+     * @param clientName Name des Clients
+     * @return true, wenn der Client existiert, andernfalls false
+     */
+    public boolean sendeNachricht(String message, String clientName) {
+        return sendeNachricht(message, clientName, false);
+    }
+
+    /**
+     * Sendet an einen Client eine Nachricht
+     *
+     * @param message Nachricht
+     * @param clientName Name des Clients
+     * @param sofort true, um das Schreibfenster für diese und alle bereits
+     * wartenden Nachrichten des Clients zu überspringen
+     * @return true, wenn der Client existiert oder die Nachricht für ihn
+     * aufbewahrt wird, andernfalls false
+     */
+    public boolean sendeNachricht(String message, String clientName, boolean sofort) {
+        if (clientList.suche(clientName) == null) {
+            Cluster knoten = cluster;
+            if (knoten != null && knoten.weiterleiten(clientName, message)) {
+                return true;
+            }
+        }
+        return lokalSenden(message, clientName, sofort);
+    }
+
+    /**
+     * Sendet eine Nachricht an einen Client dieses Servers bzw. bewahrt sie
+     * in seiner ruhenden Sitzung oder im Nachrichtenlog auf
+     */
+    private boolean lokalSenden(String message, String clientName, boolean sofort) {
+        Connection clientH = clientList.suche(clientName);
+        if (clientH == null) {
+            // Client existiert nicht, seine Sitzung ruht oder er ist getrennt
+            if (aufbewahren(message, clientName)) {
+                return true;
+            }
+            Nachrichtenlog log = nachrichtenlog;
+            if (log != null && log.anhaengen(clientName, message)) {
+                return true;
+            }
+            // ohne Cursor hat benennen() den Client inzwischen eingetragen
+            // oder er existiert nicht
+            clientH = clientList.suche(clientName);
+            if (clientH == null) {
+                return false;
+            }
+        }
+        clientH.senden(EncodedMessage.text(message, false), sofort);
+        return true;
+    }
+
+    /**
+     * Sendet an einen Client eine Nachricht
+     *
+     * @param message Nachricht
+     * @param clientId Id des Clients, wie sie ein {@link ServerBufferListener}
+     * erhält
+     * @return true, wenn der Client existiert, andernfalls false
+     */
+    public boolean sendeNachricht(String message, long clientId) {
+        Connection clientH = clientList.suche(clientId);
+        if (clientH == null) {
+            // Client existiert nicht
+            return false;
+        }
+        clientH.sendMessage(message);
+        return true;
+    }
+
+    /**
+     * @param clientId Id des Clients
+     * @return aktueller Name des Clients oder null, wenn die Verbindung nicht
+     * mehr besteht
+     */
+    public String gibClientName(long clientId) {
+        Connection clientH = clientList.suche(clientId);
+        return clientH == null ? null : clientH.getClientName();
+    }
+
+    /**
+     * Sendet an einen Client im Binärmodus eine Binärnachricht
+     *
+     * @param daten zu sendende Bytes zwischen position und limit, werden nicht
+     * verändert
+     * @param clientName Name des Clients
+     * @return true, wenn der Client existiert und den Binärmodus nutzt,
+     * andernfalls false
+     */
+    public boolean sendeDaten(ByteBuffer daten, String clientName) {
+        Connection clientH = clientList.suche(clientName);
+        if (clientH == null || !clientH.istBinaer()) {
+            return false;
+        }
+        return clientH.senden(EncodedMessage.daten(daten, false), false);
+    }
+
+    /**
+     * Entfernt einen Client aus der Liste
+     *
+     * @param connection zu entfernende Verbindung
+     */
+    private void removeClient(Connection connection) {
+        ((HandlerBase) connection).leerlaufBeenden();
+        if (austragen(connection)) {
+            themen.entfernen(connection);
+            ruhen((HandlerBase) connection);
+            if (((HandlerBase) connection).benannt) {
+                abmelden(connection.getClientName());
+            }
+            abschlussMelden();
+        }
+    }
+
+    /**
+     * Entfernt eine Verbindung aus dem Verzeichnis und gibt ihren Platz frei
+     *
+     * @return true, wenn die Verbindung registriert war
+     */
+    private boolean austragen(Connection connection) {
+        if (!clientList.entfernen(connection)) {
+            return false;
+        }
+        belegt.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Meldet einen entfernten Client bei den anderen Knoten ab und bewahrt
+     * ab jetzt Nachrichten an ihn im Nachrichtenlog auf, sofern kein anderer
+     * Client dieses Servers gleich heißt
+     */
+    private void abmelden(String clientName) {
+        if (clientList.suche(clientName) != null) {
+            return;
+        }
+        Nachrichtenlog log = nachrichtenlog;
+        if (log != null) {
+            log.getrennt(clientName);
+        }
+        Cluster knoten = cluster;
+        if (knoten != null) {
+            knoten.abgemeldet(clientName);
+        }
+    }
+
+    /**
+     * Eröffnet auf Wunsch des Clients eine Sitzung oder setzt die Sitzung mit
+     * dem angegebenen Token fort: Der Client erhält Token und Zahl der
+     * empfangenen Nachrichten, danach alle Nachrichten, die er noch nicht
+     * empfangen hat. Eine noch bestehende alte Verbindung der Sitzung wird
+     * getrennt.
+     *
+     * @param text Token oder "-" und Anzahl der vom Client empfangenen
+     * Nachrichten
+     */
+    private void sitzungOeffnen(HandlerBase connection, String text) {
+        if (sitzungKapazitaet == 0) {
+            // ohne Antwort arbeitet der Client ohne Sitzung
+            return;
+        }
+        int trenner = text.indexOf(' ');
+        String token = trenner < 0 ? text : text.substring(0, trenner);
+        long clientEmpfangen = trenner < 0 ? 0 : Math.max(0, Protocol.zahl(text.substring(trenner + 1)));
+        long jetzt = System.currentTimeMillis();
+        Session sitzung = sitzungen.get(token);
+        if (sitzung != null) {
+            synchronized (sitzung) {
+                if (sitzung.abgelaufen(jetzt, sitzungDauer)) {
+                    sitzungen.remove(token, sitzung);
+                    sitzung = null;
+                }
+            }
+        }
+        boolean fortsetzen = sitzung != null;
+        if (!fortsetzen) {
+            sitzung = new Session(sitzungKapazitaet);
+            sitzungen.put(sitzung.token(), sitzung);
+        }
+        Connection alt;
+        synchronized (sitzung) {
+            // bis der Client seinen Namen nennt, findet sendeNachricht die
+            // Verbindung über die ruhende Sitzung
+            alt = sitzung.verbinden(connection);
+            connection.sitzung = sitzung;
+            connection.einstellen(EncodedMessage.steuerung(Protocol.SITZUNG, Protocol.SESSION,
+                    sitzung.token() + " " + sitzung.anzahlEmpfangen()), false);
+            if (fortsetzen) {
+                if (sitzung.basis() > clientEmpfangen) {
+                    // ältere Nachrichten sind verloren
+                    connection.einstellen(EncodedMessage.steuerung(Protocol.NUMMER, Protocol.SEQ,
+                            Long.toString(sitzung.basis())), false);
+                }
+                sitzung.bestaetigt(clientEmpfangen);
+                connection.ausgang.vorschuss(sitzung.groesse());
+                for (EncodedMessage nachricht : sitzung.puffer()) {
+                    connection.einstellen(nachricht, false);
+                }
+            }
+        }
+        if (alt != null && alt != connection) {
+            // Server hat den Abbruch der alten Verbindung noch nicht bemerkt
+            ((HandlerBase) alt).sitzung = null;
+            removeClient(alt);
+            alt.beenden();
+        }
+    }
+
+    /**
+     * Nimmt einen neuen Client auf und plant die Prüfung seines Leerlaufs ein
+     */
+    private void aufnehmen(HandlerBase connection) {
+        Nachrichtenlog log = nachrichtenlog;
+        if (log == null) {
+            clientList.hinzufuegen(connection);
+        } else {
+            // gespeicherte Broadcasts gehen unter der Sperre des Logs an alle
+            // Verbindungen; ab dieser Position erhält die neue sie direkt
+            synchronized (log) {
+                connection.logStand = log.stand();
+                clientList.hinzufuegen(connection);
+            }
+        }
+        long leerlauf = leerlaufZeit;
+        if (leerlauf > 0) {
+            connection.leerlaufPlanen(leerlauf, leerlauf);
+        }
+    }
+
+    /**
+     * Trennt einen Client, von dem zu lange nichts angekommen ist, und meldet
+     * ihn dem Listener; läuft im Thread des Zeitrads
+     */
+    private void leerlaufTrennen(HandlerBase connection) {
+        connection.leerlaufBeenden();
+        if (!austragen(connection)) {
+            // bereits entfernt
+            return;
+        }
+        themen.entfernen(connection);
+        ruhen(connection);
+        if (connection.benannt) {
+            abmelden(connection.getClientName());
+        }
+        metriken.leerlaufGetrennt.increment();
+        abschlussMelden();
+        connection.beenden();
+        if (serverListener instanceof ServerTimeoutListener) {
+            try {
+                ((ServerTimeoutListener) serverListener).getTimeout(connection.getClientName());
+            } catch (RuntimeException ex) {
+                System.out.println("Fehler im Listener: " + ex);
+            }
+        }
+    }
+
+    /**
+     * Übernimmt den Namen eines Clients; eine fortgesetzte Sitzung ruht danach
+     * nicht mehr
+     */
+    private void benennen(HandlerBase connection, String name) {
+        String alt = connection.benannt ? connection.getClientName() : null;
+        Nachrichtenlog log = nachrichtenlog;
+        if (log == null) {
+            clientList.umbenennen(connection, name);
+            connection.benannt = true;
+        } else {
+            // unter der Sperre des Logs: die aufbewahrten Nachrichten stehen
+            // vor allen neuen in der Warteschlange, und wer den Namen danach
+            // nicht im Log unterbringt, findet den Client im Verzeichnis
+            synchronized (log) {
+                List<String> nachrichten = log.nachholen(name, connection.logStand);
+                if (!nachrichten.isEmpty()) {
+                    connection.ausgang.vorschuss(nachrichten.size());
+                    for (String nachricht : nachrichten) {
+                        connection.einstellen(EncodedMessage.text(nachricht, false), false);
+                    }
+                }
+                clientList.umbenennen(connection, name);
+                connection.benannt = true;
+            }
+        }
+        Session sitzung = connection.sitzung;
+        if (sitzung != null && sitzung.clientName() != null) {
+            ruhend.remove(ClientRegistry.schluessel(sitzung.clientName()), sitzung);
+        }
+        Cluster knoten = cluster;
+        if (knoten != null) {
+            if (alt != null && !ClientRegistry.schluessel(alt).equals(ClientRegistry.schluessel(name))) {
+                abmelden(alt);
+            }
+            knoten.angemeldet(name);
+        }
+    }
+
+    /**
+     * Übernimmt die Verbindung eines anderen Knotens des Clusters: Sie zählt
+     * nicht mehr als Client und wird nicht auf Leerlauf geprüft
+     */
+    private void knotenAufnehmen(HandlerBase connection, String knotenName) {
+        Cluster knoten = cluster;
+        if (knoten == null || connection.knoten != null) {
+            return;
+        }
+        connection.leerlaufBeenden();
+        austragen(connection);
+        connection.setClientName("Knoten " + knotenName);
+        connection.knoten = knotenName;
+        knoten.knotenVerbunden(knotenName, connection);
+    }
+
+    /**
+     * Verarbeitet einen Frame eines anderen Knotens; weitergeleitete
+     * Nachrichten gehen nur an die Clients dieses Servers
+     */
+    private void vomKnoten(String knotenName, byte typ, String text) {
+        Cluster knoten = cluster;
+        if (knoten == null) {
+            return;
+        }
+        switch (typ) {
+            case Protocol.JOIN:
+                knoten.eintragen(knotenName, text);
+                break;
+            case Protocol.LEAVE:
+                knoten.austragen(knotenName, text);
+                break;
+            case Protocol.ROUTE:
+                int trenner = text.indexOf('\n');
+                if (trenner > 0) {
+                    lokalSenden(text.substring(trenner + 1), text.substring(0, trenner), false);
+                }
+                break;
+            default:
+                lokalAnAlle(text);
+                break;
+        }
+    }
+
+    /**
+     * Lässt die Sitzung einer beendeten Verbindung ruhen und entfernt
+     * abgelaufene Sitzungen
+     */
+    private void ruhen(HandlerBase connection) {
+        Session sitzung = connection.sitzung;
+        if (sitzung == null) {
+            return;
+        }
+        long jetzt = System.currentTimeMillis();
+        synchronized (sitzung) {
+            if (sitzung.ruhen(connection, jetzt)) {
+                ruhend.put(ClientRegistry.schluessel(sitzung.clientName()), sitzung);
+            }
+        }
+        for (Session andere : ruhend.values()) {
+            synchronized (andere) {
+                if (andere.abgelaufen(jetzt, sitzungDauer)) {
+                    ruhend.remove(ClientRegistry.schluessel(andere.clientName()), andere);
+                    sitzungen.remove(andere.token(), andere);
+                }
+            }
+        }
+    }
+
+    /**
+     * Beendet die Sitzung eines Clients, der sich abmeldet
+     */
+    private void sitzungBeenden(HandlerBase connection) {
+        Session sitzung = connection.sitzung;
+        if (sitzung != null) {
+            connection.sitzung = null;
+            sitzungen.remove(sitzung.token(), sitzung);
+        }
+    }
+
+    /**
+     * Bewahrt eine Textnachricht in der ruhenden Sitzung eines Clients auf
+     *
+     * @return true, wenn der Client eine ruhende Sitzung hat
+     */
+    private boolean aufbewahren(String message, String clientName) {
+        Session sitzung = ruhend.get(ClientRegistry.schluessel(clientName));
+        if (sitzung == null) {
+            return false;
+        }
+        synchronized (sitzung) {
+            Connection verbindung = sitzung.verbindung();
+            if (verbindung == null) {
+                sitzung.aufzeichnen(EncodedMessage.text(message, false));
+                return true;
+            }
+            // inzwischen fortgesetzt
+            return verbindung.senden(EncodedMessage.text(message, false), false);
+        }
+    }
+
+    /**
+     * Prüft die Eingangsraten des Clients und seiner Adresse für eine
+     * Nachricht an den Listener. Verworfen wird sie ohne weitere Arbeit;
+     * gemeldet wird höchstens einmal je Sekunde und Client. Verwirft eine
+     * Grenze die Nachricht, erstatten die vorher geprüften ihren Verbrauch.
+     *
+     * @param bytes Größe der Nachricht
+     * @return false, wenn die Nachricht verworfen wird
+     */
+    private boolean zulassen(HandlerBase connection, int bytes) {
+        Ratenbegrenzer nachrichten = connection.nachrichtenRate;
+        Ratenbegrenzer eigeneBytes = connection.byteRate;
+        Ratenbegrenzer adresseN = adresseNachrichten;
+        Ratenbegrenzer adresseB = adresseBytes;
+        int schluessel = connection.adresse;
+        Ueberlast grund;
+        if (nachrichten != null && !nachrichten.erlaubt(0)) {
+            grund = Ueberlast.NACHRICHTEN;
+        } else if (eigeneBytes != null && !eigeneBytes.erlaubt(0, bytes)) {
+            grund = Ueberlast.BYTES;
+            if (nachrichten != null) {
+                nachrichten.erstatten(0);
+            }
+        } else if (adresseN != null && !adresseN.erlaubt(schluessel)) {
+            grund = Ueberlast.ADRESSE;
+            if (nachrichten != null) {
+                nachrichten.erstatten(0);
+            }
+            if (eigeneBytes != null) {
+                eigeneBytes.erstatten(0, bytes);
+            }
+        } else if (adresseB != null && !adresseB.erlaubt(schluessel, bytes)) {
+            grund = Ueberlast.ADRESSE;
+            if (nachrichten != null) {
+                nachrichten.erstatten(0);
+            }
+            if (eigeneBytes != null) {
+                eigeneBytes.erstatten(0, bytes);
+            }
+            if (adresseN != null) {
+                adresseN.erstatten(schluessel);
+            }
+        } else {
+            return true;
+        }
+        metriken.gedrosselt.increment();
+        long jetzt = System.nanoTime();
+        if (connection.ueberlastGemeldet == 0 || jetzt - connection.ueberlastGemeldet >= 1000000000L) {
+            connection.ueberlastGemeldet = jetzt;
+            ueberlastMelden(connection.getClientName(), grund);
+        }
+        return false;
+    }
+
+    /**
+     * Meldet eine Überlast einem {@link ServerUeberlastListener}
+     */
+    private void ueberlastMelden(String name, Ueberlast grund) {
+        if (serverListener instanceof ServerUeberlastListener) {
+            try {
+                ((ServerUeberlastListener) serverListener).getUeberlast(name, grund);
+            } catch (RuntimeException ex) {
+                System.out.println("Fehler im Listener: " + ex);
+            }
+        }
+    }
+
+    /**
+     * Nimmt eine Verbindung nur unterhalb der Höchstzahl an und reserviert
+     * ihren Platz; freigegeben wird er mit dem Austragen der Verbindung
+     *
+     * @param adresse Adresse des Clients
+     * @return false, wenn die Verbindung geschlossen werden muss
+     */
+    private boolean verbindungZulassen(InetAddress adresse) {
+        while (true) {
+            int max = maxVerbindungen;
+            int anzahl = belegt.get();
+            if (max != 0 && anzahl >= max) {
+                break;
+            }
+            if (belegt.compareAndSet(anzahl, anzahl + 1)) {
+                return true;
+            }
+        }
+        metriken.abgelehnt.increment();
+        ueberlastMelden(adresse == null ? null : adresse.getHostAddress(), Ueberlast.VERBINDUNGEN);
+        return false;
+    }
+
+    /**
+     * Zählt eine empfangene Nachricht in der Sitzung des Clients und
+     * bestätigt bei Bedarf
+     */
+    private void zaehlen(HandlerBase connection) {
+        Session sitzung = connection.sitzung;
+        if (sitzung == null) {
+            return;
+        }
+        long anzahl;
+        synchronized (sitzung) {
+            if (!sitzung.empfangen()) {
+                return;
+            }
+            anzahl = sitzung.anzahlEmpfangen();
+        }
+        connection.senden(EncodedMessage.steuerung(Protocol.QUITTUNG, Protocol.ACK, Long.toString(anzahl)), false);
+    }
+
+    /**
+     * Verarbeitet die Bestätigung oder Nummer des Clients
+     */
+    private void quittung(HandlerBase connection, String text, boolean nummer) {
+        Session sitzung = connection.sitzung;
+        long anzahl = Protocol.zahl(text);
+        if (sitzung == null || anzahl < 0) {
+            return;
+        }
+        synchronized (sitzung) {
+            if (nummer) {
+                sitzung.nummerieren(anzahl);
+            } else {
+                sitzung.bestaetigt(anzahl);
+            }
+        }
+    }
+
+    /**
+     * Wertet das Anhängen an die Ausgangswarteschlange eines Clients aus und
+     * trennt den Client, falls die Überlaufstrategie dies verlangt
+     *
+     * @return true, wenn die Nachricht angenommen wurde
+     */
+    private boolean pruefeAusgang(Connection connection, OutboundQueue.Ergebnis ergebnis) {
+        if (ergebnis == OutboundQueue.Ergebnis.ANGENOMMEN) {
+            return true;
+        }
+        metriken.sendefehler.increment();
+        if (ergebnis == OutboundQueue.Ergebnis.TRENNEN) {
+            metriken.langsameClients.increment();
+            removeClient(connection);
+            connection.beenden();
+        }
+        return false;
+    }
+
+    /**
+     * Verarbeitet eine vom Client empfangene Zeile: Abmeldung, Übermittlung
+     * des Clientnamens oder Weitergabe an den Listener
+     *
+     * @param connection Verbindung, über die die Zeile empfangen wurde
+     * @param zeile Bytes der empfangenen Zeile, nur während des Aufrufs gültig
+     * @return false, wenn sich der Client abgemeldet hat
+     */
+    private boolean verarbeiteNachricht(HandlerBase connection, ByteBuffer zeile) {
+        if (!Protocol.istBefehl(zeile)) {
+            // Listener benachrichtigen
+            zaehlen(connection);
+            if (zulassen(connection, zeile.remaining())) {
+                melden(connection, zeile, Protocol.ZEICHENSATZ);
+            }
+            return true;
+        }
+        String message = Protocol.text(zeile, Protocol.ZEICHENSATZ);
+        if (message.equals(Protocol.BINAER)) {
+            // Client wünscht den Binärmodus
+            connection.binaerUmschalten();
+        } else if (message.startsWith("#STOP")) {
+            // Client entfernen
+            sitzungBeenden(connection);
+            removeClient(connection);
+            return false;
+        } else if (message.equals(Protocol.HERZSCHLAG)) {
+            connection.einstellen(EncodedMessage.HERZSCHLAG_ANTWORT, true);
+        } else if (message.startsWith(Protocol.SITZUNG)) {
+            sitzungOeffnen(connection, message.substring(Protocol.SITZUNG.length()));
+        } else if (message.startsWith(Protocol.QUITTUNG)) {
+            quittung(connection, message.substring(Protocol.QUITTUNG.length()), false);
+        } else if (message.startsWith(Protocol.NUMMER)) {
+            quittung(connection, message.substring(Protocol.NUMMER.length()), true);
+        } else if (message.startsWith(Protocol.ANFRAGE)) {
+            zaehlen(connection);
+            long kennung = Protocol.kennung(message, Protocol.ANFRAGE.length());
+            if (kennung >= 0) {
+                Anfrage anfrage = new Anfrage(connection, kennung, Protocol.kennungText(message, Protocol.ANFRAGE.length()));
+                if (zulassen(connection, zeile.remaining())) {
+                    anfragen(anfrage);
+                } else {
+                    anfrage.fehler("Server überlastet");
+                }
+            }
+        } else if (message.startsWith(Protocol.ABONNIEREN)) {
+            abonnieren(connection, message.substring(Protocol.ABONNIEREN.length()));
+        } else if (message.startsWith(Protocol.KUENDIGEN)) {
+            themen.kuendigen(message.substring(Protocol.KUENDIGEN.length()), connection);
+        } else if (message.startsWith("#")) {
+            // Clientname wird übermittelt
+            benennen(connection, message.substring(1));
+        }
+        return true;
+    }
+
+    /**
+     * Trägt den Client als Abonnenten ein; leere Themen werden ignoriert
+     */
+    private void abonnieren(HandlerBase connection, String thema) {
+        if (!thema.isEmpty()) {
+            themen.abonnieren(thema, connection);
+        }
+    }
+
+    /**
+     * Übergibt eine Anfrage an den Listener, bei asynchroner Zustellung an
+     * den Arbeiter des Clients
+     */
+    private void anfragen(Anfrage anfrage) {
+        Dispatcher zustellung = dispatcher;
+        if (zustellung != null) {
+            zustellen(zustellung, new Zustellung(anfrage));
+            return;
+        }
+        boolean messen = LatenzHistogramm.stichprobe(anfrage.connection.nachrichtenEin);
+        long beginn = messen ? System.nanoTime() : 0;
+        beantworten(anfrage);
+        if (messen) {
+            metriken.dispatch.erfassen(System.nanoTime() - beginn);
+        }
+    }
+
+    /**
+     * Ruft den Listener für eine Anfrage auf; Ausnahmen des Listeners und
+     * Server ohne {@link ServerRequestListener} beantworten sie mit einem
+     * Fehler
+     */
+    private void beantworten(Anfrage anfrage) {
+        if (!(serverListener instanceof ServerRequestListener)) {
+            anfrage.fehler("Server beantwortet keine Anfragen");
+            return;
+        }
+        try {
+            ((ServerRequestListener) serverListener).getRequest(anfrage);
+        } catch (RuntimeException ex) {
+            anfrage.fehler(ex.toString());
+        }
+    }
+
+    /**
+     * Übergibt eine Textnachricht an den Listener, einem ServerBufferListener
+     * ohne neuen String; bei asynchroner Zustellung als Kopie an den Arbeiter
+     */
+    private void melden(HandlerBase connection, ByteBuffer text, Charset zeichensatz) {
+        Dispatcher zustellung = dispatcher;
+        if (zustellung != null) {
+            zustellen(zustellung, new Zustellung(connection, Protocol.text(text, zeichensatz), null));
+            return;
+        }
+        boolean messen = LatenzHistogramm.stichprobe(connection.nachrichtenEin);
+        long beginn = messen ? System.nanoTime() : 0;
+        if (bufferListener != null) {
+            bufferListener.getText(connection.getClientId(), connection.decoder.text(text, zeichensatz));
+        } else {
+            serverListener.getMessage(connection.getClientName(), Protocol.text(text, zeichensatz));
+        }
+        if (messen) {
+            metriken.dispatch.erfassen(System.nanoTime() - beginn);
+        }
+    }
+
+    /**
+     * Verarbeitet einen vom Client im Binärmodus empfangenen Frame
+     *
+     * @param connection Verbindung, über die der Frame empfangen wurde
+     * @param typ Typ des Frames
+     * @param nutzdaten Nutzdaten, nur während des Aufrufs gültig
+     * @return false, wenn sich der Client abgemeldet hat
+     */
+    private boolean verarbeiteFrame(HandlerBase connection, byte typ, ByteBuffer nutzdaten) {
+        switch (typ) {
+            case Protocol.STOP:
+                // Client entfernen
+                sitzungBeenden(connection);
+                removeClient(connection);
+                return false;
+            case Protocol.PING:
+                connection.einstellen(EncodedMessage.HERZSCHLAG_ANTWORT, true);
+                break;
+            case Protocol.SESSION:
+                sitzungOeffnen(connection, Protocol.text(nutzdaten));
+                break;
+            case Protocol.ACK:
+                quittung(connection, Protocol.text(nutzdaten), false);
+                break;
+            case Protocol.SEQ:
+                quittung(connection, Protocol.text(nutzdaten), true);
+                break;
+            case Protocol.NAME:
+                benennen(connection, Protocol.text(nutzdaten));
+                break;
+            case Protocol.SUBSCRIBE:
+                abonnieren(connection, Protocol.text(nutzdaten));
+                break;
+            case Protocol.REQUEST:
+                zaehlen(connection);
+                if (nutzdaten.remaining() >= 8) {
+                    long kennung = nutzdaten.getLong(nutzdaten.position());
+                    ByteBuffer text = nutzdaten.duplicate();
+                    text.position(text.position() + 8);
+                    Anfrage anfrage = new Anfrage(connection, kennung, Protocol.text(text));
+                    if (zulassen(connection, nutzdaten.remaining())) {
+                        anfragen(anfrage);
+                    } else {
+                        anfrage.fehler("Server überlastet");
+                    }
+                }
+                break;
+            case Protocol.UNSUBSCRIBE:
+                themen.kuendigen(Protocol.text(nutzdaten), connection);
+                break;
+            case Protocol.KOMPRESSION:
+                // ohne eingeschaltete Kompression wird die Anfrage ignoriert
+                Kompression vorlage = broadcastKompression;
+                if (vorlage != null) {
+                    connection.kompressionVereinbaren(vorlage);
+                }
+                break;
+            case Protocol.NODE:
+                knotenAufnehmen(connection, Protocol.text(nutzdaten));
+                break;
+            case Protocol.JOIN:
+            case Protocol.LEAVE:
+            case Protocol.ROUTE:
+            case Protocol.BROADCAST:
+                // nur von anderen Knoten des Clusters angenommen
+                if (connection.knoten != null) {
+                    vomKnoten(connection.knoten, typ, Protocol.text(nutzdaten));
+                }
+                break;
+            case Protocol.TEXT:
+                zaehlen(connection);
+                if (zulassen(connection, nutzdaten.remaining())) {
+                    melden(connection, nutzdaten, Protocol.UTF8);
+                }
+                break;
+            case Protocol.DATA:
+                zaehlen(connection);
+                if (!zulassen(connection, nutzdaten.remaining())) {
+                    break;
+                }
+                Dispatcher zustellung = dispatcher;
+                if (zustellung != null) {
+                    ByteBuffer kopie = pufferPool.ausleihen(nutzdaten.remaining());
+                    kopie.put(nutzdaten.duplicate());
+                    kopie.flip();
+                    zustellen(zustellung, new Zustellung(connection, null, kopie));
+                    break;
+                }
+                boolean messen = LatenzHistogramm.stichprobe(connection.nachrichtenEin);
+                long beginn = messen ? System.nanoTime() : 0;
+                if (bufferListener != null) {
+                    bufferListener.getData(connection.getClientId(), nutzdaten);
+                } else if (serverListener instanceof ServerDataListener) {
+                    ((ServerDataListener) serverListener).getData(connection.getClientName(), nutzdaten.asReadOnlyBuffer());
+                } else {
+                    serverListener.getMessage(connection.getClientName(), Protocol.text(nutzdaten));
+                }
+                if (messen) {
+                    metriken.dispatch.erfassen(System.nanoTime() - beginn);
+                }
+                break;
+            default:
+            // unbekannte Frames werden ignoriert
+        }
+        return true;
+    }
+
+    /**
+     * Übergibt eine kopierte Nachricht an den Arbeiter ihres Clients
+     */
+    private void zustellen(Dispatcher zustellung, Zustellung nachricht) {
+        if (nachricht.connection.ausstehend.incrementAndGet() >= nachricht.connection.zustellKapazitaet) {
+            // weitere Nachrichten erst, wenn der Listener aufgeholt hat
+            nachricht.connection.decoder.anhalten();
+        }
+        try {
+            zustellung.zustellen(nachricht.connection.getClientId(), nachricht);
+        } catch (RejectedExecutionException ex) {
+            // Server wird gestoppt
+            nachricht.abschliessen();
+        }
+    }
+
+    /**
+     * Eine an einen Arbeiter übergebene Nachricht mit dem Clientnamen zum
+     * Zeitpunkt des Empfangs
+     */
+    private class Zustellung implements Runnable {
+
+        private final HandlerBase connection;
+        private final String clientName;
+        private final String text;
+        // Kopie der Binärdaten aus dem Pool, null bei Text
+        private final ByteBuffer daten;
+        // null, wenn keine Anfrage zugestellt wird
+        private final Anfrage anfrage;
+        private final boolean messen;
+
+        private Zustellung(HandlerBase connection, String text, ByteBuffer daten) {
+            this.connection = connection;
+            this.clientName = connection.getClientName();
+            this.text = text;
+            this.daten = daten;
+            this.anfrage = null;
+            this.messen = LatenzHistogramm.stichprobe(connection.nachrichtenEin);
+        }
+
+        private Zustellung(Anfrage anfrage) {
+            this.connection = anfrage.connection;
+            this.clientName = anfrage.clientName;
+            this.text = null;
+            this.daten = null;
+            this.anfrage = anfrage;
+            this.messen = LatenzHistogramm.stichprobe(connection.nachrichtenEin);
+        }
+
+        @Override
+        public void run() {
+            long beginn = messen ? System.nanoTime() : 0;
+            try {
+                if (anfrage != null) {
+                    beantworten(anfrage);
+                } else if (daten == null) {
+                    if (bufferListener != null) {
+                        bufferListener.getText(connection.getClientId(), text);
+                    } else {
+                        serverListener.getMessage(clientName, text);
+                    }
+                } else if (bufferListener != null) {
+                    bufferListener.getData(connection.getClientId(), daten);
+                } else if (serverListener instanceof ServerDataListener) {
+                    ((ServerDataListener) serverListener).getData(clientName, daten.asReadOnlyBuffer());
+                } else {
+                    serverListener.getMessage(clientName, Protocol.text(daten));
+                }
+                if (messen) {
+                    metriken.dispatch.erfassen(System.nanoTime() - beginn);
+                }
+            } catch (RuntimeException ex) {
+                System.out.println("Fehler im Listener: " + ex);
+            } finally {
+                abschliessen();
+            }
+        }
+
+        /**
+         * Gibt die Kopie zurück und setzt ggf. das Lesen des Clients fort
+         */
+        private void abschliessen() {
+            if (daten != null) {
+                pufferPool.zurueckgeben(daten);
+            }
+            connection.zugestellt();
+        }
+    }
+
+    /**
+     * Methode zum Versenden von Nachrichten an alle verbundenen Clients. Die
+     * Nachricht wird nur in die Warteschlangen der Clients gestellt, die
+     * Methode wartet nicht auf den Versand.
+     *
+     * @param message zu verschickende Nachricht
+     */
+    public void sendeAnAlle(String message) {
+        lokalAnAlle(message);
+        Cluster knoten = cluster;
+        if (knoten != null) {
+            knoten.anAlle(message);
+        }
+    }
+
+    /**
+     * Versendet eine Nachricht an alle Clients dieses Servers; getrennte
+     * Clients erhalten sie aus dem Nachrichtenlog
+     */
+    private void lokalAnAlle(String message) {
+        // Nachricht wird je Protokoll nur einmal kodiert
+        EncodedMessage nachricht = EncodedMessage.text(message, true);
+        Nachrichtenlog log = nachrichtenlog;
+        if (log != null && log.wartet()) {
+            // Speichern und Versand unter der Sperre des Logs, damit ein
+            // gleichzeitig zurückkehrender Client den Broadcast genau einmal
+            // erhält: aus dem Log oder direkt
+            synchronized (log) {
+                if (log.anhaengen(null, message)) {
+                    for (Connection clientH : clientList.alle()) {
+                        clientH.senden(nachricht, false);
+                    }
+                    return;
+                }
+            }
+        }
+        for (Connection clientH : clientList.alle()) {
+            clientH.senden(nachricht, false);
+        }
+    }
+
+    /**
+     * Versendet eine Binärnachricht an alle Clients im Binärmodus
+     *
+     * @param daten zu sendende Bytes zwischen position und limit, werden nicht
+     * verändert
+     */
+    public void sendeAnAlleDaten(ByteBuffer daten) {
+        EncodedMessage nachricht = EncodedMessage.daten(daten, true);
+        for (Connection clientH : clientList.alle()) {
+            if (clientH.istBinaer()) {
+                clientH.senden(nachricht, false);
+            }
+        }
+    }
+
+    /**
+     * Versendet eine Nachricht an alle Abonnenten eines Themas. Wie bei
+     * {@link #sendeAnAlle(String)} wird die Nachricht nur einmal kodiert und
+     * in die Warteschlangen gestellt; gleichzeitig (ab)bestellte Abonnements
+     * werden ggf. erst bei der nächsten Veröffentlichung berücksichtigt.
+     *
+     * @param thema Thema, Groß- und Kleinschreibung wird unterschieden
+     * @param message zu verschickende Nachricht
+     * @return Anzahl der Abonnenten, an die die Nachricht gestellt wurde
+     */
+    public int veroeffentliche(String thema, String message) {
+        Connection[] abonnenten = themen.abonnenten(thema);
+        if (abonnenten.length == 0) {
+            return 0;
+        }
+        EncodedMessage nachricht = EncodedMessage.text(message, abonnenten.length > 1);
+        int angenommen = 0;
+        for (Connection clientH : abonnenten) {
+            if (clientH.senden(nachricht, false)) {
+                angenommen++;
+            }
+        }
+        return angenommen;
+    }
+
+    /**
+     * Versendet eine Binärnachricht an alle Abonnenten eines Themas im
+     * Binärmodus
+     *
+     * @param thema Thema, Groß- und Kleinschreibung wird unterschieden
+     * @param daten zu sendende Bytes zwischen position und limit, werden nicht
+     * verändert
+     * @return Anzahl der Abonnenten, an die die Nachricht gestellt wurde
+     */
+    public int veroeffentlicheDaten(String thema, ByteBuffer daten) {
+        Connection[] abonnenten = themen.abonnenten(thema);
+        if (abonnenten.length == 0) {
+            return 0;
+        }
+        EncodedMessage nachricht = EncodedMessage.daten(daten, abonnenten.length > 1);
+        int angenommen = 0;
+        for (Connection clientH : abonnenten) {
+            if (clientH.istBinaer() && clientH.senden(nachricht, false)) {
+                angenommen++;
+            }
+        }
+        return angenommen;
+    }
+
+    /**
+     * @param thema Thema
+     * @return Anzahl der aktuellen Abonnenten des Themas
+     */
+    public int gibAnzahlAbonnenten(String thema) {
+        return themen.abonnenten(thema).length;
+    }
+
+    /**
+     * gibt eine Information über den eigenen Namen sowie die Namen der
+     * verbundenen Clients zurück
+     *
+     * @return Infotext
+     */
+    public String gibInfo() {
+        StringBuilder info = new StringBuilder("--------------------------------------------\n");
+        info.append("Servername: ").append(serverName).append("\nClients:\n");
+        for (Connection clientH : clientList.alle()) {
+            info.append(clientH.getClientName()).append('\n');
+        }
+        info.append("Themen: ").append(themen.themen()).append('\n');
+        info.append("--------------------------------------------");
+        return info.toString();
+
+    }
+
+    /**
+     * Gemeinsamer Teil der Handler beider Betriebsarten: Name,
+     * Ausgangswarteschlange, Dekodierung und Protokollverarbeitung
+     */
+    private abstract class HandlerBase implements Connection, InboundDecoder.Empfaenger {
+
+        private final long clientId = naechsteClientId.incrementAndGet();
+        private volatile String clientName;
+        private volatile boolean binaer = false;
+        final OutboundQueue ausgang = new OutboundQueue(ausgangKapazitaet, overflowPolicy, metriken.wartend);
+        final InboundDecoder decoder = new InboundDecoder(this, pufferPool);
+        // Zähler, nur vom lesenden bzw. vom schreibenden Thread erhöht
+        volatile long nachrichtenEin = 0;
+        volatile long bytesEin = 0;
+        volatile long bytesAus = 0;
+        // true, sobald die Zähler in die Summen des Servers übernommen sind
+        private volatile boolean abgeschlossen = false;
+        // Sitzung des Clients, null ohne Wiederverbindung
+        volatile Session sitzung;
+        // Stand des Zeitrads beim letzten Empfang und die eingeplante
+        // Leerlaufprüfung
+        volatile long zuletztEmpfangen = zeitrad.stand();
+        private volatile Zeitrad.Eintrag leerlaufPruefung;
+        private volatile boolean leerlaufBeendet = false;
+        // true, sobald beim Stoppen die Senderichtung beendet ist
+        volatile boolean ausgabeGeschlossen = false;
+        // true, sobald der Client einen Namen gemeldet hat
+        volatile boolean benannt = false;
+        // Position des Nachrichtenlogs, ab der gespeicherte Broadcasts direkt
+        // ankommen
+        long logStand;
+        // Name des Knotens, wenn die Verbindung von einem anderen Knoten des
+        // Clusters kommt, sonst null
+        volatile String knoten;
+        // hashCode der Absenderadresse für die Raten je Adresse
+        final int adresse;
+        // Eingangsraten des Clients, null ohne Grenze
+        final Ratenbegrenzer nachrichtenRate = clientNachrichtenRate > 0
+                ? new Ratenbegrenzer(clientNachrichtenRate, clientNachrichtenRate, 1) : null;
+        final Ratenbegrenzer byteRate = clientByteRate > 0
+                ? new Ratenbegrenzer(clientByteRate, clientByteRate, 1) : null;
+        // Zeitpunkt der letzten gemeldeten Überlast in ns, 0 ohne
+        volatile long ueberlastGemeldet = 0;
+        // Nachrichten, die auf ihre Zustellung an den Listener warten
+        final AtomicInteger ausstehend = new AtomicInteger();
+        final int zustellKapazitaet = dispatchKapazitaet;
+        // true, solange der Schreiber auf das Ende des Schreibfensters wartet
+        private final AtomicBoolean verzoegert = new AtomicBoolean();
+        private final Runnable verzoegertAnstossen = new Runnable() {
+            @Override
+            public void run() {
+                if (verzoegert.compareAndSet(true, false)) {
+                    schreiberAnstossen();
+                }
+            }
+        };
+
+        HandlerBase(String clName, InetAddress adresse) {
+            clientName = clName;
+            this.adresse = adresse == null ? 0 : adresse.hashCode();
+            decoder.setzeMaxLaenge(maxNachrichtenlaenge);
+        }
+
+        /**
+         * Entfernt den Client, nachdem der Decoder das Lesen beendet hat, und
+         * meldet eine zu lange Nachricht
+         */
+        void dekodierenBeendet() {
+            if (decoder.zuLang()) {
+                metriken.zuLang.increment();
+                removeClient(this);
+                ueberlastMelden(getClientName(), Ueberlast.LAENGE);
+            }
+        }
+
+        /**
+         * Plant die nächste Leerlaufprüfung ein; die Frist wird nicht bei
+         * jedem Empfang verschoben, sondern erst bei der Prüfung mit dem
+         * Zeitpunkt des letzten Empfangs verglichen
+         */
+        void leerlaufPlanen(final long leerlauf, long verzoegerung) {
+            if (leerlaufBeendet) {
+                return;
+            }
+            leerlaufPruefung = zeitrad.planen(new Runnable() {
+                @Override
+                public void run() {
+                    long ruhe = zeitrad.stand() - zuletztEmpfangen;
+                    if (decoder.istAngehalten()) {
+                        // der Server selbst liest gerade nicht
+                        leerlaufPlanen(leerlauf, leerlauf);
+                    } else if (ruhe >= leerlauf) {
+                        leerlaufTrennen(HandlerBase.this);
+                    } else {
+                        leerlaufPlanen(leerlauf, leerlauf - ruhe);
+                    }
+                }
+            }, verzoegerung);
+            if (leerlaufBeendet) {
+                leerlaufPruefung.abbrechen();
+            }
+        }
+
+        /**
+         * Bricht die Leerlaufprüfung ab, wenn der Client entfernt wird
+         */
+        void leerlaufBeenden() {
+            leerlaufBeendet = true;
+            Zeitrad.Eintrag pruefung = leerlaufPruefung;
+            if (pruefung != null) {
+                pruefung.abbrechen();
+            }
+        }
+
+        @Override
+        public long getClientId() {
+            return clientId;
+        }
+
+        @Override
+        public String getClientName() {
+            return clientName;
+        }
+
+        @Override
+        public void setClientName(String clientName) {
+            this.clientName = clientName;
+        }
+
+        @Override
+        public boolean istBinaer() {
+            return binaer;
+        }
+
+        @Override
+        public boolean sendMessage(String message) {
+            return senden(EncodedMessage.text(message, false), false);
+        }
+
+        /**
+         * Stellt die Nachricht in die Ausgangswarteschlange, mit Sitzung
+         * nummeriert und zur Wiederholung aufbewahrt
+         */
+        @Override
+        public boolean senden(EncodedMessage nachricht, boolean sofort) {
+            Session s = sitzung;
+            if (s == null || nachricht.istSteuerung()) {
+                return einstellen(nachricht, sofort);
+            }
+            synchronized (s) {
+                if (s.verbindung() != this || (!nachricht.istText() && !binaer)) {
+                    return einstellen(nachricht, sofort);
+                }
+                s.aufzeichnen(nachricht);
+                // auch nach einem Überlauf wird die Nachricht beim Fortsetzen
+                // wiederholt
+                einstellen(nachricht, sofort);
+                return true;
+            }
+        }
+
+        /**
+         * Stellt die Nachricht in die Ausgangswarteschlange und stößt bei
+         * Bedarf den Schreiber an, mit Schreibfenster erst nach dessen Ablauf
+         */
+        boolean einstellen(EncodedMessage nachricht, boolean sofort) {
+            if (ausgabeGeschlossen) {
+                return false;
+            }
+            if (!nachricht.istText() && !binaer) {
+                metriken.sendefehler.increment();
+                return false;
+            }
+            if (!pruefeAusgang(this, ausgang.anhaengen(nachricht))) {
+                return false;
+            }
+            long fenster = schreibfenster;
+            ScheduledExecutorService timer = zeitgeber;
+            if (ausgang.planen()) {
+                if (fenster == 0 || sofort || timer == null) {
+                    return schreiberAnstossen();
+                }
+                verzoegert.set(true);
+                try {
+                    timer.schedule(verzoegertAnstossen, fenster, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException ex) {
+                    // Server wird gestoppt
+                    verzoegert.set(false);
+                    return schreiberAnstossen();
+                }
+                return true;
+            }
+            // wartenden Schreiber vorzeitig starten
+            if ((sofort || ausgang.bytes() >= schreibBudget) && verzoegert.compareAndSet(true, false)) {
+                return schreiberAnstossen();
+            }
+            return true;
+        }
+
+        /**
+         * Gibt nach dem Ende der Verbindung die Empfangspuffer frei und
+         * übernimmt die Zähler in die Summen des Servers; nur vom lesenden
+         * Thread aufzurufen, auch mehrfach
+         */
+        void abschliessen() {
+            Cluster c = cluster;
+            if (knoten != null && c != null) {
+                c.knotenGetrennt(knoten, this);
+            }
+            decoder.freigeben();
+            if (!abgeschlossen) {
+                abgeschlossen = true;
+                ausgang.abmelden();
+                metriken.abschliessen(this);
+            }
+        }
+
+        /**
+         * @return Momentaufnahme der Zähler dieser Verbindung
+         */
+        ClientMetrik metrik() {
+            return new ClientMetrik(clientId, clientName, nachrichtenEin, ausgang.entnommen(),
+                    bytesEin, bytesAus, ausgang.groesse());
+        }
+
+        /**
+         * @return true, wenn angehaltenes Lesen fortgesetzt werden darf
+         */
+        boolean zustellungAufgeholt() {
+            return ausstehend.get() <= zustellKapazitaet / 2;
+        }
+
+        /**
+         * Vermerkt eine zugestellte Nachricht; erreicht die Zahl der noch
+         * ausstehenden die Hälfte der Kapazität, wird das Lesen fortgesetzt
+         */
+        void zugestellt() {
+            if (ausstehend.decrementAndGet() == zustellKapazitaet / 2) {
+                lesenFortsetzen();
+            }
+        }
+
+        /**
+         * Setzt ein wegen ausstehender Zustellungen angehaltenes Lesen fort;
+         * von Arbeiter-Threads aufgerufen, auch wenn nicht angehalten ist
+         */
+        abstract void lesenFortsetzen();
+
+        /**
+         * Startet den Schreiber, nachdem die Ausgangswarteschlange ihn
+         * angefordert hat
+         *
+         * @return false, wenn der Schreiber nicht gestartet werden konnte
+         */
+        abstract boolean schreiberAnstossen();
+
+        /**
+         * Beendet beim Stoppen die Senderichtung, nachdem die
+         * Ausgangswarteschlange geleert ist; der Client liest das Ende des
+         * Datenstroms. Danach eingestellte Nachrichten werden abgelehnt.
+         */
+        void ausgabeSchliessen() {
+            if (!ausgabeGeschlossen) {
+                ausgabeGeschlossen = true;
+                try {
+                    ausgabeBeenden();
+                } catch (IOException ex) {
+                    // bereits geschlossen
+                }
+            }
+        }
+
+        /**
+         * Beendet die Senderichtung des Sockets
+         */
+        abstract void ausgabeBeenden() throws IOException;
+
+        /**
+         * Vereinbart auf Anfrage des Clients die Kompression: Der Client
+         * erhält das Wörterbuch in der Bestätigung, danach dürfen beide Seiten
+         * komprimieren
+         *
+         * @param vorlage Schwelle und Wörterbuch des Servers
+         */
+        void kompressionVereinbaren(Kompression vorlage) {
+            Kompression kompression = new Kompression(vorlage);
+            decoder.setzeKompression(kompression);
+            senden(EncodedMessage.kompressionBestaetigung(kompression), true);
+        }
+
+        /**
+         * Schaltet auf Anfrage des Clients in den Binärmodus: Der Client
+         * erhält die Bestätigung noch als Zeile, danach nur noch Frames
+         */
+        void binaerUmschalten() {
+            decoder.binaerAb();
+            senden(EncodedMessage.BINAER_BESTAETIGUNG, true);
+            binaer = true;
+        }
+
+        @Override
+        public boolean zeile(ByteBuffer zeile) {
+            nachrichtenEin++;
+            return verarbeiteNachricht(this, zeile);
+        }
+
+        @Override
+        public boolean frame(byte typ, ByteBuffer nutzdaten) {
+            nachrichtenEin++;
+            return verarbeiteFrame(this, typ, nutzdaten);
+        }
+    }
+
+    public class ClientHandler extends HandlerBase implements Runnable {
+
+        private volatile boolean aktiv = true;
+        Socket client;
+        SocketChannel channel;
+        // Größe des Eingabepuffers in Bytes
+        private final int lesepuffer;
+        // weckt den lesenden Thread, wenn der Listener aufgeholt hat
+        private final Object leseSperre = new Object();
+        // leert die Ausgangswarteschlange, läuft nur bei Bedarf
+        private final Runnable schreiber = new Runnable() {
+            @Override
+            public void run() {
+                int budget = schreibBudget;
+                do {
+                    while (ausgang.sammeln(budget)) {
+                        try {
+                            // alle gesammelten Nachrichten in einem Aufruf
+                            do {
+                                bytesAus += channel.write(ausgang.stapel(), ausgang.anfang(), ausgang.laenge());
+                            } while (!ausgang.geschrieben());
+                        } catch (IOException ex) {
+                            metriken.sendefehler.increment();
+                            if (aktiv && !ausgabeGeschlossen) {
+                                System.out.println("Fehler beim Senden an: " + getClientName());
+                            }
+                            // Schreiber bleibt eingeplant, damit kein neuer startet
+                            ausgang.leeren();
+                            return;
+                        }
+                    }
+                } while (ausgang.fertig());
+                abschlussMelden();
+            }
+        };
+
+        private ClientHandler(String clName, Socket c, int lesepuffer) {
+            super(clName, c.getInetAddress());
+            client = c;
+            this.lesepuffer = lesepuffer;
+            // Sockets des TCPServers gehören zu einem SocketChannel
+            channel = client.getChannel();
+        }
+
+        /**
+         * Beendet den Handler; das Schließen des Sockets beendet auch ein
+         * blockierendes Lesen
+         */
+        @Override
+        public void beenden() {
+            aktiv = false;
+            try {
+                client.close();
+            } catch (IOException ex) {
+
+            }
+        }
+
+        @Override
+        public void run() {
+
+            // Eingabepuffer aus dem Pool, wird am Ende zurückgegeben
+            ByteBuffer eingang = pufferPool.ausleihen(lesepuffer);
+            try {
+                // Schleife für den Empfang von Zeilen bzw. Frames
+                do {
+                    int anzahl = channel.read(eingang);
+                    if (anzahl < 0) {
+                        // Verbindung vom Client geschlossen
+                        removeClient(this);
+                        aktiv = false;
+                    } else {
+                        bytesEin += anzahl;
+                        zuletztEmpfangen = zeitrad.stand();
+                        eingang.flip();
+                        if (!decoder.dekodiere(eingang)) {
+                            // Handler beenden
+                            aktiv = false;
+                            dekodierenBeendet();
+                        }
+                        eingang.clear();
+                        while (aktiv && decoder.istAngehalten()) {
+                            warteAufZustellung();
+                            if (!decoder.fortsetzen()) {
+                                aktiv = false;
+                            }
+                        }
+                    }
+                } while (aktiv);
+
+                client.close(); //Socket schließen
+            } catch (Exception ex) {
+                if (aktiv) {
+                    System.out.println("Fehler beim Client-Handler");
+                }
+            } finally {
+                abschliessen();
+                pufferPool.zurueckgeben(eingang);
+                aufgabeBeendet();
+            }
+        }
+
+        /**
+         * Hält das Lesen an, bis die Hälfte der ausstehenden Nachrichten
+         * zugestellt ist oder der Handler beendet wird
+         */
+        private void warteAufZustellung() throws InterruptedException {
+            metriken.leseStopps.increment();
+            synchronized (leseSperre) {
+                while (aktiv && !zustellungAufgeholt()) {
+                    leseSperre.wait(100);
+                }
+            }
+        }
+
+        @Override
+        void lesenFortsetzen() {
+            synchronized (leseSperre) {
+                leseSperre.notifyAll();
+            }
+        }
+
+        @Override
+        void ausgabeBeenden() throws IOException {
+            client.shutdownOutput();
+        }
+
+        @Override
+        boolean schreiberAnstossen() {
+            try {
+                schreibExecutor.execute(schreiber);
+            } catch (RejectedExecutionException ex) {
+                metriken.sendefehler.increment();
+                System.out.println("Fehler beim Senden an: " + getClientName());
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Anfrage eines Clients, die genau einmal beantwortet wird. Die Antwort
+     * darf aus jedem Thread und auch nach dem Aufruf des Listeners gesendet
+     * werden; der Client ordnet sie über die Kennung seiner Anfrage zu.
+     */
+    public final class Anfrage {
+
+        private final HandlerBase connection;
+        private final String clientName;
+        private final long kennung;
+        private final String text;
+        private final AtomicBoolean beantwortet = new AtomicBoolean();
+
+        private Anfrage(HandlerBase connection, long kennung, String text) {
+            this.connection = connection;
+            this.clientName = connection.getClientName();
+            this.kennung = kennung;
+            this.text = text;
+        }
+
+        /**
+         * @return Name des Clients beim Empfang der Anfrage
+         */
+        public String getClientName() {
+            return clientName;
+        }
+
+        /**
+         * @return feste Id der Verbindung
+         */
+        public long getClientId() {
+            return connection.getClientId();
+        }
+
+        /**
+         * @return Text der Anfrage
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Sendet die Antwort an den Client
+         *
+         * @param antwort Text der Antwort
+         * @return true, wenn die Antwort zum Versand angenommen wurde; false,
+         * wenn die Anfrage bereits beantwortet war oder der Client nicht mehr
+         * verbunden ist
+         */
+        public boolean antworte(String antwort) {
+            return senden(antwort, false);
+        }
+
+        /**
+         * Beantwortet die Anfrage mit einem Fehler; beim Client endet sie mit
+         * einer IOException
+         *
+         * @param meldung Fehlermeldung
+         * @return true, wenn die Antwort zum Versand angenommen wurde
+         */
+        public boolean fehler(String meldung) {
+            return senden(meldung, true);
+        }
+
+        private boolean senden(String text, boolean fehler) {
+            if (!beantwortet.compareAndSet(false, true)) {
+                return false;
+            }
+            return connection.senden(EncodedMessage.antwort(kennung, text, fehler), false);
+        }
+    }
+
+    /**
+     * Interface zum Erhalt von Nachrichten, die von Clients an den Server
+     * geschickt werden
+     *
+     */
+    public interface ServerListener {
+
+        /**
+         * Methode wird bei Erhalt einer Nachricht aufgerufen
+         *
+         * @param clientName Name des Client-Rechners
+         * @param message Nachricht des Clients
+         */
+        public void getMessage(String clientName, String message);
+    }
+
+    /**
+     * Erweiterter Listener, der zusätzlich Anfragen von Clients erhält (siehe
+     * {@link NetworkClient#anfrage(String)})
+     */
+    public interface ServerRequestListener extends ServerListener {
+
+        /**
+         * Methode wird bei Erhalt einer Anfrage aufgerufen; die Anfrage muss
+         * mit {@link Anfrage#antworte(String)} oder
+         * {@link Anfrage#fehler(String)} beantwortet werden, auch später aus
+         * einem anderen Thread. Eine Ausnahme beantwortet sie mit einem Fehler.
+         *
+         * @param anfrage Anfrage des Clients
+         */
+        public void getRequest(Anfrage anfrage);
+    }
+
+    /**
+     * Erweiterter Listener, der zusätzlich erfährt, welche Clients wegen
+     * Leerlaufs getrennt wurden (siehe {@link MultiServer#setzeLeerlauf(long)})
+     */
+    public interface ServerTimeoutListener extends ServerListener {
+
+        /**
+         * Methode wird nach dem Trennen eines Clients aufgerufen, von dem zu
+         * lange nichts angekommen ist; läuft im Thread des gemeinsamen
+         * Zeitrads und muss schnell zurückkehren
+         *
+         * @param clientName Name des Client-Rechners
+         */
+        public void getTimeout(String clientName);
+    }
+
+    /**
+     * Erweiterter Listener, der von Überlast erfährt (siehe
+     * {@link MultiServer#setzeZulassung(int, int)} und
+     * {@link MultiServer#setzeEingangsrate(int, int, int, int)})
+     */
+    public interface ServerUeberlastListener extends ServerListener {
+
+        /**
+         * Methode wird aufgerufen, wenn eine Verbindung abgelehnt, ein Client
+         * wegen einer zu langen Nachricht getrennt wird oder Nachrichten
+         * eines Clients verworfen werden; für einen gedrosselten Client
+         * höchstens einmal je Sekunde. Läuft im
+         * annehmenden bzw. lesenden Thread und muss schnell zurückkehren.
+         *
+         * @param clientName Name des Client-Rechners, bei abgelehnten
+         * Verbindungen seine Adresse
+         * @param grund Art der Überlast
+         */
+        public void getUeberlast(String clientName, Ueberlast grund);
+    }
+
+    /**
+     * Erweiterter Listener, der Binärnachrichten von Clients im Binärmodus
+     * unverändert erhält. Ohne diesen Listener werden Binärnachrichten als
+     * UTF-8-Text an getMessage übergeben.
+     */
+    public interface ServerDataListener extends ServerListener {
+
+        /**
+         * Methode wird bei Erhalt einer Binärnachricht aufgerufen
+         *
+         * @param clientName Name des Client-Rechners
+         * @param daten schreibgeschützte Nutzdaten, nur während des Aufrufs
+         * gültig
+         */
+        public void getData(String clientName, ByteBuffer daten);
+    }
+
+    /**
+     * Listener, der Nachrichten ohne neue Objekte je Nachricht erhält. Die
+     * übergebenen Texte und Puffer werden wiederverwendet und sind nur während
+     * des Aufrufs gültig; zum Aufbewahren muss kopiert werden (z.B.
+     * toString()). getMessage wird für diesen Listener nicht aufgerufen.
+     */
+    public interface ServerBufferListener extends ServerListener {
+
+        /**
+         * Methode wird bei Erhalt einer Textnachricht aufgerufen
+         *
+         * @param clientId feste Id der Verbindung, bleibt bei Umbenennungen
+         * gleich (siehe {@link MultiServer#gibClientName(long)})
+         * @param text wiederverwendete Textsicht der Nachricht
+         */
+        public void getText(long clientId, CharSequence text);
+
+        /**
+         * Methode wird bei Erhalt einer Binärnachricht aufgerufen
+         *
+         * @param clientId feste Id der Verbindung
+         * @param daten Ausschnitt eines Empfangspuffers zwischen position und
+         * limit
+         */
+        public void getData(long clientId, ByteBuffer daten);
+    }
+
+    private class TCPServer extends Thread {
+
+        private final ServerKonfiguration konfig = konfiguration;
+        private final Thread[] akzeptoren = new Thread[konfig.akzeptoren() - 1];
+        private volatile ServerSocket server;
+
+        /**
+         * Unterbricht den Server und schließt den ServerSocket, damit jedes
+         * wartende accept() sofort zurückkehrt
+         */
+        @Override
+        public void interrupt() {
+            super.interrupt();
+            if (server != null) {
+                try {
+                    server.close();
+                } catch (IOException ex) {
+
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+
+            try {
+                // ServerSocket eines Channels, damit die Clients über ihren
+                // SocketChannel Puffer schreiben können
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                server = channel.socket();
+                konfig.binden(channel);
+                server.setSoTimeout(konfig.pruefIntervall());
+                // weitere Threads nehmen am selben ServerSocket an
+                for (int i = 0; i < akzeptoren.length; i++) {
+                    aufgabeGestartet();
+                    akzeptoren[i] = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                annehmen();
+                            } catch (IOException ex) {
+                                if (!isInterrupted()) {
+                                    System.out.println("Fehler beim Annehmen: " + ex);
+                                }
+                            } finally {
+                                aufgabeBeendet();
+                            }
+                        }
+                    }, "MultiServer-Annahme-" + (i + 1));
+                    akzeptoren[i].setDaemon(true);
+                    akzeptoren[i].start();
+                }
+                annehmen();
+
+            } catch (Exception e) {
+
+                if (!isInterrupted()) {
+                    System.out.println("Fehler beim Serverstart!");
+                    System.out.println(e);
+                }
+
+            }
+            if (server != null) {
+                try {
+                    server.close();
+                    System.out.println("TCP-Server closed");
+                } catch (IOException ex) {
+
+                }
+            }
+            aufgabeBeendet();
+
+        }
+
+        /**
+         * Nimmt Verbindungen an, bis der Server unterbrochen wird
+         */
+        private void annehmen() throws IOException {
+            while (!isInterrupted()) { //Server ständig lauschen lassen
+                Socket client;
+                // System.out.println("TCP-Server: Warte auf einen Client...");
+                try {
+                    client = server.accept(); //Client erhält eine Verbindung
+                    metriken.angenommen.increment();
+                    if (!verbindungZulassen(client.getInetAddress())) {
+                        client.close();
+                        continue;
+                    }
+                    // System.out.println("Neuer Client: " + client.getInetAddress().getHostAddress());
+                    ClientHandler clientHandler;
+                    try {
+                        konfig.einstellen(client);
+                        // neuen Prozess starten, der sich um den Client kümmert
+                        clientHandler = new ClientHandler("ClientName", client, konfig.lesepufferJeVerbindung());
+                    } catch (IOException e) {
+                        // reservierten Platz freigeben
+                        belegt.decrementAndGet();
+                        throw e;
+                    }
+                    // ClientHandler in der clientList aufnehmen
+                    aufnehmen(clientHandler);
+                    aufgabeGestartet();
+                    try {
+                        executor.execute(clientHandler);
+                    } catch (RejectedExecutionException e) {
+                        metriken.abgelehnt.increment();
+                        removeClient(clientHandler);
+                        clientHandler.beenden();
+                        aufgabeBeendet();
+                    }
+                } catch (SocketTimeoutException e) {
+                    // Timeout
+                }
+            }
+        }
+    }
+
+    /**
+     * Nicht-blockierender TCP-Server: Ein oder mehrere Threads nehmen
+     * Verbindungen an und verteilen sie reihum auf die Event-Loops, die Lesen
+     * und Schreiben für alle ihre Clients übernehmen. Die Event-Loops laufen
+     * über das Ende der Annahme hinaus, bis beim Stoppen die
+     * Ausgangswarteschlangen geleert sind.
+     */
+    private class NIOServer extends Thread {
+
+        private final ServerKonfiguration konfig = konfiguration;
+        private final EventLoop[] loops = new EventLoop[konfig.eventLoops()];
+        private final Thread[] akzeptoren = new Thread[konfig.akzeptoren() - 1];
+        private final AtomicInteger naechsterLoop = new AtomicInteger();
+        private IOException fehler;
+
+        /**
+         * Startet die Event-Loops, im Thread von starteServer(), damit ein
+         * folgendes stoppeServer() sie sicher beendet
+         */
+        private NIOServer() {
+            try {
+                for (int i = 0; i < loops.length; i++) {
+                    loops[i] = new EventLoop(i, konfig);
+                    aufgabeGestartet();
+                    loops[i].start();
+                }
+            } catch (IOException e) {
+                fehler = e;
+            }
+        }
+
+        /**
+         * Unterbricht auch die weiteren Threads der Annahme
+         */
+        @Override
+        public void interrupt() {
+            super.interrupt();
+            for (Thread akzeptor : akzeptoren) {
+                if (akzeptor != null) {
+                    akzeptor.interrupt();
+                }
+            }
+        }
+
+        /**
+         * Beendet die Event-Loops, die dabei ihre restlichen Verbindungen
+         * schließen
+         */
+        private void loopsBeenden() {
+            for (EventLoop loop : loops) {
+                if (loop != null) {
+                    loop.interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+
+            ServerSocketChannel server = null;
+            try {
+                if (fehler != null) {
+                    throw fehler;
+                }
+                server = ServerSocketChannel.open();
+                konfig.binden(server);
+                server.configureBlocking(false);
+                // weitere Threads mit eigenem Selector am selben Channel
+                final ServerSocketChannel gemeinsam = server;
+                for (int i = 0; i < akzeptoren.length; i++) {
+                    aufgabeGestartet();
+                    akzeptoren[i] = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                annehmen(gemeinsam);
+                            } catch (IOException ex) {
+                                if (!Thread.currentThread().isInterrupted()) {
+                                    System.out.println("Fehler beim Annehmen: " + ex);
+                                }
+                            } finally {
+                                aufgabeBeendet();
+                            }
+                        }
+                    }, "MultiServer-Annahme-" + (i + 1));
+                    akzeptoren[i].setDaemon(true);
+                    if (isInterrupted()) {
+                        // während des Starts gestoppt
+                        akzeptoren[i].interrupt();
+                    }
+                    akzeptoren[i].start();
+                }
+                annehmen(server);
+
+            } catch (Exception e) {
+
+                if (!isInterrupted()) {
+                    System.out.println("Fehler beim Serverstart!");
+                    System.out.println(e);
+                    loopsBeenden();
+                }
+
+            }
+            try {
+                if (server != null) {
+                    server.close();
+                    System.out.println("TCP-Server closed");
+                }
+            } catch (IOException ex) {
+
+            }
+            aufgabeBeendet();
+
+        }
+
+        /**
+         * Nimmt mit einem eigenen Selector Verbindungen an, bis der
+         * aufrufende Thread unterbrochen wird; gleichzeitig geweckte Threads
+         * erhalten jede Verbindung nur einmal
+         */
+        private void annehmen(ServerSocketChannel server) throws IOException {
+            Selector selector = Selector.open();
+            try {
+                server.register(selector, SelectionKey.OP_ACCEPT);
+                while (!Thread.currentThread().isInterrupted()) { //Server ständig lauschen lassen
+                    // Timeout nach dem Prüfintervall, Unterbrechung weckt den Selector
+                    selector.select(konfig.pruefIntervall());
+                    selector.selectedKeys().clear();
+                    SocketChannel client;
+                    while ((client = server.accept()) != null) {
+                        metriken.angenommen.increment();
+                        if (!verbindungZulassen(client.socket().getInetAddress())) {
+                            client.close();
+                            continue;
+                        }
+                        try {
+                            client.configureBlocking(false);
+                            konfig.einstellen(client.socket());
+                        } catch (IOException e) {
+                            // reservierten Platz freigeben
+                            belegt.decrementAndGet();
+                            throw e;
+                        }
+                        EventLoop loop = loops[(naechsterLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+                        ChannelHandler clientHandler = new ChannelHandler("ClientName", client, loop);
                         // ClientHandler in der clientList aufnehmen
-                        clientList.add(clientHandler);
-                    } catch (SocketTimeoutException e) {
-                        // Timeout
+                        aufnehmen(clientHandler);
+                        clientHandler.loop.registriere(clientHandler);
                     }
                 }
+            } finally {
+                selector.close();
+            }
+        }
+    }
 
-            } catch (Exception e) {
+    /**
+     * Thread, der mit einem eigenen Selector die Ein- und Ausgabe einer
+     * Teilmenge der Clients bearbeitet
+     */
+    private class EventLoop extends Thread {
+
+        private final Selector selector;
+        // gemeinsamer Lesepuffer aller Clients dieser Event-Loop; der Decoder
+        // übernimmt unvollständige Nachrichten
+        private final ByteBuffer eingang;
+        private final int pruefIntervall;
+        private final ConcurrentLinkedQueue<ChannelHandler> neueClients = new ConcurrentLinkedQueue<ChannelHandler>();
+        private final ConcurrentLinkedQueue<ChannelHandler> schreibwillige = new ConcurrentLinkedQueue<ChannelHandler>();
+
+        private EventLoop(int nummer, ServerKonfiguration konfig) throws IOException {
+            super("MultiServer-EventLoop-" + nummer);
+            selector = Selector.open();
+            eingang = ByteBuffer.allocate(konfig.lesepufferJeEventLoop());
+            pruefIntervall = konfig.pruefIntervall();
+        }
+
+        /**
+         * Übergibt einen neuen Client an diese Event-Loop
+         */
+        private void registriere(ChannelHandler clientHandler) {
+            neueClients.add(clientHandler);
+            selector.wakeup();
+        }
 
-                System.out.println("Fehler beim Serverstart!");
-                System.out.println(e);
+        /**
+         * Meldet, dass für einen Client Nachrichten auf den Versand warten
+         */
+        private void schreibbereit(ChannelHandler clientHandler) {
+            schreibwillige.add(clientHandler);
+            selector.wakeup();
+        }
 
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    selector.select(pruefIntervall);
+                    ChannelHandler clientHandler;
+                    while ((clientHandler = neueClients.poll()) != null) {
+                        try {
+                            clientHandler.key = clientHandler.channel.register(selector, SelectionKey.OP_READ, clientHandler);
+                            // vor der Registrierung eingestellte Nachrichten senden
+                            clientHandler.schreiben();
+                        } catch (IOException ex) {
+                            clientHandler.beenden();
+                        }
+                    }
+                    while ((clientHandler = schreibwillige.poll()) != null) {
+                        // noch nicht registrierte Clients schreiben nach der Registrierung
+                        if (clientHandler.key != null) {
+                            clientHandler.schreiben();
+                        }
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        clientHandler = (ChannelHandler) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            clientHandler.lesen();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            clientHandler.schreiben();
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                System.out.println("Fehler in der Event-Loop");
+                System.out.println(ex);
             }
-            if (server != null) {
-                try {
-                    server.close();
-                    System.out.println("TCP-Server closed");
-                } catch (IOException ex) {
+            // alle verbleibenden Verbindungen dieser Event-Loop schließen
+            for (SelectionKey key : selector.keys()) {
+                ((ChannelHandler) key.attachment()).beenden();
+                ((ChannelHandler) key.attachment()).abschliessen();
+            }
+            ChannelHandler beendet;
+            while ((beendet = schreibwillige.poll()) != null) {
+                beendet.abschliessen();
+            }
+            try {
+                selector.close();
+            } catch (IOException ex) {
+
+            }
+            aufgabeBeendet();
+        }
+    }
+
+    /**
+     * Verbindung zu einem Client in der Betriebsart {@link Mode#NIO}. Lesen und
+     * Schreiben übernimmt ausschließlich die zugeordnete Event-Loop; Senden
+     * stellt die Nachricht nur in die Ausgangswarteschlange.
+     */
+    private class ChannelHandler extends HandlerBase {
+
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private SelectionKey key;
+        // true, solange das Lesen wegen ausstehender Zustellungen ruht; nur
+        // von der Event-Loop benutzt
+        private boolean lesenAngehalten = false;
+
+        private ChannelHandler(String clName, SocketChannel c, EventLoop l) {
+            super(clName, c.socket().getInetAddress());
+            channel = c;
+            loop = l;
+        }
+
+        /**
+         * Liest die verfügbaren Bytes und verarbeitet alle vollständigen
+         * Zeilen bzw. Frames, wird nur von der Event-Loop aufgerufen
+         */
+        private void lesen() {
+            ByteBuffer eingang = loop.eingang;
+            int anzahl;
+            try {
+                anzahl = channel.read(eingang);
+            } catch (IOException ex) {
+                anzahl = -1;
+            }
+            if (anzahl < 0) {
+                // Verbindung vom Client geschlossen
+                removeClient(this);
+                beenden();
+                abschliessen();
+                return;
+            }
+            bytesEin += anzahl;
+            zuletztEmpfangen = zeitrad.stand();
+            eingang.flip();
+            boolean weiter = decoder.dekodiere(eingang);
+            eingang.clear();
+            if (!weiter) {
+                dekodierenBeendet();
+                beenden();
+                abschliessen();
+            } else if (decoder.istAngehalten() && key.isValid()) {
+                metriken.leseStopps.increment();
+                lesenAngehalten = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                // der Listener kann inzwischen bereits aufgeholt haben
+                pruefeLesen();
+            }
+        }
+
+        /**
+         * Dekodiert zurückgestellte Bytes und setzt angehaltenes Lesen fort,
+         * sobald der Listener aufgeholt hat
+         *
+         * @return false, wenn die Verbindung dabei beendet wurde
+         */
+        private boolean pruefeLesen() {
+            if (!lesenAngehalten || !zustellungAufgeholt()) {
+                return true;
+            }
+            if (!decoder.fortsetzen()) {
+                dekodierenBeendet();
+                beenden();
+                abschliessen();
+                return false;
+            }
+            if (!decoder.istAngehalten() && key.isValid()) {
+                lesenAngehalten = false;
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+            return true;
+        }
+
+        /**
+         * @return OP_READ, solange das Lesen nicht angehalten ist
+         */
+        private int leseInteresse() {
+            return lesenAngehalten ? 0 : SelectionKey.OP_READ;
+        }
+
+        /**
+         * Schreibt so viele wartende Nachrichten wie der Socket ohne Blockieren
+         * aufnimmt; bleibt ein Rest, wird auf die Schreibbereitschaft des
+         * Sockets gewartet. Setzt außerdem angehaltenes Lesen fort. Wird nur
+         * von der Event-Loop aufgerufen.
+         */
+        private void schreiben() {
+            if (!key.isValid()) {
+                // von außen beendet: Empfangspuffer auf der Event-Loop freigeben
+                abschliessen();
+                return;
+            }
+            try {
+                if (!pruefeLesen()) {
+                    return;
+                }
+                int budget = schreibBudget;
+                do {
+                    while (ausgang.sammeln(budget)) {
+                        // alle gesammelten Nachrichten in einem Aufruf
+                        bytesAus += channel.write(ausgang.stapel(), ausgang.anfang(), ausgang.laenge());
+                        if (!ausgang.geschrieben()) {
+                            // Socketpuffer voll
+                            key.interestOps(leseInteresse() | SelectionKey.OP_WRITE);
+                            return;
+                        }
+                    }
+                    key.interestOps(leseInteresse());
+                } while (ausgang.fertig());
+                abschlussMelden();
+            } catch (CancelledKeyException ex) {
+                // Verbindung wurde inzwischen beendet
+            } catch (IOException ex) {
+                metriken.sendefehler.increment();
+                if (!ausgabeGeschlossen) {
+                    System.out.println("Fehler beim Senden an: " + getClientName());
+                }
+                removeClient(this);
+                beenden();
+                abschliessen();
+            }
+        }
+
+        /**
+         * Lässt die Event-Loop das Lesen prüfen und fortsetzen
+         */
+        @Override
+        void lesenFortsetzen() {
+            loop.schreibbereit(this);
+        }
+
+        /**
+         * Meldet den Client bei der Event-Loop zum Schreiben an
+         */
+        @Override
+        boolean schreiberAnstossen() {
+            loop.schreibbereit(this);
+            return true;
+        }
+
+        @Override
+        void ausgabeBeenden() throws IOException {
+            channel.shutdownOutput();
+        }
 
+        /**
+         * Schließt die Verbindung; von außerhalb der Event-Loop aufgerufen, gibt
+         * diese anschließend die Empfangspuffer frei
+         */
+        @Override
+        public void beenden() {
+            if (key != null) {
+                key.cancel();
+                if (Thread.currentThread() != loop) {
+                    loop.schreibbereit(this);
                 }
             }
+            try {
+                channel.close();
+            } catch (IOException ex) {
+
+            }
+        }
+    }
+
+    /**
+     * Kennzahlen des Servers. Verbindungen zählen in eigenen Feldern, die erst
+     * beim Abruf summiert werden; beim Ende einer Verbindung gehen ihre
+     * Zähler in die Summen der beendeten Verbindungen ein.
+     */
+    private class Metriken implements ServerMetrikenMXBean {
+
+        private final LongAdder angenommen = new LongAdder();
+        private final LongAdder abgelehnt = new LongAdder();
+        private final LongAdder langsameClients = new LongAdder();
+        private final LongAdder leerlaufGetrennt = new LongAdder();
+        private final LongAdder sendefehler = new LongAdder();
+        private final LongAdder discoveryAntworten = new LongAdder();
+        private final LongAdder discoveryGedrosselt = new LongAdder();
+        private final LongAdder leseStopps = new LongAdder();
+        private final LongAdder gedrosselt = new LongAdder();
+        // wartende Nachrichten aller Ausgangswarteschlangen, laufend gezählt
+        private final LongAdder wartend = new LongAdder();
+        private final LongAdder zuLang = new LongAdder();
+        private final LatenzHistogramm dispatch = new LatenzHistogramm();
+        // Summen der beendeten Verbindungen
+        private final LongAdder beendetNachrichtenEin = new LongAdder();
+        private final LongAdder beendetNachrichtenAus = new LongAdder();
+        private final LongAdder beendetBytesEin = new LongAdder();
+        private final LongAdder beendetBytesAus = new LongAdder();
+
+        private void abschliessen(HandlerBase connection) {
+            beendetNachrichtenEin.add(connection.nachrichtenEin);
+            beendetNachrichtenAus.add(connection.ausgang.entnommen());
+            beendetBytesEin.add(connection.bytesEin);
+            beendetBytesAus.add(connection.bytesAus);
+        }
+
+        @Override
+        public int getVerbundeneClients() {
+            return clientList.anzahl();
+        }
+
+        @Override
+        public long getAngenommeneVerbindungen() {
+            return angenommen.sum();
+        }
+
+        @Override
+        public long getAbgelehnteVerbindungen() {
+            return abgelehnt.sum();
+        }
+
+        @Override
+        public long getGetrennteLangsameClients() {
+            return langsameClients.sum();
+        }
+
+        @Override
+        public long getGetrennteLeerlaufClients() {
+            return leerlaufGetrennt.sum();
+        }
+
+        @Override
+        public int getVerbundeneKnoten() {
+            Cluster knoten = cluster;
+            return knoten == null ? 0 : knoten.verbundeneKnoten();
+        }
+
+        @Override
+        public long getNachrichtenAnKnoten() {
+            Cluster knoten = cluster;
+            return knoten == null ? 0 : knoten.weitergeleitet();
+        }
+
+        @Override
+        public long getVerworfeneNachrichten() {
+            return gedrosselt.sum();
+        }
+
+        @Override
+        public long getZuLangeNachrichten() {
+            return zuLang.sum();
+        }
+
+        @Override
+        public long getNachrichtenImLog() {
+            Nachrichtenlog log = nachrichtenlog;
+            return log == null ? 0 : log.gespeichert();
+        }
+
+        @Override
+        public long getNachgelieferteNachrichten() {
+            Nachrichtenlog log = nachrichtenlog;
+            return log == null ? 0 : log.nachgeliefert();
+        }
+
+        @Override
+        public long getNachrichtenEin() {
+            long summe = beendetNachrichtenEin.sum();
+            for (HandlerBase connection : offene()) {
+                summe += connection.nachrichtenEin;
+            }
+            return summe;
+        }
+
+        @Override
+        public long getNachrichtenAus() {
+            long summe = beendetNachrichtenAus.sum();
+            for (HandlerBase connection : offene()) {
+                summe += connection.ausgang.entnommen();
+            }
+            return summe;
+        }
+
+        @Override
+        public long getBytesEin() {
+            long summe = beendetBytesEin.sum();
+            for (HandlerBase connection : offene()) {
+                summe += connection.bytesEin;
+            }
+            return summe;
+        }
+
+        @Override
+        public long getBytesAus() {
+            long summe = beendetBytesAus.sum();
+            for (HandlerBase connection : offene()) {
+                summe += connection.bytesAus;
+            }
+            return summe;
+        }
+
+        @Override
+        public long getSendefehler() {
+            return sendefehler.sum();
+        }
+
+        @Override
+        public long getDiscoveryAntworten() {
+            return discoveryAntworten.sum();
+        }
+
+        @Override
+        public long getDiscoveryGedrosselt() {
+            return discoveryGedrosselt.sum();
+        }
+
+        @Override
+        public long getWarteschlangeGesamt() {
+            return Math.max(0, wartend.sum());
+        }
+
+        @Override
+        public int getWarteschlangeMax() {
+            int max = 0;
+            for (HandlerBase connection : offene()) {
+                max = Math.max(max, connection.ausgang.groesse());
+            }
+            return max;
+        }
+
+        @Override
+        public long getZustellungAusstehend() {
+            long summe = 0;
+            for (HandlerBase connection : offene()) {
+                summe += connection.ausstehend.get();
+            }
+            return summe;
+        }
+
+        @Override
+        public long getLeseStopps() {
+            return leseStopps.sum();
+        }
+
+        @Override
+        public long getDispatchAnzahl() {
+            return dispatch.anzahl();
+        }
+
+        @Override
+        public double getDispatchMittelMikros() {
+            return dispatch.mittelwertMikros();
+        }
+
+        @Override
+        public double getDispatchP50Mikros() {
+            return dispatch.perzentilMikros(0.5);
+        }
+
+        @Override
+        public double getDispatchP99Mikros() {
+            return dispatch.perzentilMikros(0.99);
+        }
+
+        @Override
+        public double getDispatchP999Mikros() {
+            return dispatch.perzentilMikros(0.999);
+        }
+
+        @Override
+        public ClientMetrik[] getClients() {
+            List<HandlerBase> offene = offene();
+            ClientMetrik[] ergebnis = new ClientMetrik[offene.size()];
+            for (int i = 0; i < ergebnis.length; i++) {
+                ergebnis[i] = offene.get(i).metrik();
+            }
+            return ergebnis;
+        }
 
+        /**
+         * @return registrierte Verbindungen, deren Zähler noch nicht in die
+         * Summen übernommen sind
+         */
+        private List<HandlerBase> offene() {
+            List<HandlerBase> offene = new ArrayList<HandlerBase>();
+            for (Connection connection : clientList.alle()) {
+                HandlerBase handler = (HandlerBase) connection;
+                if (!handler.abgeschlossen) {
+                    offene.add(handler);
+                }
+            }
+            return offene;
         }
     }
 
+    /**
+     * Beantwortet Suchanfragen nach dem Servernamen. Mehrere Empfänger-Threads
+     * teilen sich einen DatagramChannel mit großem Empfangspuffer: Während
+     * einer auf das nächste Datagramm wartet, können andere vergleichen und
+     * antworten. Der Name wird ohne neue Objekte mit den empfangenen Bytes
+     * verglichen, die Antwort ist vorab kodiert. Absender, die die erlaubte
+     * Rate überschreiten, erhalten keine Antwort.
+     */
     private class UDPServer extends Thread {
 
+        private volatile DatagramChannel channel;
+        private final boolean ankuendigen = MultiServer.this.ankuendigen;
+        private final int anzahlEmpfaenger = discoveryEmpfaenger;
+        // null ohne Begrenzung
+        private final Ratenbegrenzer begrenzer = discoveryRate > 0
+                ? new Ratenbegrenzer(discoveryRate, discoveryBuendel, 4096) : null;
+        private final byte[] name = serverName.getBytes();
+        private final int port = konfiguration.tcpPort();
+        private final ServerKonfiguration konfig = konfiguration;
+
         private UDPServer() {
+            super("MultiServer-Discovery-0");
+        }
+
+        /**
+         * Kündigt den Server per Broadcast an; ohne Empfänger folgenlos
+         */
+        private void ankuendigen() {
+            byte[] ankuendigung = (Discovery.ANKUENDIGUNG + serverName + '\n' + port).getBytes();
+            try {
+                channel.send(ByteBuffer.wrap(ankuendigung),
+                        new InetSocketAddress(InetAddress.getByName("255.255.255.255"), Discovery.ANKUENDIGUNG_PORT));
+            } catch (IOException ex) {
+                System.out.println("Ankündigung nicht gesendet: " + ex);
+            }
+        }
+
+        /**
+         * Unterbricht den Server und schließt den Channel, damit alle
+         * wartenden receive() sofort zurückkehren
+         */
+        @Override
+        public void interrupt() {
+            super.interrupt();
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+
+                }
+            }
         }
 
         @Override
         public void run() {
 
-            // System.out.println("UDP-Server: " + serverName + " gestartet.");
-            DatagramSocket serverSocket = null;
             try {
-                serverSocket = new DatagramSocket(9999);
-                byte[] receiveData = new byte[1024];
-                byte[] sendData = new byte[1024];
-                while (!isInterrupted()) {
-                    // System.out.println("UDP-Server wartet auf Broadcastnachricht.");
-                    // Timeout nach 1s
-
-                    serverSocket.setSoTimeout(1000);
-                    //Datagramm erhalten und IP-Adresse des Hosts ermitteln
-                    DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-                    try {
-                        serverSocket.receive(receivePacket);
-                        String incomingMessage = new String(receivePacket.getData());
-                        incomingMessage = incomingMessage.substring(0, receivePacket.getLength());
-                    // System.out.println("RECEIVED: " + incomingMessage);
-
-                        // Bei passendem Servernamen Antwort senden
-                        if (incomingMessage.equalsIgnoreCase(serverName)) {
-                            InetAddress ipAddress = receivePacket.getAddress();
-                            // System.out.println("Broadcast Nachrichte von :" + ipAddress.getHostAddress());
-                            int port = receivePacket.getPort();
-                            //Eigenen Servername als Antwort senden
-                            sendData = serverName.getBytes();
-                            DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, ipAddress, port);
-                            serverSocket.send(sendPacket);
+                channel = DatagramChannel.open();
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, DISCOVERY_EMPFANGSPUFFER);
+                channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+                // mehrere Server eines Rechners erhalten alle Broadcasts
+                channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                channel.bind(new InetSocketAddress(konfig.udpPort()));
+                if (ankuendigen) {
+                    ankuendigen();
+                }
+                for (int i = 1; i < anzahlEmpfaenger; i++) {
+                    aufgabeGestartet();
+                    Thread empfaenger = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                beantworten();
+                            } catch (IOException ex) {
+                                // Channel geschlossen
+                            } finally {
+                                aufgabeBeendet();
+                            }
                         }
-                    } catch (SocketTimeoutException e) {
-                        // Timeout
-                    }
+                    }, "MultiServer-Discovery-" + i);
+                    empfaenger.setDaemon(true);
+                    empfaenger.start();
+                }
+                beantworten();
+            } catch (IOException ex) {
+                if (!isInterrupted()) {
+                    System.out.println("Fehler beim UDP-Server: " + ex);
                 }
+            }
+            interrupt();
+            aufgabeBeendet();
+        }
 
-            } catch (Exception ex) {
-                interrupt();
+        /**
+         * Empfängt Suchanfragen und beantwortet passende, bis der Channel
+         * geschlossen wird
+         */
+        private void beantworten() throws IOException {
+            ByteBuffer anfrage = ByteBuffer.allocateDirect(konfig.datagrammGroesse());
+            // wiederverwendeter Puffer der Antwort
+            ByteBuffer antwort = ByteBuffer.allocate(konfig.datagrammGroesse());
+            // Stand des Zeitrads der letzten Lastangabe, -1 vor der ersten
+            long erstellt = -1;
+            while (true) {
+                anfrage.clear();
+                SocketAddress absender = channel.receive(anfrage);
+                anfrage.flip();
+                if (!passt(anfrage)) {
+                    continue;
+                }
+                if (begrenzer != null && !begrenzer.erlaubt(((InetSocketAddress) absender).getAddress().hashCode())) {
+                    metriken.discoveryGedrosselt.increment();
+                    continue;
+                }
+                // eigenen Servernamen mit Port und Last als Antwort senden; die
+                // Last wird höchstens einmal je Schritt des Zeitrads bestimmt
+                if (erstellt != zeitrad.stand()) {
+                    erstellt = zeitrad.stand();
+                    antwort.clear();
+                    Discovery.antwort(antwort, name, port, clientList.anzahl(),
+                            metriken.getWarteschlangeGesamt(), gewicht);
+                    antwort.flip();
+                }
+                antwort.rewind();
+                try {
+                    channel.send(antwort, absender);
+                    metriken.discoveryAntworten.increment();
+                } catch (ClosedChannelException ex) {
+                    throw ex;
+                } catch (IOException ex) {
+                    // z.B. Ziel nicht erreichbar, betrifft nur diese Antwort
+                    metriken.sendefehler.increment();
+                }
+            }
+        }
 
+        /**
+         * Vergleicht die Anfrage ohne Beachtung der Groß-/Kleinschreibung
+         * (ASCII) mit dem Servernamen
+         */
+        private boolean passt(ByteBuffer anfrage) {
+            if (anfrage.remaining() != name.length) {
+                return false;
             }
-            if (serverSocket != null) {
-                serverSocket.close();
+            for (int i = 0; i < name.length; i++) {
+                byte b = anfrage.get(i);
+                if (b >= 'A' && b <= 'Z') {
+                    b += 'a' - 'A';
+                }
+                if (b != name[i]) {
+                    return false;
+                }
             }
+            return true;
         }
     }
 }
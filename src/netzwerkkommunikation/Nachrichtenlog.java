@@ -0,0 +1,513 @@
+package netzwerkkommunikation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dauerhaftes Nachrichtenlog für Clients, die gerade nicht verbunden sind.
+ * Nachrichten werden nur angehängt, in Segmentdateien fester Größe, die über
+ * {@link MappedByteBuffer} beschrieben werden; ein Hintergrund-Thread schreibt
+ * geänderte Segmente gebündelt auf die Platte (force). Jede Nachricht hat
+ * eine Position, die über alle Segmente fortläuft; der Name einer Datei ist
+ * die Position ihres ersten Bytes.
+ *
+ * Trennt sich ein benannter Client, merkt sich das Log als Cursor die
+ * aktuelle Endposition. Solange der Cursor besteht, werden Nachrichten an
+ * diesen Client gespeichert; Broadcasts werden gespeichert, solange irgendein
+ * Cursor besteht. Meldet sich der Client mit seinem Namen zurück, liefert
+ * {@link #nachholen(String, long)} alle Nachrichten an ihn und die Broadcasts
+ * zwischen seinem Cursor und seiner neuen Verbindung. Die Cursor werden mit
+ * jedem Schreiben in einer Textdatei gesichert und überstehen einen Neustart
+ * des Servers.
+ *
+ * Segmente werden gelöscht, wenn sie älter als die Aufbewahrungsdauer sind
+ * oder die Höchstzahl überschritten ist; beim Kompaktieren zusätzlich, sobald
+ * kein Cursor mehr vor ihrem Ende steht. Ebenso verfallen Cursor von
+ * Clients, die länger als die Aufbewahrungsdauer fortbleiben.
+ *
+ * Aufbau eines Eintrags: Länge des Rests (int), Länge des Clientnamens in
+ * Bytes (short, 0 bei Broadcasts), Name und Text in UTF-8. Die Länge wird
+ * zuletzt geschrieben, ein unvollständiger Eintrag endet das Segment wie
+ * der mit Nullen gefüllte Rest.
+ *
+ * @author Jochen Schmitt
+ */
+final class Nachrichtenlog {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String ENDUNG = ".seg";
+    private static final String CURSOR_DATEI = "cursor.txt";
+    private static final byte[] LEER = new byte[0];
+
+    private final File verzeichnis;
+    private final int segmentGroesse;
+    private final long aufbewahrung;
+    private final int maxSegmente;
+    private final boolean kompaktieren;
+    private final long syncMillis;
+    // alle Segmente nach ihrer Anfangsposition
+    private final ConcurrentSkipListMap<Long, Segment> segmente = new ConcurrentSkipListMap<Long, Segment>();
+    // Cursor der getrennten Clients nach Schlüssel des Namens, durch this
+    // gesperrt
+    private final Map<String, Cursor> cursor = new HashMap<String, Cursor>();
+    private boolean cursorGeaendert = false;
+    // true, solange ein Cursor besteht; ohne Sperre lesbar
+    private volatile boolean wartend = false;
+    // Segment, an das angehängt wird, durch this gesperrt
+    private Segment aktuell;
+    // Position hinter dem letzten vollständigen Eintrag
+    private volatile long ende;
+    private volatile boolean offen = true;
+    private final Thread schreiber;
+    private final LongAdder gespeichert = new LongAdder();
+    private final LongAdder nachgeliefert = new LongAdder();
+
+    /**
+     * Öffnet das Log im Verzeichnis bzw. legt es an und startet den
+     * Hintergrund-Thread
+     *
+     * @param verzeichnis Verzeichnis für Segmente und Cursor
+     * @param segmentGroesse Größe einer Segmentdatei in Bytes
+     * @param syncMillis Abstand in ms, in dem geänderte Segmente auf die
+     * Platte geschrieben werden
+     * @param aufbewahrung Segmente und Cursor verfallen nach so vielen ms
+     * @param maxSegmente höchstens so viele Segmente werden aufbewahrt
+     * @param kompaktieren true, um Segmente zu löschen, die kein Cursor mehr
+     * benötigt
+     */
+    Nachrichtenlog(File verzeichnis, int segmentGroesse, long syncMillis, long aufbewahrung, int maxSegmente,
+            boolean kompaktieren) throws IOException {
+        this.verzeichnis = verzeichnis;
+        this.segmentGroesse = segmentGroesse;
+        this.syncMillis = Math.max(1, syncMillis);
+        this.aufbewahrung = aufbewahrung;
+        this.maxSegmente = Math.max(1, maxSegmente);
+        this.kompaktieren = kompaktieren;
+        if (!verzeichnis.isDirectory() && !verzeichnis.mkdirs()) {
+            throw new IOException("Verzeichnis nicht angelegt: " + verzeichnis);
+        }
+        File[] dateien = verzeichnis.listFiles();
+        Arrays.sort(dateien);
+        for (File datei : dateien) {
+            if (datei.getName().endsWith(ENDUNG)) {
+                long basis = Long.parseLong(datei.getName().substring(0, datei.getName().length() - ENDUNG.length()));
+                segmente.put(basis, new Segment(basis, datei, datei.lastModified()));
+            }
+        }
+        if (segmente.isEmpty()) {
+            aktuell = neuesSegment(0);
+        } else {
+            aktuell = segmente.lastEntry().getValue();
+            aktuell.fuellstand = aktuell.suchEnde();
+        }
+        ende = aktuell.basis + aktuell.fuellstand;
+        cursorLesen();
+        schreiber = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                schreiben();
+            }
+        }, "Nachrichtenlog");
+        schreiber.setDaemon(true);
+        schreiber.start();
+    }
+
+    /**
+     * Hängt eine Nachricht an
+     *
+     * @param clientName Empfänger, null für einen Broadcast
+     * @param text Nachricht
+     * @return false, wenn für den Client bzw. bei einem Broadcast für keinen
+     * Client ein Cursor besteht, die Nachricht größer als ein Segment ist oder
+     * das Log geschlossen ist
+     */
+    boolean anhaengen(String clientName, String text) {
+        // ohne getrennte Clients kostet ein Broadcast weder Kodierung noch Sperre
+        if (clientName == null && !wartend) {
+            return false;
+        }
+        byte[] name = clientName == null ? LEER : clientName.getBytes(UTF8);
+        byte[] nutzdaten = text.getBytes(UTF8);
+        int laenge = 2 + name.length + nutzdaten.length;
+        // Platz für die Nullen am Ende des Segments freihalten
+        if (name.length > Short.MAX_VALUE || 4 + laenge + 4 > segmentGroesse) {
+            return false;
+        }
+        synchronized (this) {
+            if (!offen || (clientName == null ? cursor.isEmpty()
+                    : !cursor.containsKey(ClientRegistry.schluessel(clientName)))) {
+                return false;
+            }
+            if (aktuell.puffer.capacity() - aktuell.fuellstand < 4 + laenge + 4) {
+                try {
+                    aktuell.geschlossen = System.currentTimeMillis();
+                    aktuell = neuesSegment(ende);
+                } catch (IOException ex) {
+                    System.out.println("Nachrichtenlog: Segment nicht angelegt: " + ex);
+                    return false;
+                }
+            }
+            // nur unter dieser Sperre wird die Position des Puffers bewegt,
+            // Leser verwenden Kopien
+            MappedByteBuffer puffer = aktuell.puffer;
+            int beginn = aktuell.fuellstand;
+            puffer.position(beginn + 4);
+            puffer.putShort((short) name.length);
+            puffer.put(name);
+            puffer.put(nutzdaten);
+            puffer.putInt(beginn, laenge);
+            aktuell.fuellstand = beginn + 4 + laenge;
+            aktuell.geaendert = true;
+            ende = aktuell.basis + aktuell.fuellstand;
+        }
+        gespeichert.increment();
+        return true;
+    }
+
+    /**
+     * Legt für einen getrennten Client einen Cursor an der aktuellen
+     * Endposition an; spätere Nachrichten an ihn werden gespeichert
+     */
+    synchronized void getrennt(String clientName) {
+        String schluessel = ClientRegistry.schluessel(clientName);
+        // ein bestehender Cursor bleibt, sonst gingen Nachrichten verloren
+        if (offen && !cursor.containsKey(schluessel)) {
+            cursor.put(schluessel, new Cursor(clientName, ende, System.currentTimeMillis()));
+            cursorGeaendert = true;
+            wartend = true;
+        }
+    }
+
+    /**
+     * @return true, solange ein Cursor besteht und Broadcasts gespeichert
+     * werden
+     */
+    boolean wartet() {
+        return wartend;
+    }
+
+    /**
+     * @return Position hinter dem letzten Eintrag
+     */
+    synchronized long stand() {
+        return ende;
+    }
+
+    /**
+     * Entfernt den Cursor eines zurückgekehrten Clients und liefert die seit
+     * der Trennung gespeicherten Nachrichten an ihn und die Broadcasts, die
+     * er über seine neue Verbindung nicht mehr erhalten hat
+     *
+     * @param clientName Name des Clients
+     * @param bisBroadcast Position, ab der die Verbindung Broadcasts direkt
+     * erhalten hat
+     * @return Nachrichten in der Reihenfolge des Logs, leer ohne Cursor
+     */
+    List<String> nachholen(String clientName, long bisBroadcast) {
+        String schluessel = ClientRegistry.schluessel(clientName);
+        long von;
+        long bis;
+        synchronized (this) {
+            Cursor c = cursor.remove(schluessel);
+            if (c == null) {
+                return new ArrayList<String>(0);
+            }
+            cursorGeaendert = true;
+            wartend = !cursor.isEmpty();
+            von = c.position;
+            bis = ende;
+        }
+        List<String> nachrichten = new ArrayList<String>();
+        Long erstes = segmente.floorKey(von);
+        for (Segment segment : (erstes == null ? segmente : segmente.tailMap(erstes)).values()) {
+            if (segment.basis >= bis) {
+                break;
+            }
+            segment.lesen(schluessel, Math.max(0, von - segment.basis), bis - segment.basis,
+                    bisBroadcast - segment.basis, nachrichten);
+        }
+        nachgeliefert.add(nachrichten.size());
+        return nachrichten;
+    }
+
+    /**
+     * @return Anzahl der gespeicherten Nachrichten
+     */
+    long gespeichert() {
+        return gespeichert.sum();
+    }
+
+    /**
+     * @return Anzahl der nachgelieferten Nachrichten
+     */
+    long nachgeliefert() {
+        return nachgeliefert.sum();
+    }
+
+    /**
+     * Beendet den Hintergrund-Thread, schreibt alles auf die Platte und
+     * schließt die Segmente
+     */
+    void schliessen() {
+        synchronized (this) {
+            if (!offen) {
+                return;
+            }
+            offen = false;
+        }
+        schreiber.interrupt();
+        try {
+            schreiber.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        sichern();
+        for (Segment segment : segmente.values()) {
+            segment.schliessen();
+        }
+    }
+
+    private void schreiben() {
+        while (offen) {
+            try {
+                Thread.sleep(syncMillis);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            sichern();
+            aufraeumen();
+        }
+    }
+
+    /**
+     * Schreibt geänderte Segmente und Cursor auf die Platte
+     */
+    private void sichern() {
+        for (Segment segment : segmente.values()) {
+            if (segment.geaendert) {
+                segment.geaendert = false;
+                segment.puffer.force();
+            }
+        }
+        List<Cursor> kopie = null;
+        synchronized (this) {
+            if (cursorGeaendert) {
+                cursorGeaendert = false;
+                kopie = new ArrayList<Cursor>(cursor.values());
+            }
+        }
+        if (kopie != null) {
+            try {
+                cursorSchreiben(kopie);
+            } catch (IOException ex) {
+                System.out.println("Nachrichtenlog: Cursor nicht gesichert: " + ex);
+            }
+        }
+    }
+
+    /**
+     * Löscht verfallene Segmente und Cursor
+     */
+    private void aufraeumen() {
+        long jetzt = System.currentTimeMillis();
+        List<Segment> loeschen = new ArrayList<Segment>();
+        synchronized (this) {
+            long kleinster = ende;
+            Iterator<Cursor> cursorIterator = cursor.values().iterator();
+            while (cursorIterator.hasNext()) {
+                Cursor c = cursorIterator.next();
+                if (jetzt - c.zeit > aufbewahrung) {
+                    cursorIterator.remove();
+                    cursorGeaendert = true;
+                } else {
+                    kleinster = Math.min(kleinster, c.position);
+                }
+            }
+            wartend = !cursor.isEmpty();
+            int anzahl = segmente.size();
+            for (Segment segment : segmente.values()) {
+                if (segment == aktuell) {
+                    break;
+                }
+                Long naechstes = segmente.higherKey(segment.basis);
+                boolean unbenoetigt = kompaktieren && naechstes != null && naechstes <= kleinster;
+                if (anzahl > maxSegmente || jetzt - segment.geschlossen > aufbewahrung || unbenoetigt) {
+                    segmente.remove(segment.basis);
+                    loeschen.add(segment);
+                    anzahl--;
+                }
+            }
+        }
+        for (Segment segment : loeschen) {
+            segment.schliessen();
+            if (!segment.datei.delete()) {
+                System.out.println("Nachrichtenlog: Segment nicht gelöscht: " + segment.datei);
+            }
+        }
+    }
+
+    private Segment neuesSegment(long basis) throws IOException {
+        File datei = new File(verzeichnis, String.format("%020d", basis) + ENDUNG);
+        Segment segment = new Segment(basis, datei, Long.MAX_VALUE);
+        segmente.put(basis, segment);
+        return segment;
+    }
+
+    private void cursorLesen() throws IOException {
+        File datei = new File(verzeichnis, CURSOR_DATEI);
+        if (!datei.exists()) {
+            return;
+        }
+        BufferedReader leser = new BufferedReader(new InputStreamReader(new FileInputStream(datei), UTF8));
+        try {
+            String zeile;
+            while ((zeile = leser.readLine()) != null) {
+                // Position, Zeitpunkt der Trennung, Name
+                String[] teile = zeile.split(" ", 3);
+                if (teile.length == 3) {
+                    long position = Math.min(Long.parseLong(teile[0]), ende);
+                    cursor.put(ClientRegistry.schluessel(teile[2]), new Cursor(teile[2], position, Long.parseLong(teile[1])));
+                }
+            }
+            wartend = !cursor.isEmpty();
+        } finally {
+            leser.close();
+        }
+    }
+
+    /**
+     * Schreibt die Cursor in eine neue Datei und ersetzt damit die alte
+     */
+    private void cursorSchreiben(List<Cursor> liste) throws IOException {
+        File neu = new File(verzeichnis, CURSOR_DATEI + ".neu");
+        FileOutputStream strom = new FileOutputStream(neu);
+        try {
+            Writer schreiber = new OutputStreamWriter(strom, UTF8);
+            for (Cursor c : liste) {
+                schreiber.write(c.position + " " + c.zeit + " " + c.name + "\n");
+            }
+            schreiber.flush();
+            strom.getFD().sync();
+        } finally {
+            strom.close();
+        }
+        File alt = new File(verzeichnis, CURSOR_DATEI);
+        if (!neu.renameTo(alt)) {
+            alt.delete();
+            if (!neu.renameTo(alt)) {
+                throw new IOException("Cursor-Datei nicht ersetzt");
+            }
+        }
+    }
+
+    /**
+     * Position eines getrennten Clients im Log
+     */
+    private static final class Cursor {
+
+        private final String name;
+        private final long position;
+        private final long zeit;
+
+        private Cursor(String name, long position, long zeit) {
+            this.name = name;
+            this.position = position;
+            this.zeit = zeit;
+        }
+    }
+
+    /**
+     * Segmentdatei, vollständig in den Speicher abgebildet
+     */
+    private final class Segment {
+
+        private final long basis;
+        private final File datei;
+        private final FileChannel kanal;
+        private final MappedByteBuffer puffer;
+        // belegte Bytes, nur für das aktuelle Segment gepflegt
+        private int fuellstand;
+        private volatile boolean geaendert = false;
+        // Zeitpunkt des letzten Eintrags, für das aktuelle Segment unbegrenzt
+        private volatile long geschlossen;
+
+        private Segment(long basis, File datei, long geschlossen) throws IOException {
+            this.basis = basis;
+            this.datei = datei;
+            this.geschlossen = geschlossen;
+            RandomAccessFile zugriff = new RandomAccessFile(datei, "rw");
+            kanal = zugriff.getChannel();
+            puffer = kanal.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentGroesse, kanal.size()));
+        }
+
+        /**
+         * @return Position hinter dem letzten vollständigen Eintrag
+         */
+        private int suchEnde() {
+            int offset = 0;
+            int laenge;
+            while (offset + 4 <= puffer.capacity() && (laenge = puffer.getInt(offset)) > 0
+                    && offset + 4 + laenge <= puffer.capacity()) {
+                offset += 4 + laenge;
+            }
+            return offset;
+        }
+
+        /**
+         * Sammelt die Nachrichten an einen Client zwischen zwei Positionen
+         * dieses Segments und die Broadcasts vor bisBroadcast
+         */
+        private void lesen(String schluessel, long von, long bis, long bisBroadcast, List<String> nachrichten) {
+            ByteBuffer leser = puffer.duplicate();
+            int offset = (int) von;
+            int grenze = (int) Math.min(bis, leser.capacity());
+            int laenge;
+            while (offset + 4 <= grenze && (laenge = leser.getInt(offset)) > 0) {
+                int nameLaenge = leser.getShort(offset + 4);
+                int text = offset + 6 + nameLaenge;
+                int textLaenge = laenge - 2 - nameLaenge;
+                if (nameLaenge == 0 ? offset < bisBroadcast : ClientRegistry.schluessel(dekodieren(leser, offset + 6, nameLaenge)).equals(schluessel)) {
+                    nachrichten.add(dekodieren(leser, text, textLaenge));
+                }
+                offset += 4 + laenge;
+            }
+        }
+
+        private void schliessen() {
+            try {
+                kanal.close();
+            } catch (IOException ex) {
+                // bereits geschlossen
+            }
+        }
+    }
+
+    /**
+     * Dekodiert Text aus einem Puffer, dessen Position verändert werden darf
+     */
+    private static String dekodieren(ByteBuffer puffer, int beginn, int laenge) {
+        byte[] bytes = new byte[laenge];
+        puffer.position(beginn);
+        puffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -2,22 +2,201 @@ package netzwerkkommunikation;
 
 import java.net.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Client, der mit einem Multiserver Textnachrichten austauschen kann. Der
  * Client schickt beim Verbindungsaufbau eine Broadcastnachricht mit dem Namen
  * des gewünschten Servers auf Port 3333. Bei existierendem Server wird der
- * Server eine Antwort schicken. Der Client baut mithilfe der nun bekannten
- * IP-Adresse des Servers eine TCP-Verbindung auf.
+ * Server eine Antwort mit seinem TCP-Port und seiner Last schicken. Der
+ * Client baut mithilfe der nun bekannten IP-Adresse des Servers eine
+ * TCP-Verbindung auf; antworten mehrere gleichnamige Server, wählt er einen
+ * wenig belasteten (siehe {@link Discovery.Auswahl}). Gefundene Adressen werden
+ * zwischengespeichert (siehe {@link Discovery}). Der Empfang vom Server läuft
+ * als Aufgabe eines austauschbaren Executors (siehe {@link ExecutionStrategy}).
+ *
+ * Mit {@link #setzeBinaermodus(boolean)} handelt der Client beim
+ * Verbindungsaufbau längenpräfixierte Frames statt Textzeilen aus; dann sind
+ * auch Binärnachrichten möglich. Ältere Server ohne Binärmodus bestätigen
+ * nicht, der Client bleibt dann beim Textprotokoll. Im Binärmodus kann mit
+ * {@link #setzeKomprimierung(int)} zusätzlich Kompression vereinbart werden.
+ *
+ * Mit {@link #abonniere(String)} erhält der Client zusätzlich die Nachrichten,
+ * die der Server zu einem Thema veröffentlicht.
+ *
+ * Ausgehende Nachrichten laufen über einen Puffer je Verbindung. Ohne
+ * Schreibfenster wird nach jeder Nachricht geleert; mit Schreibfenster (siehe
+ * {@link #setzeSchreibbuendelung(long, int)}) gehen alle innerhalb des
+ * Fensters gesendeten Nachrichten in einem Schreibvorgang hinaus.
+ *
+ * Mit {@link #anfrage(String)} schickt der Client eine Anfrage, deren Antwort
+ * ein {@link CompletableFuture} liefert. Beliebig viele Anfragen dürfen
+ * gleichzeitig unterwegs sein; der Server ordnet seine Antworten über eine
+ * Kennung zu (siehe {@link MultiServer.ServerRequestListener}).
+ *
+ * Alle Methoden zum Senden dürfen von beliebig vielen Threads gleichzeitig
+ * aufgerufen werden. Standardmäßig schreibt jeder Aufrufer unter einer Sperre
+ * selbst. Mit {@link #setzeSendewarteschlange(int)} hängen die Aufrufer ihre
+ * fertig kodierten Nachrichten stattdessen ohne Sperre an eine Warteschlange,
+ * die ein einziger Schreiber in großen Stapeln leert; so wächst der Durchsatz
+ * mit der Zahl der sendenden Threads. Mehrere Verbindungen zum selben Server
+ * bündelt {@link ClientPool}.
+ *
+ * Mit {@link #setzeWiederverbindung(int, long)} baut der Client eine
+ * abgebrochene Verbindung selbst wieder auf und setzt dabei seine Sitzung
+ * beim Server fort (siehe {@link MultiServer#setzeSitzungen(int, long)}):
+ * Beide Seiten wiederholen die Nachrichten, die die Gegenseite noch nicht
+ * bestätigt hat. Nachrichten, die während der Unterbrechung gesendet werden,
+ * gehen nach dem Fortsetzen hinaus. Über Abbruch und Wiederaufbau
+ * informiert ein {@link ConnectionListener}.
+ *
+ * Ein Herzschlag (siehe {@link #setzeHerzschlag(long, long)}) hält die
+ * Verbindung beim Server offen und erkennt einen nicht mehr erreichbaren
+ * Server; die Fristen aller Clients verwaltet ein gemeinsames Zeitrad.
+ *
+ * Kennzahlen zu Nachrichten, Bytes und Listeneraufrufen liefert
+ * {@link #gibMetriken()}; mit {@link #setzeMetrikRegistry(MetrikRegistry)}
+ * werden sie für die Dauer der Verbindung angemeldet.
  *
  * @author Jochen Schmitt
  */
 public class NetworkClient {
 
+    /**
+     * maximale Wartezeit in ms auf die Bestätigung des Binärmodus
+     */
+    private static final int BINAER_WARTEZEIT = 2000;
+    /**
+     * Abstand in ms, in dem abgelaufene Anfragen beendet werden
+     */
+    private static final int ANFRAGEN_PRUEFEN = 10;
+    /**
+     * erste und längste Wartezeit in ms zwischen zwei Versuchen, die
+     * Verbindung wiederherzustellen
+     */
+    private static final int WIEDERVERBINDEN_AB = 100;
+    private static final int WIEDERVERBINDEN_BIS = 5000;
+
+    // leert die Ausgangspuffer aller Clients mit Schreibfenster
+    private static ScheduledExecutorService zeitgeber;
+    // Schreiber der Sendewarteschlangen aller Clients
+    private static Executor sender;
+
     private final String clientName;
     private String serverName;
     private Socket server;
-    private Thread serverHandler;
+    // feste Adresse des Servers, null bei Suche per UDP-Broadcast
+    private volatile InetSocketAddress serverAdresse;
+    // Socketoptionen; wird nur ersetzt, nie verändert
+    private volatile ClientKonfiguration konfiguration = new ClientKonfiguration();
+    private volatile ServerHandler serverHandler;
+    private final Executor executor;
+    private volatile ClientListener clientListener;
+    private final BufferPool pufferPool = new BufferPool(64 * 1024, 4);
+    private boolean binaerGewuenscht = false;
+    private volatile boolean binaer = false;
+    private int kompressionSchwelle = 0;
+    // vom Server bestätigte Kompression, sonst null
+    private volatile Kompression kompression;
+    // Ausgangspuffer der Verbindung, nur unter schreibSperre benutzt
+    private final Object schreibSperre = new Object();
+    private OutputStream ausgang;
+    private long schreibfenster = 0;
+    private int schreibBudget = 8192;
+    private boolean leerenGeplant = false;
+    private final Runnable ausgangLeeren = new Runnable() {
+        @Override
+        public void run() {
+            leerePuffer();
+        }
+    };
+    // true zwischen Verbindungsaufbau und Trennen
+    private volatile boolean verbunden = false;
+    // Sendewarteschlange: beliebig viele Threads hängen an, genau ein
+    // Schreiber leert; Kapazität 0 schreibt direkt
+    private volatile int warteschlangeKapazitaet = 0;
+    private final ConcurrentLinkedQueue<ByteBuffer> warteschlange = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger wartend = new AtomicInteger();
+    // true, solange ein Schreiber eingeplant ist oder schreibt
+    private final AtomicBoolean geplant = new AtomicBoolean();
+    private volatile boolean sofortGewuenscht = false;
+    private final Runnable warteschlangeLeeren = new Runnable() {
+        @Override
+        public void run() {
+            do {
+                abarbeiten();
+                geplant.set(false);
+            } while (!warteschlange.isEmpty() && geplant.compareAndSet(false, true));
+        }
+    };
+    private final Metriken metriken = new Metriken();
+    private volatile MetrikRegistry metrikRegistry;
+    // Kennung der nächsten Anfrage und Standard-Zeitlimit in ms
+    private final AtomicLong naechsteKennung = new AtomicLong();
+    private volatile long anfrageZeitlimit = 30000;
+    // beendet regelmäßig abgelaufene Anfragen, null solange keine gestellt
+    private ScheduledFuture<?> anfragenPruefung;
+    private final Runnable anfragenPruefen = new Runnable() {
+        @Override
+        public void run() {
+            ServerHandler handler = serverHandler;
+            if (handler != null) {
+                handler.fristenPruefen(System.nanoTime());
+            }
+        }
+    };
+    // abonnierte Themen, werden nach jedem Verbindungsaufbau erneut gemeldet
+    private final Set<String> themen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Wiederverbindung: Kapazität des Wiederholungspuffers (0 ohne) und
+    // längste Dauer der Versuche in ms
+    private volatile int wiederholKapazitaet = 0;
+    private volatile long wiederverbindungDauer = 0;
+    private volatile ConnectionListener verbindungsListener;
+    // Token der Sitzung beim Server, null vor der ersten Sitzung
+    private volatile String sitzungToken;
+    // Nummer der zuletzt gesendeten Nachricht und die noch nicht bestätigten
+    // Nachrichten; wie die beiden Schalter nur unter schreibSperre benutzt
+    private long gesendetNr = 0;
+    private final ArrayDeque<ByteBuffer> wiederholPuffer = new ArrayDeque<ByteBuffer>();
+    // true, wenn gesendete Nachrichten aufbewahrt werden, und true, sobald
+    // sie nach dem Fortsetzen der Sitzung auch geschrieben werden
+    private boolean aufbewahren = false;
+    private boolean fortgesetzt = false;
+    // true, sobald ein Sendefehler dieser Verbindung gemeldet ist; nur unter
+    // schreibSperre benutzt
+    private boolean fehlerGemeldet = false;
+    // Anzahl der empfangenen gezählten Nachrichten, nur vom ServerHandler
+    // geändert
+    private volatile long empfangenNr = 0;
+    // Herzschlag: Abstand und Zeitlimit in ms, 0 ohne
+    private volatile long herzschlag = 15000;
+    private volatile long herzschlagZeitlimit = 45000;
+    private final Zeitrad zeitrad = Zeitrad.gemeinsam();
+    // Stand des Zeitrads beim letzten Leeren des Ausgangspuffers
+    private volatile long zuletztGesendet = 0;
 
     /**
      * Konstruktor zum Erstellen eines Clients\br Die Verbindung muss mit der
@@ -27,8 +206,185 @@ public class NetworkClient {
      * @param serverName Name des zu verbindenden Servers
      */
     public NetworkClient(String clientName, String serverName) {
+        this(clientName, serverName, ExecutionStrategy.neueThreads("ServerHandler"));
+    }
+
+    /**
+     * Konstruktor zum Erstellen eines Clients, dessen Empfang vom Server auf
+     * dem angegebenen Executor läuft
+     *
+     * @param clientName frei gewählter Name des Clients
+     * @param serverName Name des zu verbindenden Servers
+     * @param executor Executor für den ServerHandler, z.B.
+     * {@link ExecutionStrategy#virtuelleThreads()}
+     */
+    public NetworkClient(String clientName, String serverName, Executor executor) {
         this.clientName = clientName.toLowerCase();
         this.serverName = serverName.toLowerCase();
+        this.executor = executor;
+    }
+
+    /**
+     * Legt den Listener fest, der die Nachrichten des Servers erhält
+     *
+     * @param clientListener Listener, bei Binärnachrichten ggf. ein
+     * {@link ClientDataListener}
+     */
+    public void setzeListener(ClientListener clientListener) {
+        this.clientListener = clientListener;
+    }
+
+    /**
+     * Legt fest, ob beim nächsten Verbindungsaufbau der Binärmodus
+     * ausgehandelt wird
+     *
+     * @param binaer true für längenpräfixierte Frames statt Textzeilen
+     */
+    public void setzeBinaermodus(boolean binaer) {
+        this.binaerGewuenscht = binaer;
+    }
+
+    /**
+     * Legt fest, ob beim nächsten Verbindungsaufbau Kompression vereinbart
+     * wird; nur im Binärmodus wirksam. Nachrichten ab der Schwelle werden
+     * komprimiert, sobald der Server die Kompression bestätigt hat. Server
+     * ohne Kompression bestätigen nicht.
+     *
+     * @param schwelle Mindestgröße komprimierter Nachrichten in Bytes, 0
+     * schaltet die Kompression aus
+     */
+    public void setzeKomprimierung(int schwelle) {
+        this.kompressionSchwelle = schwelle;
+    }
+
+    /**
+     * Legt fest, wie ausgehende Nachrichten gebündelt werden. Mit
+     * Schreibfenster wird der Ausgangspuffer erst nach dieser Zeit geleert,
+     * wenn er voll ist oder mit sofort gesendet wird. Die Puffergröße wirkt ab
+     * dem nächsten Verbindungsaufbau.
+     *
+     * @param fensterMikros Schreibfenster in µs, 0 (Standard) leert nach jeder
+     * Nachricht
+     * @param budget Größe des Ausgangspuffers in Bytes (Standard 8 KB)
+     */
+    public void setzeSchreibbuendelung(long fensterMikros, int budget) {
+        synchronized (schreibSperre) {
+            schreibfenster = TimeUnit.MICROSECONDS.toNanos(fensterMikros);
+            schreibBudget = budget;
+        }
+    }
+
+    /**
+     * Schaltet die Sendewarteschlange ein oder aus. Sendende Threads kodieren
+     * ihre Nachricht selbst und hängen sie ohne Sperre an; ein einziger
+     * Schreiber schreibt alle wartenden Nachrichten am Stück und leert danach
+     * den Ausgangspuffer. Die Reihenfolge der Nachrichten eines Threads bleibt
+     * erhalten.
+     *
+     * @param kapazitaet höchstens so viele Nachrichten warten auf den
+     * Schreiber, weitere werden abgelehnt; 0 (Standard) schreibt im
+     * aufrufenden Thread unter einer Sperre
+     */
+    public void setzeSendewarteschlange(int kapazitaet) {
+        if (kapazitaet == 0) {
+            warteAufWarteschlange(BINAER_WARTEZEIT);
+        }
+        this.warteschlangeKapazitaet = kapazitaet;
+    }
+
+    /**
+     * Schaltet die automatische Wiederverbindung ab dem nächsten
+     * Verbindungsaufbau ein oder aus. Bricht die Verbindung ab, versucht der
+     * Client mit wachsenden Abständen, sie wiederherzustellen, und setzt seine
+     * Sitzung beim Server fort. Gesendete Nachrichten werden bis zur
+     * Bestätigung durch den Server aufbewahrt und nach dem Fortsetzen
+     * wiederholt; der Server wiederholt ebenso die Nachrichten an den Client.
+     * Offene Anfragen bleiben bestehen. Kann die Sitzung nicht fortgesetzt
+     * werden, weil sie beim Server abgelaufen ist, werden alle aufbewahrten
+     * Nachrichten erneut gesendet und können doppelt ankommen.
+     *
+     * @param kapazitaet höchstens so viele unbestätigte Nachrichten werden
+     * aufbewahrt, ältere gehen bei einer Unterbrechung verloren; 0 (Standard)
+     * schaltet die Wiederverbindung ab
+     * @param maxDauerMillis so lange wird versucht, die Verbindung
+     * wiederherzustellen
+     */
+    public void setzeWiederverbindung(int kapazitaet, long maxDauerMillis) {
+        this.wiederholKapazitaet = kapazitaet;
+        this.wiederverbindungDauer = maxDauerMillis;
+    }
+
+    /**
+     * Legt den Herzschlag ab dem nächsten Verbindungsaufbau fest: Wurde eine
+     * Weile nichts gesendet oder empfangen, schickt der Client einen
+     * Herzschlag, den der Server beantwortet. Kommt bis zum Zeitlimit nichts
+     * vom Server an, gilt die Verbindung als abgebrochen.
+     *
+     * @param abstandMillis Herzschlag nach so vielen ms ohne Verkehr (Standard
+     * 15 s), 0 schaltet den Herzschlag ab; muss deutlich unter der
+     * Leerlaufzeit des Servers liegen (siehe
+     * {@link MultiServer#setzeLeerlauf(long)})
+     * @param zeitlimitMillis Zeitlimit in ms (Standard 45 s), 0 ohne
+     */
+    public void setzeHerzschlag(long abstandMillis, long zeitlimitMillis) {
+        this.herzschlag = abstandMillis;
+        this.herzschlagZeitlimit = zeitlimitMillis;
+    }
+
+    /**
+     * Legt den Listener fest, der über Abbruch und Wiederaufbau der
+     * Verbindung informiert wird
+     *
+     * @param listener Listener oder null
+     */
+    public void setzeVerbindungsListener(ConnectionListener listener) {
+        this.verbindungsListener = listener;
+    }
+
+    /**
+     * Legt das Zeitlimit von Anfragen ohne eigenes Zeitlimit fest
+     *
+     * @param millis Zeitlimit in ms (Standard 30 s)
+     */
+    public void setzeAnfrageZeitlimit(long millis) {
+        this.anfrageZeitlimit = millis;
+    }
+
+    /**
+     * Übernimmt lokale Adresse, Zeitlimit des Verbindungsaufbaus,
+     * Socketoptionen und Puffergröße. Wirksam ab dem nächsten
+     * Verbindungsaufbau.
+     *
+     * @param konfiguration Konfiguration, der Client verwendet eine Kopie
+     */
+    public void setzeKonfiguration(ClientKonfiguration konfiguration) {
+        this.konfiguration = konfiguration.kopie();
+    }
+
+    /**
+     * Legt fest, bei welcher Registry die Kennzahlen beim Verbindungsaufbau
+     * angemeldet und beim Trennen abgemeldet werden
+     *
+     * @param registry Registry, z.B. {@link JmxRegistry}; null (Standard)
+     * meldet nirgends an
+     */
+    public void setzeMetrikRegistry(MetrikRegistry registry) {
+        this.metrikRegistry = registry;
+    }
+
+    /**
+     * @return Kennzahlen des Clients über alle Verbindungen, bei jedem Abruf
+     * aktuell
+     */
+    public ClientMetrikenMXBean gibMetriken() {
+        return metriken;
+    }
+
+    /**
+     * @return true, wenn die bestehende Verbindung den Binärmodus nutzt
+     */
+    public boolean istBinaer() {
+        return binaer;
     }
 
     /**
@@ -39,38 +395,325 @@ public class NetworkClient {
      * false
      */
     public boolean verbindeMitServer() {
-        // UDP-Broadcastnachricht senden und InetAddress des Servers ermitteln
-        InetAddress serverAddress = sendBroadcast(serverName);
+        // Adressen des Servers aus dem Cache oder per UDP-Broadcast ermitteln
+        InetSocketAddress[] adressen = Discovery.suche(serverName, false);
         // Methode verlassen, falls kein UDP-Server erreichbar
-        if (serverAddress == null) {
+        if (adressen.length == 0) {
             return false;
         }
-        server = null;
+        serverAdresse = null;
+        return herstellen(adressen);
+    }
 
-        try {
-            server = new Socket(serverAddress.getHostName(), 3333);
-            // neuen Thread für den Serverhandler erzeugen
-            serverHandler = new ServerHandler(server);
-            // Thread starten 
-            serverHandler.start();
+    /**
+     * Stellt ohne Suche eine Verbindung mit dem Server unter einer bekannten
+     * Adresse her, z.B. mit einem bestimmten Knoten eines Clusters oder einem
+     * Server auf einem anderen Port. Auch Wiederverbindungen gehen an diese
+     * Adresse.
+     *
+     * @param adresse Adresse und TCP-Port des Servers
+     * @return true, falls Verbindung erfolgreich aufgebaut wurde, andernfalls
+     * false
+     */
+    public boolean verbindeMitServer(InetSocketAddress adresse) {
+        serverAdresse = adresse;
+        return herstellen(null);
+    }
 
+    private boolean herstellen(InetSocketAddress[] adressen) {
+        server = null;
+        binaer = false;
+        try {
+            aufbauen(adressen, null);
             // System.out.println("Verbindung mit " + serverAddress.getHostAddress() + " " + "hergestellt!");
         } catch (Exception e) {
             System.out.println("Kein Kontakt zum Server");
-            return true;
+        }
+        return true;
+    }
+
+    /**
+     * Baut die TCP-Verbindung auf, startet den ServerHandler und meldet den
+     * Client beim Server an
+     *
+     * @param adressen gefundene Adressen des Servers, null bei fester Adresse
+     * @param alt ServerHandler der abgebrochenen Verbindung, dessen offene
+     * Anfragen übernommen werden; null beim ersten Verbindungsaufbau
+     * @return true, wenn die bisherige Sitzung fortgesetzt wurde
+     */
+    private boolean aufbauen(InetSocketAddress[] adressen, ServerHandler alt) throws IOException {
+        InetSocketAddress direkt = serverAdresse;
+        Socket socket = direkt != null ? konfiguration.verbinden(direkt) : verbinde(adressen);
+        if (socket == null) {
+            // zwischengespeicherte Adressen veraltet, neu suchen
+            socket = verbinde(Discovery.suche(serverName, true));
+        }
+        if (socket == null) {
+            throw new ConnectException(serverName);
+        }
+        server = socket;
+        kompression = null;
+        boolean mitSitzung = wiederholKapazitaet > 0;
+        synchronized (schreibSperre) {
+            ausgang = new BufferedOutputStream(socket.getOutputStream(), schreibBudget);
+            leerenGeplant = false;
+            aufbewahren = mitSitzung;
+            fortgesetzt = false;
+            fehlerGemeldet = false;
+        }
+        verbunden = true;
+        // Serverhandler erzeugen und auf dem Executor starten
+        ServerHandler handler = new ServerHandler(socket, mitSitzung);
+        if (alt != null) {
+            // neue Anfragen sollen nicht mehr beim alten Handler landen
+            alt.beendet = true;
+        }
+        serverHandler = handler;
+        if (alt != null) {
+            // offene Anfragen werden über die neue Verbindung beantwortet
+            for (Long kennung : alt.ausstehend.keySet()) {
+                OffeneAnfrage offen = alt.ausstehend.remove(kennung);
+                if (offen != null) {
+                    handler.ausstehend.put(kennung, offen);
+                }
+            }
+        }
+        executor.execute(handler);
+        MetrikRegistry registry = metrikRegistry;
+        if (registry != null && alt == null) {
+            registry.registriere(clientName, metriken);
         }
 
+        // Binärmodus aushandeln; bis dahin aufbewahrte Nachrichten sind noch
+        // im bisherigen Format kodiert
+        boolean bisher = binaer;
+        boolean binaerNeu = false;
+        if (binaerGewuenscht) {
+            steuernZeile(Protocol.BINAER, true);
+            binaerNeu = handler.warteAufBinaer(BINAER_WARTEZEIT);
+        }
+        binaer = binaerNeu;
+        if (binaerNeu != bisher) {
+            synchronized (schreibSperre) {
+                metriken.nichtWiederholbar += wiederholPuffer.size();
+                wiederholPuffer.clear();
+            }
+        }
+        // Sitzung vor dem Namen, damit der Server alle an den Namen
+        // gesendeten Nachrichten zählt
+        boolean bestaetigt = mitSitzung && sitzungOeffnen(handler);
+
         // Eigenen Namen an den Server schicken
-        sendeNachricht("#" + clientName);
-        return true;
+        if (binaer) {
+            steuern(Protocol.frame(Protocol.NAME, clientName), false);
+            if (kompressionSchwelle > 0) {
+                // Kompression anfragen, die Bestätigung trifft beim Empfang ein
+                steuern(Protocol.frame(Protocol.KOMPRESSION, ByteBuffer.allocate(0), false), false);
+            }
+        } else {
+            steuernZeile("#" + clientName, false);
+        }
+        for (String thema : themen) {
+            sendeThema(Protocol.SUBSCRIBE, thema);
+        }
+        boolean fortsetzen = mitSitzung && sitzungFortsetzen(handler, bestaetigt);
+        synchronized (handler) {
+            if (handler.getrennt) {
+                // Verbindung während der Anmeldung abgebrochen
+                socket.close();
+                throw new IOException("Verbindung zu " + serverName + " getrennt");
+            }
+            handler.angemeldet = true;
+        }
+        handler.herzschlagPlanen();
+        return fortsetzen;
+    }
+
+    /**
+     * Eröffnet bzw. setzt die Sitzung beim Server fort
+     *
+     * @return true, wenn der Server die Sitzung bestätigt hat
+     */
+    private boolean sitzungOeffnen(ServerHandler handler) throws IOException {
+        String token = sitzungToken;
+        steuern(Protocol.SITZUNG, Protocol.SESSION, (token == null ? "-" : token) + " " + empfangenNr, true);
+        boolean bestaetigt = handler.warteAufSitzung(BINAER_WARTEZEIT);
+        if (handler.getrennt) {
+            throw new IOException("Verbindung zu " + serverName + " getrennt");
+        }
+        return bestaetigt;
+    }
+
+    /**
+     * Sendet nach dem Eröffnen der Sitzung alle aufbewahrten Nachrichten, die
+     * der Server noch nicht empfangen hat. Hat der Server nicht geantwortet,
+     * arbeitet die Verbindung ohne Sitzung.
+     *
+     * @return true, wenn die bisherige Sitzung fortgesetzt wurde
+     */
+    private boolean sitzungFortsetzen(ServerHandler handler, boolean bestaetigt) throws IOException {
+        boolean fortsetzen = bestaetigt && !handler.neueSitzung;
+        synchronized (schreibSperre) {
+            if (!bestaetigt) {
+                // Server ohne Sitzungen: Aufbewahrtes einmal senden
+                aufbewahren = false;
+            } else if (fortsetzen) {
+                long basis = gesendetNr - wiederholPuffer.size();
+                if (basis > handler.serverEmpfangen) {
+                    // ältere Nachrichten sind verloren
+                    steuern(Protocol.NUMMER, Protocol.SEQ, Long.toString(basis), false);
+                }
+                quittiert(handler.serverEmpfangen);
+            } else {
+                // der Server kennt die bisherigen Nachrichten nicht
+                gesendetNr = wiederholPuffer.size();
+            }
+            for (ByteBuffer nachricht : wiederholPuffer) {
+                ausgang.write(nachricht.array(), nachricht.arrayOffset() + nachricht.position(), nachricht.remaining());
+                metriken.nachrichtenAus++;
+                metriken.bytesAus += nachricht.remaining();
+            }
+            if (!aufbewahren) {
+                wiederholPuffer.clear();
+            }
+            fortgesetzt = true;
+            ausgang.flush();
+            leerenGeplant = false;
+        }
+        return fortsetzen;
+    }
+
+    /**
+     * Meldet eine abgebrochene Verbindung ohne Wiederverbindung
+     */
+    private void verbindungVerloren() {
+        verbunden = false;
+        ConnectionListener listener = verbindungsListener;
+        if (listener != null) {
+            listener.getrennt();
+            listener.aufgegeben();
+        }
+    }
+
+    /**
+     * Stellt eine abgebrochene Verbindung mit wachsenden Abständen wieder
+     * her, bis die Verbindung steht, der Client getrennt wird oder die
+     * längste Dauer abgelaufen ist; läuft im Thread des alten ServerHandlers
+     */
+    private void wiederverbinden(ServerHandler alt) {
+        synchronized (schreibSperre) {
+            fortgesetzt = false;
+        }
+        ConnectionListener listener = verbindungsListener;
+        if (listener != null) {
+            listener.getrennt();
+        }
+        long ende = System.currentTimeMillis() + wiederverbindungDauer;
+        long warten = WIEDERVERBINDEN_AB;
+        // ein gescheiterter Versuch hinterlässt ggf. seinen eigenen Handler
+        ServerHandler letzter = alt;
+        while (verbunden && serverHandler == letzter && System.currentTimeMillis() < ende) {
+            try {
+                // zufällige Streuung, damit nicht alle Clients gleichzeitig kommen
+                Thread.sleep(warten / 2 + ThreadLocalRandom.current().nextLong(warten / 2 + 1));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            warten = Math.min(warten * 2, WIEDERVERBINDEN_BIS);
+            InetSocketAddress[] adressen = serverAdresse != null ? null : Discovery.suche(serverName, false);
+            if ((adressen != null && adressen.length == 0) || !verbunden) {
+                continue;
+            }
+            try {
+                boolean fortsetzen = aufbauen(adressen, letzter);
+                metriken.wiederverbindungen++;
+                listener = verbindungsListener;
+                if (listener != null) {
+                    listener.wiederverbunden(fortsetzen);
+                }
+                return;
+            } catch (IOException ex) {
+                // nächster Versuch
+                letzter = serverHandler;
+            }
+        }
+        if (verbunden && serverHandler == letzter) {
+            verbunden = false;
+            synchronized (schreibSperre) {
+                aufbewahren = false;
+                wiederholPuffer.clear();
+            }
+            letzter.abbrechen();
+            listener = verbindungsListener;
+            if (listener != null) {
+                listener.aufgegeben();
+            }
+        }
+    }
+
+    /**
+     * Abonniert ein Thema: Der Client erhält danach alle Nachrichten, die der
+     * Server zu diesem Thema veröffentlicht. Das Abonnement gilt auch für
+     * spätere Verbindungen.
+     *
+     * @param thema Thema, Groß- und Kleinschreibung wird unterschieden
+     * @return true, wenn die Anmeldung versandt bzw. gepuffert wurde oder erst
+     * beim Verbinden erfolgt
+     */
+    public boolean abonniere(String thema) {
+        if (thema.isEmpty()) {
+            return false;
+        }
+        themen.add(thema);
+        return server == null || sendeThema(Protocol.SUBSCRIBE, thema);
+    }
+
+    /**
+     * Kündigt das Abonnement eines Themas
+     *
+     * @param thema Thema
+     * @return true, wenn die Abmeldung versandt bzw. gepuffert wurde oder
+     * keine Verbindung besteht
+     */
+    public boolean kuendige(String thema) {
+        if (!themen.remove(thema)) {
+            return true;
+        }
+        return server == null || sendeThema(Protocol.UNSUBSCRIBE, thema);
+    }
+
+    private boolean sendeThema(byte typ, String thema) {
+        if (binaer) {
+            return steuern(Protocol.frame(typ, thema), false);
+        }
+        return steuernZeile((typ == Protocol.SUBSCRIBE ? Protocol.ABONNIEREN : Protocol.KUENDIGEN) + thema, false);
+    }
+
+    /**
+     * Baut die TCP-Verbindung zur ersten erreichbaren Adresse auf, also
+     * bevorzugt zum von {@link Discovery} gewählten Server, und
+     * vergisst nicht erreichbare Adressen
+     *
+     * @return Socket oder null, wenn keine Adresse erreichbar ist
+     */
+    private Socket verbinde(InetSocketAddress[] adressen) {
+        for (InetSocketAddress adresse : adressen) {
+            try {
+                return konfiguration.verbinden(adresse);
+            } catch (IOException ex) {
+                Discovery.vergessen(serverName, adresse);
+            }
+        }
+        return null;
     }
 
     public String gibInfo() {
-        String info = "--------------------------------------------\n";
-        info += "Client: " + clientName;
-        info += "verbunden mit " + serverName + "\n";
-        info += "--------------------------------------------";
-        return info;
+        StringBuilder info = new StringBuilder("--------------------------------------------\n");
+        info.append("Client: ").append(clientName);
+        info.append("verbunden mit ").append(serverName).append('\n');
+        info.append("--------------------------------------------");
+        return info.toString();
     }
 
     /**
@@ -80,107 +723,930 @@ public class NetworkClient {
      * @return true beim erfolgreichen Versand der Nachricht, andernfalls false
      */
     public boolean sendeNachricht(String message) {
-        OutputStream out;
-        try {
-            out = server.getOutputStream();
-            PrintWriter writer = new PrintWriter(out);
-            writer.println(message);
-            writer.flush(); // Nachricht an den Server schicken
-        } catch (IOException ex) {
+        return sendeNachricht(message, false);
+    }
+
+    /**
+     * Eine Nachricht wird an den Server geschickt.
+     *
+     * @param message zu verschickende Nachricht
+     * @param sofort true, um das Schreibfenster zu überspringen und diese
+     * sowie alle gepufferten Nachrichten gleich zu senden
+     * @return true beim erfolgreichen Versand bzw. Puffern der Nachricht,
+     * andernfalls false
+     */
+    public boolean sendeNachricht(String message, boolean sofort) {
+        if (binaer) {
+            return schreibe(Protocol.frame(Protocol.TEXT, message), sofort);
+        }
+        if (wiederholKapazitaet > 0 && message.startsWith("#")) {
+            // Befehle an den Server zählen nicht zur Sitzung
+            return steuernZeile(message, sofort);
+        }
+        return sendeZeile(message, sofort);
+    }
+
+    /**
+     * Schickt eine Anfrage an den Server, ohne auf die Antwort zu warten
+     *
+     * @param text Text der Anfrage
+     * @return Future mit dem Text der Antwort; endet mit einer IOException,
+     * wenn die Anfrage nicht gesendet werden kann, der Server mit einem Fehler
+     * antwortet oder die Verbindung endet, und mit einer TimeoutException
+     * nach dem Zeitlimit (siehe {@link #setzeAnfrageZeitlimit(long)}).
+     * Abhängige Aktionen ohne Async laufen im empfangenden Thread.
+     */
+    public CompletableFuture<String> anfrage(String text) {
+        return anfrage(text, anfrageZeitlimit);
+    }
+
+    /**
+     * Schickt eine Anfrage mit eigenem Zeitlimit an den Server
+     *
+     * @param text Text der Anfrage
+     * @param zeitlimit Zeitlimit in ms
+     * @return Future mit dem Text der Antwort, siehe {@link #anfrage(String)}
+     */
+    public CompletableFuture<String> anfrage(String text, long zeitlimit) {
+        ServerHandler handler = serverHandler;
+        OffeneAnfrage offen = new OffeneAnfrage(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(zeitlimit));
+        if (handler == null || !verbunden) {
+            offen.completeExceptionally(new IOException("Keine Verbindung zu " + serverName));
+            return offen;
+        }
+        long kennung = naechsteKennung.incrementAndGet();
+        handler.ausstehend.put(kennung, offen);
+        pruefungPlanen();
+        boolean gesendet = binaer
+                ? schreibe(Protocol.frame(Protocol.REQUEST, kennung, text), false)
+                : sendeZeile(Protocol.zeile(Protocol.ANFRAGE, kennung, text), false);
+        // endet die Verbindung gleichzeitig, bricht ggf. erst diese Prüfung ab
+        if ((!gesendet || handler.beendet) && handler.ausstehend.remove(kennung, offen)) {
+            offen.completeExceptionally(new IOException("Anfrage an " + serverName + " nicht gesendet"));
+        }
+        return offen;
+    }
+
+    /**
+     * Plant die regelmäßige Prüfung der Zeitlimits ein, falls noch nicht
+     * geschehen
+     */
+    private void pruefungPlanen() {
+        synchronized (anfragenPruefen) {
+            if (anfragenPruefung == null) {
+                anfragenPruefung = gibZeitgeber().scheduleWithFixedDelay(anfragenPruefen,
+                        ANFRAGEN_PRUEFEN, ANFRAGEN_PRUEFEN, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Eine Binärnachricht wird an den Server geschickt, nur im Binärmodus
+     * möglich.
+     *
+     * @param daten zu verschickende Bytes zwischen position und limit, werden
+     * nicht verändert
+     * @return true beim erfolgreichen Versand der Nachricht, andernfalls false
+     */
+    public boolean sendeDaten(ByteBuffer daten) {
+        if (!binaer) {
+            return false;
+        }
+        return schreibe(Protocol.frame(Protocol.DATA, daten, false), false);
+    }
+
+    /**
+     * Sendet alle gepufferten Nachrichten sofort
+     *
+     * @return true beim erfolgreichen Versand, andernfalls false
+     */
+    public boolean leereAusgang() {
+        warteAufWarteschlange(BINAER_WARTEZEIT);
+        return leerePuffer();
+    }
+
+    /**
+     * Leert den Ausgangspuffer, ohne auf die Sendewarteschlange zu warten
+     */
+    private boolean leerePuffer() {
+        synchronized (schreibSperre) {
+            leerenGeplant = false;
+            if (ausgang == null) {
+                return false;
+            }
+            try {
+                ausgang.flush();
+            } catch (IOException ex) {
+                sendefehler(aufbewahren);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sendeZeile(String message, boolean sofort) {
+        byte[] zeile = (message + Protocol.ZEILENENDE).getBytes(Protocol.ZEICHENSATZ);
+        return schreibe(zeile, 0, zeile.length, sofort);
+    }
+
+    /**
+     * Sendet einen Steuerbefehl als Zeile bzw. im Binärmodus als Frame
+     */
+    private boolean steuern(String beginn, byte typ, String text, boolean sofort) {
+        if (binaer) {
+            return steuern(Protocol.frame(typ, text), sofort);
+        }
+        return steuernZeile(beginn + text, sofort);
+    }
+
+    private boolean steuernZeile(String befehl, boolean sofort) {
+        byte[] zeile = (befehl + Protocol.ZEILENENDE).getBytes(Protocol.ZEICHENSATZ);
+        return schreibeGesperrt(zeile, 0, zeile.length, sofort, false);
+    }
+
+    /**
+     * Schreibt einen Steuerbefehl als Frame; Steuerbefehle gehen an der
+     * Sendewarteschlange vorbei und werden weder gezählt noch wiederholt
+     */
+    private boolean steuern(ByteBuffer frame, boolean sofort) {
+        return schreibeGesperrt(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining(), sofort, false);
+    }
+
+    /**
+     * Schreibt einen vollständigen Frame
+     */
+    private boolean schreibe(ByteBuffer frame, boolean sofort) {
+        Kompression k = kompression;
+        if (k != null) {
+            frame = k.komprimiere(frame, false);
+        }
+        return schreibe(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining(), sofort);
+    }
+
+    /**
+     * Schreibt eine Nachricht in den Ausgangspuffer und leert ihn gleich oder
+     * nach Ablauf des Schreibfensters
+     */
+    private boolean schreibe(byte[] daten, int beginn, int laenge, boolean sofort) {
+        int kapazitaet = warteschlangeKapazitaet;
+        if (kapazitaet > 0) {
+            return einreihen(ByteBuffer.wrap(daten, beginn, laenge), sofort, kapazitaet);
+        }
+        return schreibeGesperrt(daten, beginn, laenge, sofort, true);
+    }
+
+    /**
+     * Schreibt eine Nachricht unter der Sperre in den Ausgangspuffer;
+     * Nachrichten der Anwendung werden bei Wiederverbindung aufbewahrt und
+     * während einer Unterbrechung erst nach dem Fortsetzen geschrieben
+     */
+    private boolean schreibeGesperrt(byte[] daten, int beginn, int laenge, boolean sofort, boolean anwendung) {
+        synchronized (schreibSperre) {
+            boolean aufbewahrt = anwendung && aufbewahren;
+            if (aufbewahrt) {
+                aufbewahren(ByteBuffer.wrap(daten, beginn, laenge));
+                if (!fortgesetzt) {
+                    return true;
+                }
+            }
+            if (ausgang == null) {
+                // noch nicht verbunden
+                metriken.sendefehler.increment();
+                return false;
+            }
+            try {
+                ausgang.write(daten, beginn, laenge);
+                metriken.nachrichtenAus++;
+                metriken.bytesAus += laenge;
+                return leeren(sofort);
+            } catch (IOException ex) {
+                sendefehler(aufbewahrt);
+                // aufbewahrte Nachrichten werden nach dem Fortsetzen wiederholt
+                return aufbewahrt;
+            }
+        }
+    }
+
+    /**
+     * Zählt einen Sendefehler und meldet ihn einmal je Verbindung; nicht,
+     * wenn die Nachricht für das Fortsetzen aufbewahrt ist. Nur unter
+     * schreibSperre aufzurufen.
+     */
+    private void sendefehler(boolean aufbewahrt) {
+        metriken.sendefehler.increment();
+        if (!aufbewahrt && !fehlerGemeldet) {
+            fehlerGemeldet = true;
             System.out.println("Fehler beim Versand einer Nachricht an " + serverName);
+        }
+    }
+
+    /**
+     * Nummeriert eine gesendete Nachricht und bewahrt sie bis zur Bestätigung
+     * auf; nur unter schreibSperre aufzurufen
+     */
+    private void aufbewahren(ByteBuffer nachricht) {
+        gesendetNr++;
+        wiederholPuffer.addLast(nachricht);
+        if (wiederholPuffer.size() > wiederholKapazitaet) {
+            wiederholPuffer.pollFirst();
+            metriken.nichtWiederholbar++;
+        }
+    }
+
+    /**
+     * Verwirft die vom Server bestätigten Nachrichten; nur unter schreibSperre
+     * aufzurufen
+     *
+     * @param anzahl Anzahl der vom Server empfangenen Nachrichten
+     */
+    private void quittiert(long anzahl) {
+        while (!wiederholPuffer.isEmpty() && gesendetNr - wiederholPuffer.size() < anzahl) {
+            wiederholPuffer.pollFirst();
+        }
+    }
+
+    /**
+     * Leert den Ausgangspuffer gleich oder nach Ablauf des Schreibfensters;
+     * nur unter schreibSperre aufzurufen
+     */
+    private boolean leeren(boolean sofort) throws IOException {
+        zuletztGesendet = zeitrad.stand();
+        if (schreibfenster == 0 || sofort) {
+            ausgang.flush(); // Nachricht an den Server schicken
+            leerenGeplant = false;
+        } else if (!leerenGeplant) {
+            leerenGeplant = true;
+            try {
+                gibZeitgeber().schedule(ausgangLeeren, schreibfenster, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException ex) {
+                ausgang.flush();
+                leerenGeplant = false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hängt eine Nachricht an die Sendewarteschlange an und plant bei Bedarf
+     * den Schreiber ein
+     *
+     * @return false, wenn keine Verbindung besteht oder die Warteschlange voll
+     * ist
+     */
+    private boolean einreihen(ByteBuffer nachricht, boolean sofort, int kapazitaet) {
+        if (!verbunden) {
+            metriken.sendefehler.increment();
+            return false;
+        }
+        if (wartend.incrementAndGet() > kapazitaet) {
+            wartend.decrementAndGet();
+            metriken.sendefehler.increment();
             return false;
         }
+        if (sofort) {
+            sofortGewuenscht = true;
+        }
+        warteschlange.add(nachricht);
+        if (geplant.compareAndSet(false, true)) {
+            try {
+                gibSender().execute(warteschlangeLeeren);
+            } catch (RejectedExecutionException ex) {
+                warteschlangeLeeren.run();
+            }
+        }
         return true;
     }
 
+    /**
+     * Schreibt alle wartenden Nachrichten in den Ausgangspuffer und leert ihn
+     * danach; nur vom eingeplanten Schreiber aufzurufen. Nach einem
+     * Schreibfehler werden die übrigen Nachrichten verworfen.
+     */
+    private void abarbeiten() {
+        synchronized (schreibSperre) {
+            boolean fehler = ausgang == null;
+            ByteBuffer nachricht;
+            while ((nachricht = warteschlange.poll()) != null) {
+                wartend.decrementAndGet();
+                if (aufbewahren) {
+                    aufbewahren(nachricht);
+                    if (!fortgesetzt) {
+                        continue;
+                    }
+                }
+                if (fehler) {
+                    metriken.sendefehler.increment();
+                    continue;
+                }
+                try {
+                    ausgang.write(nachricht.array(), nachricht.arrayOffset() + nachricht.position(), nachricht.remaining());
+                    metriken.nachrichtenAus++;
+                    metriken.bytesAus += nachricht.remaining();
+                } catch (IOException ex) {
+                    fehler = true;
+                    sendefehler(aufbewahren);
+                }
+            }
+            if (!fehler && (fortgesetzt || !aufbewahren)) {
+                boolean sofort = sofortGewuenscht;
+                sofortGewuenscht = false;
+                try {
+                    leeren(sofort);
+                } catch (IOException ex) {
+                    sendefehler(aufbewahren);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wartet, bis der Schreiber die Sendewarteschlange geleert hat
+     *
+     * @param wartezeit maximale Wartezeit in ms
+     */
+    private void warteAufWarteschlange(long wartezeit) {
+        long ende = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(wartezeit);
+        while ((wartend.get() > 0 || geplant.get()) && System.nanoTime() < ende) {
+            LockSupport.parkNanos(50000);
+        }
+    }
+
+    private static synchronized Executor gibSender() {
+        if (sender == null) {
+            sender = ExecutionStrategy.threadPool("NetworkClient-Sender");
+        }
+        return sender;
+    }
+
+    private static synchronized ScheduledExecutorService gibZeitgeber() {
+        if (zeitgeber == null) {
+            zeitgeber = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable aufgabe) {
+                    Thread thread = new Thread(aufgabe, "NetworkClient-Schreibfenster");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return zeitgeber;
+    }
+
     /**
      * Verbindung zum Server wird getrennt
      */
     public void trenneServer() {
         // ServerHandler beenden
-        serverHandler.interrupt();
-        // Client beim Serverabmelden
-        sendeNachricht("#STOP" + clientName);
+        serverHandler.beenden();
+        // die Abmeldung soll als letzte Nachricht hinausgehen
+        warteAufWarteschlange(BINAER_WARTEZEIT);
+        // Client beim Serverabmelden, der Server beendet damit die Sitzung;
+        // entfällt, wenn der Server die Verbindung bereits beendet hat
+        if (!serverHandler.getrennt) {
+            if (binaer) {
+                steuern(Protocol.frame(Protocol.STOP, ByteBuffer.allocate(0), false), true);
+            } else {
+                steuernZeile("#STOP" + clientName, true);
+            }
+        }
+        verbunden = false;
+        synchronized (schreibSperre) {
+            aufbewahren = false;
+            wiederholPuffer.clear();
+            gesendetNr = 0;
+        }
+        sitzungToken = null;
+        empfangenNr = 0;
+        synchronized (anfragenPruefen) {
+            if (anfragenPruefung != null) {
+                anfragenPruefung.cancel(false);
+                anfragenPruefung = null;
+            }
+        }
+        serverHandler.abbrechen();
         try {
-            // Serversocket schließen
+            // Serversocket schließen, beendet auch ein wartendes readLine()
             server.close();
 
         } catch (IOException ex) {
             //Logger.getLogger(NetworkClient.class.getName()).log(Level.SEVERE, null, ex);
         }
+        MetrikRegistry registry = metrikRegistry;
+        if (registry != null) {
+            registry.entferne(clientName, metriken);
+        }
   
     }
 
     /**
-     * Die Methode sendet eine Broadcastnachricht mit dem Namen eines Servers
-     * und wartet auf eine Antwort
-     *
-     * @param destinationServer selbstgewählter Name des Servers
-     * @return InetAddress des Servers
+     * Auf ihre Antwort wartende Anfrage mit ihrer Frist
      */
-    private static InetAddress sendBroadcast(String destinationServer) {
-        InetAddress serverAddress = null;
-        try {
-            serverAddress = null;
-            DatagramSocket clientSocket = new DatagramSocket();
-            clientSocket.setSoTimeout(1500);
-            InetAddress IPAddress = InetAddress.getByName("255.255.255.255");
-            byte[] sendData;
-            byte[] receiveData = new byte[1024];
-            // Bytearray erzeugen
-            sendData = destinationServer.getBytes();
-
-            //Datagramm senden (Name des Zielservers, Länge des Namens, eigene IP-Adresse, fester Port)
-            DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, IPAddress, 9999);
-            clientSocket.setBroadcast(true);
-            clientSocket.send(sendPacket);
-
-            //Antwort erhalten (
-            DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-            clientSocket.receive(receivePacket);
-            String modifiedSentence = new String(receivePacket.getData());
-            serverAddress = receivePacket.getAddress();
-            clientSocket.close();
+    private static final class OffeneAnfrage extends CompletableFuture<String> {
 
-        } catch (IOException ex) {
-            return null;
-        }
-        return serverAddress;
+        private final long frist;
 
+        private OffeneAnfrage(long frist) {
+            this.frist = frist;
+        }
     }
 
-    private class ServerHandler extends Thread {
+    private class ServerHandler implements Runnable, InboundDecoder.Empfaenger {
 
         private final Socket server;
+        private volatile boolean aktiv = true;
+        private final InboundDecoder decoder = new InboundDecoder(this, pufferPool);
+        private final CountDownLatch binaerBestaetigt = new CountDownLatch(1);
+        // Anfragen dieser Verbindung nach Kennung; Antworten entfernen ohne
+        // gemeinsame Sperre
+        private final ConcurrentHashMap<Long, OffeneAnfrage> ausstehend = new ConcurrentHashMap<Long, OffeneAnfrage>();
+        // true, sobald keine Antworten mehr eintreffen können
+        private volatile boolean beendet = false;
+        // Sitzung: gewünscht, vom Server bestätigt, neu eröffnet statt
+        // fortgesetzt und Anzahl der vom Server empfangenen Nachrichten
+        private final boolean mitSitzung;
+        private final CountDownLatch sitzungBestaetigt = new CountDownLatch(1);
+        private volatile boolean gezaehlt = false;
+        private volatile boolean neueSitzung = false;
+        private volatile long serverEmpfangen = 0;
+        // Anmeldung abgeschlossen bzw. Empfang beendet, unter der Sperre des
+        // Handlers gesetzt
+        private boolean angemeldet = false;
+        private volatile boolean getrennt = false;
+        // Stand des Zeitrads beim letzten Empfang; true, solange Empfangenes
+        // verarbeitet wird und deshalb nicht gelesen werden kann
+        private volatile long zuletztEmpfangen = zeitrad.stand();
+        private volatile boolean verarbeitet = false;
+        private final Runnable herzschlagPruefen = new Runnable() {
+            @Override
+            public void run() {
+                // Schreiben kann blockieren, nicht im Thread des Zeitrads
+                if (!getrennt) {
+                    try {
+                        gibSender().execute(herzschlagSenden);
+                    } catch (RejectedExecutionException ex) {
+                        herzschlagPlanen();
+                    }
+                }
+            }
+        };
+        private final Runnable herzschlagSenden = new Runnable() {
+            @Override
+            public void run() {
+                herzschlagSenden();
+            }
+        };
 
-        private ServerHandler(Socket c) {
+        private ServerHandler(Socket c, boolean mitSitzung) {
             server = c;
+            this.mitSitzung = mitSitzung;
+        }
+
+        private void beenden() {
+            aktiv = false;
+        }
+
+        /**
+         * Beendet alle Anfragen, deren Frist abgelaufen ist
+         */
+        private void fristenPruefen(long jetzt) {
+            for (Map.Entry<Long, OffeneAnfrage> eintrag : ausstehend.entrySet()) {
+                OffeneAnfrage offen = eintrag.getValue();
+                if (offen.isDone()) {
+                    // vom Aufrufer abgebrochen
+                    ausstehend.remove(eintrag.getKey(), offen);
+                } else if (jetzt - offen.frist > 0 && ausstehend.remove(eintrag.getKey(), offen)) {
+                    offen.completeExceptionally(new TimeoutException("Keine Antwort von " + serverName));
+                }
+            }
+        }
 
+        /**
+         * Beendet alle noch offenen Anfragen, nachdem die Verbindung beendet
+         * ist
+         */
+        private void abbrechen() {
+            beendet = true;
+            for (Long kennung : ausstehend.keySet()) {
+                OffeneAnfrage offen = ausstehend.remove(kennung);
+                if (offen != null) {
+                    offen.completeExceptionally(new IOException("Verbindung zu " + serverName + " getrennt"));
+                }
+            }
+        }
+
+        /**
+         * Beendet eine Anfrage mit der Antwort des Servers; unbekannte und
+         * bereits abgelaufene Kennungen werden ignoriert
+         */
+        private void beantwortet(long kennung, String text, boolean fehler) {
+            OffeneAnfrage offen = ausstehend.remove(kennung);
+            if (offen == null) {
+                return;
+            }
+            if (fehler) {
+                offen.completeExceptionally(new IOException("Fehler beim Server: " + text));
+            } else {
+                offen.complete(text);
+            }
+        }
+
+        /**
+         * Plant die nächste Prüfung des Herzschlags ein
+         */
+        private void herzschlagPlanen() {
+            long abstand = herzschlag;
+            if (abstand > 0 && !getrennt) {
+                zeitrad.planen(herzschlagPruefen, abstand / 2);
+            }
+        }
+
+        /**
+         * Trennt die Verbindung, wenn der Server zu lange schweigt, und sendet
+         * sonst bei Bedarf einen Herzschlag
+         */
+        private void herzschlagSenden() {
+            long abstand = herzschlag;
+            long zeitlimit = herzschlagZeitlimit;
+            if (getrennt || abstand <= 0) {
+                return;
+            }
+            long jetzt = zeitrad.stand();
+            if (zeitlimit > 0 && jetzt - zuletztEmpfangen >= zeitlimit && !verarbeitet) {
+                // Schließen beendet den Empfang, danach ggf. Wiederverbindung
+                System.out.println("Server antwortet nicht: " + serverName);
+                try {
+                    server.close();
+                } catch (IOException ex) {
+                    // bereits geschlossen
+                }
+                return;
+            }
+            if (jetzt - zuletztEmpfangen >= abstand || jetzt - zuletztGesendet >= abstand) {
+                steuern(Protocol.HERZSCHLAG, Protocol.PING, "", true);
+            }
+            herzschlagPlanen();
+        }
+
+        /**
+         * Wartet auf die Antwort des Servers zur Sitzung
+         *
+         * @return true, wenn der Server rechtzeitig geantwortet hat
+         */
+        private boolean warteAufSitzung(long wartezeit) {
+            try {
+                sitzungBestaetigt.await(wartezeit, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return gezaehlt;
+        }
+
+        /**
+         * Übernimmt Token und Zählerstand des Servers; bei einer neuen Sitzung
+         * beginnt die Zählung der empfangenen Nachrichten von vorn
+         */
+        private void sitzung(String text) {
+            int trenner = text.indexOf(' ');
+            if (trenner < 0) {
+                return;
+            }
+            String token = text.substring(0, trenner);
+            neueSitzung = !token.equals(sitzungToken);
+            if (neueSitzung) {
+                empfangenNr = 0;
+            }
+            serverEmpfangen = Math.max(0, Protocol.zahl(text.substring(trenner + 1)));
+            sitzungToken = token;
+            gezaehlt = true;
+            sitzungBestaetigt.countDown();
+        }
+
+        /**
+         * Verwirft die vom Server bestätigten Nachrichten bzw. übernimmt die
+         * angekündigte Nummer der nächsten wiederholten Nachricht
+         */
+        private void quittung(String text, boolean nummer) {
+            long anzahl = Protocol.zahl(text);
+            if (anzahl < 0) {
+                return;
+            }
+            if (nummer) {
+                empfangenNr = anzahl;
+            } else {
+                synchronized (schreibSperre) {
+                    quittiert(anzahl);
+                }
+            }
+        }
+
+        /**
+         * Zählt eine empfangene Nachricht der Sitzung und bestätigt in festen
+         * Abständen
+         */
+        private void zaehlen() {
+            if (gezaehlt) {
+                long anzahl = ++empfangenNr;
+                if (anzahl % Protocol.QUITTUNG_ABSTAND == 0) {
+                    steuern(Protocol.QUITTUNG, Protocol.ACK, Long.toString(anzahl), false);
+                }
+            }
+        }
+
+        /**
+         * Wartet auf die Bestätigung des Binärmodus durch den Server
+         *
+         * @return true, wenn der Server rechtzeitig bestätigt hat
+         */
+        private boolean warteAufBinaer(long wartezeit) {
+            try {
+                return binaerBestaetigt.await(wartezeit, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
         }
 
         @Override
         public void run() {
+            metriken.verbunden = true;
             // Eingabestrom vom Server
             InputStream in;
             try {
                 in = server.getInputStream();
 
-                InputStreamReader streamReader = new InputStreamReader(in);
-                BufferedReader reader = new BufferedReader(streamReader);
-
-                // Schleife für Textempfang und -versand
-                String message; //Nachricht vom Server
-                do {
-                    message = reader.readLine();
-                } while (!interrupted());
+                // Schleife für den Empfang von Zeilen bzw. Frames
+                byte[] puffer = new byte[konfiguration.lesepuffer()];
+                ByteBuffer eingang = ByteBuffer.wrap(puffer);
+                int anzahl;
+                while (aktiv && (anzahl = in.read(puffer)) >= 0) {
+                    metriken.bytesEin += anzahl;
+                    zuletztEmpfangen = zeitrad.stand();
+                    eingang.limit(anzahl);
+                    eingang.position(0);
+                    verarbeitet = true;
+                    boolean weiter = decoder.dekodiere(eingang);
+                    verarbeitet = false;
+                    zuletztEmpfangen = zeitrad.stand();
+                    if (!weiter) {
+                        break;
+                    }
+                }
 
             } catch (IOException ex) {
                 // Fehler beim Socket bzw. Socket von außen geschlossen
+            } finally {
+                metriken.verbunden = false;
+                decoder.freigeben();
+                if (aktiv) {
+                    // Ende des Datenstroms vom Server: auch selbst schließen,
+                    // damit der Server die Verbindung sofort freigeben kann;
+                    // beim Trennen schließt trenneServer() nach der Abmeldung
+                    try {
+                        server.close();
+                    } catch (IOException ex) {
+                        // bereits geschlossen
+                    }
+                }
+                boolean wiederherstellen;
+                boolean abgebrochen;
+                synchronized (this) {
+                    getrennt = true;
+                    abgebrochen = angemeldet && aktiv && verbunden && serverHandler == this;
+                    wiederherstellen = abgebrochen && mitSitzung;
+                }
+                sitzungBestaetigt.countDown();
+                if (wiederherstellen) {
+                    wiederverbinden(this);
+                } else if (!mitSitzung || !aktiv) {
+                    // sonst bricht die laufende Anmeldung ab
+                    abbrechen();
+                }
+                if (abgebrochen && !mitSitzung) {
+                    verbindungVerloren();
+                }
+            }
+
+        }
+
+        @Override
+        public boolean zeile(ByteBuffer zeile) {
+            metriken.nachrichtenEin++;
+            if (binaerGewuenscht && !decoder.istBinaer() && Protocol.istBefehl(zeile)
+                    && Protocol.text(zeile, Protocol.ZEICHENSATZ).equals(Protocol.BINAER)) {
+                // Server bestätigt den Binärmodus, ab jetzt folgen Frames
+                decoder.binaerAb();
+                binaerBestaetigt.countDown();
+                return true;
+            }
+            if (Protocol.istBefehl(zeile)) {
+                String befehl = Protocol.text(zeile, Protocol.ZEICHENSATZ);
+                if (befehl.equals(Protocol.HERZSCHLAG_ANTWORT)) {
+                    return aktiv;
+                } else if (mitSitzung && befehl.startsWith(Protocol.SITZUNG)) {
+                    sitzung(befehl.substring(Protocol.SITZUNG.length()));
+                    return aktiv;
+                } else if (mitSitzung && befehl.startsWith(Protocol.QUITTUNG)) {
+                    quittung(befehl.substring(Protocol.QUITTUNG.length()), false);
+                    return aktiv;
+                } else if (mitSitzung && befehl.startsWith(Protocol.NUMMER)) {
+                    quittung(befehl.substring(Protocol.NUMMER.length()), true);
+                    return aktiv;
+                }
+                boolean fehler = befehl.startsWith(Protocol.FEHLER);
+                if (fehler || befehl.startsWith(Protocol.ANTWORT)) {
+                    zaehlen();
+                    int beginn = fehler ? Protocol.FEHLER.length() : Protocol.ANTWORT.length();
+                    beantwortet(Protocol.kennung(befehl, beginn), Protocol.kennungText(befehl, beginn), fehler);
+                    return aktiv;
+                }
             }
+            zaehlen();
+            melde(zeile, Protocol.ZEICHENSATZ);
+            return aktiv;
+        }
+
+        @Override
+        public boolean frame(byte typ, ByteBuffer nutzdaten) {
+            metriken.nachrichtenEin++;
+            switch (typ) {
+                case Protocol.TEXT:
+                    zaehlen();
+                    melde(nutzdaten, Protocol.UTF8);
+                    break;
+                case Protocol.DATA:
+                    zaehlen();
+                    ClientListener listener = clientListener;
+                    if (listener instanceof ClientDataListener) {
+                        boolean messen = LatenzHistogramm.stichprobe(metriken.nachrichtenEin);
+                        long beginn = messen ? System.nanoTime() : 0;
+                        if (listener instanceof ClientBufferListener) {
+                            ((ClientBufferListener) listener).getData(nutzdaten);
+                        } else {
+                            ((ClientDataListener) listener).getData(nutzdaten.asReadOnlyBuffer());
+                        }
+                        if (messen) {
+                            metriken.dispatch.erfassen(System.nanoTime() - beginn);
+                        }
+                    } else {
+                        melde(nutzdaten, Protocol.UTF8);
+                    }
+                    break;
+                case Protocol.KOMPRESSION:
+                    // Server bestätigt die Kompression mit seinem Wörterbuch
+                    byte[] woerterbuch = new byte[nutzdaten.remaining()];
+                    nutzdaten.get(woerterbuch);
+                    Kompression k = new Kompression(kompressionSchwelle, woerterbuch);
+                    decoder.setzeKompression(k);
+                    kompression = k;
+                    break;
+                case Protocol.RESPONSE:
+                case Protocol.ERROR:
+                    zaehlen();
+                    if (nutzdaten.remaining() >= 8) {
+                        long kennung = nutzdaten.getLong(nutzdaten.position());
+                        ByteBuffer text = nutzdaten.duplicate();
+                        text.position(text.position() + 8);
+                        beantwortet(kennung, Protocol.text(text), typ == Protocol.ERROR);
+                    }
+                    break;
+                case Protocol.PONG:
+                    // Empfang ist bereits vermerkt
+                    break;
+                case Protocol.SESSION:
+                    sitzung(Protocol.text(nutzdaten));
+                    break;
+                case Protocol.ACK:
+                    quittung(Protocol.text(nutzdaten), false);
+                    break;
+                case Protocol.SEQ:
+                    quittung(Protocol.text(nutzdaten), true);
+                    break;
+                case Protocol.STOP:
+                    return false;
+                default:
+                // unbekannte Frames werden ignoriert
+            }
+            return aktiv;
+        }
+
+        private void melde(ByteBuffer text, Charset zeichensatz) {
+            ClientListener listener = clientListener;
+            if (listener == null) {
+                return;
+            }
+            boolean messen = LatenzHistogramm.stichprobe(metriken.nachrichtenEin);
+            long beginn = messen ? System.nanoTime() : 0;
+            if (listener instanceof ClientBufferListener) {
+                ((ClientBufferListener) listener).getText(decoder.text(text, zeichensatz));
+            } else {
+                listener.getMessage(Protocol.text(text, zeichensatz));
+            }
+            if (messen) {
+                metriken.dispatch.erfassen(System.nanoTime() - beginn);
+            }
+        }
+    }
+
+    /**
+     * Kennzahlen des Clients; ausgehende Zähler werden unter der
+     * Schreibsperre, eingehende nur vom ServerHandler erhöht
+     */
+    private static final class Metriken implements ClientMetrikenMXBean {
+
+        private volatile boolean verbunden = false;
+        private volatile long nachrichtenEin = 0;
+        private volatile long bytesEin = 0;
+        private volatile long nachrichtenAus = 0;
+        private volatile long bytesAus = 0;
+        private volatile long wiederverbindungen = 0;
+        private volatile long nichtWiederholbar = 0;
+        private final LongAdder sendefehler = new LongAdder();
+        private final LatenzHistogramm dispatch = new LatenzHistogramm();
 
+        @Override
+        public boolean isVerbunden() {
+            return verbunden;
+        }
+
+        @Override
+        public long getNachrichtenEin() {
+            return nachrichtenEin;
+        }
+
+        @Override
+        public long getNachrichtenAus() {
+            return nachrichtenAus;
+        }
+
+        @Override
+        public long getBytesEin() {
+            return bytesEin;
+        }
+
+        @Override
+        public long getBytesAus() {
+            return bytesAus;
+        }
+
+        @Override
+        public long getSendefehler() {
+            return sendefehler.sum();
+        }
+
+        @Override
+        public long getWiederverbindungen() {
+            return wiederverbindungen;
+        }
+
+        @Override
+        public long getNichtWiederholbar() {
+            return nichtWiederholbar;
+        }
+
+        @Override
+        public long getDispatchAnzahl() {
+            return dispatch.anzahl();
+        }
+
+        @Override
+        public double getDispatchMittelMikros() {
+            return dispatch.mittelwertMikros();
+        }
+
+        @Override
+        public double getDispatchP99Mikros() {
+            return dispatch.perzentilMikros(0.99);
         }
     }
 
+    /**
+     * Interface zur Information über Abbruch und Wiederaufbau der Verbindung;
+     * ohne Wiederverbindung folgt auf getrennt gleich aufgegeben. Die Methoden
+     * laufen im Thread des Empfangs.
+     */
+    public interface ConnectionListener {
+
+        /**
+         * Methode wird aufgerufen, wenn die Verbindung abgebrochen ist und der
+         * Client sie wiederherzustellen versucht
+         */
+        public void getrennt();
+
+        /**
+         * Methode wird aufgerufen, wenn die Verbindung wiederhergestellt ist
+         *
+         * @param fortgesetzt true, wenn die Sitzung fortgesetzt wurde, false
+         * bei einer neuen Sitzung
+         */
+        public void wiederverbunden(boolean fortgesetzt);
+
+        /**
+         * Methode wird aufgerufen, wenn die Verbindung innerhalb der längsten
+         * Dauer nicht wiederhergestellt werden konnte
+         */
+        public void aufgegeben();
+    }
+
     /**
      * Interface zum Erhalt von Nachrichten des Servers
      */
@@ -193,4 +1659,35 @@ public class NetworkClient {
          */
         public void getMessage(String message);
     }
+
+    /**
+     * Erweiterter Listener, der Binärnachrichten des Servers unverändert
+     * erhält. Ohne diesen Listener werden Binärnachrichten als UTF-8-Text an
+     * getMessage übergeben.
+     */
+    public interface ClientDataListener extends ClientListener {
+
+        /**
+         * Methode wird bei Erhalt einer Binärnachricht aufgerufen
+         *
+         * @param daten schreibgeschützte Nutzdaten, nur während des Aufrufs
+         * gültig
+         */
+        public void getData(ByteBuffer daten);
+    }
+
+    /**
+     * Listener, der Nachrichten ohne neue Objekte je Nachricht erhält. Texte
+     * und Binärdaten werden wiederverwendet und sind nur während des Aufrufs
+     * gültig; getMessage wird für diesen Listener nicht aufgerufen.
+     */
+    public interface ClientBufferListener extends ClientDataListener {
+
+        /**
+         * Methode wird bei Erhalt einer Textnachricht aufgerufen
+         *
+         * @param text wiederverwendete Textsicht der Nachricht
+         */
+        public void getText(CharSequence text);
+    }
 }
@@ -0,0 +1,311 @@
+package netzwerkkommunikation;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Begrenzte Warteschlange der noch zu sendenden Nachrichten eines Clients.
+ * Beliebig viele Threads hängen ohne Sperren an, genau ein Schreiber leert die
+ * Warteschlange. Ist sie voll, entscheidet die {@link MultiServer.OverflowPolicy}
+ * über die neue Nachricht. Bei gleichzeitigem Anhängen kann die Kapazität
+ * kurzzeitig um die Anzahl der sendenden Threads überschritten werden.
+ *
+ * Erst der Schreiber wählt die kodierte Form einer Nachricht (Textzeile oder
+ * Frame), so wirkt ein Umschalten in den Binärmodus genau ab der
+ * Bestätigungsnachricht. Ebenso beginnt die Kompression genau nach der
+ * Nachricht, die sie dem Client bestätigt.
+ *
+ * Der Schreiber sammelt wartende Nachrichten bis zu einem Bytebudget zu einem
+ * Stapel, der mit einem einzigen gather-write geschrieben wird.
+ *
+ * Die Zahl der wartenden Nachrichten geht laufend in einen gemeinsamen Zähler
+ * aller Warteschlangen ein, sodass die Summe ohne Durchlaufen der Clients
+ * abrufbar ist.
+ *
+ * @author Jochen Schmitt
+ */
+final class OutboundQueue {
+
+    /**
+     * Ergebnis beim Anhängen einer Nachricht
+     */
+    enum Ergebnis {
+
+        ANGENOMMEN,
+        /**
+         * Warteschlange voll, die neue Nachricht wurde verworfen
+         */
+        VERWORFEN,
+        /**
+         * Warteschlange voll, der Client soll getrennt werden
+         */
+        TRENNEN
+    }
+
+    private final ConcurrentLinkedQueue<EncodedMessage> nachrichten = new ConcurrentLinkedQueue<EncodedMessage>();
+    /**
+     * höchstens so viele Nachrichten werden in einem Stapel geschrieben
+     */
+    static final int MAX_STAPEL = 64;
+
+    private final AtomicInteger groesse = new AtomicInteger();
+    // Summe der wartenden Nachrichten aller Warteschlangen, null ohne
+    private final LongAdder gesamt;
+    private volatile boolean abgemeldet = false;
+    // geschätzte Bytes der wartenden Nachrichten
+    private final AtomicLong bytes = new AtomicLong();
+    // true, solange ein Schreiber eingeplant ist oder schreibt
+    private final AtomicBoolean geplant = new AtomicBoolean();
+    private final int kapazitaet;
+    private final MultiServer.OverflowPolicy policy;
+    // Stapel der gerade zu schreibenden Nachrichten und Format, nur vom
+    // Schreiber benutzt
+    private final ByteBuffer[] stapel = new ByteBuffer[MAX_STAPEL];
+    private int anfang = 0;
+    private int ende = 0;
+    private boolean binaer = false;
+    private Kompression kompression;
+    // Anzahl der zum Schreiben entnommenen Nachrichten, nur vom Schreiber erhöht
+    private volatile long entnommen = 0;
+    // Zusätzliche Kapazität für wiederholte Nachrichten, bis entnommen den
+    // Stand wiederholtBis erreicht
+    private volatile int wiederholt = 0;
+    private volatile long wiederholtBis = 0;
+
+    OutboundQueue(int kapazitaet, MultiServer.OverflowPolicy policy) {
+        this(kapazitaet, policy, null);
+    }
+
+    /**
+     * @param gesamt gemeinsamer Zähler der wartenden Nachrichten, null ohne
+     */
+    OutboundQueue(int kapazitaet, MultiServer.OverflowPolicy policy, LongAdder gesamt) {
+        this.kapazitaet = kapazitaet;
+        this.policy = policy;
+        this.gesamt = gesamt;
+    }
+
+    /**
+     * Nimmt die wartenden Nachrichten aus dem gemeinsamen Zähler, wenn die
+     * Verbindung endet; spätere Änderungen zählen nicht mehr
+     */
+    void abmelden() {
+        if (gesamt != null && !abgemeldet) {
+            abgemeldet = true;
+            gesamt.add(-groesse.get());
+        }
+    }
+
+    private void zaehlen(int anzahl) {
+        if (gesamt != null && !abgemeldet) {
+            gesamt.add(anzahl);
+        }
+    }
+
+    /**
+     * Hängt eine Nachricht an die Warteschlange an
+     *
+     * @param daten zu sendende Nachricht
+     * @return Ergebnis gemäß der Überlaufstrategie
+     */
+    Ergebnis anhaengen(EncodedMessage daten) {
+        if (groesse.incrementAndGet() > kapazitaet && groesse.get() > kapazitaet + zusatz()) {
+            if (policy == MultiServer.OverflowPolicy.DROP_OLDEST) {
+                // älteste wartende Nachricht verwerfen
+                EncodedMessage verworfen = nachrichten.poll();
+                if (verworfen != null) {
+                    groesse.decrementAndGet();
+                    bytes.addAndGet(-verworfen.groesse());
+                } else {
+                    zaehlen(1);
+                }
+                bytes.addAndGet(daten.groesse());
+                nachrichten.add(daten);
+                return Ergebnis.ANGENOMMEN;
+            }
+            groesse.decrementAndGet();
+            if (policy == MultiServer.OverflowPolicy.DISCONNECT) {
+                return Ergebnis.TRENNEN;
+            }
+            return Ergebnis.VERWORFEN;
+        }
+        zaehlen(1);
+        bytes.addAndGet(daten.groesse());
+        nachrichten.add(daten);
+        return Ergebnis.ANGENOMMEN;
+    }
+
+    /**
+     * Erhöht die Kapazität um die angegebene Anzahl, bis alle bis dahin und
+     * danach so viele weitere Nachrichten geschrieben sind; für die
+     * Wiederholung einer fortgesetzten Sitzung, deren Nachrichten sonst die
+     * Warteschlange überlaufen ließen
+     *
+     * @param anzahl Anzahl der gleich anzuhängenden Nachrichten
+     */
+    void vorschuss(int anzahl) {
+        wiederholtBis = entnommen + groesse.get() + anzahl;
+        wiederholt = anzahl;
+    }
+
+    private int zusatz() {
+        return (int) Math.min(wiederholt, Math.max(0, wiederholtBis - entnommen));
+    }
+
+    /**
+     * Meldet den Bedarf eines Schreibers an
+     *
+     * @return true, wenn der Aufrufer den Schreiber starten muss; false, wenn
+     * bereits einer eingeplant ist
+     */
+    boolean planen() {
+        return geplant.compareAndSet(false, true);
+    }
+
+    /**
+     * Füllt den Stapel mit wartenden Nachrichten, bis das Bytebudget erreicht
+     * oder der Stapel voll ist; ein teilweise geschriebener Rest bleibt am
+     * Anfang. Nur für den Schreiber. Jede Nachricht wird über eine eigene
+     * schreibgeschützte Sicht auf ihre geteilte Kodierung geschrieben.
+     *
+     * @param budget Bytes, ab denen keine weitere Nachricht aufgenommen wird;
+     * mindestens eine Nachricht wird immer aufgenommen
+     * @return false, wenn nichts zu schreiben ist
+     */
+    boolean sammeln(int budget) {
+        if (anfang > 0) {
+            System.arraycopy(stapel, anfang, stapel, 0, ende - anfang);
+            for (int i = ende - anfang; i < ende; i++) {
+                stapel[i] = null;
+            }
+            ende -= anfang;
+            anfang = 0;
+        }
+        long gesammelt = 0;
+        for (int i = 0; i < ende; i++) {
+            gesammelt += stapel[i].remaining();
+        }
+        while (ende < MAX_STAPEL && (ende == 0 || gesammelt < budget)) {
+            EncodedMessage nachricht = nachrichten.poll();
+            if (nachricht == null) {
+                break;
+            }
+            groesse.decrementAndGet();
+            zaehlen(-1);
+            bytes.addAndGet(-nachricht.groesse());
+            entnommen++;
+            ByteBuffer kodiert;
+            if (!binaer) {
+                kodiert = nachricht.zeile();
+            } else if (kompression != null && nachricht.groesse() >= kompression.schwelle()) {
+                kodiert = nachricht.komprimiert(kompression);
+            } else {
+                kodiert = nachricht.frame();
+            }
+            if (nachricht.schaltetBinaer()) {
+                binaer = true;
+            }
+            if (nachricht.schaltetKompression() != null) {
+                kompression = nachricht.schaltetKompression();
+            }
+            // Binärnachrichten an Clients im Textmodus entfallen
+            if (kodiert != null) {
+                stapel[ende++] = kodiert.asReadOnlyBuffer();
+                gesammelt += kodiert.remaining();
+            }
+        }
+        return ende > 0;
+    }
+
+    /**
+     * @return Puffer des Stapels, gültig von {@link #anfang()} bis
+     * {@link #laenge()} Einträge danach
+     */
+    ByteBuffer[] stapel() {
+        return stapel;
+    }
+
+    int anfang() {
+        return anfang;
+    }
+
+    int laenge() {
+        return ende - anfang;
+    }
+
+    /**
+     * Entfernt nach einem Schreibvorgang die vollständig geschriebenen
+     * Nachrichten aus dem Stapel; nur für den Schreiber
+     *
+     * @return true, wenn der ganze Stapel geschrieben wurde
+     */
+    boolean geschrieben() {
+        while (anfang < ende && !stapel[anfang].hasRemaining()) {
+            stapel[anfang++] = null;
+        }
+        if (anfang == ende) {
+            anfang = 0;
+            ende = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Der Schreiber meldet sich ab, nachdem er die Warteschlange geleert hat
+     *
+     * @return true, wenn inzwischen neue Nachrichten angekommen sind und der
+     * Schreiber weitermachen muss
+     */
+    boolean fertig() {
+        geplant.set(false);
+        return !nachrichten.isEmpty() && geplant.compareAndSet(false, true);
+    }
+
+    /**
+     * @return Anzahl der wartenden Nachrichten
+     */
+    int groesse() {
+        return groesse.get();
+    }
+
+    /**
+     * @return true, wenn keine Nachricht wartet und kein Schreiber mehr
+     * schreibt
+     */
+    boolean leer() {
+        return nachrichten.isEmpty() && !geplant.get();
+    }
+
+    /**
+     * @return Anzahl der bisher zum Schreiben entnommenen Nachrichten
+     */
+    long entnommen() {
+        return entnommen;
+    }
+
+    /**
+     * @return geschätzte Bytes der wartenden Nachrichten
+     */
+    long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Verwirft alle wartenden Nachrichten, z.B. nach einem Schreibfehler
+     */
+    void leeren() {
+        nachrichten.clear();
+        zaehlen(-groesse.getAndSet(0));
+        bytes.set(0);
+        for (int i = 0; i < ende; i++) {
+            stapel[i] = null;
+        }
+        anfang = 0;
+        ende = 0;
+    }
+}
@@ -0,0 +1,332 @@
+package netzwerkkommunikation;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Gemeinsame Festlegungen des Protokolls zwischen MultiServer und
+ * NetworkClient.
+ *
+ * Standardmäßig werden Textzeilen ausgetauscht, Steuerbefehle beginnen mit
+ * '#'. Schickt der Client die Zeile {@link #BINAER} und bestätigt der Server
+ * mit derselben Zeile, werden danach in beide Richtungen Frames übertragen:
+ * 4 Byte Länge der Nutzdaten (big endian), 1 Byte Typ, Nutzdaten. Nutzdaten
+ * dürfen dann beliebige Bytes enthalten.
+ *
+ * Im Binärmodus kann zusätzlich Kompression vereinbart werden: Der Client
+ * schickt einen {@link #KOMPRESSION}-Frame ohne Nutzdaten, der Server
+ * antwortet mit einem {@link #KOMPRESSION}-Frame, der das Wörterbuch enthält.
+ * Ab dieser Antwort dürfen beide Seiten komprimierte Frames senden (siehe
+ * {@link Kompression}). Server ohne Kompression ignorieren den Frame.
+ *
+ * Themen abonniert der Client mit der Zeile {@link #ABONNIEREN} gefolgt vom
+ * Thema bzw. im Binärmodus mit einem {@link #SUBSCRIBE}-Frame, der das Thema
+ * enthält; entsprechend kündigt er mit {@link #KUENDIGEN} bzw.
+ * {@link #UNSUBSCRIBE}. Eine Bestätigung gibt es nicht.
+ *
+ * Anfragen tragen eine vom Client vergebene Kennung, die der Server in der
+ * Antwort zurückschickt; so können viele Anfragen gleichzeitig unterwegs sein
+ * und in beliebiger Reihenfolge beantwortet werden. Als Zeile lautet eine
+ * Anfrage {@link #ANFRAGE}, Kennung, Leerzeichen, Text, die Antwort
+ * entsprechend {@link #ANTWORT} bzw. bei einem Fehler {@link #FEHLER}. Im
+ * Binärmodus dienen die Frames {@link #REQUEST}, {@link #RESPONSE} und
+ * {@link #ERROR} mit 8 Byte Kennung und dem Text in UTF-8 als Nutzdaten.
+ *
+ * Für fortsetzbare Sitzungen schickt der Client vor seinem Namen
+ * {@link #SITZUNG} mit dem bisherigen Token (bzw. "-") und der Zahl der
+ * bisher empfangenen Nachrichten; der Server antwortet mit Token und der Zahl
+ * der von ihm empfangenen Nachrichten. Ab dann zählen beide Seiten ihre
+ * Nachrichten (ohne Steuerbefehle) und bestätigen nach je
+ * {@link #QUITTUNG_ABSTAND} empfangenen Nachrichten mit {@link #QUITTUNG},
+ * sodass die Gegenseite bestätigte Nachrichten verwerfen kann. Beim
+ * Fortsetzen wiederholt jede Seite die von der Gegenseite noch nicht
+ * empfangenen Nachrichten; fehlen davon welche, kündigt {@link #NUMMER} die
+ * Nummer vor der ersten wiederholten Nachricht an. Im Binärmodus tragen die
+ * Frames {@link #SESSION}, {@link #ACK} und {@link #SEQ} denselben Text wie
+ * die Zeilen nach dem Befehl.
+ *
+ * Als Herzschlag schickt der Client {@link #HERZSCHLAG} bzw. den Frame
+ * {@link #PING}, wenn eine Weile nichts gesendet oder empfangen wurde; der
+ * Server antwortet mit {@link #HERZSCHLAG_ANTWORT} bzw. {@link #PONG}.
+ *
+ * Knoten eines Clusters (siehe {@link Cluster}) verbinden sich wie Clients,
+ * schicken nach {@link #BINAER} aber ohne auf die Bestätigung zu warten einen
+ * {@link #NODE}-Frame mit ihrem Namen. Danach folgen nur noch die Frames
+ * {@link #JOIN}, {@link #LEAVE}, {@link #ROUTE} und {@link #BROADCAST}; der
+ * empfangende Knoten antwortet nicht.
+ *
+ * @author Jochen Schmitt
+ */
+final class Protocol {
+
+    /**
+     * Zeichensatz der Textzeilen, wie bei PrintWriter und InputStreamReader
+     * ohne Angabe eines Zeichensatzes
+     */
+    static final Charset ZEICHENSATZ = Charset.defaultCharset();
+    /**
+     * Zeichensatz der Nutzdaten von Text- und Steuerframes
+     */
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    static final String ZEILENENDE = System.getProperty("line.separator");
+
+    /**
+     * Zeile zum Aushandeln des Binärmodus
+     */
+    static final String BINAER = "#BINARY";
+    /**
+     * Beginn der Zeile zum Abonnieren eines Themas, gefolgt vom Thema
+     */
+    static final String ABONNIEREN = "#SUBSCRIBE ";
+    /**
+     * Beginn der Zeile zum Kündigen eines Themas, gefolgt vom Thema
+     */
+    static final String KUENDIGEN = "#UNSUBSCRIBE ";
+    /**
+     * Beginn einer Anfrage als Zeile, gefolgt von Kennung und Text
+     */
+    static final String ANFRAGE = "#REQUEST ";
+    /**
+     * Beginn einer Antwort als Zeile, gefolgt von Kennung und Text
+     */
+    static final String ANTWORT = "#RESPONSE ";
+    /**
+     * Beginn einer Fehlerantwort als Zeile, gefolgt von Kennung und
+     * Fehlermeldung
+     */
+    static final String FEHLER = "#ERROR ";
+    /**
+     * Beginn der Zeile zum Eröffnen bzw. Fortsetzen einer Sitzung, gefolgt
+     * von Token und Anzahl empfangener Nachrichten
+     */
+    static final String SITZUNG = "#SESSION ";
+    /**
+     * Beginn der Bestätigung, gefolgt von der Anzahl empfangener Nachrichten
+     */
+    static final String QUITTUNG = "#ACK ";
+    /**
+     * Beginn der Zeile, die die Nummer der zuletzt gesendeten Nachricht neu
+     * festlegt
+     */
+    static final String NUMMER = "#SEQ ";
+    /**
+     * nach so vielen empfangenen Nachrichten wird bestätigt
+     */
+    static final int QUITTUNG_ABSTAND = 64;
+    /**
+     * Herzschlag des Clients
+     */
+    static final String HERZSCHLAG = "#PING";
+    /**
+     * Antwort des Servers auf den Herzschlag
+     */
+    static final String HERZSCHLAG_ANTWORT = "#PONG";
+
+    /**
+     * Länge des Frame-Kopfes: Länge der Nutzdaten und Typ
+     */
+    static final int KOPF = 5;
+    /**
+     * größte zulässige Länge der Nutzdaten eines Frames
+     */
+    static final int MAX_NUTZDATEN = 64 * 1024 * 1024;
+
+    /**
+     * Textnachricht, Nutzdaten in UTF-8
+     */
+    static final byte TEXT = 1;
+    /**
+     * Binärnachricht, Nutzdaten werden unverändert übergeben
+     */
+    static final byte DATA = 2;
+    /**
+     * Übermittlung des Clientnamens, Nutzdaten in UTF-8
+     */
+    static final byte NAME = 16;
+    /**
+     * Abmeldung, ohne Nutzdaten
+     */
+    static final byte STOP = 17;
+    /**
+     * Vereinbarung der Kompression, Nutzdaten: Wörterbuch
+     */
+    static final byte KOMPRESSION = 18;
+    /**
+     * Abonnieren eines Themas, Nutzdaten: Thema in UTF-8
+     */
+    static final byte SUBSCRIBE = 19;
+    /**
+     * Kündigen eines Themas, Nutzdaten: Thema in UTF-8
+     */
+    static final byte UNSUBSCRIBE = 20;
+    /**
+     * Anfrage, Nutzdaten: Kennung (8 Byte) und Text in UTF-8
+     */
+    static final byte REQUEST = 21;
+    /**
+     * Antwort auf eine Anfrage, Nutzdaten: Kennung (8 Byte) und Text in UTF-8
+     */
+    static final byte RESPONSE = 22;
+    /**
+     * Fehlerantwort auf eine Anfrage, Nutzdaten: Kennung (8 Byte) und
+     * Fehlermeldung in UTF-8
+     */
+    static final byte ERROR = 23;
+    /**
+     * Eröffnen bzw. Fortsetzen einer Sitzung, Nutzdaten wie {@link #SITZUNG}
+     */
+    static final byte SESSION = 24;
+    /**
+     * Bestätigung, Nutzdaten wie {@link #QUITTUNG}
+     */
+    static final byte ACK = 25;
+    /**
+     * Neue Nummer der zuletzt gesendeten Nachricht, Nutzdaten wie
+     * {@link #NUMMER}
+     */
+    static final byte SEQ = 26;
+    /**
+     * Herzschlag des Clients ohne Nutzdaten
+     */
+    static final byte PING = 27;
+    /**
+     * Antwort des Servers auf den Herzschlag ohne Nutzdaten
+     */
+    static final byte PONG = 28;
+    /**
+     * Anmeldung eines Clusterknotens, Nutzdaten: Name des Knotens in UTF-8
+     */
+    static final byte NODE = 29;
+    /**
+     * Clients eines Knotens, Nutzdaten: Clientnamen in UTF-8, getrennt durch
+     * Zeilenumbrüche
+     */
+    static final byte JOIN = 30;
+    /**
+     * Abgemeldeter Client eines Knotens, Nutzdaten: Clientname in UTF-8
+     */
+    static final byte LEAVE = 31;
+    /**
+     * Weitergeleitete Nachricht an einen Client, Nutzdaten: Clientname,
+     * Zeilenumbruch und Text in UTF-8
+     */
+    static final byte ROUTE = 32;
+    /**
+     * Weitergeleitete Nachricht an alle Clients, Nutzdaten: Text in UTF-8
+     */
+    static final byte BROADCAST = 33;
+
+    private Protocol() {
+    }
+
+    /**
+     * Erzeugt einen Frame aus Kopf und Nutzdaten in einem Puffer
+     *
+     * @param typ Typ des Frames
+     * @param nutzdaten Nutzdaten zwischen position und limit, werden nicht
+     * verändert
+     * @param direkt true für einen direkten Puffer
+     * @return Frame, bereit zum Schreiben
+     */
+    static ByteBuffer frame(byte typ, ByteBuffer nutzdaten, boolean direkt) {
+        int laenge = nutzdaten.remaining();
+        ByteBuffer frame = direkt ? ByteBuffer.allocateDirect(KOPF + laenge) : ByteBuffer.allocate(KOPF + laenge);
+        frame.putInt(laenge);
+        frame.put(typ);
+        frame.put(nutzdaten.duplicate());
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Erzeugt einen Frame mit Text als Nutzdaten
+     */
+    static ByteBuffer frame(byte typ, String text) {
+        return frame(typ, UTF8.encode(text), false);
+    }
+
+    /**
+     * Erzeugt einen Frame mit Kennung und Text als Nutzdaten
+     */
+    static ByteBuffer frame(byte typ, long kennung, String text) {
+        ByteBuffer kodiert = UTF8.encode(text);
+        ByteBuffer frame = ByteBuffer.allocate(KOPF + 8 + kodiert.remaining());
+        frame.putInt(8 + kodiert.remaining());
+        frame.put(typ);
+        frame.putLong(kennung);
+        frame.put(kodiert);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Erzeugt eine Zeile mit Kennung und Text
+     *
+     * @param beginn {@link #ANFRAGE}, {@link #ANTWORT} oder {@link #FEHLER}
+     */
+    static String zeile(String beginn, long kennung, String text) {
+        return new StringBuilder(beginn.length() + 21 + text.length())
+                .append(beginn).append(kennung).append(' ').append(text).toString();
+    }
+
+    /**
+     * Liest eine Zahl aus einem Text
+     *
+     * @return Zahl oder -1, wenn der Text keine gültige Zahl ist
+     */
+    static long zahl(String text) {
+        try {
+            return Long.parseLong(text.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Liest die Kennung einer Zeile nach {@link #zeile(String, long, String)}
+     *
+     * @param beginn Länge des Zeilenbeginns
+     * @return Kennung oder -1, wenn die Zeile keine gültige Kennung enthält
+     */
+    static long kennung(String zeile, int beginn) {
+        int ende = zeile.indexOf(' ', beginn);
+        try {
+            return Long.parseLong(zeile.substring(beginn, ende < 0 ? zeile.length() : ende));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return Text einer Zeile nach {@link #zeile(String, long, String)}
+     */
+    static String kennungText(String zeile, int beginn) {
+        int ende = zeile.indexOf(' ', beginn);
+        return ende < 0 ? "" : zeile.substring(ende + 1);
+    }
+
+    /**
+     * Dekodiert die Nutzdaten eines Text- oder Steuerframes
+     */
+    static String text(ByteBuffer nutzdaten) {
+        return text(nutzdaten, UTF8);
+    }
+
+    /**
+     * Dekodiert Text zwischen position und limit, ohne den Puffer zu verändern
+     */
+    static String text(ByteBuffer bytes, Charset zeichensatz) {
+        if (bytes.hasArray()) {
+            return new String(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(), zeichensatz);
+        }
+        return zeichensatz.decode(bytes.duplicate()).toString();
+    }
+
+    /**
+     * @return true, wenn die Zeile mit '#' beginnt und damit ein Steuerbefehl
+     * ist
+     */
+    static boolean istBefehl(ByteBuffer zeile) {
+        return zeile.hasRemaining() && zeile.get(zeile.position()) == '#';
+    }
+}
@@ -0,0 +1,106 @@
+package netzwerkkommunikation;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Begrenzt die Rate von Ereignissen je Schlüssel, z.B. je Absenderadresse,
+ * nach dem Verfahren des Token-Buckets (als GCRA mit einem Zeitpunkt je Fach).
+ * Die Schlüssel werden auf eine feste Anzahl von Fächern verteilt, sodass
+ * weder Speicher noch Objekte mit der Zahl der Absender wachsen; Schlüssel im
+ * selben Fach teilen sich die Rate. Prüfen ist sperrfrei und erzeugt keine
+ * Objekte. Ereignisse können ein Gewicht haben, z.B. ihre Größe in Bytes; ein
+ * Ereignis über dem Bündel ist bei vollem Eimer erlaubt und sperrt danach, bis
+ * es abgetragen ist.
+ *
+ * @author Jochen Schmitt
+ */
+final class Ratenbegrenzer {
+
+    // theoretischer Zeitpunkt des nächsten erlaubten Ereignisses je Fach in ns
+    // seit basis
+    private final AtomicLongArray faellig;
+    private final int maske;
+    private final long jeSekunde;
+    private final long abstand;
+    private final long toleranz;
+    private final long basis = System.nanoTime();
+
+    /**
+     * @param jeSekunde erlaubte Ereignisse je Sekunde und Schlüssel
+     * @param buendel so viele Ereignisse sind unmittelbar nacheinander erlaubt
+     * @param faecher Anzahl der Fächer, wird auf eine Zweierpotenz aufgerundet
+     */
+    Ratenbegrenzer(int jeSekunde, int buendel, int faecher) {
+        int anzahl = Integer.highestOneBit(Math.max(1, faecher - 1)) << 1;
+        faellig = new AtomicLongArray(anzahl);
+        maske = anzahl - 1;
+        this.jeSekunde = Math.max(1, jeSekunde);
+        abstand = 1000000000L / this.jeSekunde;
+        toleranz = abstand * (Math.max(1, buendel) - 1);
+    }
+
+    /**
+     * Prüft, ob ein Ereignis erlaubt ist, und verbraucht es gegebenenfalls
+     *
+     * @param schluessel z.B. der hashCode der Absenderadresse
+     * @return false, wenn die Rate des Schlüssels überschritten ist
+     */
+    boolean erlaubt(int schluessel) {
+        return verbrauchen(schluessel, abstand);
+    }
+
+    /**
+     * Prüft, ob ein Ereignis mit Gewicht erlaubt ist, und verbraucht es
+     * gegebenenfalls
+     *
+     * @param schluessel z.B. der hashCode der Absenderadresse
+     * @param gewicht Gewicht des Ereignisses, z.B. seine Größe in Bytes
+     * @return false, wenn die Rate des Schlüssels überschritten ist
+     */
+    boolean erlaubt(int schluessel, int gewicht) {
+        return verbrauchen(schluessel, gewicht * 1000000000L / jeSekunde);
+    }
+
+    /**
+     * Erstattet ein erlaubtes Ereignis, das doch nicht stattfindet, etwa weil
+     * eine andere Grenze es verwirft
+     *
+     * @param schluessel Schlüssel wie bei {@link #erlaubt(int)}
+     */
+    void erstatten(int schluessel) {
+        gutschreiben(schluessel, abstand);
+    }
+
+    /**
+     * Erstattet ein erlaubtes Ereignis mit Gewicht, das doch nicht stattfindet
+     *
+     * @param schluessel Schlüssel wie bei {@link #erlaubt(int, int)}
+     * @param gewicht Gewicht des Ereignisses
+     */
+    void erstatten(int schluessel, int gewicht) {
+        gutschreiben(schluessel, gewicht * 1000000000L / jeSekunde);
+    }
+
+    private void gutschreiben(int schluessel, long kosten) {
+        faellig.addAndGet(verteilen(schluessel) & maske, -kosten);
+    }
+
+    private boolean verbrauchen(int schluessel, long kosten) {
+        int fach = verteilen(schluessel) & maske;
+        long jetzt = System.nanoTime() - basis;
+        while (true) {
+            long alt = faellig.get(fach);
+            if (alt - jetzt > toleranz) {
+                return false;
+            }
+            if (faellig.compareAndSet(fach, alt, Math.max(alt, jetzt) + kosten)) {
+                return true;
+            }
+        }
+    }
+
+    private static int verteilen(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
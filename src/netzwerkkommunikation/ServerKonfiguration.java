@@ -0,0 +1,265 @@
+package netzwerkkommunikation;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketOption;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Netzwerkeinstellungen eines {@link MultiServer}: Ports, Adresse,
+ * Socketoptionen, Zahl der Threads für die Annahme und Puffergrößen. Die
+ * Methoden setzen jeweils einen Wert und liefern die Konfiguration zurück,
+ * sodass sich Aufrufe verketten lassen; ein Wert von 0 bedeutet die Vorgabe
+ * des Betriebssystems bzw. von Java.
+ *
+ * Mit {@link #setzeReusePort(boolean)} können mehrere Server eines Rechners,
+ * auch in verschiedenen Prozessen, denselben TCP-Port nutzen; das
+ * Betriebssystem verteilt neue Verbindungen auf sie. Zusammen mit dem
+ * gemeinsam genutzten UDP-Port erscheinen sie den Clients als ein Server.
+ *
+ * Der Server übernimmt eine Kopie der Konfiguration (siehe
+ * {@link MultiServer#setzeKonfiguration(ServerKonfiguration)}); spätere
+ * Änderungen wirken erst nach erneutem Übernehmen.
+ *
+ * @author Jochen Schmitt
+ */
+public final class ServerKonfiguration {
+
+    private int tcpPort = MultiServer.PORT;
+    private int udpPort = Discovery.PORT;
+    private InetAddress adresse;
+    private int backlog = 0;
+    private int empfangspuffer = 0;
+    private int sendepuffer = 0;
+    private boolean tcpNoDelay = false;
+    private boolean reusePort = false;
+    private int akzeptoren = 1;
+    private int eventLoops = 0;
+    private int lesepufferJeVerbindung = 8192;
+    private int lesepufferJeEventLoop = 64 * 1024;
+    private int datagrammGroesse = 1024;
+    private int pruefIntervall = 1000;
+
+    /**
+     * @return unabhängige Kopie dieser Konfiguration
+     */
+    public ServerKonfiguration kopie() {
+        ServerKonfiguration kopie = new ServerKonfiguration();
+        kopie.tcpPort = tcpPort;
+        kopie.udpPort = udpPort;
+        kopie.adresse = adresse;
+        kopie.backlog = backlog;
+        kopie.empfangspuffer = empfangspuffer;
+        kopie.sendepuffer = sendepuffer;
+        kopie.tcpNoDelay = tcpNoDelay;
+        kopie.reusePort = reusePort;
+        kopie.akzeptoren = akzeptoren;
+        kopie.eventLoops = eventLoops;
+        kopie.lesepufferJeVerbindung = lesepufferJeVerbindung;
+        kopie.lesepufferJeEventLoop = lesepufferJeEventLoop;
+        kopie.datagrammGroesse = datagrammGroesse;
+        kopie.pruefIntervall = pruefIntervall;
+        return kopie;
+    }
+
+    /**
+     * @param tcpPort Port für Verbindungen der Clients (Standard
+     * {@value MultiServer#PORT})
+     * @param udpPort Port für Suchanfragen (Standard {@value Discovery#PORT});
+     * Clients suchen nur auf dem Standardport
+     * @return diese Konfiguration
+     */
+    public ServerKonfiguration setzePorts(int tcpPort, int udpPort) {
+        this.tcpPort = tcpPort;
+        this.udpPort = udpPort;
+        return this;
+    }
+
+    /**
+     * Bindet den TCP-Port an eine Schnittstelle. Suchanfragen werden
+     * weiterhin auf allen Schnittstellen angenommen, da Broadcasts nur dort
+     * ankommen.
+     *
+     * @param adresse Adresse der Schnittstelle, null für alle (Standard)
+     * @return diese Konfiguration
+     */
+    public ServerKonfiguration setzeAdresse(InetAddress adresse) {
+        this.adresse = adresse;
+        return this;
+    }
+
+    /**
+     * @param backlog höchstens so viele Verbindungen warten auf ihre Annahme,
+     * 0 für die Vorgabe von Java (50)
+     * @return diese Konfiguration
+     */
+    public ServerKonfiguration setzeBacklog(int backlog) {
+        this.backlog = backlog;
+        return this;
+    }
+
+    /**
+     * Legt die Socketpuffer der Verbindungen zu Clients fest (SO_RCVBUF,
+     * SO_SNDBUF). Der Empfangspuffer wird schon am lauschenden Socket
+     * gesetzt, damit er beim Verbindungsaufbau gilt.
+     *
+     * @param empfangspuffer Empfangspuffer in Bytes, 0 für die Vorgabe
+     * @param sendepuffer Sendepuffer in Bytes, 0 für die Vorgabe
+     * @return diese Konfiguration
+     */
+    public ServerKonfiguration setzeSocketpuffer(int empfangspuffer, int sendepuffer) {
+        this.empfangspuffer = empfangspuffer;
+        this.sendepuffer = sendepuffer;
+        return this;
+    }
+
+    /**
+     * @param tcpNoDelay true, um den Nagle-Algorithmus für die Verbindungen
+     * zu Clients abzuschalten (Standard false); die Schreibbündelung des
+     * Servers fasst kleine Nachrichten ohnehin zusammen
+     * @return diese Konfiguration
+     */
+    public ServerKonfiguration setzeTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    /**
+     * @param reusePort true, damit mehrere Server denselben TCP-Port nutzen
+     * können (SO_REUSEPORT, Standard false); alle beteiligten Server müssen
+     * die Option setzen. Ohne Unterstützung durch das Betriebssystem startet
+     * der Server mit einer Meldung ohne die Option.
+     * @return diese Konfiguration
+     */
+    public ServerKonfiguration setzeReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+        return this;
+    }
+
+    /**
+     * @param akzeptoren Anzahl der Threads, die am selben Port Verbindungen
+     * annehmen (Standard 1)
+     * @param eventLoops Anzahl der Event-Loops im Modus NIO, 0 für die Zahl
+     * der Prozessoren (Standard)
+     * @return diese Konfiguration
+     */
+    public ServerKonfiguration setzeThreads(int akzeptoren, int eventLoops) {
+        this.akzeptoren = Math.max(1, akzeptoren);
+        this.eventLoops = Math.max(0, eventLoops);
+        return this;
+    }
+
+    /**
+     * @param jeVerbindung Lesepuffer je Client im Modus THREAD_PER_CLIENT in
+     * Bytes (Standard 8 KB)
+     * @param jeEventLoop gemeinsamer Lesepuffer je Event-Loop im Modus NIO in
+     * Bytes (Standard 64 KB)
+     * @return diese Konfiguration
+     */
+    public ServerKonfiguration setzeLesepuffer(int jeVerbindung, int jeEventLoop) {
+        this.lesepufferJeVerbindung = Math.max(256, jeVerbindung);
+        this.lesepufferJeEventLoop = Math.max(256, jeEventLoop);
+        return this;
+    }
+
+    /**
+     * @param groesse Größe der Puffer für Suchanfragen und Antworten in Bytes
+     * (Standard 1024), begrenzt die Länge des Servernamens
+     * @return diese Konfiguration
+     */
+    public ServerKonfiguration setzeDatagrammGroesse(int groesse) {
+        this.datagrammGroesse = Math.max(64, groesse);
+        return this;
+    }
+
+    /**
+     * @param millis so lange wartet ein Thread höchstens auf neue
+     * Verbindungen bzw. Ereignisse, bevor er prüft, ob der Server gestoppt
+     * wird (Standard 1000)
+     * @return diese Konfiguration
+     */
+    public ServerKonfiguration setzePruefIntervall(int millis) {
+        this.pruefIntervall = Math.max(1, millis);
+        return this;
+    }
+
+    int tcpPort() {
+        return tcpPort;
+    }
+
+    int udpPort() {
+        return udpPort;
+    }
+
+    int akzeptoren() {
+        return akzeptoren;
+    }
+
+    /**
+     * @return Anzahl der Event-Loops
+     */
+    int eventLoops() {
+        return eventLoops > 0 ? eventLoops : Runtime.getRuntime().availableProcessors();
+    }
+
+    int lesepufferJeVerbindung() {
+        return lesepufferJeVerbindung;
+    }
+
+    int lesepufferJeEventLoop() {
+        return lesepufferJeEventLoop;
+    }
+
+    int datagrammGroesse() {
+        return datagrammGroesse;
+    }
+
+    int pruefIntervall() {
+        return pruefIntervall;
+    }
+
+    /**
+     * Setzt die Optionen des lauschenden Sockets und bindet ihn
+     */
+    void binden(ServerSocketChannel server) throws IOException {
+        server.socket().setReuseAddress(true);
+        if (reusePort) {
+            reusePortSetzen(server);
+        }
+        if (empfangspuffer > 0) {
+            server.socket().setReceiveBufferSize(empfangspuffer);
+        }
+        server.socket().bind(new InetSocketAddress(adresse, tcpPort), backlog);
+    }
+
+    /**
+     * Setzt die Optionen einer angenommenen Verbindung
+     */
+    void einstellen(Socket client) throws IOException {
+        if (tcpNoDelay) {
+            client.setTcpNoDelay(true);
+        }
+        if (sendepuffer > 0) {
+            client.setSendBufferSize(sendepuffer);
+        }
+    }
+
+    /**
+     * Setzt SO_REUSEPORT, sofern Java und das Betriebssystem die Option
+     * kennen; die Option wird über ihren Namen gesucht, da sie erst ab
+     * Java 9 als Konstante existiert
+     */
+    @SuppressWarnings("unchecked")
+    static void reusePortSetzen(NetworkChannel channel) throws IOException {
+        for (SocketOption<?> option : channel.supportedOptions()) {
+            if (option.name().equals("SO_REUSEPORT")) {
+                channel.setOption((SocketOption<Boolean>) option, true);
+                return;
+            }
+        }
+        System.out.println("SO_REUSEPORT wird nicht unterstützt");
+    }
+}
@@ -0,0 +1,165 @@
+package netzwerkkommunikation;
+
+/**
+ * Kennzahlen eines {@link MultiServer}, über JMX abrufbar oder über eine
+ * eigene {@link MetrikRegistry} weiterzugeben. Zähler laufen seit dem
+ * Erzeugen des Servers; Summen über alle Verbindungen sind Momentaufnahmen
+ * und werden erst beim Abruf gebildet, damit das Erfassen auf dem
+ * Nachrichtenpfad nur eigene Felder der Verbindung berührt. Die Dauer der
+ * Listeneraufrufe wird für jede {@value LatenzHistogramm#STICHPROBE}. Nachricht
+ * einer Verbindung gemessen.
+ *
+ * @author Jochen Schmitt
+ */
+public interface ServerMetrikenMXBean {
+
+    /**
+     * @return Anzahl der verbundenen Clients
+     */
+    int getVerbundeneClients();
+
+    /**
+     * @return Anzahl der angenommenen TCP-Verbindungen
+     */
+    long getAngenommeneVerbindungen();
+
+    /**
+     * @return Anzahl der abgelehnten TCP-Verbindungen, auch über der
+     * Höchstzahl der Verbindungen
+     */
+    long getAbgelehnteVerbindungen();
+
+    /**
+     * @return Anzahl der wegen voller Ausgangswarteschlange getrennten Clients
+     */
+    long getGetrennteLangsameClients();
+
+    /**
+     * @return Anzahl der wegen Leerlaufs getrennten Clients
+     */
+    long getGetrennteLeerlaufClients();
+
+    /**
+     * @return Anzahl der anderen Knoten des Clusters, zu denen eine
+     * Verbindung besteht
+     */
+    int getVerbundeneKnoten();
+
+    /**
+     * @return Anzahl der an andere Knoten des Clusters weitergeleiteten
+     * Nachrichten
+     */
+    long getNachrichtenAnKnoten();
+
+    /**
+     * @return Anzahl der wegen Überschreitung der Eingangsraten verworfenen
+     * Nachrichten
+     */
+    long getVerworfeneNachrichten();
+
+    /**
+     * @return Anzahl der wegen einer zu langen Nachricht getrennten Clients
+     */
+    long getZuLangeNachrichten();
+
+    /**
+     * @return Anzahl der seit dem Start im Nachrichtenlog gespeicherten
+     * Nachrichten
+     */
+    long getNachrichtenImLog();
+
+    /**
+     * @return Anzahl der seit dem Start aus dem Nachrichtenlog
+     * nachgelieferten Nachrichten
+     */
+    long getNachgelieferteNachrichten();
+
+    /**
+     * @return Anzahl der von Clients empfangenen Zeilen und Frames
+     */
+    long getNachrichtenEin();
+
+    /**
+     * @return Anzahl der an Clients gesendeten Nachrichten
+     */
+    long getNachrichtenAus();
+
+    /**
+     * @return Anzahl der von Clients empfangenen Bytes
+     */
+    long getBytesEin();
+
+    /**
+     * @return Anzahl der an Clients gesendeten Bytes
+     */
+    long getBytesAus();
+
+    /**
+     * @return Anzahl der Nachrichten, die nicht angenommen oder nicht
+     * geschrieben werden konnten
+     */
+    long getSendefehler();
+
+    /**
+     * @return Anzahl der beantworteten UDP-Suchanfragen
+     */
+    long getDiscoveryAntworten();
+
+    /**
+     * @return Anzahl der wegen überschrittener Rate nicht beantworteten
+     * UDP-Suchanfragen
+     */
+    long getDiscoveryGedrosselt();
+
+    /**
+     * @return Summe der wartenden Nachrichten aller Ausgangswarteschlangen
+     */
+    long getWarteschlangeGesamt();
+
+    /**
+     * @return wartende Nachrichten der längsten Ausgangswarteschlange
+     */
+    int getWarteschlangeMax();
+
+    /**
+     * @return Summe der Nachrichten, die auf ihre Zustellung an den Listener
+     * warten (nur bei asynchroner Zustellung)
+     */
+    long getZustellungAusstehend();
+
+    /**
+     * @return wie oft das Lesen eines Clients angehalten wurde, weil der
+     * Listener nicht nachkam
+     */
+    long getLeseStopps();
+
+    /**
+     * @return Anzahl der gemessenen Aufrufe des Listeners
+     */
+    long getDispatchAnzahl();
+
+    /**
+     * @return mittlere Dauer eines Listeneraufrufs in µs
+     */
+    double getDispatchMittelMikros();
+
+    /**
+     * @return Median der Dauer eines Listeneraufrufs in µs
+     */
+    double getDispatchP50Mikros();
+
+    /**
+     * @return 99. Perzentil der Dauer eines Listeneraufrufs in µs
+     */
+    double getDispatchP99Mikros();
+
+    /**
+     * @return 99,9. Perzentil der Dauer eines Listeneraufrufs in µs
+     */
+    double getDispatchP999Mikros();
+
+    /**
+     * @return Kennzahlen je verbundenem Client
+     */
+    ClientMetrik[] getClients();
+}
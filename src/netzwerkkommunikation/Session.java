@@ -0,0 +1,167 @@
+package netzwerkkommunikation;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+
+/**
+ * Fortsetzbare Sitzung eines Clients auf dem Server. Die Sitzung zählt die
+ * an den Client gesendeten und die von ihm empfangenen Nachrichten und hält
+ * die noch nicht bestätigten gesendeten Nachrichten in einem begrenzten
+ * Wiederholungspuffer; ist er voll, wird die älteste Nachricht verworfen.
+ * Nach einer Unterbrechung ruht die Sitzung, bis der Client sie mit ihrem
+ * Token von einer neuen Verbindung aus fortsetzt oder sie abläuft.
+ *
+ * Alle Methoden außer den Abfragen des Tokens sind unter der Sperre der
+ * Sitzung aufzurufen; unter derselben Sperre werden gezählte Nachrichten in
+ * die Ausgangswarteschlange gestellt, damit Nummerierung und Reihenfolge auf
+ * der Leitung übereinstimmen.
+ *
+ * @author Jochen Schmitt
+ */
+final class Session {
+
+    private static final SecureRandom ZUFALL = new SecureRandom();
+
+    private final String token;
+    private final int kapazitaet;
+    private final ArrayDeque<EncodedMessage> puffer = new ArrayDeque<EncodedMessage>();
+    // Anzahl der gesendeten bzw. empfangenen gezählten Nachrichten
+    private long gesendet = 0;
+    private long empfangen = 0;
+    private long verworfen = 0;
+    // aktuelle Verbindung, null solange die Sitzung ruht
+    private Connection verbindung;
+    private String clientName;
+    private long ruhendSeit;
+
+    /**
+     * @param kapazitaet höchstens so viele unbestätigte Nachrichten werden
+     * aufbewahrt
+     */
+    Session(int kapazitaet) {
+        this.token = Long.toHexString(ZUFALL.nextLong()) + Long.toHexString(ZUFALL.nextLong());
+        this.kapazitaet = kapazitaet;
+    }
+
+    String token() {
+        return token;
+    }
+
+    /**
+     * Ordnet der Sitzung eine neue Verbindung zu
+     *
+     * @return bisherige Verbindung oder null
+     */
+    Connection verbinden(Connection connection) {
+        Connection alt = verbindung;
+        verbindung = connection;
+        return alt;
+    }
+
+    /**
+     * Lässt die Sitzung ruhen, sofern sie noch zur angegebenen Verbindung
+     * gehört
+     *
+     * @return true, wenn die Sitzung nun ruht
+     */
+    boolean ruhen(Connection connection, long jetzt) {
+        if (verbindung != connection) {
+            return false;
+        }
+        verbindung = null;
+        clientName = connection.getClientName();
+        ruhendSeit = jetzt;
+        return true;
+    }
+
+    Connection verbindung() {
+        return verbindung;
+    }
+
+    /**
+     * @return Name des Clients beim Abbruch der letzten Verbindung, null
+     * solange die Sitzung nie geruht hat
+     */
+    String clientName() {
+        return clientName;
+    }
+
+    /**
+     * @return true, wenn die Sitzung länger als die angegebene Dauer ruht
+     */
+    boolean abgelaufen(long jetzt, long dauer) {
+        return verbindung == null && jetzt - ruhendSeit > dauer;
+    }
+
+    /**
+     * Nummeriert eine gesendete Nachricht und bewahrt sie bis zur
+     * Bestätigung auf
+     */
+    void aufzeichnen(EncodedMessage nachricht) {
+        gesendet++;
+        puffer.addLast(nachricht);
+        if (puffer.size() > kapazitaet) {
+            puffer.pollFirst();
+            verworfen++;
+        }
+    }
+
+    /**
+     * Verwirft alle Nachrichten bis einschließlich der angegebenen Nummer
+     */
+    void bestaetigt(long anzahl) {
+        while (!puffer.isEmpty() && basis() < anzahl) {
+            puffer.pollFirst();
+        }
+    }
+
+    /**
+     * @return Nummer der letzten nicht mehr aufbewahrten Nachricht; die
+     * aufbewahrten folgen ab basis() + 1
+     */
+    long basis() {
+        return gesendet - puffer.size();
+    }
+
+    /**
+     * @return Anzahl der aufbewahrten Nachrichten
+     */
+    int groesse() {
+        return puffer.size();
+    }
+
+    /**
+     * @return aufbewahrte Nachrichten in der gesendeten Reihenfolge
+     */
+    Iterable<EncodedMessage> puffer() {
+        return puffer;
+    }
+
+    /**
+     * Zählt eine empfangene Nachricht
+     *
+     * @return true, wenn eine Bestätigung fällig ist
+     */
+    boolean empfangen() {
+        return ++empfangen % Protocol.QUITTUNG_ABSTAND == 0;
+    }
+
+    /**
+     * Übernimmt die vom Client angekündigte Nummer seiner zuletzt gesendeten
+     * Nachricht, wenn er ältere nicht mehr wiederholen kann
+     */
+    void nummerieren(long anzahl) {
+        empfangen = anzahl;
+    }
+
+    long anzahlEmpfangen() {
+        return empfangen;
+    }
+
+    /**
+     * @return Anzahl der wegen vollem Puffer verworfenen Nachrichten
+     */
+    long verworfen() {
+        return verworfen;
+    }
+}
@@ -0,0 +1,112 @@
+package netzwerkkommunikation;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Verzeichnis der Themen eines MultiServers und ihrer Abonnenten. Zu jedem
+ * Thema wird ein unveränderliches Array der abonnierenden Verbindungen
+ * gehalten, das bei jeder Änderung per Compare-and-Set ersetzt wird. Ein
+ * Veröffentlichen liest nur dieses Array, wird also von gleichzeitigen
+ * Änderungen der Abonnements nie blockiert und berührt nur die Abonnenten.
+ * Themen ohne Abonnenten werden entfernt.
+ *
+ * @author Jochen Schmitt
+ */
+final class TopicRegistry {
+
+    private static final Connection[] KEINE = new Connection[0];
+
+    private final ClientRegistry clients;
+    // Thema -> Abonnenten; die Arrays werden nie verändert
+    private final ConcurrentHashMap<String, Connection[]> nachThema = new ConcurrentHashMap<String, Connection[]>();
+    // Client-Id -> abonnierte Themen, zum Aufräumen beim Trennen
+    private final ConcurrentHashMap<Long, Set<String>> nachClient = new ConcurrentHashMap<Long, Set<String>>();
+
+    /**
+     * @param clients Verzeichnis der Clients; nur dort registrierte
+     * Verbindungen können abonnieren
+     */
+    TopicRegistry(ClientRegistry clients) {
+        this.clients = clients;
+    }
+
+    /**
+     * Trägt eine Verbindung als Abonnent eines Themas ein
+     *
+     * @return true, wenn das Abonnement neu ist; false, wenn es bereits
+     * bestand oder die Verbindung nicht mehr registriert ist
+     */
+    boolean abonnieren(String thema, Connection connection) {
+        synchronized (connection) {
+            if (clients.suche(connection.getClientId()) != connection) {
+                return false;
+            }
+            Set<String> themen = nachClient.get(connection.getClientId());
+            if (themen == null) {
+                themen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                nachClient.put(connection.getClientId(), themen);
+            }
+            if (!themen.add(thema)) {
+                return false;
+            }
+            CowArrays.eintragen(nachThema, thema, connection);
+            return true;
+        }
+    }
+
+    /**
+     * Trägt eine Verbindung als Abonnent eines Themas aus
+     *
+     * @return true, wenn das Abonnement bestand
+     */
+    boolean kuendigen(String thema, Connection connection) {
+        synchronized (connection) {
+            Set<String> themen = nachClient.get(connection.getClientId());
+            if (themen == null || !themen.remove(thema)) {
+                return false;
+            }
+            CowArrays.austragen(nachThema, thema, connection);
+            return true;
+        }
+    }
+
+    /**
+     * Trägt eine Verbindung aus allen Themen aus; nach dem Entfernen aus dem
+     * Verzeichnis der Clients aufzurufen
+     */
+    void entfernen(Connection connection) {
+        synchronized (connection) {
+            Set<String> themen = nachClient.remove(connection.getClientId());
+            if (themen != null) {
+                for (String thema : themen) {
+                    CowArrays.austragen(nachThema, thema, connection);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return aktuelle Abonnenten eines Themas, nicht verändern
+     */
+    Connection[] abonnenten(String thema) {
+        Connection[] abonnenten = nachThema.get(thema);
+        return abonnenten == null ? KEINE : abonnenten;
+    }
+
+    /**
+     * @return Sicht auf die Themen mit mindestens einem Abonnenten
+     */
+    Set<String> themen() {
+        return Collections.unmodifiableSet(nachThema.keySet());
+    }
+
+    /**
+     * Entfernt alle Abonnements
+     */
+    void leeren() {
+        nachThema.clear();
+        nachClient.clear();
+    }
+}
@@ -0,0 +1,174 @@
+package netzwerkkommunikation;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Zeitrad (hashed timing wheel) für sehr viele grobe Fristen, z.B. die
+ * Leerlaufprüfung jeder Verbindung. Ein einziger Thread rückt das Rad in
+ * festen Schritten vor und führt die Aufgaben des erreichten Fachs aus;
+ * Fristen jenseits einer Umdrehung bleiben für weitere Runden im Fach.
+ * Einplanen hängt nur an eine sperrfreie Warteschlange an, Abbrechen setzt
+ * nur einen Schalter; abgebrochene Einträge fallen beim Erreichen ihres Fachs
+ * heraus. Damit kosten Einplanen und Abbrechen unabhängig von der Zahl der
+ * Einträge gleich wenig.
+ *
+ * Die Aufgaben laufen im Thread des Rads und dürfen nicht blockieren;
+ * längere Arbeit geben sie an einen Executor ab. {@link #stand()} liefert
+ * eine grobe Uhr in der Auflösung eines Schritts, die ohne Systemaufruf
+ * gelesen werden kann.
+ *
+ * @author Jochen Schmitt
+ */
+final class Zeitrad {
+
+    private static final Zeitrad GEMEINSAM = new Zeitrad("Zeitrad", 100, 512);
+
+    private final long schrittMillis;
+    // Einträge je Fach als einfach verkettete Liste, nur vom Thread des Rads
+    // benutzt
+    private final Eintrag[] faecher;
+    private final int maske;
+    private final ConcurrentLinkedQueue<Eintrag> neu = new ConcurrentLinkedQueue<Eintrag>();
+    // Anzahl der ausgeführten Schritte und daraus die grobe Uhr in ms
+    private long schritt = 0;
+    private volatile long stand = 0;
+
+    /**
+     * @param name Name des Threads
+     * @param schrittMillis Dauer eines Schritts in ms
+     * @param faecher Anzahl der Fächer, wird auf eine Zweierpotenz
+     * aufgerundet
+     */
+    Zeitrad(String name, long schrittMillis, int faecher) {
+        int anzahl = Integer.highestOneBit(Math.max(1, faecher - 1)) << 1;
+        this.schrittMillis = schrittMillis;
+        this.faecher = new Eintrag[anzahl];
+        this.maske = anzahl - 1;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drehen();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return gemeinsames Rad aller Server und Clients mit Schritten von
+     * 100 ms
+     */
+    static Zeitrad gemeinsam() {
+        return GEMEINSAM;
+    }
+
+    /**
+     * @return grobe Uhr in ms seit dem Start des Rads, in Schritten
+     */
+    long stand() {
+        return stand;
+    }
+
+    /**
+     * Plant eine Aufgabe ein
+     *
+     * @param aufgabe auszuführende Aufgabe, darf nicht blockieren
+     * @param verzoegerung frühestens nach so vielen ms, auf einen Schritt
+     * aufgerundet
+     * @return Eintrag zum Abbrechen
+     */
+    Eintrag planen(Runnable aufgabe, long verzoegerung) {
+        Eintrag eintrag = new Eintrag(aufgabe, stand + Math.max(0, verzoegerung));
+        neu.add(eintrag);
+        return eintrag;
+    }
+
+    private void drehen() {
+        long schrittNanos = schrittMillis * 1000000L;
+        long start = System.nanoTime();
+        while (true) {
+            long warten = start + (schritt + 1) * schrittNanos - System.nanoTime();
+            if (warten > 0) {
+                LockSupport.parkNanos(warten);
+                continue;
+            }
+            schritt++;
+            stand = schritt * schrittMillis;
+            einsortieren();
+            ausfuehren(schritt);
+        }
+    }
+
+    /**
+     * Verteilt neue Einträge auf ihre Fächer; bereits fällige kommen in das
+     * aktuelle Fach
+     */
+    private void einsortieren() {
+        Eintrag eintrag;
+        while ((eintrag = neu.poll()) != null) {
+            if (eintrag.abgebrochen) {
+                continue;
+            }
+            long ziel = Math.max(schritt, (eintrag.faellig + schrittMillis - 1) / schrittMillis);
+            eintrag.schritt = ziel;
+            int fach = (int) (ziel & maske);
+            eintrag.naechster = faecher[fach];
+            faecher[fach] = eintrag;
+        }
+    }
+
+    private void ausfuehren(long aktuell) {
+        int fach = (int) (aktuell & maske);
+        Eintrag vorher = null;
+        Eintrag eintrag = faecher[fach];
+        while (eintrag != null) {
+            Eintrag naechster = eintrag.naechster;
+            if (eintrag.abgebrochen || eintrag.schritt <= aktuell) {
+                // aushängen
+                if (vorher == null) {
+                    faecher[fach] = naechster;
+                } else {
+                    vorher.naechster = naechster;
+                }
+                eintrag.naechster = null;
+                if (!eintrag.abgebrochen) {
+                    try {
+                        eintrag.aufgabe.run();
+                    } catch (RuntimeException ex) {
+                        System.out.println("Fehler im Zeitrad: " + ex);
+                    }
+                }
+            } else {
+                // erst in einer späteren Runde fällig
+                vorher = eintrag;
+            }
+            eintrag = naechster;
+        }
+    }
+
+    /**
+     * Eingeplante Aufgabe
+     */
+    static final class Eintrag {
+
+        private final Runnable aufgabe;
+        private final long faellig;
+        private volatile boolean abgebrochen = false;
+        // Schritt und Verkettung im Fach, nur vom Thread des Rads benutzt
+        private long schritt;
+        private Eintrag naechster;
+
+        private Eintrag(Runnable aufgabe, long faellig) {
+            this.aufgabe = aufgabe;
+            this.faellig = faellig;
+        }
+
+        /**
+         * Bricht die Aufgabe ab, falls sie noch nicht ausgeführt wurde
+         */
+        void abbrechen() {
+            abgebrochen = true;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package test;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Grundgerüst eines Benchmarks nach dem Vorbild von JMH: Nach dem Aufbauen
+ * laufen einige Aufwärmiterationen und danach die Messiterationen fester
+ * Dauer, in denen die Operation so oft wie möglich ausgeführt wird. Gemessen
+ * werden der Durchsatz je Iteration und die Dauer jeder einzelnen Operation.
+ *
+ * @author jschmitt
+ */
+public abstract class Benchmark {
+
+    /**
+     * höchstens so viele Einzeldauern werden je Benchmark aufgezeichnet
+     */
+    private static final int MAX_PROBEN = 2000000;
+
+    private final String name;
+    private final String parameter;
+
+    /**
+     * @param name Name des Benchmarks, z.B. der gemessenen Methode
+     * @param parameter Beschreibung der Parameter, z.B. "clients=100"
+     */
+    protected Benchmark(String name, String parameter) {
+        this.name = name;
+        this.parameter = parameter;
+    }
+
+    public String gibName() {
+        return name;
+    }
+
+    public String gibParameter() {
+        return parameter;
+    }
+
+    /**
+     * Baut Server und Clients auf, wird vor der ersten Iteration aufgerufen
+     */
+    protected void aufbauen() throws Exception {
+    }
+
+    /**
+     * Die gemessene Operation
+     */
+    protected abstract void operation() throws Exception;
+
+    /**
+     * Wartet am Ende jeder Iteration, bis asynchron angestoßene Operationen
+     * abgeschlossen sind; die Wartezeit zählt zur Iteration
+     */
+    protected void synchronisieren() throws Exception {
+    }
+
+    /**
+     * Baut Server und Clients ab
+     */
+    protected void abbauen() throws Exception {
+    }
+
+    /**
+     * Führt den Benchmark aus
+     *
+     * @param aufwaermen Anzahl der Aufwärmiterationen
+     * @param iterationen Anzahl der Messiterationen
+     * @param dauer Dauer einer Iteration in ms
+     * @return Ergebnis der Messiterationen
+     */
+    public Ergebnis messen(int aufwaermen, int iterationen, long dauer) throws Exception {
+        aufbauen();
+        try {
+            for (int i = 0; i < aufwaermen; i++) {
+                iteration(dauer, null);
+            }
+            Proben proben = new Proben();
+            double[] durchsatz = new double[iterationen];
+            for (int i = 0; i < iterationen; i++) {
+                durchsatz[i] = iteration(dauer, proben);
+            }
+            return new Ergebnis(name, parameter, durchsatz, proben.sortiert());
+        } finally {
+            abbauen();
+        }
+    }
+
+    /**
+     * @return Operationen je Sekunde
+     */
+    private double iteration(long dauer, Proben proben) throws Exception {
+        long start = System.nanoTime();
+        long ende = start + dauer * 1000000L;
+        long anzahl = 0;
+        long jetzt = start;
+        do {
+            long vorher = jetzt;
+            operation();
+            jetzt = System.nanoTime();
+            if (proben != null) {
+                proben.hinzufuegen(jetzt - vorher);
+            }
+            anzahl++;
+        } while (jetzt < ende);
+        synchronisieren();
+        return anzahl * 1e9 / (System.nanoTime() - start);
+    }
+
+    /**
+     * Aufgezeichnete Einzeldauern in ns
+     */
+    private static final class Proben {
+
+        private long[] werte = new long[1024];
+        private int anzahl = 0;
+
+        void hinzufuegen(long wert) {
+            if (anzahl == werte.length) {
+                if (anzahl >= MAX_PROBEN) {
+                    return;
+                }
+                werte = Arrays.copyOf(werte, Math.min(MAX_PROBEN, anzahl * 2));
+            }
+            werte[anzahl++] = wert;
+        }
+
+        long[] sortiert() {
+            long[] ergebnis = Arrays.copyOf(werte, anzahl);
+            Arrays.sort(ergebnis);
+            return ergebnis;
+        }
+    }
+
+    /**
+     * Ergebnis eines Benchmarks: Durchsatz in Operationen je Sekunde (Mittel
+     * und Standardabweichung der Iterationen) und Perzentile der Dauer einer
+     * Operation in µs
+     */
+    public static final class Ergebnis {
+
+        private final String name;
+        private final String parameter;
+        private final double durchsatz;
+        private final double abweichung;
+        private final double[] perzentile = new double[5];
+        private final long proben;
+
+        private static final double[] STUFEN = {0.5, 0.9, 0.99, 0.999, 1.0};
+
+        private Ergebnis(String name, String parameter, double[] iterationen, long[] dauern) {
+            this.name = name;
+            this.parameter = parameter;
+            double summe = 0;
+            for (double wert : iterationen) {
+                summe += wert;
+            }
+            durchsatz = summe / iterationen.length;
+            double quadrate = 0;
+            for (double wert : iterationen) {
+                quadrate += (wert - durchsatz) * (wert - durchsatz);
+            }
+            abweichung = iterationen.length > 1 ? Math.sqrt(quadrate / (iterationen.length - 1)) : 0;
+            proben = dauern.length;
+            for (int i = 0; i < STUFEN.length; i++) {
+                perzentile[i] = dauern.length == 0 ? 0
+                        : dauern[(int) Math.min(dauern.length - 1, Math.ceil(STUFEN[i] * dauern.length) - 1)] / 1000.0;
+            }
+        }
+
+        /**
+         * @return Ergebnis als JSON-Objekt
+         */
+        public String alsJson() {
+            return String.format(Locale.ROOT,
+                    "{\"benchmark\":\"%s\",\"parameter\":\"%s\",\"durchsatz\":%.1f,\"abweichung\":%.1f,"
+                    + "\"einheit\":\"ops/s\",\"latenz_us\":{\"p50\":%.2f,\"p90\":%.2f,\"p99\":%.2f,\"p999\":%.2f,\"max\":%.2f},"
+                    + "\"proben\":%d}",
+                    name, parameter, durchsatz, abweichung,
+                    perzentile[0], perzentile[1], perzentile[2], perzentile[3], perzentile[4], proben);
+        }
+
+        /**
+         * @return Ergebnis als Tabellenzeile
+         */
+        public String alsZeile() {
+            return String.format(Locale.ROOT, "%-28s %-26s %14.1f ± %-10.1f %10.2f %10.2f %10.2f",
+                    name, parameter, durchsatz, abweichung, perzentile[0], perzentile[2], perzentile[3]);
+        }
+
+        /**
+         * @return Überschrift passend zu {@link #alsZeile()}
+         */
+        public static String ueberschrift() {
+            return String.format(Locale.ROOT, "%-28s %-26s %14s   %-10s %10s %10s %10s",
+                    "Benchmark", "Parameter", "ops/s", "Fehler", "p50 µs", "p99 µs", "p99.9 µs");
+        }
+    }
+}
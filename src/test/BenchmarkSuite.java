@@ -0,0 +1,423 @@
+package test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+import netzwerkkommunikation.NetworkClient;
+
+/**
+ * Benchmarks der wichtigsten Pfade über Loopback: Nachrichten vom
+ * NetworkClient an den ServerListener (Durchsatz und Latenz), die Suche des
+ * Empfängers in sendeNachricht, Broadcasts mit sendeAnAlle bei verschiedenen
+ * Clientanzahlen, der Verbindungsaufbau über den TCPServer und die
+ * UDP-Suche nach dem Server. Die Ergebnisse werden als Tabelle ausgegeben und
+ * als JSON-Array in eine Datei geschrieben (siehe Ziel benchmark in
+ * build.xml).
+ *
+ * Argumente: --ergebnis=datei, --filter=teil des Namens, --aufwaermen=n,
+ * --iterationen=n, --dauer=ms je Iteration
+ *
+ * @author jschmitt
+ */
+public class BenchmarkSuite {
+
+    private static final String SERVER = "BenchmarkServer";
+    private static final String NACHRICHT = "Position 12.5 7.25 Geschwindigkeit 3.0";
+
+    public static void main(String[] args) throws Exception {
+        String ergebnisDatei = "build/benchmark/ergebnisse.json";
+        String filter = "";
+        int aufwaermen = 2;
+        int iterationen = 5;
+        long dauer = 1000;
+        for (String arg : args) {
+            if (arg.startsWith("--ergebnis=")) {
+                ergebnisDatei = arg.substring(11);
+            } else if (arg.startsWith("--filter=")) {
+                filter = arg.substring(9);
+            } else if (arg.startsWith("--aufwaermen=")) {
+                aufwaermen = Integer.parseInt(arg.substring(13));
+            } else if (arg.startsWith("--iterationen=")) {
+                iterationen = Integer.parseInt(arg.substring(14));
+            } else if (arg.startsWith("--dauer=")) {
+                dauer = Long.parseLong(arg.substring(8));
+            }
+        }
+
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        for (MultiServer.Mode mode : MultiServer.Mode.values()) {
+            benchmarks.add(new NachrichtDurchsatz(mode));
+            benchmarks.add(new NachrichtLatenz(mode));
+        }
+        for (int clients : new int[]{10, 1000}) {
+            benchmarks.add(new UnicastSuche(clients));
+        }
+        for (int clients : new int[]{10, 100, 1000}) {
+            benchmarks.add(new Broadcast(clients));
+        }
+        benchmarks.add(new Verbindungsaufbau());
+        benchmarks.add(new Discovery());
+
+        List<Benchmark.Ergebnis> ergebnisse = new ArrayList<Benchmark.Ergebnis>();
+        System.out.println(Benchmark.Ergebnis.ueberschrift());
+        for (Benchmark benchmark : benchmarks) {
+            if (!(benchmark.gibName() + " " + benchmark.gibParameter()).contains(filter)) {
+                continue;
+            }
+            Benchmark.Ergebnis ergebnis = benchmark.messen(aufwaermen, iterationen, dauer);
+            ergebnisse.add(ergebnis);
+            System.out.println(ergebnis.alsZeile());
+        }
+        schreibe(ergebnisse, new File(ergebnisDatei));
+        System.out.println("Ergebnisse: " + ergebnisDatei);
+        System.exit(0);
+    }
+
+    private static void schreibe(List<Benchmark.Ergebnis> ergebnisse, File datei) throws IOException {
+        File verzeichnis = datei.getAbsoluteFile().getParentFile();
+        if (verzeichnis != null) {
+            verzeichnis.mkdirs();
+        }
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(datei), "UTF-8"));
+        writer.println("[");
+        for (int i = 0; i < ergebnisse.size(); i++) {
+            writer.println("  " + ergebnisse.get(i).alsJson() + (i < ergebnisse.size() - 1 ? "," : ""));
+        }
+        writer.println("]");
+        writer.close();
+    }
+
+    /**
+     * Wartet, bis der Zähler den Zielwert erreicht hat
+     */
+    private static void warte(AtomicLong zaehler, long ziel) throws InterruptedException {
+        long ende = System.currentTimeMillis() + 30000;
+        while (zaehler.get() < ziel) {
+            if (System.currentTimeMillis() > ende) {
+                throw new IllegalStateException("Zeitüberschreitung: " + zaehler.get() + " von " + ziel);
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Server mit einem Listener, der die empfangenen Nachrichten zählt und
+     * einen wartenden Thread weckt
+     */
+    private abstract static class ServerBenchmark extends Benchmark implements ServerListener {
+
+        final AtomicLong empfangen = new AtomicLong();
+        volatile Thread wartend;
+        MultiServer server;
+
+        ServerBenchmark(String name, String parameter) {
+            super(name, parameter);
+        }
+
+        void starteServer(MultiServer.Mode mode) throws InterruptedException {
+            server = new MultiServer(SERVER, this, mode);
+            server.starteServer();
+            Thread.sleep(300);
+        }
+
+        @Override
+        public void getMessage(String clientName, String message) {
+            empfangen.incrementAndGet();
+            Thread thread = wartend;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        protected void abbauen() throws Exception {
+            server.stoppeServer();
+        }
+    }
+
+    /**
+     * Durchsatz von NetworkClient.sendeNachricht bis ServerListener.getMessage
+     */
+    private static class NachrichtDurchsatz extends ServerBenchmark {
+
+        private final MultiServer.Mode mode;
+        private NetworkClient client;
+        private long gesendet = 0;
+
+        NachrichtDurchsatz(MultiServer.Mode mode) {
+            super("client.sendeNachricht", "durchsatz " + mode);
+            this.mode = mode;
+        }
+
+        @Override
+        protected void aufbauen() throws Exception {
+            starteServer(mode);
+            client = new NetworkClient("benchmark", SERVER);
+            client.verbindeMitServer();
+        }
+
+        @Override
+        protected void operation() {
+            client.sendeNachricht(NACHRICHT);
+            gesendet++;
+        }
+
+        @Override
+        protected void synchronisieren() throws Exception {
+            warte(empfangen, gesendet);
+        }
+
+        @Override
+        protected void abbauen() throws Exception {
+            client.trenneServer();
+            super.abbauen();
+        }
+    }
+
+    /**
+     * Dauer vom Senden mit NetworkClient.sendeNachricht bis zum Aufruf von
+     * ServerListener.getMessage, jeweils eine Nachricht unterwegs
+     */
+    private static class NachrichtLatenz extends ServerBenchmark {
+
+        private final MultiServer.Mode mode;
+        private NetworkClient client;
+        private long gesendet = 0;
+
+        NachrichtLatenz(MultiServer.Mode mode) {
+            super("client.sendeNachricht", "latenz " + mode);
+            this.mode = mode;
+        }
+
+        @Override
+        protected void aufbauen() throws Exception {
+            starteServer(mode);
+            client = new NetworkClient("benchmark", SERVER);
+            client.verbindeMitServer();
+            wartend = Thread.currentThread();
+        }
+
+        @Override
+        protected void operation() {
+            client.sendeNachricht(NACHRICHT);
+            gesendet++;
+            while (empfangen.get() < gesendet) {
+                LockSupport.parkNanos(1000000);
+            }
+        }
+
+        @Override
+        protected void abbauen() throws Exception {
+            wartend = null;
+            client.trenneServer();
+            super.abbauen();
+        }
+    }
+
+    /**
+     * Clients, deren Sockets ein eigener Thread nicht-blockierend leert und
+     * dabei die empfangenen Zeilen zählt
+     */
+    private abstract static class VieleClients extends ServerBenchmark {
+
+        final int anzahl;
+        final AtomicLong zeilen = new AtomicLong();
+        private Selector selector;
+
+        VieleClients(String name, int anzahl) {
+            super(name, "clients=" + anzahl);
+            this.anzahl = anzahl;
+        }
+
+        void verbinde() throws Exception {
+            selector = Selector.open();
+            for (int i = 0; i < anzahl; i++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), 3333));
+                channel.write(ByteBuffer.wrap(("#client" + i + "\nbereit\n").getBytes()));
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ);
+            }
+            warte(empfangen, anzahl);
+            Thread leser = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ByteBuffer puffer = ByteBuffer.allocate(65536);
+                    try {
+                        while (selector.isOpen()) {
+                            selector.select(100);
+                            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                            while (keys.hasNext()) {
+                                SelectionKey key = keys.next();
+                                keys.remove();
+                                puffer.clear();
+                                if (((SocketChannel) key.channel()).read(puffer) < 0) {
+                                    key.cancel();
+                                    continue;
+                                }
+                                long gezaehlt = 0;
+                                for (int i = 0; i < puffer.position(); i++) {
+                                    if (puffer.get(i) == '\n') {
+                                        gezaehlt++;
+                                    }
+                                }
+                                zeilen.addAndGet(gezaehlt);
+                            }
+                        }
+                    } catch (Exception ex) {
+                    }
+                }
+            }, "Benchmark-Leser");
+            leser.setDaemon(true);
+            leser.start();
+        }
+
+        @Override
+        protected void abbauen() throws Exception {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+            super.abbauen();
+        }
+    }
+
+    /**
+     * Suche des Empfängers in MultiServer.sendeNachricht bei vielen
+     * registrierten Clients; gesendet wird an den zuletzt verbundenen
+     */
+    private static class UnicastSuche extends VieleClients {
+
+        UnicastSuche(int anzahl) {
+            super("server.sendeNachricht", anzahl);
+        }
+
+        @Override
+        protected void aufbauen() throws Exception {
+            starteServer(MultiServer.Mode.NIO);
+            // volle Warteschlangen verwerfen, statt den Client zu trennen
+            server.setzeAusgangspuffer(10000, MultiServer.OverflowPolicy.DROP_NEWEST);
+            verbinde();
+        }
+
+        @Override
+        protected void operation() {
+            server.sendeNachricht("x", "client" + (anzahl - 1));
+        }
+    }
+
+    /**
+     * Dauer eines Broadcasts mit sendeAnAlle, bis alle Clients die Nachricht
+     * erhalten haben
+     */
+    private static class Broadcast extends VieleClients {
+
+        private long erwartet = 0;
+
+        Broadcast(int anzahl) {
+            super("server.sendeAnAlle", anzahl);
+        }
+
+        @Override
+        protected void aufbauen() throws Exception {
+            starteServer(MultiServer.Mode.NIO);
+            verbinde();
+        }
+
+        @Override
+        protected void operation() throws Exception {
+            server.sendeAnAlle(NACHRICHT);
+            erwartet += anzahl;
+            while (zeilen.get() < erwartet) {
+                LockSupport.parkNanos(10000);
+            }
+        }
+    }
+
+    /**
+     * Verbindungsaufbau, Anmeldung und Abbau über den TCPServer
+     */
+    private static class Verbindungsaufbau extends ServerBenchmark {
+
+        private long verbunden = 0;
+
+        Verbindungsaufbau() {
+            super("tcpServer.verbindung", "THREAD_PER_CLIENT");
+        }
+
+        @Override
+        protected void aufbauen() throws Exception {
+            starteServer(MultiServer.Mode.THREAD_PER_CLIENT);
+        }
+
+        @Override
+        protected void operation() throws Exception {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), 3333);
+            OutputStream out = socket.getOutputStream();
+            out.write(("#client" + verbunden + "\nhallo\n#STOP\n").getBytes());
+            out.flush();
+            verbunden++;
+            // der Server schließt zuerst, so bleiben keine lokalen Ports in
+            // TIME_WAIT belegt
+            InputStream in = socket.getInputStream();
+            while (in.read() >= 0) {
+            }
+            socket.close();
+        }
+    }
+
+    /**
+     * Suche nach dem Server per UDP-Broadcast wie in NetworkClient, mit einem
+     * neuen Socket je Suche
+     */
+    private static class Discovery extends ServerBenchmark {
+
+        private final byte[] antwort = new byte[1024];
+
+        Discovery() {
+            super("udp.discovery", "broadcast");
+        }
+
+        @Override
+        protected void aufbauen() throws Exception {
+            server = new MultiServer(SERVER, this, MultiServer.Mode.NIO);
+            // alle Anfragen kommen vom selben Absender
+            server.setzeDiscovery(2, 0, 0);
+            server.starteServer();
+            Thread.sleep(300);
+        }
+
+        @Override
+        protected void operation() throws Exception {
+            DatagramSocket socket = new DatagramSocket();
+            try {
+                socket.setSoTimeout(1500);
+                socket.setBroadcast(true);
+                byte[] name = SERVER.getBytes();
+                socket.send(new DatagramPacket(name, name.length, InetAddress.getByName("255.255.255.255"), 9999));
+                socket.receive(new DatagramPacket(antwort, antwort.length));
+            } finally {
+                socket.close();
+            }
+        }
+    }
+}
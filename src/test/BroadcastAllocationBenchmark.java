@@ -0,0 +1,145 @@
+package test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+
+/**
+ * Misst die auf dem Server belegten Bytes je Broadcast an viele Clients:
+ * einmal mit sendeAnAlle (einmal kodiert) und zum Vergleich mit einer
+ * Schleife über sendeNachricht (je Client kodiert). Gezählt werden der
+ * sendende Thread und die Event-Loops. Argumente: Anzahl Clients, Anzahl
+ * Broadcasts, Nachrichtengröße in Zeichen.
+ *
+ * @author jschmitt
+ */
+public class BroadcastAllocationBenchmark implements ServerListener {
+
+    private static final List<Long> gemesseneThreads = new ArrayList<Long>();
+
+    public static void main(String[] args) throws Exception {
+        int anzahlClients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int anzahlBroadcasts = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int groesse = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+
+        StringBuilder text = new StringBuilder();
+        while (text.length() < groesse) {
+            text.append("Statusmeldung ");
+        }
+        String message = text.substring(0, groesse);
+
+        MultiServer server = new MultiServer("AllocBenchmark", new BroadcastAllocationBenchmark(), MultiServer.Mode.NIO);
+        server.setzeAusgangspuffer(anzahlBroadcasts * 2, MultiServer.OverflowPolicy.DISCONNECT);
+        server.starteServer();
+        Thread.sleep(500);
+
+        // Clients: ein Thread liest nicht-blockierend alle Verbindungen leer
+        final Selector selector = Selector.open();
+        for (int i = 0; i < anzahlClients; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), 3333));
+            channel.write(ByteBuffer.wrap(("#client" + i + "\n").getBytes()));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+        }
+        Thread leser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer puffer = ByteBuffer.allocateDirect(65536);
+                try {
+                    while (selector.isOpen()) {
+                        selector.select(100);
+                        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                        while (keys.hasNext()) {
+                            SelectionKey key = keys.next();
+                            keys.remove();
+                            puffer.clear();
+                            if (((SocketChannel) key.channel()).read(puffer) < 0) {
+                                key.cancel();
+                            }
+                        }
+                    }
+                } catch (Exception ex) {
+                }
+            }
+        });
+        leser.setDaemon(true);
+        leser.start();
+        Thread.sleep(1000);
+
+        gemesseneThreads.add(Thread.currentThread().getId());
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("MultiServer-EventLoop")) {
+                gemesseneThreads.add(thread.getId());
+            }
+        }
+
+        String[] namen = new String[anzahlClients];
+        for (int i = 0; i < anzahlClients; i++) {
+            namen[i] = "client" + i;
+        }
+
+        // Aufwärmen
+        for (int i = 0; i < anzahlBroadcasts; i++) {
+            server.sendeAnAlle(message);
+            for (String name : namen) {
+                server.sendeNachricht(message, name);
+            }
+            Thread.sleep(5);
+        }
+        Thread.sleep(1000);
+
+        long vorher = belegteBytes();
+        for (int i = 0; i < anzahlBroadcasts; i++) {
+            server.sendeAnAlle(message);
+            Thread.sleep(5);
+        }
+        Thread.sleep(1000);
+        long einmalKodiert = (belegteBytes() - vorher) / anzahlBroadcasts;
+
+        vorher = belegteBytes();
+        for (int i = 0; i < anzahlBroadcasts; i++) {
+            for (String name : namen) {
+                server.sendeNachricht(message, name);
+            }
+            Thread.sleep(5);
+        }
+        Thread.sleep(1000);
+        long jeClientKodiert = (belegteBytes() - vorher) / anzahlBroadcasts;
+
+        System.out.println("--------------------------------------------");
+        System.out.println("Clients: " + anzahlClients + ", Nachricht: " + groesse + " Zeichen");
+        System.out.println("sendeAnAlle:            " + einmalKodiert + " Bytes je Broadcast ("
+                + einmalKodiert / anzahlClients + " je Client)");
+        System.out.println("Schleife sendeNachricht: " + jeClientKodiert + " Bytes je Broadcast ("
+                + jeClientKodiert / anzahlClients + " je Client)");
+        System.out.println("--------------------------------------------");
+
+        selector.close();
+        server.stoppeServer();
+    }
+
+    @Override
+    public void getMessage(String clientName, String message) {
+    }
+
+    /**
+     * Summe der belegten Bytes des aktuellen Threads und der Event-Loops
+     */
+    private static long belegteBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long summe = 0;
+        for (int i = 0; i < gemesseneThreads.size(); i++) {
+            summe += threads.getThreadAllocatedBytes(gemesseneThreads.get(i));
+        }
+        return summe;
+    }
+}
@@ -0,0 +1,146 @@
+package test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+import netzwerkkommunikation.NetworkClient;
+import netzwerkkommunikation.NetworkClient.ClientListener;
+
+/**
+ * Prüft einen Cluster aus drei Servern auf einem Rechner: Clients verbinden
+ * sich direkt mit verschiedenen Knoten. Ausgegeben werden die Zustellung von
+ * Nachrichten an Clients anderer Knoten, die Zahl der bei jedem Client
+ * angekommenen Broadcasts und die Erreichbarkeit eines Clients, nachdem er
+ * sich getrennt hat.
+ * Argumente: Clients je Knoten, Anzahl der Broadcasts.
+ *
+ * @author jschmitt
+ */
+public class ClusterTest {
+
+    private static final String[] KNOTEN = {"a", "b", "c"};
+
+    public static void main(String[] args) throws Exception {
+        int jeKnoten = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int broadcasts = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        Map<String, InetSocketAddress> adressen = new LinkedHashMap<String, InetSocketAddress>();
+        for (int i = 0; i < KNOTEN.length; i++) {
+            adressen.put(KNOTEN[i], new InetSocketAddress(InetAddress.getLoopbackAddress(), 3401 + i));
+        }
+        List<MultiServer> server = new ArrayList<MultiServer>();
+        for (int i = 0; i < KNOTEN.length; i++) {
+            MultiServer knoten = new MultiServer("ClusterTest", new ServerListener() {
+                @Override
+                public void getMessage(String clientName, String message) {
+                }
+            }, i == 1 ? MultiServer.Mode.THREAD_PER_CLIENT : MultiServer.Mode.NIO);
+            knoten.setzeAnkuendigung(false);
+            knoten.setzeMetrikRegistry(null);
+            knoten.setzePorts(3401 + i, 19901 + i);
+            knoten.setzeCluster(KNOTEN[i], adressen);
+            knoten.starteServer();
+            server.add(knoten);
+        }
+        Thread.sleep(500);
+
+        System.out.println("--------------------------------------------");
+        List<NetworkClient> clients = new ArrayList<NetworkClient>();
+        List<Zaehler> zaehler = new ArrayList<Zaehler>();
+        for (int i = 0; i < KNOTEN.length; i++) {
+            for (int j = 0; j < jeKnoten; j++) {
+                NetworkClient client = new NetworkClient(KNOTEN[i] + j, "ClusterTest");
+                client.setzeBinaermodus(j % 2 == 1);
+                Zaehler z = new Zaehler();
+                client.setzeListener(z);
+                client.verbindeMitServer(adressen.get(KNOTEN[i]));
+                clients.add(client);
+                zaehler.add(z);
+            }
+        }
+        Thread.sleep(500);
+        for (int i = 0; i < KNOTEN.length; i++) {
+            System.out.println("Knoten " + KNOTEN[i] + ": verbunden mit "
+                    + server.get(i).gibMetriken().getVerbundeneKnoten() + " Knoten");
+        }
+
+        // Knoten a sendet an je einen Client jedes Knotens
+        for (int i = 0; i < KNOTEN.length; i++) {
+            System.out.println("a -> " + KNOTEN[i] + "0: erreichbar "
+                    + server.get(0).sendeNachricht("direkt", KNOTEN[i] + "0"));
+        }
+
+        // Broadcasts von allen Knoten
+        for (int n = 0; n < broadcasts; n++) {
+            server.get(n % KNOTEN.length).sendeAnAlle("Broadcast " + n);
+        }
+        long ende = System.currentTimeMillis() + 5000;
+        while (Zaehler.minimum(zaehler) < broadcasts && System.currentTimeMillis() < ende) {
+            Thread.sleep(50);
+        }
+        System.out.println("Broadcasts je Client: min " + Zaehler.minimum(zaehler) + ", max "
+                + Zaehler.maximum(zaehler) + " von " + broadcasts);
+        int direkt = 0;
+        for (Zaehler z : zaehler) {
+            direkt += z.direkt.get();
+        }
+        System.out.println("direkte Nachrichten angekommen: " + direkt + " von " + KNOTEN.length);
+        System.out.println("an Knoten weitergeleitet: a " + server.get(0).gibMetriken().getNachrichtenAnKnoten()
+                + ", b " + server.get(1).gibMetriken().getNachrichtenAnKnoten()
+                + ", c " + server.get(2).gibMetriken().getNachrichtenAnKnoten());
+
+        // ein Client von Knoten c trennt sich
+        clients.get(2 * jeKnoten).trenneServer();
+        Thread.sleep(300);
+        System.out.println("a -> c0 nach Trennung: erreichbar " + server.get(0).sendeNachricht("direkt", "c0"));
+
+        System.out.println("--------------------------------------------");
+        for (NetworkClient client : clients) {
+            client.trenneServer();
+        }
+        for (MultiServer knoten : server) {
+            knoten.stoppeServer();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Zählt die empfangenen Broadcasts und direkten Nachrichten eines Clients
+     */
+    private static final class Zaehler implements ClientListener {
+
+        private final AtomicInteger broadcasts = new AtomicInteger();
+        private final AtomicInteger direkt = new AtomicInteger();
+
+        @Override
+        public void getMessage(String message) {
+            if (message.equals("direkt")) {
+                direkt.incrementAndGet();
+            } else {
+                broadcasts.incrementAndGet();
+            }
+        }
+
+        static int minimum(List<Zaehler> zaehler) {
+            int min = Integer.MAX_VALUE;
+            for (Zaehler z : zaehler) {
+                min = Math.min(min, z.broadcasts.get());
+            }
+            return min;
+        }
+
+        static int maximum(List<Zaehler> zaehler) {
+            int max = 0;
+            for (Zaehler z : zaehler) {
+                max = Math.max(max, z.broadcasts.get());
+            }
+            return max;
+        }
+    }
+}
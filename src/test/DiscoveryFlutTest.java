@@ -0,0 +1,123 @@
+package test;
+
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+
+/**
+ * Überflutet den UDP-Server von einer Adresse aus mit Suchanfragen, während
+ * ein zweiter Absender normal sucht. Ausgegeben werden beantwortete und
+ * gedrosselte Anfragen, die Antwortzeit für den zweiten Absender und die
+ * Bytes, die die Discovery-Threads dabei angelegt haben.
+ * Argumente: Anzahl Anfragen der Flut, Anzahl Empfänger-Threads.
+ *
+ * @author jschmitt
+ */
+public class DiscoveryFlutTest {
+
+    private static final String SERVER = "flut";
+
+    public static void main(String[] args) throws Exception {
+        int anfragen = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int empfaenger = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        MultiServer server = new MultiServer(SERVER, new ServerListener() {
+            @Override
+            public void getMessage(String clientName, String message) {
+            }
+        }, MultiServer.Mode.NIO);
+        server.setzeAnkuendigung(false);
+        server.setzeDiscovery(empfaenger, 100, 50);
+        server.starteServer();
+        Thread.sleep(300);
+
+        // Aufwärmen, damit der JIT den Empfangspfad übersetzt hat
+        flut(InetAddress.getByName("127.0.0.4"), 20000);
+        Thread.sleep(200);
+
+        long beantwortet = server.gibMetriken().getDiscoveryAntworten();
+        long gedrosselt = server.gibMetriken().getDiscoveryGedrosselt();
+        long bytes = allokiert();
+        long start = System.nanoTime();
+        flut(InetAddress.getByName("127.0.0.2"), anfragen);
+        long dauer = System.nanoTime() - start;
+        long antwortzeit = suche(InetAddress.getByName("127.0.0.3"));
+        Thread.sleep(200);
+        bytes = allokiert() - bytes;
+        beantwortet = server.gibMetriken().getDiscoveryAntworten() - beantwortet;
+        gedrosselt = server.gibMetriken().getDiscoveryGedrosselt() - gedrosselt;
+
+        System.out.println("--------------------------------------------");
+        System.out.println("Flut: " + anfragen + " Anfragen in " + dauer / 1000000 + " ms, " + empfaenger + " Empfänger");
+        System.out.println("beantwortet: " + beantwortet + ", gedrosselt: " + gedrosselt
+                + ", verloren: " + (anfragen + 1 - beantwortet - gedrosselt));
+        System.out.println("Antwort an zweiten Absender: " + (antwortzeit < 0 ? "keine" : antwortzeit / 1000 + " µs"));
+        long verarbeitet = beantwortet + gedrosselt;
+        System.out.println("angelegt von Discovery-Threads: " + bytes + " Bytes"
+                + (verarbeitet > 0 ? String.format(" (%.2f je Anfrage)", (double) bytes / verarbeitet) : ""));
+        System.out.println("--------------------------------------------");
+        server.stoppeServer();
+    }
+
+    /**
+     * Sendet Suchanfragen per Unicast von der angegebenen lokalen Adresse,
+     * ohne auf Antworten zu warten
+     */
+    private static void flut(InetAddress absender, int anzahl) throws Exception {
+        DatagramSocket socket = new DatagramSocket(new InetSocketAddress(absender, 0));
+        try {
+            byte[] name = SERVER.toUpperCase().getBytes();
+            DatagramPacket paket = new DatagramPacket(name, name.length, InetAddress.getLoopbackAddress(), 9999);
+            for (int i = 0; i < anzahl; i++) {
+                socket.send(paket);
+                if ((i & 63) == 63) {
+                    // der Empfangspuffer des Servers soll nicht überlaufen
+                    Thread.yield();
+                }
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * @return Dauer bis zur Antwort in ns, -1 ohne Antwort
+     */
+    private static long suche(InetAddress absender) throws Exception {
+        DatagramSocket socket = new DatagramSocket(new InetSocketAddress(absender, 0));
+        try {
+            socket.setSoTimeout(2000);
+            byte[] name = SERVER.getBytes();
+            byte[] antwort = new byte[1024];
+            long start = System.nanoTime();
+            socket.send(new DatagramPacket(name, name.length, InetAddress.getLoopbackAddress(), 9999));
+            try {
+                socket.receive(new DatagramPacket(antwort, antwort.length));
+                return System.nanoTime() - start;
+            } catch (SocketTimeoutException ex) {
+                return -1;
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * @return Summe der von den Discovery-Threads angelegten Bytes
+     */
+    private static long allokiert() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long summe = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("MultiServer-Discovery")) {
+                summe += threads.getThreadAllocatedBytes(thread.getId());
+            }
+        }
+        return summe;
+    }
+}
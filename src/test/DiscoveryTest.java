@@ -0,0 +1,109 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import netzwerkkommunikation.Discovery;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+import netzwerkkommunikation.NetworkClient;
+
+/**
+ * Prüft die Suche nach Servern: Ankündigung beim Serverstart, viele
+ * gleichzeitig verbindende Clients mit gemeinsamer Anfrage und Cache sowie
+ * Wiederholung, wenn der Server erst nach Beginn der Suche startet.
+ * Argument: Anzahl gleichzeitiger Clients.
+ *
+ * @author jschmitt
+ */
+public class DiscoveryTest {
+
+    private static final ServerListener LISTENER = new ServerListener() {
+        @Override
+        public void getMessage(String clientName, String message) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int anzahl = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        System.out.println("--------------------------------------------");
+        // 1. Ankündigung: der Client kennt den Server ohne eigene Anfrage
+        Discovery.empfangeAnkuendigungen(true);
+        Thread.sleep(200);
+        MultiServer server = new MultiServer("Ankuendigung", LISTENER, MultiServer.Mode.NIO);
+        server.starteServer();
+        Thread.sleep(300);
+        NetworkClient client = new NetworkClient("client", "Ankuendigung");
+        long start = System.nanoTime();
+        boolean verbunden = client.verbindeMitServer();
+        System.out.println("Ankündigung: verbunden " + verbunden + " nach " + (System.nanoTime() - start) / 1000000
+                + " ms, beantwortete Anfragen " + server.gibMetriken().getDiscoveryAntworten());
+        client.trenneServer();
+        server.stoppeServer();
+        Discovery.empfangeAnkuendigungen(false);
+
+        // 2. viele gleichzeitig verbindende Clients
+        server = new MultiServer("Sturm", LISTENER, MultiServer.Mode.NIO);
+        server.setzeAnkuendigung(false);
+        server.starteServer();
+        Thread.sleep(300);
+        final List<NetworkClient> clients = new ArrayList<NetworkClient>();
+        for (int i = 0; i < anzahl; i++) {
+            clients.add(new NetworkClient("client" + i, "Sturm"));
+        }
+        final CountDownLatch los = new CountDownLatch(1);
+        final CountDownLatch fertig = new CountDownLatch(anzahl);
+        final AtomicInteger erfolgreich = new AtomicInteger();
+        for (final NetworkClient c : clients) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        los.await();
+                        if (c.verbindeMitServer()) {
+                            erfolgreich.incrementAndGet();
+                        }
+                    } catch (InterruptedException ex) {
+                    }
+                    fertig.countDown();
+                }
+            }).start();
+        }
+        start = System.nanoTime();
+        los.countDown();
+        fertig.await();
+        System.out.println("Sturm: " + erfolgreich.get() + " von " + anzahl + " verbunden nach "
+                + (System.nanoTime() - start) / 1000000 + " ms, beantwortete Anfragen "
+                + server.gibMetriken().getDiscoveryAntworten());
+        for (NetworkClient c : clients) {
+            c.trenneServer();
+        }
+        server.stoppeServer();
+
+        // 3. Server startet erst nach Beginn der Suche
+        Discovery.vergessen("Spaet");
+        final MultiServer spaet = new MultiServer("Spaet", LISTENER, MultiServer.Mode.NIO);
+        spaet.setzeAnkuendigung(false);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException ex) {
+                }
+                spaet.starteServer();
+            }
+        }).start();
+        client = new NetworkClient("client", "Spaet");
+        start = System.nanoTime();
+        verbunden = client.verbindeMitServer();
+        System.out.println("Wiederholung: verbunden " + verbunden + " nach " + (System.nanoTime() - start) / 1000000
+                + " ms, beantwortete Anfragen " + spaet.gibMetriken().getDiscoveryAntworten());
+        client.trenneServer();
+        spaet.stoppeServer();
+        System.out.println("--------------------------------------------");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,105 @@
+package test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.DispatchMode;
+import netzwerkkommunikation.MultiServer.ServerListener;
+
+/**
+ * Prüft die asynchrone Zustellung an einen langsamen Listener: Mehrere Clients
+ * senden nummerierte Nachrichten, der Listener braucht für die Nachrichten
+ * eines Clients deutlich länger. Ausgegeben werden Dauer,
+ * Reihenfolgefehler je Client, höchste Zahl ausstehender Zustellungen und die
+ * Anzahl angehaltener Lesevorgänge, jeweils für alle Zustellarten und beide
+ * Betriebsarten. Argument: Nachrichten je Client.
+ *
+ * @author jschmitt
+ */
+public class DispatchTest {
+
+    private static final int CLIENTS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int anzahl = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+
+        System.out.println("--------------------------------------------");
+        for (MultiServer.Mode mode : MultiServer.Mode.values()) {
+            for (DispatchMode dispatch : DispatchMode.values()) {
+                messe(mode, dispatch, anzahl);
+            }
+        }
+        System.out.println("--------------------------------------------");
+        System.exit(0);
+    }
+
+    private static void messe(MultiServer.Mode mode, DispatchMode dispatch, int anzahl) throws Exception {
+        final AtomicLong empfangen = new AtomicLong();
+        final AtomicInteger reihenfolgeFehler = new AtomicInteger();
+        final Map<String, Integer> letzte = new ConcurrentHashMap<String, Integer>();
+        ServerListener listener = new ServerListener() {
+            @Override
+            public void getMessage(String clientName, String message) {
+                int nummer = Integer.parseInt(message);
+                Integer vorher = letzte.put(clientName, nummer);
+                if (vorher != null && vorher + 1 != nummer) {
+                    reihenfolgeFehler.incrementAndGet();
+                }
+                if (clientName.equals("langsam") && nummer % 10 == 0) {
+                    // langsamer Listener für einen der Clients
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                empfangen.incrementAndGet();
+            }
+        };
+        MultiServer server = new MultiServer("DispatchTest", listener, mode);
+        server.setzeDispatch(dispatch, 4, 200);
+        server.gibPufferPool().setzeLeckpruefung(true);
+        server.starteServer();
+        Thread.sleep(500);
+
+        Socket[] sockets = new Socket[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            sockets[i] = new Socket(InetAddress.getLoopbackAddress(), 3333);
+            String name = i == 0 ? "langsam" : "client" + i;
+            sockets[i].getOutputStream().write(("#" + name + "\n").getBytes());
+        }
+        Thread.sleep(200);
+
+        long start = System.nanoTime();
+        StringBuilder block = new StringBuilder();
+        for (int n = 0; n < anzahl; n++) {
+            block.append(n).append('\n');
+        }
+        byte[] daten = block.toString().getBytes();
+        for (Socket socket : sockets) {
+            OutputStream out = socket.getOutputStream();
+            out.write(daten);
+            out.flush();
+        }
+        long maxAusstehend = 0;
+        long ende = System.currentTimeMillis() + 60000;
+        while (empfangen.get() < (long) anzahl * CLIENTS && System.currentTimeMillis() < ende) {
+            maxAusstehend = Math.max(maxAusstehend, server.gibMetriken().getZustellungAusstehend());
+            Thread.sleep(5);
+        }
+        long dauer = (System.nanoTime() - start) / 1000000;
+
+        System.out.printf("%-18s %-12s %6d ms, empfangen %6d, Reihenfolgefehler %5d, ausstehend max %5d, Lesestopps %d%n",
+                mode, dispatch, dauer, empfangen.get(), reihenfolgeFehler.get(), maxAusstehend,
+                server.gibMetriken().getLeseStopps());
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.stoppeServer();
+    }
+}
@@ -0,0 +1,156 @@
+package test;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerBufferListener;
+import netzwerkkommunikation.MultiServer.ServerListener;
+import netzwerkkommunikation.NetworkClient;
+
+/**
+ * Misst die auf den Event-Loops belegten Bytes je empfangener Nachricht: mit
+ * einem ServerListener (ein String je Nachricht) und mit einem
+ * ServerBufferListener (wiederverwendete Sichten), jeweils für Textzeilen und
+ * im Binärmodus für Text- und Binärframes. Die Leckprüfung des Pufferpools ist
+ * eingeschaltet. Argumente: Anzahl Nachrichten, Nachrichtengröße in Zeichen.
+ *
+ * @author jschmitt
+ */
+public class EmpfangsAllocationBenchmark {
+
+    private static final AtomicLong empfangen = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int anzahl = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int groesse = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        StringBuilder text = new StringBuilder();
+        while (text.length() < groesse) {
+            text.append("Messwert ");
+        }
+        String message = text.substring(0, groesse);
+
+        ServerListener stringListener = new ServerListener() {
+            @Override
+            public void getMessage(String clientName, String message) {
+                empfangen.incrementAndGet();
+            }
+        };
+        ServerBufferListener bufferListener = new ServerBufferListener() {
+            @Override
+            public void getText(long clientId, CharSequence text) {
+                empfangen.incrementAndGet();
+            }
+
+            @Override
+            public void getData(long clientId, ByteBuffer daten) {
+                empfangen.incrementAndGet();
+            }
+
+            @Override
+            public void getMessage(String clientName, String message) {
+            }
+        };
+
+        System.out.println("--------------------------------------------");
+        System.out.println("Nachrichten: " + anzahl + ", Größe: " + groesse + " Zeichen");
+        messe("Zeilen, ServerListener:       ", stringListener, false, message, anzahl);
+        messe("Zeilen, ServerBufferListener: ", bufferListener, false, message, anzahl);
+        messe("Frames, ServerListener:       ", stringListener, true, message, anzahl);
+        messe("Frames, ServerBufferListener: ", bufferListener, true, message, anzahl);
+        System.out.println("--------------------------------------------");
+        System.exit(0);
+    }
+
+    private static void messe(String titel, ServerListener listener, boolean binaer, String message, int anzahl) throws Exception {
+        MultiServer server = new MultiServer("EmpfangsBenchmark", listener, MultiServer.Mode.NIO);
+        server.gibPufferPool().setzeLeckpruefung(true);
+        server.starteServer();
+        Thread.sleep(500);
+
+        List<Long> loops = new ArrayList<Long>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("MultiServer-EventLoop")) {
+                loops.add(thread.getId());
+            }
+        }
+
+        long belegt;
+        if (binaer) {
+            NetworkClient client = new NetworkClient("sender", "EmpfangsBenchmark");
+            client.setzeBinaermodus(true);
+            client.verbindeMitServer();
+            ByteBuffer daten = ByteBuffer.wrap(message.getBytes("UTF-8"));
+            // Aufwärmen
+            sendeFrames(client, message, daten, anzahl / 10);
+            warte(anzahl / 10);
+            long vorher = belegteBytes(loops);
+            sendeFrames(client, message, daten, anzahl);
+            warte(anzahl);
+            belegt = belegteBytes(loops) - vorher;
+            client.trenneServer();
+        } else {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), 3333);
+            OutputStream out = socket.getOutputStream();
+            out.write("#sender\n".getBytes());
+            byte[] zeilen = zeilen(message, 1000);
+            // Aufwärmen
+            sendeZeilen(out, zeilen, anzahl / 10);
+            warte(anzahl / 10);
+            long vorher = belegteBytes(loops);
+            sendeZeilen(out, zeilen, anzahl);
+            warte(anzahl);
+            belegt = belegteBytes(loops) - vorher;
+            socket.close();
+        }
+        System.out.println(titel + belegt / anzahl + " Bytes je Nachricht");
+
+        server.stoppeServer();
+        System.out.println("Ausgeliehene Puffer nach dem Stoppen: " + server.gibPufferPool().verliehen());
+    }
+
+    private static void sendeFrames(NetworkClient client, String message, ByteBuffer daten, int anzahl) {
+        for (int i = 0; i < anzahl; i += 2) {
+            client.sendeNachricht(message);
+            client.sendeDaten(daten);
+        }
+    }
+
+    private static byte[] zeilen(String message, int anzahl) {
+        StringBuilder block = new StringBuilder();
+        for (int i = 0; i < anzahl; i++) {
+            block.append(message).append('\n');
+        }
+        return block.toString().getBytes();
+    }
+
+    private static void sendeZeilen(OutputStream out, byte[] zeilen, int anzahl) throws Exception {
+        for (int i = 0; i < anzahl; i += 1000) {
+            out.write(zeilen);
+        }
+        out.flush();
+    }
+
+    private static void warte(int anzahl) throws InterruptedException {
+        long ende = System.currentTimeMillis() + 60000;
+        while (empfangen.get() < anzahl && System.currentTimeMillis() < ende) {
+            Thread.sleep(10);
+        }
+        empfangen.set(0);
+    }
+
+    private static long belegteBytes(List<Long> threads) {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long summe = 0;
+        for (int i = 0; i < threads.size(); i++) {
+            summe += mx.getThreadAllocatedBytes(threads.get(i));
+        }
+        return summe;
+    }
+}
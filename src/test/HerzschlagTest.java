@@ -0,0 +1,133 @@
+package test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerTimeoutListener;
+import netzwerkkommunikation.NetworkClient;
+import netzwerkkommunikation.NetworkClient.ConnectionListener;
+
+/**
+ * Prüft Herzschlag und Leerlauferkennung: Ein Client mit Herzschlag bleibt
+ * verbunden, ein Client ohne Herzschlag und viele stumme Verbindungen werden
+ * vom Server getrennt und gemeldet. Zuletzt hält der Listener des Servers
+ * an, und der Client erkennt, dass der Server nicht mehr antwortet.
+ * Argument: Anzahl der stummen Verbindungen.
+ *
+ * @author jschmitt
+ */
+public class HerzschlagTest {
+
+    private static final AtomicInteger gemeldet = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        int stumm = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+
+        MultiServer server = new MultiServer("HerzTest", new ServerTimeoutListener() {
+            @Override
+            public void getMessage(String clientName, String message) {
+                if (message.equals("blockieren")) {
+                    try {
+                        Thread.sleep(2000);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public void getTimeout(String clientName) {
+                gemeldet.incrementAndGet();
+            }
+        }, MultiServer.Mode.NIO);
+        server.setzeAnkuendigung(false);
+        server.setzeLeerlauf(1000);
+        server.starteServer();
+        Thread.sleep(300);
+
+        System.out.println("--------------------------------------------");
+        NetworkClient mit = new NetworkClient("mit", "HerzTest");
+        mit.setzeHerzschlag(200, 800);
+        Ereignisse mitEreignisse = new Ereignisse();
+        mit.setzeVerbindungsListener(mitEreignisse);
+        mit.verbindeMitServer();
+        NetworkClient ohne = new NetworkClient("ohne", "HerzTest");
+        ohne.setzeHerzschlag(0, 0);
+        Ereignisse ohneEreignisse = new Ereignisse();
+        ohne.setzeVerbindungsListener(ohneEreignisse);
+        ohne.verbindeMitServer();
+
+        Thread.sleep(3000);
+        System.out.println("mit Herzschlag nach 3 s:  erreichbar " + server.sendeNachricht("hallo", "mit")
+                + ", " + mitEreignisse);
+        System.out.println("ohne Herzschlag nach 3 s: erreichbar " + server.sendeNachricht("hallo", "ohne")
+                + ", " + ohneEreignisse + ", gemeldet " + gemeldet.get());
+        ohne.trenneServer();
+
+        // stumme Verbindungen, z.B. von abgestürzten Rechnern
+        gemeldet.set(0);
+        long vorher = server.gibMetriken().getGetrennteLeerlaufClients();
+        List<Socket> sockets = new ArrayList<Socket>();
+        long start = System.nanoTime();
+        for (int i = 0; i < stumm; i++) {
+            sockets.add(new Socket(InetAddress.getLoopbackAddress(), 3333));
+        }
+        long aufgebaut = System.nanoTime();
+        while (gemeldet.get() < stumm && System.nanoTime() - aufgebaut < 5000000000L) {
+            Thread.sleep(50);
+        }
+        System.out.println(stumm + " stumme Verbindungen in " + (aufgebaut - start) / 1000000
+                + " ms aufgebaut, " + (System.nanoTime() - aufgebaut) / 1000000 + " ms später getrennt: "
+                + (server.gibMetriken().getGetrennteLeerlaufClients() - vorher) + ", gemeldet " + gemeldet.get());
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // bereits geschlossen
+            }
+        }
+        System.out.println("mit Herzschlag danach:    erreichbar " + server.sendeNachricht("hallo", "mit")
+                + ", " + mitEreignisse);
+
+        // Server hält an, der Client erkennt das Schweigen
+        mit.sendeNachricht("blockieren");
+        Thread.sleep(2500);
+        System.out.println("Server 2 s angehalten:    " + mitEreignisse);
+        mit.trenneServer();
+        System.out.println("--------------------------------------------");
+        server.stoppeServer();
+        System.exit(0);
+    }
+
+    /**
+     * Zählt die Ereignisse einer Verbindung
+     */
+    private static final class Ereignisse implements ConnectionListener {
+
+        private final AtomicInteger getrennt = new AtomicInteger();
+        private final AtomicInteger aufgegeben = new AtomicInteger();
+
+        @Override
+        public void getrennt() {
+            getrennt.incrementAndGet();
+        }
+
+        @Override
+        public void wiederverbunden(boolean fortgesetzt) {
+        }
+
+        @Override
+        public void aufgegeben() {
+            aufgegeben.incrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            return "getrennt " + getrennt.get() + "x, aufgegeben " + aufgegeben.get() + "x";
+        }
+    }
+}
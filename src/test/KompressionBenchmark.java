@@ -0,0 +1,121 @@
+package test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+
+/**
+ * Vergleicht die übertragenen Bytes und die Dauer von Broadcasts großer,
+ * sich wiederholender Statusberichte an viele Clients im Binärmodus mit und
+ * ohne Kompression. Die Clients sprechen das Protokoll direkt über Sockets
+ * und zählen die empfangenen Bytes. Argumente: Anzahl Clients, Anzahl
+ * Broadcasts.
+ *
+ * @author jschmitt
+ */
+public class KompressionBenchmark implements ServerListener {
+
+    // Frametypen des Binärmodus
+    private static final int NAME = 16;
+    private static final int KOMPRESSION = 18;
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int anzahlClients = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int anzahlBroadcasts = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        StringBuilder bericht = new StringBuilder();
+        for (int i = 0; bericht.length() < 32 * 1024; i++) {
+            bericht.append("knoten-").append(i % 40).append(" status=ok last=0.").append(i % 7)
+                    .append(" speicher=").append(512 + i % 13).append("MB\n");
+        }
+        System.out.println("--------------------------------------------");
+        System.out.println("Clients: " + anzahlClients + ", Bericht: " + bericht.length() + " Zeichen");
+        new KompressionBenchmark().messe(false, anzahlClients, anzahlBroadcasts, bericht.toString());
+        new KompressionBenchmark().messe(true, anzahlClients, anzahlBroadcasts, bericht.toString());
+        System.out.println("--------------------------------------------");
+        System.exit(0);
+    }
+
+    @Override
+    public void getMessage(String clientName, String message) {
+    }
+
+    private void messe(boolean komprimiert, int anzahlClients, int anzahlBroadcasts, String bericht) throws Exception {
+        MultiServer server = new MultiServer("KompressionBenchmark", this, MultiServer.Mode.NIO);
+        if (komprimiert) {
+            server.setzeKomprimierung(1024, "knoten- status=ok last=0. speicher=MB\n".getBytes());
+        }
+        server.setzeAusgangspuffer(anzahlBroadcasts * 2, MultiServer.OverflowPolicy.DISCONNECT);
+        server.starteServer();
+        Thread.sleep(500);
+
+        Socket[] sockets = new Socket[anzahlClients];
+        for (int i = 0; i < anzahlClients; i++) {
+            sockets[i] = new Socket(InetAddress.getLoopbackAddress(), 3333);
+            final DataOutputStream out = new DataOutputStream(sockets[i].getOutputStream());
+            final DataInputStream in = new DataInputStream(sockets[i].getInputStream());
+            out.write("#BINARY\n".getBytes());
+            out.flush();
+            // Bestätigung als Zeile
+            while (in.read() != '\n') {
+            }
+            byte[] name = ("client" + i).getBytes("UTF-8");
+            out.writeInt(name.length);
+            out.writeByte(NAME);
+            out.write(name);
+            out.writeInt(0);
+            out.writeByte(KOMPRESSION);
+            out.flush();
+            Thread leser = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] puffer = new byte[65536];
+                    try {
+                        while (true) {
+                            int laenge = in.readInt();
+                            int typ = in.readByte();
+                            in.readFully(puffer, 0, laenge);
+                            if (typ != KOMPRESSION) {
+                                bytes.addAndGet(5 + laenge);
+                                frames.incrementAndGet();
+                            }
+                        }
+                    } catch (IOException ex) {
+                    }
+                }
+            });
+            leser.setDaemon(true);
+            leser.start();
+        }
+        Thread.sleep(500);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < anzahlBroadcasts; i++) {
+            server.sendeAnAlle(bericht);
+        }
+        long erwartet = (long) anzahlClients * anzahlBroadcasts;
+        long ende = System.currentTimeMillis() + 120000;
+        while (frames.get() < erwartet && System.currentTimeMillis() < ende) {
+            Thread.sleep(1);
+        }
+        long dauer = (System.nanoTime() - start) / 1000000;
+
+        System.out.println((komprimiert ? "mit Kompression:  " : "ohne Kompression: ")
+                + bytes.get() / 1024 + " KB in " + dauer + " ms ("
+                + bytes.get() / Math.max(1, frames.get()) + " Bytes je Nachricht, "
+                + frames.get() + " von " + erwartet + " zugestellt)");
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.stoppeServer();
+    }
+}
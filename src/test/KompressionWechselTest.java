@@ -0,0 +1,107 @@
+package test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+import netzwerkkommunikation.NetworkClient;
+import netzwerkkommunikation.NetworkClient.ClientListener;
+
+/**
+ * Prüft Broadcasts an Clients, die ihre Kompression vor und nach einem
+ * Wechsel von Schwelle und Wörterbuch des Servers vereinbart haben: Beide
+ * müssen alle Broadcasts unverändert erhalten und verbunden bleiben.
+ * Argument: Anzahl Broadcasts.
+ *
+ * @author jschmitt
+ */
+public class KompressionWechselTest {
+
+    private static final int PORT = 3481;
+
+    public static void main(String[] args) throws Exception {
+        int anzahl = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        StringBuilder bericht = new StringBuilder();
+        for (int i = 0; bericht.length() < 8 * 1024; i++) {
+            bericht.append("knoten-").append(i % 40).append(" status=ok last=0.").append(i % 7).append('\n');
+        }
+        String text = bericht.toString();
+
+        System.out.println("--------------------------------------------");
+        for (MultiServer.Mode mode : MultiServer.Mode.values()) {
+            MultiServer server = new MultiServer("KompressionWechselTest", new ServerListener() {
+                @Override
+                public void getMessage(String clientName, String message) {
+                }
+            }, mode);
+            server.setzeAnkuendigung(false);
+            server.setzeMetrikRegistry(null);
+            server.setzePorts(PORT, 19981);
+            server.setzeKomprimierung(1024, "knoten- status=ok last=0.\n".getBytes("UTF-8"));
+            server.starteServer();
+            Thread.sleep(300);
+
+            Empfaenger vorher = new Empfaenger(text);
+            NetworkClient erster = verbinden("vorher", vorher);
+            Thread.sleep(300);
+            // neue Vorlage: anderes Wörterbuch, andere Schwelle
+            server.setzeKomprimierung(2048, "ganz anderes woerterbuch".getBytes("UTF-8"));
+            Empfaenger nachher = new Empfaenger(text);
+            NetworkClient zweiter = verbinden("nachher", nachher);
+            Thread.sleep(300);
+
+            for (int i = 0; i < anzahl; i++) {
+                server.sendeAnAlle(text);
+            }
+            long ende = System.currentTimeMillis() + 5000;
+            while ((vorher.anzahl.get() < anzahl || nachher.anzahl.get() < anzahl)
+                    && System.currentTimeMillis() < ende) {
+                Thread.sleep(20);
+            }
+            System.out.println(String.format("%-18s vor dem Wechsel %d von %d (falsch %d, verbunden %s),"
+                    + " nach dem Wechsel %d von %d (falsch %d, verbunden %s)", mode,
+                    vorher.anzahl.get(), anzahl, vorher.falsch.get(), erster.gibMetriken().isVerbunden(),
+                    nachher.anzahl.get(), anzahl, nachher.falsch.get(), zweiter.gibMetriken().isVerbunden()));
+
+            erster.trenneServer();
+            zweiter.trenneServer();
+            server.stoppeServer();
+            Thread.sleep(300);
+        }
+        System.out.println("--------------------------------------------");
+        System.exit(0);
+    }
+
+    private static NetworkClient verbinden(String name, Empfaenger empfaenger) {
+        NetworkClient client = new NetworkClient(name, "KompressionWechselTest");
+        client.setzeBinaermodus(true);
+        client.setzeKomprimierung(1024);
+        client.setzeListener(empfaenger);
+        client.verbindeMitServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT));
+        return client;
+    }
+
+    /**
+     * Zählt die empfangenen Broadcasts und vergleicht sie mit dem Original
+     */
+    private static final class Empfaenger implements ClientListener {
+
+        private final String erwartet;
+        private final AtomicInteger anzahl = new AtomicInteger();
+        private final AtomicInteger falsch = new AtomicInteger();
+
+        Empfaenger(String erwartet) {
+            this.erwartet = erwartet;
+        }
+
+        @Override
+        public void getMessage(String message) {
+            if (!message.equals(erwartet)) {
+                falsch.incrementAndGet();
+            }
+            anzahl.incrementAndGet();
+        }
+    }
+}
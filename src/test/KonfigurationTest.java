@@ -0,0 +1,127 @@
+package test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import netzwerkkommunikation.ClientKonfiguration;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+import netzwerkkommunikation.NetworkClient;
+import netzwerkkommunikation.NetworkClient.ClientListener;
+import netzwerkkommunikation.ServerKonfiguration;
+
+/**
+ * Prüft mehrere Instanzen eines Servers auf einem Rechner: Sie teilen sich
+ * per SO_REUSEPORT einen TCP-Port und den UDP-Port und nehmen mit mehreren
+ * Threads an. Ausgegeben wird, wie sich die über die Suche verbundenen
+ * Clients auf die Instanzen verteilen, für beide Betriebsarten. Zuletzt
+ * tauscht ein Client mit eigener Konfiguration eine Nachricht mit einer
+ * Instanz auf einem anderen Port aus.
+ * Argumente: Anzahl der Instanzen, Anzahl der Clients.
+ *
+ * @author jschmitt
+ */
+public class KonfigurationTest {
+
+    private static final ServerListener LISTENER = new ServerListener() {
+        @Override
+        public void getMessage(String clientName, String message) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int instanzen = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int anzahl = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        System.out.println("--------------------------------------------");
+        for (MultiServer.Mode mode : MultiServer.Mode.values()) {
+            List<MultiServer> server = new ArrayList<MultiServer>();
+            for (int i = 0; i < instanzen; i++) {
+                MultiServer s = new MultiServer("Mehrfach", LISTENER, mode);
+                s.setzeAnkuendigung(false);
+                s.setzeMetrikRegistry(null);
+                s.setzeKonfiguration(new ServerKonfiguration()
+                        .setzePorts(3421, 9999)
+                        .setzeReusePort(true)
+                        .setzeThreads(2, 1)
+                        .setzeBacklog(1024)
+                        .setzeTcpNoDelay(true)
+                        .setzePruefIntervall(200));
+                s.starteServer();
+                server.add(s);
+            }
+            Thread.sleep(300);
+
+            List<NetworkClient> clients = new ArrayList<NetworkClient>();
+            long start = System.nanoTime();
+            for (int i = 0; i < anzahl; i++) {
+                NetworkClient client = new NetworkClient("client" + i, "Mehrfach");
+                client.verbindeMitServer();
+                clients.add(client);
+            }
+            long dauer = (System.nanoTime() - start) / 1000000;
+            Thread.sleep(200);
+            StringBuilder verteilung = new StringBuilder();
+            int summe = 0;
+            for (MultiServer s : server) {
+                int verbunden = s.gibMetriken().getVerbundeneClients();
+                summe += verbunden;
+                verteilung.append(' ').append(verbunden);
+            }
+            System.out.println(String.format("%-18s ", mode) + summe + " von " + anzahl + " Clients in "
+                    + dauer + " ms, je Instanz:" + verteilung);
+            for (NetworkClient client : clients) {
+                client.trenneServer();
+            }
+            start = System.nanoTime();
+            for (MultiServer s : server) {
+                s.stoppeServer();
+            }
+            System.out.println(String.format("%-18s ", mode) + instanzen + " Instanzen gestoppt in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+
+        // eigener Port, nur auf Loopback, Client mit eigener Konfiguration
+        final CountDownLatch angekommen = new CountDownLatch(2);
+        MultiServer einzeln = new MultiServer("Einzeln", new ServerListener() {
+            @Override
+            public void getMessage(String clientName, String message) {
+                angekommen.countDown();
+            }
+        }, MultiServer.Mode.NIO);
+        einzeln.setzeAnkuendigung(false);
+        einzeln.setzeKonfiguration(einzeln.gibKonfiguration()
+                .setzePorts(3431, 19931)
+                .setzeAdresse(InetAddress.getLoopbackAddress())
+                .setzeSocketpuffer(256 * 1024, 256 * 1024)
+                .setzeLesepuffer(4096, 16 * 1024));
+        einzeln.starteServer();
+        Thread.sleep(300);
+        NetworkClient client = new NetworkClient("konfiguriert", "Einzeln");
+        client.setzeKonfiguration(new ClientKonfiguration()
+                .setzeLokaleAdresse(InetAddress.getLoopbackAddress())
+                .setzeVerbindungsZeitlimit(2000)
+                .setzeSocketpuffer(256 * 1024, 256 * 1024)
+                .setzeTcpNoDelay(true)
+                .setzeLesepuffer(1024));
+        client.setzeListener(new ClientListener() {
+            @Override
+            public void getMessage(String message) {
+                angekommen.countDown();
+            }
+        });
+        client.verbindeMitServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 3431));
+        client.sendeNachricht("hallo");
+        Thread.sleep(100);
+        einzeln.sendeNachricht("hallo zurück", "konfiguriert");
+        System.out.println("eigene Konfiguration: Nachrichten ausgetauscht "
+                + angekommen.await(5, TimeUnit.SECONDS));
+        client.trenneServer();
+        einzeln.stoppeServer();
+        System.out.println("--------------------------------------------");
+        System.exit(0);
+    }
+}
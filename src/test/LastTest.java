@@ -0,0 +1,104 @@
+package test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import netzwerkkommunikation.ExecutionStrategy;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+
+/**
+ * Lasttest: verbindet viele Clients mit einem MultiServer und vergleicht
+ * Threadanzahl und Speicherbedarf der Betriebsarten THREAD_PER_CLIENT und NIO,
+ * ab Java 21 zusätzlich THREAD_PER_CLIENT auf virtuellen Threads.
+ * Die Anzahl der Clients kann als erstes Argument übergeben werden.
+ *
+ * @author jschmitt
+ */
+public class LastTest implements ServerListener {
+
+    private final AtomicInteger empfangen = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        int anzahl = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        for (MultiServer.Mode mode : MultiServer.Mode.values()) {
+            new LastTest().messe(mode, null, anzahl);
+        }
+        if (ExecutionStrategy.virtuelleThreadsVerfuegbar()) {
+            new LastTest().messe(MultiServer.Mode.THREAD_PER_CLIENT, ExecutionStrategy.virtuelleThreads(), anzahl);
+        }
+    }
+
+    @Override
+    public void getMessage(String clientName, String message) {
+        empfangen.incrementAndGet();
+    }
+
+    private void messe(MultiServer.Mode mode, Executor executor, int anzahl) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean speicher = ManagementFactory.getMemoryMXBean();
+
+        MultiServer server = new MultiServer("LastTest", this, mode);
+        if (executor != null) {
+            server.setzeExecutor(executor);
+        }
+        server.starteServer();
+        Thread.sleep(500);
+        System.gc();
+        int threadsVorher = threads.getThreadCount();
+        long heapVorher = speicher.getHeapMemoryUsage().getUsed();
+
+        long start = System.nanoTime();
+        Socket[] sockets = new Socket[anzahl];
+        PrintWriter[] writer = new PrintWriter[anzahl];
+        for (int i = 0; i < anzahl; i++) {
+            sockets[i] = new Socket(InetAddress.getLoopbackAddress(), 3333);
+            writer[i] = new PrintWriter(sockets[i].getOutputStream());
+            writer[i].println("#client" + i);
+            writer[i].println("hallo");
+            writer[i].flush();
+        }
+        // warten, bis jeder Client seine Nachricht zugestellt hat
+        long ende = System.currentTimeMillis() + 30000;
+        while (empfangen.get() < anzahl && System.currentTimeMillis() < ende) {
+            Thread.sleep(10);
+        }
+        long dauer = (System.nanoTime() - start) / 1000000;
+
+        server.sendeAnAlle("an alle");
+        int zugestellt = 0;
+        for (Socket socket : sockets) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            if ("an alle".equals(reader.readLine())) {
+                zugestellt++;
+            }
+        }
+
+        System.gc();
+        int threadsNachher = threads.getThreadCount();
+        long heapNachher = speicher.getHeapMemoryUsage().getUsed();
+
+        System.out.println("--------------------------------------------");
+        System.out.println("Betriebsart:          " + mode + (executor != null ? " (virtuelle Threads)" : ""));
+        System.out.println("Verbindungen:         " + empfangen.get() + " von " + anzahl);
+        System.out.println("Broadcast zugestellt: " + zugestellt);
+        System.out.println("Verbindungsaufbau:    " + dauer + " ms");
+        System.out.println("Threads:              " + threadsVorher + " -> " + threadsNachher);
+        System.out.println("Heap belegt:          " + heapVorher / 1024 + " KB -> " + heapNachher / 1024 + " KB");
+        System.out.println("--------------------------------------------");
+
+        for (int i = 0; i < anzahl; i++) {
+            writer[i].println("#STOP");
+            writer[i].flush();
+            sockets[i].close();
+        }
+        server.stoppeServer();
+    }
+}
@@ -0,0 +1,72 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import netzwerkkommunikation.Discovery;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+import netzwerkkommunikation.NetworkClient;
+
+/**
+ * Prüft die Verteilung neuer Clients auf mehrere gleichnamige Server eines
+ * Rechners mit unterschiedlichem Gewicht. Ausgegeben wird für jedes
+ * Auswahlverfahren, wie viele Clients jeder Server erhalten hat.
+ * Argument: Anzahl der Clients.
+ *
+ * @author jschmitt
+ */
+public class LastverteilungTest {
+
+    private static final int[] GEWICHTE = {1, 1, 2};
+
+    public static void main(String[] args) throws Exception {
+        int anzahl = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        List<MultiServer> server = new ArrayList<MultiServer>();
+        for (int i = 0; i < GEWICHTE.length; i++) {
+            MultiServer s = new MultiServer("Verteilung", new ServerListener() {
+                @Override
+                public void getMessage(String clientName, String message) {
+                }
+            }, MultiServer.Mode.NIO);
+            s.setzeAnkuendigung(false);
+            s.setzeMetrikRegistry(null);
+            s.setzeDiscovery(1, 0, 0);
+            s.setzePorts(3411 + i, Discovery.PORT);
+            s.setzeGewicht(GEWICHTE[i]);
+            s.starteServer();
+            server.add(s);
+        }
+        Thread.sleep(300);
+
+        System.out.println("--------------------------------------------");
+        for (Discovery.Auswahl auswahl : Discovery.Auswahl.values()) {
+            Discovery.setzeAuswahl(auswahl);
+            Discovery.vergessen("Verteilung");
+            List<NetworkClient> clients = new ArrayList<NetworkClient>();
+            long start = System.nanoTime();
+            for (int i = 0; i < anzahl; i++) {
+                NetworkClient client = new NetworkClient("client" + i, "Verteilung");
+                client.verbindeMitServer();
+                clients.add(client);
+            }
+            long dauer = (System.nanoTime() - start) / 1000000;
+            Thread.sleep(200);
+            StringBuilder verteilung = new StringBuilder();
+            for (int i = 0; i < server.size(); i++) {
+                verteilung.append(" ").append(server.get(i).gibMetriken().getVerbundeneClients())
+                        .append(" (Gewicht ").append(GEWICHTE[i]).append(")");
+            }
+            System.out.println(String.format("%-16s", auswahl) + anzahl + " Clients in " + dauer + " ms:" + verteilung);
+            for (NetworkClient client : clients) {
+                client.trenneServer();
+            }
+            Thread.sleep(300);
+        }
+        System.out.println("--------------------------------------------");
+        for (MultiServer s : server) {
+            s.stoppeServer();
+        }
+        System.exit(0);
+    }
+}
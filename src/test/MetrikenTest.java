@@ -0,0 +1,88 @@
+package test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import netzwerkkommunikation.LatenzHistogramm;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+import netzwerkkommunikation.NetworkClient;
+
+/**
+ * Liest die Kennzahlen eines Servers nach einigen Nachrichten über JMX aus
+ * und misst, was das Erfassen einer Dauer im Histogramm kostet: je
+ * gemessener Nachricht und umgelegt auf alle Nachrichten, von denen nur eine
+ * Stichprobe gemessen wird.
+ * Argument: Anzahl Nachrichten.
+ *
+ * @author jschmitt
+ */
+public class MetrikenTest {
+
+    private static final AtomicLong empfangen = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int anzahl = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+        MultiServer server = new MultiServer("MetrikServer", new ServerListener() {
+            @Override
+            public void getMessage(String clientName, String message) {
+                empfangen.incrementAndGet();
+            }
+        }, MultiServer.Mode.NIO);
+        server.starteServer();
+        Thread.sleep(500);
+
+        NetworkClient client = new NetworkClient("sender", "MetrikServer");
+        client.setzeBinaermodus(true);
+        client.verbindeMitServer();
+        for (int i = 0; i < anzahl; i++) {
+            client.sendeNachricht("Messwert " + i);
+        }
+        client.sendeDaten(ByteBuffer.wrap(new byte[100]));
+        long ende = System.currentTimeMillis() + 30000;
+        while (empfangen.get() < anzahl + 1 && System.currentTimeMillis() < ende) {
+            Thread.sleep(10);
+        }
+        server.sendeAnAlle("Antwort");
+        Thread.sleep(200);
+
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("netzwerkkommunikation:type=MultiServer,name=\"metrikserver\"");
+        System.out.println("--------------------------------------------");
+        for (String attribut : new String[]{"VerbundeneClients", "AngenommeneVerbindungen",
+            "NachrichtenEin", "BytesEin", "NachrichtenAus", "BytesAus", "Sendefehler",
+            "DiscoveryAntworten", "WarteschlangeMax", "DispatchAnzahl",
+            "DispatchMittelMikros", "DispatchP99Mikros"}) {
+            System.out.println(attribut + ": " + mbeanServer.getAttribute(name, attribut));
+        }
+        for (CompositeData clientMetrik : (CompositeData[]) mbeanServer.getAttribute(name, "Clients")) {
+            System.out.println("Client " + clientMetrik.get("name") + ": " + clientMetrik.get("nachrichtenEin")
+                    + " Nachrichten, " + clientMetrik.get("bytesEin") + " Bytes empfangen");
+        }
+        System.out.println("Client gesendet: " + client.gibMetriken().getNachrichtenAus() + " Nachrichten, "
+                + client.gibMetriken().getBytesAus() + " Bytes");
+
+        client.trenneServer();
+        server.stoppeServer();
+        System.out.println("Nach dem Stoppen registriert: " + mbeanServer.isRegistered(name));
+
+        // Aufwand des Erfassens: zwei Zeitstempel und ein Eintrag im Histogramm
+        LatenzHistogramm histogramm = new LatenzHistogramm();
+        for (int runde = 0; runde < 3; runde++) {
+            long beginn = System.nanoTime();
+            for (int i = 0; i < 10000000; i++) {
+                long start = System.nanoTime();
+                histogramm.erfassen(System.nanoTime() - start);
+            }
+            long dauer = (System.nanoTime() - beginn) / 10000000;
+            System.out.println("Erfassen je gemessener Nachricht: " + dauer + " ns, umgelegt auf alle: "
+                    + dauer / LatenzHistogramm.STICHPROBE + " ns");
+        }
+        System.out.println("--------------------------------------------");
+        System.exit(0);
+    }
+}
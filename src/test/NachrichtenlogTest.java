@@ -0,0 +1,144 @@
+package test;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+import netzwerkkommunikation.NetworkClient;
+import netzwerkkommunikation.NetworkClient.ClientListener;
+
+/**
+ * Prüft das Nachrichtenlog des Servers: Ein Client trennt sich, der Server
+ * sendet ihm direkte Nachrichten und Broadcasts, danach kehrt der Client
+ * zurück. Ausgegeben werden die nachgelieferten Nachrichten, einmal bei
+ * laufendem Server und einmal nach einem Neustart, sowie der Durchsatz beim
+ * Schreiben ins Log.
+ * Argumente: Nachrichten je Durchgang, Nachrichten für den Durchsatz.
+ *
+ * @author jschmitt
+ */
+public class NachrichtenlogTest {
+
+    private static final int PORT = 3451;
+
+    public static void main(String[] args) throws Exception {
+        int anzahl = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int durchsatz = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        File verzeichnis = new File(System.getProperty("java.io.tmpdir"),
+                "nachrichtenlog-" + System.currentTimeMillis());
+
+        System.out.println("--------------------------------------------");
+        MultiServer server = starten(verzeichnis);
+        Empfaenger empfaenger = new Empfaenger();
+        NetworkClient client = verbinden(empfaenger);
+        Thread.sleep(300);
+        client.trenneServer();
+        Thread.sleep(300);
+
+        senden(server, anzahl, "laufend");
+        client = verbinden(empfaenger);
+        warten(empfaenger, 2 * anzahl);
+        System.out.println("bei laufendem Server nachgeliefert: " + empfaenger.anzahl.get() + " von " + 2 * anzahl
+                + ", Reihenfolge " + (empfaenger.fehler.get() == 0 ? "ok" : "FEHLER"));
+
+        // der Client ist beim Stoppen noch verbunden, der Cursor entsteht
+        // beim Stoppen des Servers
+        server.stoppeServer();
+        client.trenneServer();
+        server = starten(verzeichnis);
+        senden(server, anzahl, "neustart");
+        empfaenger = new Empfaenger();
+        client = verbinden(empfaenger);
+        warten(empfaenger, 2 * anzahl);
+        System.out.println("nach Neustart nachgeliefert: " + empfaenger.anzahl.get() + " von " + 2 * anzahl
+                + ", Reihenfolge " + (empfaenger.fehler.get() == 0 ? "ok" : "FEHLER"));
+        System.out.println("unbekannter Client erreichbar: " + server.sendeNachricht("x", "unbekannt"));
+        client.trenneServer();
+        Thread.sleep(300);
+
+        // Durchsatz: Broadcasts ohne verbundene Clients gehen nur ins Log
+        long start = System.nanoTime();
+        for (int i = 0; i < durchsatz; i++) {
+            server.sendeAnAlle("Broadcast " + i);
+        }
+        long dauer = System.nanoTime() - start;
+        System.out.println("ins Log geschrieben: " + (durchsatz * 1000000000L / Math.max(1, dauer))
+                + " Nachrichten/s, gespeichert " + server.gibMetriken().getNachrichtenImLog());
+
+        System.out.println("--------------------------------------------");
+        server.stoppeServer();
+        loeschen(verzeichnis);
+        System.exit(0);
+    }
+
+    private static MultiServer starten(File verzeichnis) throws InterruptedException {
+        MultiServer server = new MultiServer("LogTest", new ServerListener() {
+            @Override
+            public void getMessage(String clientName, String message) {
+            }
+        }, MultiServer.Mode.NIO);
+        server.setzeAnkuendigung(false);
+        server.setzeMetrikRegistry(null);
+        server.setzePorts(PORT, 19951);
+        server.setzeNachrichtenlog(verzeichnis, 16 * 1024 * 1024, 100);
+        server.starteServer();
+        Thread.sleep(300);
+        return server;
+    }
+
+    private static NetworkClient verbinden(Empfaenger empfaenger) {
+        NetworkClient client = new NetworkClient("rueckkehrer", "LogTest");
+        client.setzeListener(empfaenger);
+        client.verbindeMitServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT));
+        return client;
+    }
+
+    /**
+     * Sendet abwechselnd direkte Nachrichten und Broadcasts
+     */
+    private static void senden(MultiServer server, int anzahl, String art) {
+        boolean aufbewahrt = true;
+        for (int i = 0; i < anzahl; i++) {
+            aufbewahrt &= server.sendeNachricht(art + " " + (2 * i), "rueckkehrer");
+            server.sendeAnAlle(art + " " + (2 * i + 1));
+        }
+        System.out.println(art + ": direkte Nachrichten aufbewahrt " + aufbewahrt);
+    }
+
+    private static void warten(Empfaenger empfaenger, int anzahl) throws InterruptedException {
+        long ende = System.currentTimeMillis() + 5000;
+        while (empfaenger.anzahl.get() < anzahl && System.currentTimeMillis() < ende) {
+            Thread.sleep(50);
+        }
+    }
+
+    private static void loeschen(File verzeichnis) {
+        File[] dateien = verzeichnis.listFiles();
+        if (dateien != null) {
+            for (File datei : dateien) {
+                datei.delete();
+            }
+        }
+        verzeichnis.delete();
+    }
+
+    /**
+     * Zählt die empfangenen Nachrichten und prüft ihre Reihenfolge
+     */
+    private static final class Empfaenger implements ClientListener {
+
+        private final AtomicInteger anzahl = new AtomicInteger();
+        private final AtomicInteger fehler = new AtomicInteger();
+
+        @Override
+        public void getMessage(String message) {
+            int nummer = Integer.parseInt(message.substring(message.indexOf(' ') + 1));
+            if (nummer != anzahl.getAndIncrement()) {
+                fehler.incrementAndGet();
+            }
+        }
+    }
+}
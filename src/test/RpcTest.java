@@ -0,0 +1,142 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.Anfrage;
+import netzwerkkommunikation.MultiServer.ServerRequestListener;
+import netzwerkkommunikation.NetworkClient;
+
+/**
+ * Prüft Anfragen und Antworten im Text- und Binärmodus: sofortige und
+ * verspätete Antworten in anderer Reihenfolge, Fehler des Listeners und
+ * Zeitlimits. Danach senden mehrere Threads viele Anfragen gleichzeitig über
+ * eine Verbindung; ausgegeben werden Durchsatz und falsch zugeordnete
+ * Antworten. Argument: Anfragen je Thread.
+ *
+ * @author jschmitt
+ */
+public class RpcTest {
+
+    private static final int THREADS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int anzahl = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final ScheduledExecutorService spaeter = Executors.newSingleThreadScheduledExecutor();
+
+        MultiServer server = new MultiServer("RpcTest", new ServerRequestListener() {
+            @Override
+            public void getMessage(String clientName, String message) {
+            }
+
+            @Override
+            public void getRequest(final Anfrage anfrage) {
+                String text = anfrage.getText();
+                if (text.startsWith("spaet")) {
+                    // Antwort aus einem anderen Thread, nach später gestellten
+                    spaeter.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            anfrage.antworte("ok:" + anfrage.getText());
+                        }
+                    }, 100, TimeUnit.MILLISECONDS);
+                } else if (text.equals("fehler")) {
+                    throw new IllegalStateException("absichtlich");
+                } else if (!text.equals("nie")) {
+                    anfrage.antworte("ok:" + text);
+                }
+            }
+        }, MultiServer.Mode.NIO);
+        server.setzeAnkuendigung(false);
+        server.starteServer();
+        Thread.sleep(300);
+
+        System.out.println("--------------------------------------------");
+        for (boolean binaer : new boolean[]{false, true}) {
+            NetworkClient client = new NetworkClient("rpc", "RpcTest");
+            client.setzeBinaermodus(binaer);
+            client.setzeAnfrageZeitlimit(500);
+            client.verbindeMitServer();
+            String art = binaer ? "binär" : "text";
+
+            CompletableFuture<String> langsam = client.anfrage("spaet 1");
+            CompletableFuture<String> schnell = client.anfrage("schnell 2");
+            System.out.println(art + ": schnell " + schnell.get() + " vor langsam " + !langsam.isDone()
+                    + ", dann " + langsam.get());
+            System.out.println(art + ": Fehler -> " + ergebnis(client.anfrage("fehler")));
+            long start = System.nanoTime();
+            System.out.println(art + ": ohne Antwort -> " + ergebnis(client.anfrage("nie"))
+                    + " nach " + (System.nanoTime() - start) / 1000000 + " ms");
+
+            durchsatz(art, client, anzahl);
+            CompletableFuture<String> offen = client.anfrage("nie");
+            client.trenneServer();
+            System.out.println(art + ": offen beim Trennen -> " + ergebnis(offen));
+        }
+        System.out.println("--------------------------------------------");
+        server.stoppeServer();
+        spaeter.shutdown();
+        System.exit(0);
+    }
+
+    private static void durchsatz(String art, final NetworkClient client, final int anzahl) throws Exception {
+        final AtomicInteger falsch = new AtomicInteger();
+        final AtomicInteger fehler = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            Thread sender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // höchstens 256 Anfragen je Thread gleichzeitig unterwegs
+                    List<CompletableFuture<String>> fenster = new ArrayList<CompletableFuture<String>>();
+                    for (int n = 0; n < anzahl; n++) {
+                        final String text = thread + "/" + n;
+                        fenster.add(client.anfrage(text).thenApply(new java.util.function.Function<String, String>() {
+                            @Override
+                            public String apply(String antwort) {
+                                if (!antwort.equals("ok:" + text)) {
+                                    falsch.incrementAndGet();
+                                }
+                                return antwort;
+                            }
+                        }));
+                        if (fenster.size() == 256 || n == anzahl - 1) {
+                            for (CompletableFuture<String> f : fenster) {
+                                try {
+                                    f.get();
+                                } catch (Exception ex) {
+                                    fehler.incrementAndGet();
+                                }
+                            }
+                            fenster.clear();
+                        }
+                    }
+                }
+            });
+            threads.add(sender);
+            sender.start();
+        }
+        for (Thread sender : threads) {
+            sender.join();
+        }
+        long dauer = System.nanoTime() - start;
+        System.out.printf("%s: %d Anfragen aus %d Threads, %.0f Anfragen/s, falsch zugeordnet %d, Fehler %d%n",
+                art, THREADS * anzahl, THREADS, THREADS * anzahl * 1e9 / dauer, falsch.get(), fehler.get());
+    }
+
+    private static String ergebnis(CompletableFuture<String> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            return ex.getCause().toString();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+import netzwerkkommunikation.NetworkClient;
+
+/**
+ * Misst den Durchsatz kleiner Nachrichten in Nachrichten je Sekunde, einmal
+ * vom Server an einen Client und einmal vom NetworkClient an den Server. Auf
+ * dem Server wird ein Budget von einem Byte (eine Nachricht je Schreibvorgang)
+ * mit gebündelten Schreibvorgängen verglichen, auf dem Client das Leeren nach
+ * jeder Nachricht mit einem Schreibfenster. Argumente: Anzahl Nachrichten,
+ * Schreibfenster in µs.
+ *
+ * @author jschmitt
+ */
+public class SchreibBenchmark implements ServerListener {
+
+    private static final String NACHRICHT = "Position 12.5 7.25 Geschwindigkeit 3.0";
+
+    private final AtomicInteger empfangen = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        int anzahl = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        long fenster = args.length > 1 ? Long.parseLong(args[1]) : 200;
+
+        System.out.println("--------------------------------------------");
+        System.out.println("Server an Client, " + anzahl + " Nachrichten");
+        for (MultiServer.Mode mode : MultiServer.Mode.values()) {
+            new SchreibBenchmark().serverAnClient(mode, anzahl, 0, 1, "eine Nachricht je write");
+            new SchreibBenchmark().serverAnClient(mode, anzahl, 0, 64 * 1024, "gebündelt");
+            new SchreibBenchmark().serverAnClient(mode, anzahl, fenster, 64 * 1024, "Fenster " + fenster + " µs");
+        }
+        System.out.println("Client an Server, " + anzahl + " Nachrichten");
+        new SchreibBenchmark().clientAnServer(anzahl, 0, "leeren je Nachricht");
+        new SchreibBenchmark().clientAnServer(anzahl, fenster, "Fenster " + fenster + " µs");
+        System.out.println("--------------------------------------------");
+        System.exit(0);
+    }
+
+    @Override
+    public void getMessage(String clientName, String message) {
+        empfangen.incrementAndGet();
+    }
+
+    private void serverAnClient(MultiServer.Mode mode, int anzahl, long fenster, int budget, String titel) throws Exception {
+        MultiServer server = new MultiServer("SchreibBenchmark", this, mode);
+        server.setzeAusgangspuffer(anzahl, MultiServer.OverflowPolicy.DISCONNECT);
+        server.setzeSchreibbuendelung(fenster, budget);
+        server.starteServer();
+        Thread.sleep(500);
+
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), 3333);
+        OutputStream out = socket.getOutputStream();
+        out.write("#empfaenger\nbereit\n".getBytes());
+        out.flush();
+        while (empfangen.get() < 1) {
+            Thread.sleep(10);
+        }
+        final InputStream in = socket.getInputStream();
+        final AtomicInteger zeilen = new AtomicInteger();
+        Thread leser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] puffer = new byte[65536];
+                int n;
+                try {
+                    while ((n = in.read(puffer)) >= 0) {
+                        int gezaehlt = 0;
+                        for (int i = 0; i < n; i++) {
+                            if (puffer[i] == '\n') {
+                                gezaehlt++;
+                            }
+                        }
+                        zeilen.addAndGet(gezaehlt);
+                    }
+                } catch (IOException ex) {
+                }
+            }
+        });
+        leser.start();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < anzahl; i++) {
+            server.sendeNachricht(NACHRICHT, "empfaenger");
+        }
+        long ende = System.currentTimeMillis() + 60000;
+        while (zeilen.get() < anzahl && System.currentTimeMillis() < ende) {
+            Thread.sleep(1);
+        }
+        long dauer = System.nanoTime() - start;
+        System.out.println(mode + ", " + titel + ": " + zeilen.get() * 1000000000L / dauer + " Nachrichten/s");
+
+        socket.close();
+        server.stoppeServer();
+    }
+
+    private void clientAnServer(int anzahl, long fenster, String titel) throws Exception {
+        MultiServer server = new MultiServer("SchreibBenchmark", this, MultiServer.Mode.NIO);
+        server.starteServer();
+        Thread.sleep(500);
+
+        NetworkClient client = new NetworkClient("sender", "SchreibBenchmark");
+        client.setzeSchreibbuendelung(fenster, 64 * 1024);
+        client.verbindeMitServer();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < anzahl; i++) {
+            client.sendeNachricht(NACHRICHT);
+        }
+        client.leereAusgang();
+        long ende = System.currentTimeMillis() + 60000;
+        while (empfangen.get() < anzahl && System.currentTimeMillis() < ende) {
+            Thread.sleep(1);
+        }
+        long dauer = System.nanoTime() - start;
+        System.out.println("NetworkClient, " + titel + ": " + empfangen.get() * 1000000000L / dauer + " Nachrichten/s");
+
+        client.trenneServer();
+        server.stoppeServer();
+    }
+}
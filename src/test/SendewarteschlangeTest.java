@@ -0,0 +1,152 @@
+package test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import netzwerkkommunikation.ClientPool;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+import netzwerkkommunikation.NetworkClient;
+
+/**
+ * Viele Threads senden gleichzeitig über einen Client: direkt unter der
+ * Schreibsperre, über die Sendewarteschlange und über einen ClientPool mit
+ * mehreren Verbindungen. Der Server prüft, ob jede Zeile unversehrt und je
+ * Thread in der gesendeten Reihenfolge ankommt. Ausgegeben wird der
+ * Durchsatz bis zum Empfang der letzten Nachricht.
+ * Argumente: Nachrichten je Thread, Verbindungen des Pools.
+ *
+ * @author jschmitt
+ */
+public class SendewarteschlangeTest {
+
+    private static final int[] THREADS = {1, 4, 16};
+
+    private static final AtomicLong empfangen = new AtomicLong();
+    private static final AtomicInteger fehler = new AtomicInteger();
+    private static final ConcurrentHashMap<Integer, Integer> letzte = new ConcurrentHashMap<Integer, Integer>();
+
+    /**
+     * Sender: direkt, über die Warteschlange oder über den Pool
+     */
+    private interface Sender {
+
+        boolean senden(int thread, String nachricht);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int anzahl = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int verbindungen = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        MultiServer server = new MultiServer("SendeTest", new ServerListener() {
+            @Override
+            public void getMessage(String clientName, String message) {
+                pruefen(message);
+            }
+        }, MultiServer.Mode.NIO);
+        server.setzeAnkuendigung(false);
+        server.setzeAusgangspuffer(10000, MultiServer.OverflowPolicy.DROP_NEWEST);
+        server.starteServer();
+        Thread.sleep(300);
+
+        System.out.println("--------------------------------------------");
+        for (int threads : THREADS) {
+            final NetworkClient direkt = new NetworkClient("direkt", "SendeTest");
+            direkt.verbindeMitServer();
+            messe("direkt", threads, anzahl, new Sender() {
+                @Override
+                public boolean senden(int thread, String nachricht) {
+                    return direkt.sendeNachricht(nachricht);
+                }
+            });
+            direkt.trenneServer();
+
+            final NetworkClient warteschlange = new NetworkClient("warteschlange", "SendeTest");
+            warteschlange.setzeSendewarteschlange(100000);
+            warteschlange.verbindeMitServer();
+            messe("warteschlange", threads, anzahl, new Sender() {
+                @Override
+                public boolean senden(int thread, String nachricht) {
+                    return warteschlange.sendeNachricht(nachricht);
+                }
+            });
+            warteschlange.trenneServer();
+
+            final ClientPool pool = new ClientPool("pool", "SendeTest", verbindungen, 100000);
+            pool.verbindeMitServer();
+            messe("pool x" + verbindungen, threads, anzahl, new Sender() {
+                @Override
+                public boolean senden(int thread, String nachricht) {
+                    return pool.sendeNachricht(thread, nachricht);
+                }
+            });
+            pool.trenneServer();
+        }
+        System.out.println("--------------------------------------------");
+        server.stoppeServer();
+        System.exit(0);
+    }
+
+    private static void messe(String art, int threads, final int anzahl, final Sender sender) throws Exception {
+        Thread.sleep(200);
+        empfangen.set(0);
+        fehler.set(0);
+        letzte.clear();
+        final AtomicInteger abgelehnt = new AtomicInteger();
+        final CountDownLatch los = new CountDownLatch(1);
+        final CountDownLatch fertig = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        los.await();
+                        for (int n = 0; n < anzahl; n++) {
+                            while (!sender.senden(thread, thread + ":" + n)) {
+                                // Warteschlange voll
+                                abgelehnt.incrementAndGet();
+                                Thread.yield();
+                            }
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        fertig.countDown();
+                    }
+                }
+            }).start();
+        }
+        long start = System.nanoTime();
+        los.countDown();
+        fertig.await();
+        long soll = (long) threads * anzahl;
+        long ende = System.currentTimeMillis() + 30000;
+        while (empfangen.get() < soll && System.currentTimeMillis() < ende) {
+            Thread.sleep(1);
+        }
+        long dauer = System.nanoTime() - start;
+        System.out.printf("%-14s %2d Threads: %9.0f Nachrichten/s, empfangen %8d von %8d, Fehler %d, abgelehnt %d%n",
+                art, threads, empfangen.get() * 1e9 / dauer, empfangen.get(), soll, fehler.get(), abgelehnt.get());
+    }
+
+    /**
+     * Prüft Format und Reihenfolge einer Zeile "thread:nummer"
+     */
+    private static void pruefen(String message) {
+        empfangen.incrementAndGet();
+        int trenner = message.indexOf(':');
+        try {
+            int thread = Integer.parseInt(message.substring(0, trenner));
+            int nummer = Integer.parseInt(message.substring(trenner + 1));
+            Integer vorher = letzte.put(thread, nummer);
+            if (vorher == null ? nummer != 0 : vorher + 1 != nummer) {
+                fehler.incrementAndGet();
+            }
+        } catch (RuntimeException ex) {
+            // zerstückelte Zeile
+            fehler.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package test;
+
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+import netzwerkkommunikation.NetworkClient;
+import netzwerkkommunikation.NetworkClient.ClientListener;
+
+/**
+ * Prüft das Stoppen und sofortige Neustarten des Servers in beiden
+ * Betriebsarten: Der Server stellt einen großen Broadcast ein und stoppt
+ * gleich danach. Ausgegeben werden die Dauer des Stoppens, die bei den
+ * Clients angekommenen Nachrichten und die Dauer bis zur ersten Nachricht
+ * nach dem Neustart. Zuletzt hält eine stumme Verbindung das Stoppen bis
+ * zum Ende der Frist auf.
+ * Argumente: Anzahl der Clients, Nachrichten im Broadcast.
+ *
+ * @author jschmitt
+ */
+public class StoppTest {
+
+    public static void main(String[] args) throws Exception {
+        int anzahl = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int nachrichten = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        System.out.println("--------------------------------------------");
+        for (MultiServer.Mode mode : MultiServer.Mode.values()) {
+            pruefe(mode, anzahl, nachrichten);
+        }
+        System.out.println("--------------------------------------------");
+        System.exit(0);
+    }
+
+    private static void pruefe(MultiServer.Mode mode, int anzahl, int nachrichten) throws Exception {
+        String art = String.format("%-18s ", mode);
+        final CountDownLatch angekommen = new CountDownLatch(1);
+        MultiServer server = new MultiServer("StoppTest", new ServerListener() {
+            @Override
+            public void getMessage(String clientName, String message) {
+                angekommen.countDown();
+            }
+        }, mode);
+        server.setzeAnkuendigung(false);
+        server.setzeDiscovery(2, 0, 0);
+        server.starteServer();
+        Thread.sleep(300);
+
+        final AtomicInteger empfangen = new AtomicInteger();
+        List<NetworkClient> clients = new ArrayList<NetworkClient>();
+        for (int i = 0; i < anzahl; i++) {
+            NetworkClient client = new NetworkClient("client" + i, "StoppTest");
+            client.setzeBinaermodus(i % 2 == 1);
+            client.setzeListener(new ClientListener() {
+                @Override
+                public void getMessage(String message) {
+                    empfangen.incrementAndGet();
+                }
+            });
+            client.verbindeMitServer();
+            clients.add(client);
+        }
+        Thread.sleep(200);
+
+        for (int i = 0; i < nachrichten; i++) {
+            server.sendeAnAlle("Nachricht " + i);
+        }
+        long start = System.nanoTime();
+        server.stoppeServer();
+        long gestoppt = System.nanoTime();
+        System.out.println(art + "gestoppt in " + (gestoppt - start) / 1000000 + " ms, empfangen "
+                + empfangen.get() + " von " + anzahl * nachrichten);
+
+        // sofortiger Neustart auf demselben Port
+        server.starteServer();
+        NetworkClient neu = new NetworkClient("neu", "StoppTest");
+        neu.verbindeMitServer();
+        neu.sendeNachricht("hallo");
+        boolean erreicht = angekommen.await(5, TimeUnit.SECONDS);
+        System.out.println(art + "nach Neustart erste Nachricht nach "
+                + (System.nanoTime() - gestoppt) / 1000000 + " ms: " + erreicht);
+
+        // eine stumme Verbindung schließt nicht selbst
+        Socket stumm = new Socket(InetAddress.getLoopbackAddress(), 3333);
+        Thread.sleep(100);
+        start = System.nanoTime();
+        server.stoppeServer(300);
+        System.out.println(art + "mit stummer Verbindung, Frist 300 ms: gestoppt in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        stumm.close();
+        neu.trenneServer();
+        for (NetworkClient client : clients) {
+            client.trenneServer();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+import netzwerkkommunikation.NetworkClient;
+import netzwerkkommunikation.NetworkClient.ClientListener;
+
+/**
+ * Prüft Themen: Clients im Text- und Binärmodus abonnieren Themen, nur die
+ * Abonnenten erhalten die Veröffentlichungen. Verglichen wird die Dauer einer
+ * Veröffentlichung mit dem Versand an eine Namensliste per sendeNachricht,
+ * außerdem wird veröffentlicht, während ein anderer Thread ständig
+ * abonniert und kündigt. Argument: Anzahl der Clients.
+ *
+ * @author jschmitt
+ */
+public class TopicTest {
+
+    private static final int NACHRICHTEN = 100;
+    private static final int KLEIN = 10;
+
+    public static void main(String[] args) throws Exception {
+        int anzahl = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+        System.out.println("--------------------------------------------");
+        for (MultiServer.Mode mode : MultiServer.Mode.values()) {
+            pruefe(mode, anzahl);
+        }
+        System.out.println("--------------------------------------------");
+        System.exit(0);
+    }
+
+    private static void pruefe(MultiServer.Mode mode, int anzahl) throws Exception {
+        MultiServer server = new MultiServer("TopicTest", new ServerListener() {
+            @Override
+            public void getMessage(String clientName, String message) {
+            }
+        }, mode);
+        server.setzeAnkuendigung(false);
+        server.setzeDiscovery(2, 0, 0);
+        server.starteServer();
+        Thread.sleep(300);
+
+        final AtomicInteger[] empfangen = new AtomicInteger[anzahl];
+        List<NetworkClient> clients = new ArrayList<NetworkClient>();
+        for (int i = 0; i < anzahl; i++) {
+            final AtomicInteger zaehler = new AtomicInteger();
+            empfangen[i] = zaehler;
+            NetworkClient client = new NetworkClient("client" + i, "TopicTest");
+            client.setzeBinaermodus(i % 2 == 1);
+            client.setzeListener(new ClientListener() {
+                @Override
+                public void getMessage(String message) {
+                    zaehler.incrementAndGet();
+                }
+            });
+            // vor dem Verbinden abonniert, wird beim Verbinden gemeldet
+            client.abonniere(i % 2 == 0 ? "gerade" : "ungerade");
+            client.verbindeMitServer();
+            if (i < KLEIN) {
+                client.abonniere("klein");
+            }
+            clients.add(client);
+        }
+        warteAufAbonnenten(server, "klein", KLEIN);
+        warteAufAbonnenten(server, "gerade", (anzahl + 1) / 2);
+
+        // nur die Abonnenten erhalten die Nachrichten
+        for (int n = 0; n < NACHRICHTEN; n++) {
+            server.veroeffentliche("klein", "klein " + n);
+        }
+        warteAufEmpfang(empfangen, KLEIN * NACHRICHTEN);
+        int falsch = 0;
+        for (int i = 0; i < anzahl; i++) {
+            if (empfangen[i].get() != (i < KLEIN ? NACHRICHTEN : 0)) {
+                falsch++;
+            }
+        }
+        System.out.printf("%-18s Abonnenten klein %d, gerade %d, ungerade %d; falsch zugestellt an %d Clients%n",
+                mode, server.gibAnzahlAbonnenten("klein"), server.gibAnzahlAbonnenten("gerade"),
+                server.gibAnzahlAbonnenten("ungerade"), falsch);
+
+        // Veröffentlichen im Vergleich zur Schleife über eine Namensliste
+        String[] namen = new String[KLEIN];
+        for (int i = 0; i < KLEIN; i++) {
+            namen[i] = "client" + i;
+        }
+        long start = System.nanoTime();
+        for (int n = 0; n < NACHRICHTEN; n++) {
+            server.veroeffentliche("klein", "thema " + n);
+        }
+        long thema = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int n = 0; n < NACHRICHTEN; n++) {
+            String nachricht = "liste " + n;
+            for (String name : namen) {
+                server.sendeNachricht(nachricht, name);
+            }
+        }
+        long liste = System.nanoTime() - start;
+        System.out.printf("%-18s je Veröffentlichung an %d Abonnenten: Thema %.1f µs, Namensliste %.1f µs%n",
+                mode, KLEIN, thema / 1000.0 / NACHRICHTEN, liste / 1000.0 / NACHRICHTEN);
+        warteAufEmpfang(empfangen, 3 * KLEIN * NACHRICHTEN);
+
+        // Veröffentlichen, während abonniert und gekündigt wird
+        final List<NetworkClient> wechselnd = clients.subList(0, KLEIN);
+        final AtomicLong wechsel = new AtomicLong();
+        final AtomicInteger laufend = new AtomicInteger(1);
+        Thread abonnent = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (laufend.get() == 1) {
+                    for (NetworkClient client : wechselnd) {
+                        client.abonniere("wechsel");
+                    }
+                    for (NetworkClient client : wechselnd) {
+                        client.kuendige("wechsel");
+                    }
+                    wechsel.addAndGet(2 * wechselnd.size());
+                }
+            }
+        });
+        abonnent.start();
+        long erreicht = 0;
+        start = System.nanoTime();
+        for (int n = 0; n < 20 * NACHRICHTEN; n++) {
+            erreicht += server.veroeffentliche("wechsel", "wechsel");
+            erreicht += server.veroeffentliche("ungerade", "ungerade");
+        }
+        long dauer = System.nanoTime() - start;
+        laufend.set(0);
+        abonnent.join();
+        System.out.printf("%-18s %d Veröffentlichungen in %d ms bei %d Abonnementwechseln, %d Zustellungen%n",
+                mode, 40 * NACHRICHTEN, dauer / 1000000, wechsel.get(), erreicht);
+
+        // getrennte Clients verschwinden aus den Themen
+        clients.get(0).trenneServer();
+        warteAufAbonnenten(server, "klein", KLEIN - 1);
+        System.out.printf("%-18s nach Trennen von client0: Abonnenten klein %d, gerade %d%n",
+                mode, server.gibAnzahlAbonnenten("klein"), server.gibAnzahlAbonnenten("gerade"));
+
+        for (NetworkClient client : clients.subList(1, clients.size())) {
+            client.trenneServer();
+        }
+        server.stoppeServer();
+        Thread.sleep(300);
+    }
+
+    private static void warteAufAbonnenten(MultiServer server, String thema, int anzahl) throws InterruptedException {
+        long ende = System.currentTimeMillis() + 5000;
+        while (server.gibAnzahlAbonnenten(thema) != anzahl && System.currentTimeMillis() < ende) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static void warteAufEmpfang(AtomicInteger[] empfangen, int anzahl) throws InterruptedException {
+        long ende = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < ende) {
+            int summe = 0;
+            for (AtomicInteger zaehler : empfangen) {
+                summe += zaehler.get();
+            }
+            if (summe >= anzahl) {
+                return;
+            }
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerUeberlastListener;
+import netzwerkkommunikation.MultiServer.Ueberlast;
+import netzwerkkommunikation.NetworkClient;
+
+/**
+ * Prüft die Zulassung des Servers in beiden Betriebsarten: Über der
+ * Höchstzahl werden Verbindungen abgelehnt, ein Client flutet den Server,
+ * während ein anderer in festen Abständen sendet, und ein Client sendet eine
+ * zu lange Zeile. Ausgegeben werden die gemeldeten Überlasten, die beim
+ * Listener angekommenen Nachrichten des flutenden Clients und die Latenz des
+ * anderen Clients mit und ohne Flut.
+ * Argumente: Nachrichten der Flut, Nachrichten je Sekunde und Client.
+ *
+ * @author jschmitt
+ */
+public class UeberlastTest {
+
+    private static final int PORT = 3461;
+    private static final int MAX_VERBINDUNGEN = 4;
+
+    private static final ConcurrentHashMap<Ueberlast, AtomicInteger> gemeldet
+            = new ConcurrentHashMap<Ueberlast, AtomicInteger>();
+    private static final AtomicInteger vonFlut = new AtomicInteger();
+    private static final AtomicInteger vonRuhig = new AtomicInteger();
+    private static final AtomicLong latenzSumme = new AtomicLong();
+    private static final AtomicLong latenzMax = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int flut = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        System.out.println("--------------------------------------------");
+        for (MultiServer.Mode mode : MultiServer.Mode.values()) {
+            gemeldet.clear();
+            vonFlut.set(0);
+            MultiServer server = new MultiServer("UeberlastTest", new ServerUeberlastListener() {
+                @Override
+                public void getMessage(String clientName, String message) {
+                    if (clientName.equals("flut")) {
+                        vonFlut.incrementAndGet();
+                    } else if (clientName.equals("ruhig")) {
+                        long latenz = System.nanoTime() - Long.parseLong(message);
+                        vonRuhig.incrementAndGet();
+                        latenzSumme.addAndGet(latenz);
+                        long max;
+                        while (latenz > (max = latenzMax.get()) && !latenzMax.compareAndSet(max, latenz)) {
+                        }
+                    }
+                }
+
+                @Override
+                public void getUeberlast(String clientName, Ueberlast grund) {
+                    AtomicInteger zaehler = gemeldet.get(grund);
+                    if (zaehler == null) {
+                        gemeldet.putIfAbsent(grund, new AtomicInteger());
+                        zaehler = gemeldet.get(grund);
+                    }
+                    zaehler.incrementAndGet();
+                }
+            }, mode);
+            server.setzeAnkuendigung(false);
+            server.setzeMetrikRegistry(null);
+            server.setzePorts(PORT, 19961);
+            server.setzeZulassung(MAX_VERBINDUNGEN, 1024);
+            server.setzeEingangsrate(rate, 0, 0, 0);
+            server.starteServer();
+            Thread.sleep(300);
+
+            NetworkClient ruhig = verbinden("ruhig");
+            NetworkClient flutend = verbinden("flut");
+            NetworkClient lang = verbinden("lang");
+            Thread.sleep(200);
+            // drei von vier Plätzen sind belegt, nur der erste weitere wird angenommen
+            NetworkClient[] weitere = new NetworkClient[3];
+            for (int i = 0; i < weitere.length; i++) {
+                weitere[i] = verbinden("weiterer" + i);
+            }
+            Thread.sleep(300);
+
+            messeRuhig(ruhig);
+            long ohneFlut = latenzMax.get();
+            long ohneFlutMittel = latenzSumme.get() / Math.max(1, vonRuhig.get());
+
+            // Flut neben dem ruhigen Client
+            long start = System.nanoTime();
+            Thread flutThread = new Thread(new Flut(flutend, flut));
+            flutThread.start();
+            messeRuhig(ruhig);
+            flutThread.join();
+            long dauer = Math.max(1, (System.nanoTime() - start) / 1000000);
+            Thread.sleep(300);
+
+            StringBuilder zeile = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                zeile.append('x');
+            }
+            lang.sendeNachricht(zeile.toString());
+            Thread.sleep(300);
+
+            System.out.println(String.format("%-18s Verbindungen abgelehnt %d, Flut angekommen %d von %d in %d ms"
+                    + " (erlaubt etwa %d), verworfen %d",
+                    mode, server.gibMetriken().getAbgelehnteVerbindungen(), vonFlut.get(), flut, dauer,
+                    rate + rate * dauer / 1000, server.gibMetriken().getVerworfeneNachrichten()));
+            System.out.println(String.format("%-18s Latenz ruhig ohne Flut max %d µs (Mittel %d µs),"
+                    + " mit Flut max %d µs (Mittel %d µs)",
+                    mode, ohneFlut / 1000, ohneFlutMittel / 1000, latenzMax.get() / 1000,
+                    latenzSumme.get() / Math.max(1, vonRuhig.get()) / 1000));
+            System.out.println(String.format("%-18s gemeldet %s, zu lang getrennt %d",
+                    mode, gemeldet, server.gibMetriken().getZuLangeNachrichten()));
+
+            ruhig.trenneServer();
+            flutend.trenneServer();
+            lang.trenneServer();
+            for (NetworkClient client : weitere) {
+                client.trenneServer();
+            }
+            server.stoppeServer();
+            Thread.sleep(500);
+        }
+        System.out.println("--------------------------------------------");
+        System.exit(0);
+    }
+
+    private static NetworkClient verbinden(String name) {
+        NetworkClient client = new NetworkClient(name, "UeberlastTest");
+        client.verbindeMitServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT));
+        return client;
+    }
+
+    /**
+     * Sendet 100 Zeitstempel im Abstand von 5 ms
+     */
+    private static void messeRuhig(NetworkClient ruhig) throws InterruptedException {
+        vonRuhig.set(0);
+        latenzSumme.set(0);
+        latenzMax.set(0);
+        for (int i = 0; i < 100; i++) {
+            ruhig.sendeNachricht(Long.toString(System.nanoTime()));
+            Thread.sleep(5);
+        }
+        Thread.sleep(100);
+    }
+
+    /**
+     * Sendet so schnell wie möglich
+     */
+    private static final class Flut implements Runnable {
+
+        private final NetworkClient client;
+        private final int anzahl;
+
+        Flut(NetworkClient client, int anzahl) {
+            this.client = client;
+            this.anzahl = anzahl;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < anzahl; i++) {
+                client.sendeNachricht("Flut " + i);
+            }
+        }
+    }
+}
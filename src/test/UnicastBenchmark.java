@@ -0,0 +1,119 @@
+package test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+
+/**
+ * Misst die Dauer von MultiServer.sendeNachricht in Abhängigkeit von der
+ * Anzahl registrierter Clients. Als Ziel dient der zuletzt verbundene Client;
+ * zusätzlich wird ein nicht existierender Name gesucht. Die Clientanzahlen
+ * können als Argumente übergeben werden (Standard: 10 1000 10000). Je Client
+ * werden zwei Dateideskriptoren benötigt.
+ *
+ * @author jschmitt
+ */
+public class UnicastBenchmark implements ServerListener {
+
+    private static final int DURCHLAEUFE = 100000;
+
+    private final AtomicInteger angemeldet = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        int[] anzahlen = {10, 1000, 10000};
+        if (args.length > 0) {
+            anzahlen = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                anzahlen[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int anzahl : anzahlen) {
+            new UnicastBenchmark().messe(anzahl);
+        }
+    }
+
+    @Override
+    public void getMessage(String clientName, String message) {
+        angemeldet.incrementAndGet();
+    }
+
+    private void messe(int anzahl) throws Exception {
+        MultiServer server = new MultiServer("UnicastBenchmark", this, MultiServer.Mode.NIO);
+        server.starteServer();
+        Thread.sleep(500);
+
+        Socket[] sockets = new Socket[anzahl];
+        int verbunden = 0;
+        try {
+            for (; verbunden < anzahl; verbunden++) {
+                sockets[verbunden] = new Socket(InetAddress.getLoopbackAddress(), 3333);
+                PrintWriter writer = new PrintWriter(sockets[verbunden].getOutputStream());
+                writer.println("#client" + verbunden);
+                writer.println("angemeldet");
+                writer.flush();
+            }
+        } catch (IOException ex) {
+            System.out.println("Nur " + verbunden + " Verbindungen möglich: " + ex);
+        }
+        long ende = System.currentTimeMillis() + 60000;
+        while (angemeldet.get() < verbunden && System.currentTimeMillis() < ende) {
+            Thread.sleep(10);
+        }
+
+        // Ziel liest alle Nachrichten, damit der Socketpuffer nicht volläuft
+        final InputStream ziel = sockets[verbunden - 1].getInputStream();
+        Thread leser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] puffer = new byte[65536];
+                try {
+                    while (ziel.read(puffer) >= 0) {
+                    }
+                } catch (IOException ex) {
+                }
+            }
+        });
+        leser.start();
+
+        String zielName = "Client" + (verbunden - 1);
+        long[] treffer = messe(server, zielName);
+        long[] fehlschlag = messe(server, "unbekannt");
+
+        System.out.println("--------------------------------------------");
+        System.out.println("Registrierte Clients: " + angemeldet.get());
+        System.out.println("sendeNachricht an " + zielName + ": Mittel " + treffer[0] + " ns, p99 " + treffer[1] + " ns");
+        System.out.println("sendeNachricht an unbekannt: Mittel " + fehlschlag[0] + " ns, p99 " + fehlschlag[1] + " ns");
+        System.out.println("--------------------------------------------");
+
+        for (int i = 0; i < verbunden; i++) {
+            sockets[i].close();
+        }
+        server.stoppeServer();
+    }
+
+    /**
+     * @return Mittelwert und 99. Perzentil in ns
+     */
+    private static long[] messe(MultiServer server, String clientName) {
+        // Aufwärmen
+        for (int i = 0; i < DURCHLAEUFE / 10; i++) {
+            server.sendeNachricht("x", clientName);
+        }
+        long[] dauer = new long[DURCHLAEUFE];
+        long summe = 0;
+        for (int i = 0; i < DURCHLAEUFE; i++) {
+            long start = System.nanoTime();
+            server.sendeNachricht("x", clientName);
+            dauer[i] = System.nanoTime() - start;
+            summe += dauer[i];
+        }
+        Arrays.sort(dauer);
+        return new long[]{summe / DURCHLAEUFE, dauer[DURCHLAEUFE * 99 / 100]};
+    }
+}
@@ -0,0 +1,168 @@
+package test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import netzwerkkommunikation.MultiServer;
+import netzwerkkommunikation.MultiServer.ServerListener;
+import netzwerkkommunikation.NetworkClient;
+import netzwerkkommunikation.NetworkClient.ClientListener;
+import netzwerkkommunikation.NetworkClient.ConnectionListener;
+
+/**
+ * Prüft die Wiederverbindung mit Fortsetzen der Sitzung im Text- und
+ * Binärmodus: Server und Client senden sich gleichzeitig nummerierte
+ * Nachrichten. Der Client hält seinen Empfang einmal an, bis der Server ihn
+ * als zu langsam trennt; die Verbindung bricht dabei mitten im Austausch ab.
+ * Ausgegeben werden die Ereignisse der Verbindung sowie fehlende, doppelte
+ * und vertauschte Nachrichten in beiden Richtungen.
+ * Argument: Nachrichten je Richtung.
+ *
+ * @author jschmitt
+ */
+public class WiederverbindungTest {
+
+    private static final String POLSTER = new String(new char[200]).replace('\0', 'x');
+
+    public static void main(String[] args) throws Exception {
+        final int anzahl = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final Pruefung beimServer = new Pruefung();
+
+        MultiServer server = new MultiServer("WiederTest", new ServerListener() {
+            @Override
+            public void getMessage(String clientName, String message) {
+                beimServer.pruefen(message);
+            }
+        }, MultiServer.Mode.NIO);
+        server.setzeAnkuendigung(false);
+        server.setzeAusgangspuffer(256, MultiServer.OverflowPolicy.DISCONNECT);
+        server.setzeSitzungen(anzahl, 10000);
+        server.starteServer();
+        Thread.sleep(300);
+
+        System.out.println("--------------------------------------------");
+        for (boolean binaer : new boolean[]{false, true}) {
+            String art = binaer ? "binär" : "text";
+            beimServer.zuruecksetzen();
+            final Pruefung beimClient = new Pruefung();
+            final CountDownLatch angehalten = new CountDownLatch(1);
+            final AtomicInteger getrennt = new AtomicInteger();
+            final AtomicInteger fortgesetzt = new AtomicInteger();
+
+            NetworkClient client = new NetworkClient("wieder", "WiederTest");
+            client.setzeBinaermodus(binaer);
+            client.setzeWiederverbindung(anzahl, 10000);
+            client.setzeListener(new ClientListener() {
+                @Override
+                public void getMessage(String message) {
+                    if (beimClient.pruefen(message) == anzahl / 4 && angehalten.getCount() > 0) {
+                        // Empfang anhalten, bis der Server trennt
+                        angehalten.countDown();
+                        try {
+                            Thread.sleep(1500);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            });
+            client.setzeVerbindungsListener(new ConnectionListener() {
+                @Override
+                public void getrennt() {
+                    getrennt.incrementAndGet();
+                }
+
+                @Override
+                public void wiederverbunden(boolean sitzung) {
+                    if (sitzung) {
+                        fortgesetzt.incrementAndGet();
+                    }
+                }
+
+                @Override
+                public void aufgegeben() {
+                    System.out.println("Wiederverbindung aufgegeben");
+                }
+            });
+            client.verbindeMitServer();
+            Thread.sleep(200);
+
+            long start = System.nanoTime();
+            Thread senden = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 1; i <= anzahl; i++) {
+                        client.sendeNachricht(i + " " + POLSTER);
+                    }
+                }
+            });
+            senden.start();
+            for (int i = 1; i <= anzahl; i++) {
+                if (!server.sendeNachricht(i + " " + POLSTER, "wieder")) {
+                    beimClient.abgelehnt.incrementAndGet();
+                }
+            }
+            senden.join();
+            beimServer.warten(anzahl, 15000);
+            beimClient.warten(anzahl, 15000);
+            long dauer = (System.nanoTime() - start) / 1000000;
+
+            System.out.println(art + ": getrennt " + getrennt.get() + "x, fortgesetzt " + fortgesetzt.get()
+                    + "x, Dauer " + dauer + " ms");
+            System.out.println(art + ": Client -> Server " + beimServer.ergebnis(anzahl));
+            System.out.println(art + ": Server -> Client " + beimClient.ergebnis(anzahl));
+            System.out.println(art + ": nicht wiederholbar " + client.gibMetriken().getNichtWiederholbar()
+                    + ", Wiederverbindungen " + client.gibMetriken().getWiederverbindungen());
+            client.trenneServer();
+            Thread.sleep(200);
+        }
+        System.out.println("--------------------------------------------");
+        server.stoppeServer();
+        System.exit(0);
+    }
+
+    /**
+     * Prüft, ob nummerierte Nachrichten lückenlos und in der gesendeten
+     * Reihenfolge ankommen
+     */
+    private static final class Pruefung {
+
+        private final AtomicInteger abgelehnt = new AtomicInteger();
+        private int letzte = 0;
+        private int doppelt = 0;
+        private int fehlend = 0;
+
+        synchronized void zuruecksetzen() {
+            letzte = 0;
+            doppelt = 0;
+            fehlend = 0;
+        }
+
+        /**
+         * @return Nummer der Nachricht
+         */
+        synchronized int pruefen(String message) {
+            int nummer = Integer.parseInt(message.substring(0, message.indexOf(' ')));
+            if (nummer <= letzte) {
+                doppelt++;
+            } else {
+                fehlend += nummer - letzte - 1;
+                letzte = nummer;
+            }
+            notifyAll();
+            return nummer;
+        }
+
+        synchronized void warten(int anzahl, long millis) throws InterruptedException {
+            long ende = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            while (letzte < anzahl && System.nanoTime() < ende) {
+                wait(100);
+            }
+        }
+
+        synchronized String ergebnis(int anzahl) {
+            return "letzte " + letzte + "/" + anzahl + ", fehlend " + (fehlend + anzahl - letzte)
+                    + ", doppelt " + doppelt + ", abgelehnt " + abgelehnt.get();
+        }
+    }
+}